@@ -129,6 +129,7 @@ public class LocationProgramActivity extends Activity {
             Intent i = new Intent(LocationProgramActivity.this, SessionDetailsActivity.class)
                   .addFlags(Intent.FLAG_ACTIVITY_REORDER_TO_FRONT);
             i.putExtra("session", item1);
+            i.putExtra("locationName", location.getName());
             startActivity(i);
          } else {
             throw new IllegalStateException("Unexpected item type!");
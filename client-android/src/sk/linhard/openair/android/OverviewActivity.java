@@ -104,7 +104,7 @@ public class OverviewActivity extends Activity {
             OverviewDataSessionItem item1 = (OverviewDataSessionItem) item;
             View view = LayoutInflater.from(getContext()).inflate(R.layout.overview_row_location, parent, false);
             TextView textOverviewLocation = (TextView) view.findViewById(R.id.textOverviewLocation);
-            textOverviewLocation.setText(item1.getLocation().getName());
+            textOverviewLocation.setText(item1.getLocationName());
             return view;
          } else if (item.getClass() == Session.class) {
             Session item1 = (Session) item;
@@ -123,6 +123,18 @@ public class OverviewActivity extends Activity {
 
       }
 
+      /**
+       * Name of the location of the session at the position, taken from the location item above it.
+       */
+      private String getLocationName(int position) {
+         for (int i = position - 1; i >= 0; i--) {
+            if (getItem(i).getClass() == OverviewDataSessionItem.class) {
+               return ((OverviewDataSessionItem) getItem(i)).getLocationName();
+            }
+         }
+         return null;
+      }
+
       @Override
       public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
          Object item = getItem(position);
@@ -137,6 +149,7 @@ public class OverviewActivity extends Activity {
             Intent i = new Intent(OverviewActivity.this, SessionDetailsActivity.class)
                   .addFlags(Intent.FLAG_ACTIVITY_REORDER_TO_FRONT);
             i.putExtra("session", item1);
+            i.putExtra("locationName", getLocationName(position));
             startActivity(i);
          } else {
             throw new IllegalStateException("Unexpected item type!");
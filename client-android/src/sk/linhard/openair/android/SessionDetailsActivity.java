@@ -41,6 +41,8 @@ public class SessionDetailsActivity extends Activity {
       setContentView(R.layout.sessiondetails);
       app = (OpenAirApplication) getApplication();
       session = (Session) getIntent().getExtras().get("session");
+      // the session is a serialized copy, its day program may link to the location of an older version
+      String locationName = getIntent().getExtras().getString("locationName");
       textSessionDetails = (TextView) findViewById(R.id.textSessionDetails);
       StringBuffer s = new StringBuffer(session.getName());
       s.append("\n\nStart: ");
@@ -48,7 +50,7 @@ public class SessionDetailsActivity extends Activity {
       s.append(" ");
       s.append(app.getDayString(session.getStart()));
       s.append("\nLocation: ");
-      s.append(session.getLocation().getName());
+      s.append(locationName);
       s.append("\n\n");
       if (session.getMetadata() != null && session.getMetadata().getDescription() != null) {
          s.append(session.getMetadata().getDescription());
@@ -20,6 +20,7 @@
 package sk.linhard.openair.displaymodel;
 
 import sk.linhard.openair.eventmodel.Location;
+import sk.linhard.openair.eventmodel.LocationView;
 import sk.linhard.openair.eventmodel.Session;
 
 /**
@@ -32,7 +33,8 @@ public class OverviewDataSessionItem {
    private Session[] sessions;
    private boolean active;
    private OverviewData parent;
-   private Location location;
+   private LocationView location;
+   private Location reducedLocation;
 
    public Session[] getSessions() {
       return sessions;
@@ -65,17 +67,33 @@ public class OverviewDataSessionItem {
       parent = someParent;
    }
 
-   public Location getLocation() {
+   public LocationView getLocationView() {
       return location;
    }
 
-   public void setLocation(Location someLocation) {
+   /**
+    * @return the location with only the day programs and sessions of the version of the overview,
+    *         copied the first time it's asked for.
+    */
+   public Location getLocation() {
+      if (reducedLocation == null && location != null) {
+         reducedLocation = location.getReducedLocation();
+      }
+      return reducedLocation;
+   }
+
+   public String getLocationName() {
+      return location.getName();
+   }
+
+   public void setLocation(LocationView someLocation) {
       location = someLocation;
+      reducedLocation = null;
    }
 
    @Override
    public String toString() {
-      StringBuffer sb = new StringBuffer(location.getName());
+      StringBuffer sb = new StringBuffer(getLocationName());
       sb.append("\n");
       for (Session session : sessions) {
          sb.append(session.getFormattedStartTime());
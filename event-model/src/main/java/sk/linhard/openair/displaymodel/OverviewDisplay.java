@@ -20,14 +20,14 @@
 package sk.linhard.openair.displaymodel;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 import org.joda.time.DateTime;
 
-import sk.linhard.openair.eventmodel.DayProgram;
+import sk.linhard.openair.eventmodel.DayProgramView;
 import sk.linhard.openair.eventmodel.Event;
-import sk.linhard.openair.eventmodel.Location;
+import sk.linhard.openair.eventmodel.EventView;
+import sk.linhard.openair.eventmodel.LocationView;
 import sk.linhard.openair.eventmodel.Session;
 
 /**
@@ -40,23 +40,11 @@ import sk.linhard.openair.eventmodel.Session;
 public class OverviewDisplay {
 
    private Event event;
-   private Event eventNewVersion;
 
    public OverviewDisplay(Event anEvent) {
       event = anEvent;
    }
 
-   private Event getEventNewVersion() {
-      if (eventNewVersion == null && event != null) {
-         eventNewVersion = event.getReducedVersion(false);
-      }
-      return eventNewVersion;
-   }
-
-   private Location mapToNewVersion(String aLocation) {
-      return getEventNewVersion().findLocation(aLocation);
-   }
-
    /**
     * Finds the minimal day from collection of day programs.
     * 
@@ -64,12 +52,12 @@ public class OverviewDisplay {
     *           Day program array, may contain nulls.
     * @return minimal day or null if there is no program left.
     */
-   private DateTime getMinDayDate(DayProgram[] dayPrograms) {
+   private DateTime getMinDayDate(DayProgramView[] dayPrograms) {
       if (dayPrograms == null || dayPrograms.length == 0) {
          return null;
       }
       DateTime result = null;
-      for (DayProgram dp : dayPrograms) {
+      for (DayProgramView dp : dayPrograms) {
          if (dp != null) {
             if (result == null) {
                result = dp.getDayStart();
@@ -83,40 +71,41 @@ public class OverviewDisplay {
       return result;
    }
 
-   private DayProgram[] getFirstRelevantDayPrograms(Location[] locations, DateTime aTime) {
-      DayProgram[] result = new DayProgram[locations.length];
+   private DayProgramView[] getFirstRelevantDayPrograms(LocationView[] locations, DateTime aTime) {
+      DayProgramView[] result = new DayProgramView[locations.length];
       for (int i = 0; i < locations.length; i++) {
          result[i] = locations[i].getFirstRelevantDayProgram(aTime);
       }
       return result;
    }
 
-   private Location[] getMappedLocations(String[] someLocations) {
-      Location[] mapped = new Location[someLocations.length];
+   private LocationView[] getMappedLocations(String[] someLocations) {
+      EventView actual = event.getActualView();
+      LocationView[] mapped = new LocationView[someLocations.length];
       for (int i = 0; i < someLocations.length; i++) {
-         mapped[i] = mapToNewVersion(someLocations[i]);
+         mapped[i] = actual.findLocation(someLocations[i]);
       }
       return mapped;
    }
 
    public OverviewData getData(DateTime aTime, int maxSessionCount, String[] someLocations,
          int nextDayProgramNoticePeriod) {
-      Location[] locations = getMappedLocations(someLocations);
-      DayProgram[] dayPrograms = getFirstRelevantDayPrograms(locations, aTime);
+      LocationView[] locations = getMappedLocations(someLocations);
+      DayProgramView[] dayPrograms = getFirstRelevantDayPrograms(locations, aTime);
       OverviewData result = new OverviewData();
       List<OverviewDataSessionItem> items = new ArrayList<OverviewDataSessionItem>();
       DateTime minday = getMinDayDate(dayPrograms);
       DateTime nextDisplayChange = null;
       for (int i = 0; i < dayPrograms.length; i++) {
-         DayProgram dp = dayPrograms[i];
+         DayProgramView dp = dayPrograms[i];
          OverviewDataSessionItem item = new OverviewDataSessionItem();
          if (dp != null && dp.getDayStart().equals(minday)) {
             item.setActive(true);
-            Session[] relp = dp.getRelevantSessions(aTime);
-            if (relp.length > maxSessionCount) {
-               relp = Arrays.copyOfRange(relp, 0, maxSessionCount);
+            List<Session> relp = dp.getRelevantSessionView(aTime);
+            if (relp.size() > maxSessionCount) {
+               relp = relp.subList(0, maxSessionCount);
             }
-            item.setSessions(relp);
+            item.setSessions(relp.toArray(new Session[relp.size()]));
             if (nextDisplayChange == null) {
                nextDisplayChange = getNextChange(dp, aTime);
             } else {
@@ -142,7 +131,7 @@ public class OverviewDisplay {
       return result;
    }
 
-   private void setLocationOverviewDateNotice(DateTime minday, OverviewData aData, DayProgram[] dayPrograms,
+   private void setLocationOverviewDateNotice(DateTime minday, OverviewData aData, DayProgramView[] dayPrograms,
          int nextDayProgramNoticePeriod) {
       DateTime endOfPreviousDay = getEndOfPreviousDayMax(minday, dayPrograms);
       DateTime dateNoticeSwitchOff = endOfPreviousDay == null ? null : endOfPreviousDay
@@ -171,22 +160,21 @@ public class OverviewDisplay {
       }
    }
 
-   private DateTime getEndOfPreviousDayMax(DateTime minday, DayProgram[] dayPrograms) {
-      DateTime endOfPreviousDay = null;
+   private DateTime getEndOfPreviousDayMax(DateTime minday, DayProgramView[] dayPrograms) {
+      Session lastOfPreviousDay = null;
       for (int i = 0; i < dayPrograms.length; i++) {
-         DayProgram dp = dayPrograms[i];
+         DayProgramView dp = dayPrograms[i];
          if (dp != null && dp.getDayStart().equals(minday)) {
-            DayProgram prevDp = dp.getPreviousProgram();
+            DayProgramView prevDp = dp.getPreviousProgram();
             if (prevDp != null) {
-               if (endOfPreviousDay == null) {
-                  endOfPreviousDay = prevDp.getLastSession().getEnd();
-               } else if (prevDp.getLastSession().getEnd().isAfter(endOfPreviousDay)) {
-                  endOfPreviousDay = prevDp.getLastSession().getEnd();
+               Session last = prevDp.getLastSession();
+               if (lastOfPreviousDay == null || last.getEndMillis() > lastOfPreviousDay.getEndMillis()) {
+                  lastOfPreviousDay = last;
                }
             }
          }
       }
-      return endOfPreviousDay;
+      return lastOfPreviousDay == null ? null : lastOfPreviousDay.getEnd();
    }
 
    /**
@@ -197,11 +185,11 @@ public class OverviewDisplay {
     *           Current time.
     * @return time of next change or null
     */
-   private DateTime getNextChange(DayProgram dp, DateTime aTime) {
+   private DateTime getNextChange(DayProgramView dp, DateTime aTime) {
       if (!dp.hasRelevantSessions(aTime)) {
          return null;
       }
-      Session relp = dp.getRelevantSessions(aTime)[0];
+      Session relp = dp.getRelevantSessionView(aTime).get(0);
       if (relp.isRunning(aTime)) {
          return relp.getEnd();
       }
@@ -0,0 +1,45 @@
+/*
+ * OpenAir Event Program Model
+ * Copyright (C) 2012 Michal Linhard <michal@linhard.sk>
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package sk.linhard.openair.eventmodel;
+
+/**
+ * Loads the children of model objects on demand. Used by lazily decoded snapshots: the model
+ * object calls its loader once, the first time its children are needed, and forgets it before
+ * the call, so the loader can fill the object through its ordinary add methods.
+ *
+ * @author Michal Linhard <michal@linhard.sk>
+ */
+public interface ContentLoader {
+
+   /**
+    * Adds the locations to the event.
+    */
+   void loadLocations(Event event);
+
+   /**
+    * Adds the day programs to the location.
+    */
+   void loadDayPrograms(Location location);
+
+   /**
+    * Adds the sessions to the day program.
+    */
+   void loadSessions(DayProgram dayProgram);
+}
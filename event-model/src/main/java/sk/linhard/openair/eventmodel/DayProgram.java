@@ -19,25 +19,82 @@
  */
 package sk.linhard.openair.eventmodel;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
-import java.util.ArrayList;
+import java.util.AbstractList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
 
 import org.joda.time.DateTime;
 import org.joda.time.Duration;
 
+import sk.linhard.openair.eventmodel.exceptions.EventModelException;
+
 /**
  * Day program is a collection of sessions for a certain location on a certain day.
  * 
+ * The sessions are kept sorted by start, sessions starting at the same time in the order they
+ * were added. The relevance queries search the sorted sessions by binary search as long as the
+ * sessions also end in the order they start, which is the case for a program of one location.
+ * 
  * @author Michal Linhard <michal@linhard.sk>
  */
 public class DayProgram implements Iterable<Session>, Serializable {
+   private static final Comparator<Session> START_ORDER = new Comparator<Session>() {
+      @Override
+      public int compare(Session o1, Session o2) {
+         long s1 = o1.getStartMillis();
+         long s2 = o2.getStartMillis();
+         return s1 < s2 ? -1 : (s1 == s2 ? 0 : 1);
+      }
+   };
+
    private DateTime dayStart;
    private Session[] sessions;
+   // times and flags of the sessions
+   private SessionColumns columns;
 
    private Location location;
+   private transient ContentLoader contentLoader;
+   // computed from the sessions when needed
+   private transient boolean endsKnown;
+   private transient boolean endsSorted;
+   private transient long maxEnd;
+   private transient boolean frozen;
+
+   /**
+    * Unmodifiable view of a range of the session array.
+    */
+   static class SessionRange extends AbstractList<Session> implements RandomAccess {
+      private final Session[] sessions;
+      private final int from;
+      private final int to;
+
+      SessionRange(Session[] someSessions, int aFrom, int aTo) {
+         sessions = someSessions;
+         from = aFrom;
+         to = aTo;
+      }
+
+      @Override
+      public Session get(int index) {
+         if (index < 0 || index >= to - from) {
+            throw new IndexOutOfBoundsException(Integer.toString(index));
+         }
+         return sessions[from + index];
+      }
+
+      @Override
+      public int size() {
+         return to - from;
+      }
+   }
 
    private class SessionIterator implements Iterator<Session> {
       private int currentPos = 0;
@@ -68,14 +125,21 @@ public class DayProgram implements Iterable<Session>, Serializable {
    }
 
    public Session addSession(Session session) {
+      checkNotFrozen();
+      ensureLoaded();
       session.setDayProgram(this);
-      if (sessions == null) {
-         sessions = new Session[] { session };
-         return session;
+      if (columns == null) {
+         columns = newColumns(4);
+      }
+      if (session.getColumns() != columns) {
+         session.bind(columns, columns.add(session.getColumns(), session.getRow()));
+      }
+      endsKnown = false;
+      sessions = sessions == null ? new Session[] { session } : insert(sessions, session);
+      Event event = getEvent();
+      if (event != null) {
+         event.sessionAdded(session);
       }
-      Session[] newsessions = Arrays.copyOf(sessions, sessions.length + 1);
-      newsessions[sessions.length] = session;
-      sessions = newsessions;
 
       // TODO: validation on overlay
       // this is where the logic happens, it takes into consideration whether the session is cancelled and other
@@ -93,6 +157,7 @@ public class DayProgram implements Iterable<Session>, Serializable {
 
    @Override
    public Iterator<Session> iterator() {
+      ensureLoaded();
       return new SessionIterator();
    }
 
@@ -105,13 +170,17 @@ public class DayProgram implements Iterable<Session>, Serializable {
     * @return True if this program has any relevant performances.
     */
    public boolean hasRelevantSessions(DateTime aTime) {
-      // if the last performance in a chronological list is not relevant
-      // then all preceeding performances are also irrelevant.
-      // therefore it is sufficient to check if the last performance is relevant
-      return getLastSession().isRelevant(aTime);
+      ensureLoaded();
+      if (sessions == null) {
+         return false;
+      }
+      // the latest end is relevant if any end is
+      computeEnds();
+      return aTime.getMillis() < maxEnd;
    }
 
    public Session getLastSession() {
+      ensureLoaded();
       return sessions[sessions.length - 1];
    }
 
@@ -124,31 +193,174 @@ public class DayProgram implements Iterable<Session>, Serializable {
     * @return List of performances. May be empty.
     */
    public Session[] getRelevantSessions(DateTime aTime) {
-      List<Session> result = new ArrayList<Session>();
-      for (Session session : this) {
-         if (session.isRelevant(aTime)) {
-            result.add(session);
+      ensureLoaded();
+      if (sessions == null) {
+         return new Session[0];
+      }
+      long time = aTime.getMillis();
+      computeEnds();
+      if (endsSorted) {
+         return Arrays.copyOfRange(sessions, firstRelevant(time), sessions.length);
+      }
+      int cnt = 0;
+      for (int i = 0; i < sessions.length; i++) {
+         if (sessions[i].getColumns().isRelevant(sessions[i].getRow(), time)) {
+            cnt++;
          }
       }
-      return result.toArray(new Session[result.size()]);
+      Session[] result = new Session[cnt];
+      cnt = 0;
+      for (int i = 0; i < sessions.length; i++) {
+         if (sessions[i].getColumns().isRelevant(sessions[i].getRow(), time)) {
+            result[cnt++] = sessions[i];
+         }
+      }
+      return result;
    }
 
+   /**
+    * Returns the relevant sessions like {@link #getRelevantSessions(DateTime)} as unmodifiable
+    * list. The list is a view of the sessions of the day when they end in the order they start,
+    * otherwise a copy.
+    * 
+    * @param aTime
+    *           Current time.
+    * @return Relevant sessions ordered by start. May be empty.
+    */
+   public List<Session> getRelevantSessionView(DateTime aTime) {
+      ensureLoaded();
+      if (sessions == null) {
+         return Collections.emptyList();
+      }
+      computeEnds();
+      if (endsSorted) {
+         return new SessionRange(sessions, firstRelevant(aTime.getMillis()), sessions.length);
+      }
+      Session[] relevant = getRelevantSessions(aTime);
+      return new SessionRange(relevant, 0, relevant.length);
+   }
+
+   /**
+    * Index of the first session ending after the time, the sessions must end in the order they
+    * start.
+    */
+   private int firstRelevant(long time) {
+      int low = 0;
+      int high = sessions.length;
+      while (low < high) {
+         int mid = (low + high) >>> 1;
+         if (sessions[mid].getEndMillis() > time) {
+            high = mid;
+         } else {
+            low = mid + 1;
+         }
+      }
+      return low;
+   }
+
+   private void computeEnds() {
+      if (endsKnown) {
+         return;
+      }
+      boolean sorted = true;
+      long max = Long.MIN_VALUE;
+      for (Session eachSession : sessions) {
+         long end = eachSession.getEndMillis();
+         if (end < max) {
+            sorted = false;
+         } else {
+            max = end;
+         }
+      }
+      endsSorted = sorted;
+      maxEnd = max;
+      endsKnown = true;
+   }
+
+   /**
+    * Called by the session of this day when its times change, moves it to keep the order.
+    */
+   void sessionTimesChanged(Session session) {
+      endsKnown = false;
+      if (sessions == null) {
+         return;
+      }
+      for (int i = 0; i < sessions.length; i++) {
+         if (sessions[i] == session) {
+            long start = session.getStartMillis();
+            if ((i > 0 && sessions[i - 1].getStartMillis() > start)
+                  || (i + 1 < sessions.length && sessions[i + 1].getStartMillis() < start)) {
+               // a new array, the old one may be held by the callers of getSessions
+               Session[] others = new Session[sessions.length - 1];
+               System.arraycopy(sessions, 0, others, 0, i);
+               System.arraycopy(sessions, i + 1, others, i, others.length - i);
+               sessions = insert(others, session);
+            }
+            return;
+         }
+      }
+   }
+
+   /**
+    * Returns new array with the session inserted after the sessions starting before or at the
+    * same time.
+    */
+   private static Session[] insert(Session[] someSessions, Session session) {
+      long start = session.getStartMillis();
+      int count = someSessions.length;
+      int low = 0;
+      int high = count;
+      while (low < high) {
+         int mid = (low + high) >>> 1;
+         if (someSessions[mid].getStartMillis() <= start) {
+            low = mid + 1;
+         } else {
+            high = mid;
+         }
+      }
+      Session[] result = new Session[count + 1];
+      System.arraycopy(someSessions, 0, result, 0, low);
+      result[low] = session;
+      System.arraycopy(someSessions, low, result, low + 1, count - low);
+      return result;
+   }
+
+   /**
+    * Returns the sessions sorted by start, the array itself if it's sorted already.
+    */
+   private static Session[] sorted(Session[] someSessions) {
+      for (int i = 1; i < someSessions.length; i++) {
+         if (someSessions[i - 1].getStartMillis() > someSessions[i].getStartMillis()) {
+            Session[] copy = someSessions.clone();
+            Arrays.sort(copy, START_ORDER);
+            return copy;
+         }
+      }
+      return someSessions;
+   }
+
+   /**
+    * The location the day program was made for. The day programs a version made by {@link EventEdit}
+    * didn't change are shared with the snapshot and return its location, use
+    * {@link Event#getLocation(DayProgram)} to go up in a given version.
+    */
    public Location getLocation() {
       return location;
    }
 
    public void setLocation(Location location) {
+      checkNotFrozen();
       this.location = location;
    }
 
+   /**
+    * @return The preceding day program of the location the day program was made for.
+    * @deprecated The day programs a version made by {@link EventEdit} didn't change are shared with
+    *             the snapshot and look in its location, use {@link Event#getPreviousProgram(DayProgram)}.
+    */
+   @Deprecated
    public DayProgram getPreviousProgram() {
-      DayProgram[] dps = getLocation().getDayPrograms();
-      for (int i = 1; i < dps.length; i++) {
-         if (dps[i] == this) {
-            return dps[i - 1];
-         }
-      }
-      return null;
+      return location.getPreviousProgram(this);
    }
 
    /**
@@ -164,23 +376,13 @@ public class DayProgram implements Iterable<Session>, Serializable {
     * @return old or new program version
     */
    Session[] filterSessionsVersion(boolean anOldVersion) {
+      ensureLoaded();
       if (sessions == null) {
          return new Session[0];
       }
       int cnt = 0;
       for (int i = 0; i < sessions.length; i++) {
-         Session eachP = sessions[i];
-         if (eachP.hasChanges()) {
-            if (anOldVersion) {
-               if (eachP.isOldVersion() || eachP.isCancelled()) {
-                  cnt++;
-               }
-            } else {
-               if (eachP.isNewVersion()) {
-                  cnt++;
-               }
-            }
-         } else {
+         if (sessions[i].getColumns().inVersion(sessions[i].getRow(), anOldVersion)) {
             cnt++;
          }
       }
@@ -190,32 +392,151 @@ public class DayProgram implements Iterable<Session>, Serializable {
       Session[] result = new Session[cnt];
       cnt = 0;
       for (int i = 0; i < sessions.length; i++) {
-         Session eachP = sessions[i];
-         if (eachP.hasChanges()) {
-            if (anOldVersion) {
-               if (eachP.isOldVersion() || eachP.isCancelled()) {
-                  result[cnt] = eachP;
-                  cnt++;
-               }
-            } else {
-               if (eachP.isNewVersion()) {
-                  result[cnt] = eachP;
-                  cnt++;
-               }
-            }
-         } else {
-            result[cnt] = eachP;
-            cnt++;
+         if (sessions[i].getColumns().inVersion(sessions[i].getRow(), anOldVersion)) {
+            result[cnt++] = sessions[i];
          }
       }
       return result;
    }
 
    public Session[] getSessions() {
+      ensureLoaded();
       return sessions;
    }
 
+   /**
+    * Sets the sessions, a sorted copy of the array if they're not sorted by start.
+    */
    public void setSessions(Session[] sessions) {
-      this.sessions = sessions;
+      checkNotFrozen();
+      this.contentLoader = null;
+      this.endsKnown = false;
+      this.sessions = sessions == null ? null : sorted(sessions);
+      // new columns, the sessions left out keep their rows in the old ones
+      this.columns = null;
+      if (sessions != null) {
+         columns = newColumns(sessions.length);
+         for (Session eachSession : sessions) {
+            eachSession.bind(columns, columns.add(eachSession.getColumns(), eachSession.getRow()));
+         }
+      }
+      changed();
+   }
+
+   /**
+    * Copies the day program for {@link Event#copy()}, noting the copies of the sessions. The
+    * columns are copied at once, the sessions keep their rows.
+    */
+   DayProgram copy(Location aLocation, Map<Session, Session> copies) {
+      ensureLoaded();
+      DayProgram copy = new DayProgram(dayStart);
+      copy.location = aLocation;
+      if (sessions != null) {
+         copy.columns = columns == null ? newColumns(sessions.length) : columns.copy();
+         copy.sessions = new Session[sessions.length];
+         for (int i = 0; i < sessions.length; i++) {
+            Session session = sessions[i];
+            int row = session.getColumns() == columns ? session.getRow() : copy.columns.add(session.getColumns(),
+                  session.getRow());
+            copy.sessions[i] = session.copy(copy, copy.columns, row);
+            copies.put(session, copy.sessions[i]);
+         }
+      }
+      return copy;
+   }
+
+   /**
+    * Sets sessions whose rows are already in the columns.
+    */
+   void assign(Session[] someSessions, SessionColumns someColumns) {
+      this.contentLoader = null;
+      this.endsKnown = false;
+      this.sessions = sorted(someSessions);
+      this.columns = someColumns;
+      changed();
+   }
+
+   /**
+    * Sets copies of the sessions of the day in the version, stripped of the change flags and of
+    * the links to other versions, the sessions are set to null if there are none.
+    */
+   void reduceFrom(DayProgram aDay, boolean anOldVersion) {
+      Session[] someSessions = aDay.filterSessionsVersion(anOldVersion);
+      if (someSessions == null || someSessions.length == 0) {
+         setSessions(null);
+         return;
+      }
+      SessionColumns someColumns = newColumns(someSessions.length);
+      Session[] copies = new Session[someSessions.length];
+      for (int i = 0; i < someSessions.length; i++) {
+         copies[i] = someSessions[i].reducedCopy(this, someColumns);
+      }
+      assign(copies, someColumns);
+   }
+
+   /**
+    * Makes the day program of a frozen copy of the event unchangeable, computes what the queries
+    * would compute lazily.
+    */
+   void freeze() {
+      if (sessions != null) {
+         computeEnds();
+         for (Session eachSession : sessions) {
+            eachSession.freeze();
+         }
+      }
+      frozen = true;
+   }
+
+   /**
+    * @return true if the day program is part of a frozen event and can't be changed.
+    */
+   public boolean isFrozen() {
+      return frozen;
+   }
+
+   private void checkNotFrozen() {
+      if (frozen) {
+         throw new EventModelException(EventModelException.FROZEN);
+      }
+   }
+
+   /**
+    * The event the day is part of, null if it's not part of any.
+    */
+   private Event getEvent() {
+      return location == null ? null : location.getEvent();
+   }
+
+   private void changed() {
+      Event event = getEvent();
+      if (event != null) {
+         event.dayProgramChanged(this);
+      }
+   }
+
+   private SessionColumns newColumns(int capacity) {
+      return new SessionColumns(capacity, dayStart == null ? null : dayStart.getChronology());
+   }
+
+   /**
+    * Sets the loader that adds the sessions the first time they're needed.
+    */
+   public void setContentLoader(ContentLoader aContentLoader) {
+      checkNotFrozen();
+      contentLoader = aContentLoader;
+   }
+
+   private void ensureLoaded() {
+      if (contentLoader != null) {
+         ContentLoader loader = contentLoader;
+         contentLoader = null;
+         loader.loadSessions(this);
+      }
+   }
+
+   private void writeObject(ObjectOutputStream out) throws IOException {
+      ensureLoaded();
+      out.defaultWriteObject();
    }
 }
@@ -0,0 +1,223 @@
+/*
+ * OpenAir Event Program Model
+ * Copyright (C) 2012 Michal Linhard <michal@linhard.sk>
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package sk.linhard.openair.eventmodel;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.joda.time.DateTime;
+
+/**
+ * Day program in the planned or the actual program of an event, see {@link EventView}. The
+ * sessions are sorted by start.
+ * 
+ * @author Michal Linhard <michal@linhard.sk>
+ */
+public class DayProgramView implements Iterable<Session> {
+   private final LocationView locationView;
+   private final DayProgram dayProgram;
+
+   DayProgramView(LocationView aLocationView, DayProgram aDayProgram) {
+      locationView = aLocationView;
+      dayProgram = aDayProgram;
+   }
+
+   public DayProgram getDayProgram() {
+      return dayProgram;
+   }
+
+   public LocationView getLocation() {
+      return locationView;
+   }
+
+   public DateTime getDayStart() {
+      return dayProgram.getDayStart();
+   }
+
+   private EventView getEventView() {
+      return locationView.getEventView();
+   }
+
+   @Override
+   public Iterator<Session> iterator() {
+      final Session[] sessions = dayProgram.getSessions();
+      return new Iterator<Session>() {
+         private int next = advance(0);
+
+         private int advance(int from) {
+            int i = from;
+            while (sessions != null && i < sessions.length && !getEventView().contains(sessions[i])) {
+               i++;
+            }
+            return i;
+         }
+
+         @Override
+         public boolean hasNext() {
+            return sessions != null && next < sessions.length;
+         }
+
+         @Override
+         public Session next() {
+            if (!hasNext()) {
+               throw new NoSuchElementException();
+            }
+            Session result = sessions[next];
+            next = advance(next + 1);
+            return result;
+         }
+
+         @Override
+         public void remove() {
+            throw new UnsupportedOperationException();
+         }
+      };
+   }
+
+   /**
+    * @return the sessions in the version, the array of the day program if it has no other.
+    */
+   public Session[] getSessions() {
+      Session[] sessions = dayProgram.getSessions();
+      if (sessions == null) {
+         return new Session[0];
+      }
+      return filter(sessions);
+   }
+
+   /**
+    * Returns true iff the version of this program contains any relevant sessions with respect to
+    * the given time
+    * 
+    * @param aTime
+    *           Current time.
+    * @return True if this program has any relevant sessions.
+    */
+   public boolean hasRelevantSessions(DateTime aTime) {
+      if (!dayProgram.hasRelevantSessions(aTime)) {
+         return false;
+      }
+      for (Session session : dayProgram.getRelevantSessionView(aTime)) {
+         if (getEventView().contains(session)) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   /**
+    * @return the session starting last in the version, null if there is none.
+    */
+   public Session getLastSession() {
+      Session[] sessions = dayProgram.getSessions();
+      if (sessions != null) {
+         for (int i = sessions.length - 1; i >= 0; i--) {
+            if (getEventView().contains(sessions[i])) {
+               return sessions[i];
+            }
+         }
+      }
+      return null;
+   }
+
+   /**
+    * Return all relevant sessions of the version with regard to given time.
+    * 
+    * @param aTime
+    *           Current time.
+    * @return Sessions ordered by start. May be empty.
+    */
+   public Session[] getRelevantSessions(DateTime aTime) {
+      List<Session> relevant = dayProgram.getRelevantSessionView(aTime);
+      return filter(relevant.toArray(new Session[relevant.size()]));
+   }
+
+   /**
+    * Returns the relevant sessions like {@link #getRelevantSessions(DateTime)} as unmodifiable
+    * list, the view of {@link DayProgram#getRelevantSessionView(DateTime)} if all of them are in
+    * the version.
+    * 
+    * @param aTime
+    *           Current time.
+    * @return Relevant sessions ordered by start. May be empty.
+    */
+   public List<Session> getRelevantSessionView(DateTime aTime) {
+      List<Session> relevant = dayProgram.getRelevantSessionView(aTime);
+      int count = 0;
+      for (Session session : relevant) {
+         if (getEventView().contains(session)) {
+            count++;
+         }
+      }
+      if (count == relevant.size()) {
+         return relevant;
+      }
+      Session[] result = new Session[count];
+      count = 0;
+      for (Session session : relevant) {
+         if (getEventView().contains(session)) {
+            result[count++] = session;
+         }
+      }
+      return new DayProgram.SessionRange(result, 0, result.length);
+   }
+
+   public DayProgramView getPreviousProgram() {
+      return locationView.getPreviousProgram(dayProgram);
+   }
+
+   /**
+    * Sessions of the array in the version, the array itself if they all are.
+    */
+   private Session[] filter(Session[] sessions) {
+      int count = 0;
+      for (int i = 0; i < sessions.length; i++) {
+         if (getEventView().contains(sessions[i])) {
+            count++;
+         }
+      }
+      if (count == sessions.length) {
+         return sessions;
+      }
+      Session[] result = new Session[count];
+      count = 0;
+      for (int i = 0; i < sessions.length; i++) {
+         if (getEventView().contains(sessions[i])) {
+            result[count++] = sessions[i];
+         }
+      }
+      return result;
+   }
+
+   @Override
+   public int hashCode() {
+      return locationView.hashCode() * 31 + dayProgram.hashCode();
+   }
+
+   @Override
+   public boolean equals(Object obj) {
+      if (!(obj instanceof DayProgramView)) {
+         return false;
+      }
+      DayProgramView other = (DayProgramView) obj;
+      return dayProgram == other.dayProgram && locationView.equals(other.locationView);
+   }
+}
@@ -19,18 +19,22 @@
  */
 package sk.linhard.openair.eventmodel;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 import org.joda.time.DateTime;
 
 import sk.linhard.openair.eventmodel.exceptions.EventModelException;
-import sk.linhard.openair.eventmodel.util.Util;
 
 /**
  * The root class of the model. Container for all the event program data.
@@ -46,8 +50,22 @@ public class Event implements Iterable<Location>, Serializable {
    private EventMetadata metadata;
    private Location[] locations;
    private Announcement[] announcements;
+   private transient ContentLoader contentLoader;
+   // index of the locations by name, valid for the indexed array
+   private transient HashMap<String, Location> locationsByName;
+   private transient Location[] indexedLocations;
+   // built by the first reader of a frozen event
+   private transient volatile SessionIndex sessionIndex;
+   // day programs by day start ordered by time, each list in the order of the locations
+   private transient TreeMap<DateTime, List<DayProgram>> daysByDate;
+   // the location of each day program, built with the dates
+   private transient IdentityHashMap<DayProgram, Location> locationsByDay;
+   private transient List<DateTime> dates;
+   private transient EventListener[] listeners;
+   private transient boolean frozen;
 
    public Location addLocation(String aName) {
+      checkNotFrozen();
       if (findLocation(aName) != null) {
          throw new EventModelException(EventModelException.DUPLICATE_LOCATION_NAME);
       }
@@ -55,21 +73,182 @@ public class Event implements Iterable<Location>, Serializable {
       location.setEvent(this);
       if (locations == null) {
          locations = new Location[] { location };
-         return location;
+      } else {
+         Location[] newarray = Arrays.copyOf(locations, locations.length + 1);
+         newarray[locations.length] = location;
+         if (indexedLocations == locations) {
+            locationsByName.put(aName, location);
+            indexedLocations = newarray;
+         }
+         locations = newarray;
       }
-      Location[] newarray = Arrays.copyOf(locations, locations.length + 1);
-      newarray[locations.length] = location;
-      locations = newarray;
+      programChanged();
       return location;
    }
 
    public Location findLocation(String aName) {
-      for (Location s : this) {
-         if (aName.equals(s.getName())) {
-            return s;
+      ensureLoaded();
+      if (locations == null) {
+         return null;
+      }
+      if (indexedLocations != locations) {
+         indexLocations();
+      }
+      return locationsByName.get(aName);
+   }
+
+   private void indexLocations() {
+      HashMap<String, Location> index = new HashMap<String, Location>(locations.length * 2);
+      for (Location s : locations) {
+         if (s.getName() != null && !index.containsKey(s.getName())) {
+            index.put(s.getName(), s);
+         }
+      }
+      locationsByName = index;
+      indexedLocations = locations;
+   }
+
+   /**
+    * Returns the index of the sessions by time, builds it the first time or after the arrays of
+    * the model were replaced.
+    */
+   public SessionIndex getSessionIndex() {
+      SessionIndex index = sessionIndex;
+      if (index == null) {
+         ensureLoaded();
+         index = new SessionIndex(this);
+         sessionIndex = index;
+      }
+      return index;
+   }
+
+   void invalidateSessionIndex() {
+      sessionIndex = null;
+   }
+
+   /**
+    * Registers the listener of the changes of the program. The listeners are not serialized or
+    * copied with the event.
+    */
+   public void addListener(EventListener aListener) {
+      checkNotFrozen();
+      if (listeners == null) {
+         listeners = new EventListener[] { aListener };
+      } else {
+         // a new array, a listener may remove itself while notified
+         EventListener[] newarray = Arrays.copyOf(listeners, listeners.length + 1);
+         newarray[listeners.length] = aListener;
+         listeners = newarray;
+      }
+   }
+
+   public void removeListener(EventListener aListener) {
+      if (listeners == null) {
+         return;
+      }
+      for (int i = 0; i < listeners.length; i++) {
+         if (listeners[i] == aListener) {
+            if (listeners.length == 1) {
+               listeners = null;
+            } else {
+               EventListener[] newarray = new EventListener[listeners.length - 1];
+               System.arraycopy(listeners, 0, newarray, 0, i);
+               System.arraycopy(listeners, i + 1, newarray, i, newarray.length - i);
+               listeners = newarray;
+            }
+            return;
+         }
+      }
+   }
+
+   /**
+    * Called by the day program when it adds the session.
+    */
+   void sessionAdded(Session session) {
+      if (sessionIndex != null) {
+         sessionIndex.update(session);
+      }
+      EventListener[] notified = listeners;
+      if (notified != null) {
+         for (EventListener eachListener : notified) {
+            eachListener.sessionAdded(session);
+         }
+      }
+   }
+
+   /**
+    * Called by the session when its times or versions change.
+    */
+   void sessionMoved(Session session) {
+      if (sessionIndex != null) {
+         sessionIndex.update(session);
+      }
+      EventListener[] notified = listeners;
+      if (notified != null) {
+         for (EventListener eachListener : notified) {
+            eachListener.sessionMoved(session);
+         }
+      }
+   }
+
+   /**
+    * Called by the session when it's cancelled or the cancellation is taken back.
+    */
+   void sessionCancelled(Session session) {
+      if (sessionIndex != null) {
+         sessionIndex.update(session);
+      }
+      EventListener[] notified = listeners;
+      if (notified != null) {
+         for (EventListener eachListener : notified) {
+            eachListener.sessionCancelled(session);
+         }
+      }
+   }
+
+   /**
+    * Called by the session when its name, short name or metadata change.
+    */
+   void sessionUpdated(Session session) {
+      EventListener[] notified = listeners;
+      if (notified != null) {
+         for (EventListener eachListener : notified) {
+            eachListener.sessionUpdated(session);
+         }
+      }
+   }
+
+   /**
+    * Called by the day program when its sessions are replaced.
+    */
+   void dayProgramChanged(DayProgram aDay) {
+      sessionIndex = null;
+      EventListener[] notified = listeners;
+      if (notified != null) {
+         for (EventListener eachListener : notified) {
+            eachListener.dayProgramChanged(aDay);
+         }
+      }
+   }
+
+   /**
+    * Called when the locations or the day programs of a location are added or replaced.
+    */
+   void programChanged() {
+      EventListener[] notified = listeners;
+      if (notified != null) {
+         for (EventListener eachListener : notified) {
+            eachListener.programChanged(this);
          }
       }
-      return null;
+   }
+
+   /**
+    * Drops the index of the locations by name, called when a location is renamed.
+    */
+   void invalidateLocationIndex() {
+      indexedLocations = null;
+      locationsByName = null;
    }
 
    public String getUri() {
@@ -77,6 +256,7 @@ public class Event implements Iterable<Location>, Serializable {
    }
 
    public void setUri(String uri) {
+      checkNotFrozen();
       this.uri = uri;
    }
 
@@ -85,6 +265,7 @@ public class Event implements Iterable<Location>, Serializable {
    }
 
    public void setShortName(String shortName) {
+      checkNotFrozen();
       this.shortName = shortName;
    }
 
@@ -93,6 +274,7 @@ public class Event implements Iterable<Location>, Serializable {
    }
 
    public void setVersion(Long version) {
+      checkNotFrozen();
       this.version = version;
    }
 
@@ -101,6 +283,7 @@ public class Event implements Iterable<Location>, Serializable {
    }
 
    public void setVersionTime(DateTime versionTime) {
+      checkNotFrozen();
       this.versionTime = versionTime;
    }
 
@@ -127,6 +310,7 @@ public class Event implements Iterable<Location>, Serializable {
 
    @Override
    public Iterator<Location> iterator() {
+      ensureLoaded();
       return new LocationIterator();
    }
 
@@ -135,15 +319,43 @@ public class Event implements Iterable<Location>, Serializable {
    }
 
    public void setName(String name) {
+      checkNotFrozen();
       this.name = name;
    }
 
    public Location[] getLocations() {
+      ensureLoaded();
       return locations;
    }
 
    public void setLocations(Location[] locations) {
+      checkNotFrozen();
+      this.sessionIndex = null;
+      invalidateDateIndex();
+      this.contentLoader = null;
       this.locations = locations;
+      programChanged();
+   }
+
+   /**
+    * Sets the loader that adds the locations the first time they're needed.
+    */
+   public void setContentLoader(ContentLoader aContentLoader) {
+      checkNotFrozen();
+      contentLoader = aContentLoader;
+   }
+
+   private void ensureLoaded() {
+      if (contentLoader != null) {
+         ContentLoader loader = contentLoader;
+         contentLoader = null;
+         loader.loadLocations(this);
+      }
+   }
+
+   private void writeObject(ObjectOutputStream out) throws IOException {
+      ensureLoaded();
+      out.defaultWriteObject();
    }
 
    public String getUrl() {
@@ -151,11 +363,15 @@ public class Event implements Iterable<Location>, Serializable {
    }
 
    public void setUrl(String anUrl) {
+      checkNotFrozen();
       if (metadata == null) {
          if (anUrl == null) {
             return;
          }
          metadata = new EventMetadata();
+      } else if (metadata.isFrozen()) {
+         // shared with a frozen copy
+         metadata = metadata.copy();
       }
       metadata.setUrl(anUrl);
    }
@@ -165,11 +381,15 @@ public class Event implements Iterable<Location>, Serializable {
    }
 
    public void setDescription(String aDescription) {
+      checkNotFrozen();
       if (metadata == null) {
          if (aDescription == null) {
             return;
          }
          metadata = new EventMetadata();
+      } else if (metadata.isFrozen()) {
+         // shared with a frozen copy
+         metadata = metadata.copy();
       }
       metadata.setDescription(aDescription);
    }
@@ -178,22 +398,20 @@ public class Event implements Iterable<Location>, Serializable {
       return metadata;
    }
 
-   @SuppressWarnings("unchecked")
+   /**
+    * Returns the sorted day starts of all the day programs, each once. The list is unmodifiable
+    * and kept until a day program is added or replaced.
+    */
    public List<DateTime> getDates() {
-      HashSet<DateTime> dates = new HashSet<DateTime>();
-      for (Location s : this) {
-         for (DayProgram d : s) {
-            if (!dates.contains(d.getDayStart())) {
-               dates.add(d.getDayStart());
-            }
-         }
+      ensureDateIndex();
+      if (dates == null) {
+         dates = Collections.unmodifiableList(new ArrayList<DateTime>(daysByDate.keySet()));
       }
-      List<DateTime> dateList = new ArrayList<DateTime>(dates);
-      Collections.sort(dateList);
-      return dateList;
+      return dates;
    }
 
    public String[] getLocationNames() {
+      ensureLoaded();
       String[] names = new String[locations.length];
       for (int i = 0; i < locations.length; i++) {
          names[i] = locations[i].getName();
@@ -205,15 +423,248 @@ public class Event implements Iterable<Location>, Serializable {
     * Get programs for different locations on the same day.
     */
    public List<DayProgram> getDayProgramsByDate(DateTime startDate) {
-      List<DayProgram> ret = new ArrayList<DayProgram>();
+      ensureDateIndex();
+      if (!daysByDate.containsKey(startDate)) {
+         return Collections.emptyList();
+      }
+      return daysByDate.get(startDate);
+   }
+
+   /**
+    * Returns the location of the day program in this event. Use it to go up from a day program of a
+    * version made by {@link EventEdit}: the day programs the edit didn't change are shared with the
+    * snapshot, their {@link DayProgram#getLocation()} is the location of the version they were made
+    * in.
+    * 
+    * @return The location, null if the day program is not part of the event.
+    */
+   public Location getLocation(DayProgram aDay) {
+      ensureDateIndex();
+      return locationsByDay.get(aDay);
+   }
+
+   /**
+    * Returns the location of the session in this event, see {@link #getLocation(DayProgram)}.
+    * 
+    * @return The location, null if the session is not part of the event.
+    */
+   public Location getLocation(Session aSession) {
+      return aSession.getDayProgram() == null ? null : getLocation(aSession.getDayProgram());
+   }
+
+   /**
+    * Returns the day program preceding the day in its location in this event.
+    * 
+    * @return The previous day program, null if there is none or the day is not part of the event.
+    */
+   public DayProgram getPreviousProgram(DayProgram aDay) {
+      Location location = getLocation(aDay);
+      return location == null ? null : location.getPreviousProgram(aDay);
+   }
+
+   private void ensureDateIndex() {
+      if (daysByDate != null) {
+         return;
+      }
+      TreeMap<DateTime, List<DayProgram>> index = new TreeMap<DateTime, List<DayProgram>>();
+      IdentityHashMap<DayProgram, Location> dayLocations = new IdentityHashMap<DayProgram, Location>();
       for (Location s : this) {
          for (DayProgram d : s) {
-            if (d.getDayStart().equals(startDate)) {
-               ret.add(d);
+            dayLocations.put(d, s);
+            if (d.getDayStart() != null) {
+               List<DayProgram> days = index.get(d.getDayStart());
+               if (days == null) {
+                  days = new ArrayList<DayProgram>(locations.length);
+                  index.put(d.getDayStart(), days);
+               }
+               days.add(d);
+            }
+         }
+      }
+      for (Map.Entry<DateTime, List<DayProgram>> eachEntry : index.entrySet()) {
+         eachEntry.setValue(Collections.unmodifiableList(eachEntry.getValue()));
+      }
+      daysByDate = index;
+      locationsByDay = dayLocations;
+      dates = null;
+   }
+
+   /**
+    * Called by the location when it adds a day program.
+    */
+   void dayAdded(DayProgram aDay) {
+      if (daysByDate != null) {
+         locationsByDay.put(aDay, aDay.getLocation());
+         if (aDay.getDayStart() != null) {
+            indexDate(aDay);
+         }
+      }
+      EventListener[] notified = listeners;
+      if (notified != null) {
+         for (EventListener eachListener : notified) {
+            eachListener.dayProgramChanged(aDay);
+         }
+      }
+   }
+
+   /**
+    * Replaces the list of the date of the added day with one that has the day after the days of the
+    * same or preceding locations.
+    */
+   private void indexDate(DayProgram aDay) {
+      List<DayProgram> days = daysByDate.get(aDay.getDayStart());
+      if (days == null) {
+         dates = null;
+         daysByDate.put(aDay.getDayStart(), Collections.singletonList(aDay));
+         return;
+      }
+      List<DayProgram> updated = new ArrayList<DayProgram>(days.size() + 1);
+      Location location = aDay.getLocation();
+      int next = 0;
+      for (Location eachLocation : locations) {
+         while (next < days.size() && locationsByDay.get(days.get(next)) == eachLocation) {
+            updated.add(days.get(next++));
+         }
+         if (eachLocation == location) {
+            break;
+         }
+      }
+      updated.add(aDay);
+      updated.addAll(days.subList(next, days.size()));
+      daysByDate.put(aDay.getDayStart(), Collections.unmodifiableList(updated));
+   }
+
+   /**
+    * Called when the day programs of a location are replaced.
+    */
+   void invalidateDateIndex() {
+      daysByDate = null;
+      locationsByDay = null;
+      dates = null;
+   }
+
+   /**
+    * Returns a deep copy of the event walking the locations, day programs and sessions. The links
+    * between the old and new versions of the changed sessions lead to the copies, the strings,
+    * times, announcements and frozen metadata are shared. The old or new version of a session that isn't
+    * part of any location of the event is copied without day program.
+    * 
+    * @return Copy of the event.
+    */
+   public Event copy() {
+      ensureLoaded();
+      Event copy = new Event();
+      copy.uri = uri;
+      copy.name = name;
+      copy.shortName = shortName;
+      copy.version = version;
+      copy.versionTime = versionTime;
+      copy.metadata = metadata == null ? null : metadata.copyUnlessFrozen();
+      copy.announcements = announcements == null ? null : announcements.clone();
+      if (locations != null) {
+         IdentityHashMap<Session, Session> copies = new IdentityHashMap<Session, Session>();
+         Location[] locationCopies = new Location[locations.length];
+         for (int i = 0; i < locations.length; i++) {
+            locationCopies[i] = locations[i].copy(copy, copies);
+         }
+         for (Location eachCopy : locationCopies) {
+            for (DayProgram eachDay : eachCopy) {
+               for (Session eachSession : eachDay) {
+                  eachSession.copyLinks(copies);
+               }
+            }
+         }
+         copy.locations = locationCopies;
+      }
+      return copy;
+   }
+
+   /**
+    * Returns the planned program, the old versions of the changed sessions, as a view of this
+    * event that filters the sessions when asked instead of copying them.
+    */
+   public EventView getPlannedView() {
+      return new EventView(this, true);
+   }
+
+   /**
+    * Returns the actual program, the new versions of the changed sessions, as a view of this event
+    * that filters the sessions when asked instead of copying them.
+    */
+   public EventView getActualView() {
+      return new EventView(this, false);
+   }
+
+   /**
+    * Returns a frozen copy of the event: the copy and all its locations, day programs, sessions and
+    * metadata throw {@link EventModelException} with code {@link EventModelException#FROZEN} when
+    * changed. The indexes the queries build lazily are built by the freeze, except the
+    * {@link SessionIndex} which is built by the first reader, so any number of threads can read
+    * the frozen event without locks once it's safely published, e.g. by {@link EventPublisher}.
+    * The arrays returned by the frozen event must not be modified.
+    * 
+    * The frozen event is copied like by {@link #copy()}, its session columns are trimmed. A copy of
+    * the frozen event can be changed again.
+    * 
+    * @return Frozen copy, or this event if it's frozen already.
+    */
+   public Event freeze() {
+      if (frozen) {
+         return this;
+      }
+      Event frozenCopy = copy();
+      frozenCopy.freezeParts();
+      return frozenCopy;
+   }
+
+   /**
+    * Freezes this event and the locations that aren't frozen yet, the frozen locations may be
+    * shared with other frozen events.
+    */
+   void freezeParts() {
+      if (metadata != null) {
+         metadata = metadata.freeze();
+      }
+      if (locations != null) {
+         indexLocations();
+         for (Location eachLocation : locations) {
+            if (!eachLocation.isFrozen()) {
+               eachLocation.freeze();
             }
          }
       }
-      return ret;
+      getDates();
+      frozen = true;
+   }
+
+   /**
+    * Copies the event sharing the locations, for {@link EventEdit}.
+    */
+   Event shallowCopy() {
+      ensureLoaded();
+      Event copy = new Event();
+      copy.uri = uri;
+      copy.name = name;
+      copy.shortName = shortName;
+      copy.version = version;
+      copy.versionTime = versionTime;
+      copy.metadata = metadata == null ? null : metadata.copyUnlessFrozen();
+      copy.announcements = announcements == null ? null : announcements.clone();
+      copy.locations = locations == null ? null : locations.clone();
+      return copy;
+   }
+
+   /**
+    * @return true if the event is frozen and can't be changed.
+    */
+   public boolean isFrozen() {
+      return frozen;
+   }
+
+   private void checkNotFrozen() {
+      if (frozen) {
+         throw new EventModelException(EventModelException.FROZEN);
+      }
    }
 
    /**
@@ -227,12 +678,7 @@ public class Event implements Iterable<Location>, Serializable {
     * @return Event clone stripped to the new or old version.
     */
    public Event getReducedVersion(boolean anOldVersion) {
-      Event reduced;
-      try {
-         reduced = (Event) Util.clone(this);
-      } catch (Exception e) {
-         throw new RuntimeException(e);
-      }
+      Event reduced = copy();
       for (Location s : reduced) {
          reduceToVersion(s, anOldVersion);
       }
@@ -295,6 +741,7 @@ public class Event implements Iterable<Location>, Serializable {
    }
 
    public void setAnnouncements(Announcement[] announcements) {
+      checkNotFrozen();
       this.announcements = announcements;
    }
 }
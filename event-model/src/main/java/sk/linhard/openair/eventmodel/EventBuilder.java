@@ -0,0 +1,215 @@
+/*
+ * OpenAir Event Program Model
+ * Copyright (C) 2012 Michal Linhard <michal@linhard.sk>
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package sk.linhard.openair.eventmodel;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+
+import sk.linhard.openair.eventmodel.exceptions.EventModelException;
+
+/**
+ * Builds large event programs. {@link Event#addLocation(String)}, {@link Location#addDay(DateTime)}
+ * and {@link DayProgram#addSession(Session)} copy the whole array on every call, the builder
+ * collects the locations, days and sessions in growing buffers instead and sets exactly sized
+ * arrays to the model in {@link #build()}.
+ *
+ * The objects returned by the builder can be modified right away, but the arrays of the event,
+ * its locations and day programs are complete only after {@link #build()}. The builder can't be
+ * used after that.
+ *
+ * @author Michal Linhard <michal@linhard.sk>
+ */
+public class EventBuilder {
+   private static final int DEFAULT_LOCATIONS = 16;
+   private static final int DEFAULT_DAYS = 8;
+   private static final int DEFAULT_SESSIONS = 16;
+
+   private final Event event;
+   private final ArrayList<Location> locations;
+   private final HashSet<String> locationNames;
+   private final int daysPerLocation;
+   private final int sessionsPerDay;
+   private Map<Location, List<DayProgram>> daysByLocation = new IdentityHashMap<Location, List<DayProgram>>();
+   private Map<DayProgram, SessionBuffer> sessionsByDay = new IdentityHashMap<DayProgram, SessionBuffer>();
+   // sessions mostly come day after day
+   private SessionBuffer lastBuffer;
+   private boolean built;
+
+   /**
+    * Sessions of one day program, their times are added to the columns the day will keep.
+    */
+   private static class SessionBuffer {
+      final DayProgram day;
+      final ArrayList<Session> sessions;
+      final SessionColumns columns;
+
+      SessionBuffer(DayProgram aDay, int capacity) {
+         day = aDay;
+         sessions = new ArrayList<Session>(capacity);
+         columns = new SessionColumns(capacity, aDay.getDayStart() == null ? null : aDay.getDayStart()
+               .getChronology());
+      }
+   }
+
+   public EventBuilder() {
+      this(new Event(), DEFAULT_LOCATIONS, DEFAULT_DAYS, DEFAULT_SESSIONS);
+   }
+
+   /**
+    * Creates builder adding to the event.
+    *
+    * @param anEvent
+    *           Event to add to, may already contain locations.
+    * @param locationCapacity
+    *           Expected number of locations.
+    * @param daysPerLocation
+    *           Expected number of days of each location.
+    * @param sessionsPerDay
+    *           Expected number of sessions of each day.
+    */
+   public EventBuilder(Event anEvent, int locationCapacity, int daysPerLocation, int sessionsPerDay) {
+      this.event = anEvent;
+      this.daysPerLocation = daysPerLocation;
+      this.sessionsPerDay = sessionsPerDay;
+      Location[] existing = anEvent.getLocations();
+      int capacity = Math.max(locationCapacity, existing == null ? 0 : existing.length);
+      locations = new ArrayList<Location>(capacity);
+      locationNames = new HashSet<String>(capacity * 2);
+      if (existing != null) {
+         for (Location eachLocation : existing) {
+            locations.add(eachLocation);
+            locationNames.add(eachLocation.getName());
+         }
+      }
+   }
+
+   public Event getEvent() {
+      return event;
+   }
+
+   /**
+    * Adds location to the event.
+    *
+    * @throws EventModelException
+    *            {@link EventModelException#DUPLICATE_LOCATION_NAME} if the event has location of
+    *            the name.
+    */
+   public Location addLocation(String aName) {
+      checkNotBuilt();
+      if (!locationNames.add(aName)) {
+         throw new EventModelException(EventModelException.DUPLICATE_LOCATION_NAME);
+      }
+      Location location = new Location(aName);
+      location.setEvent(event);
+      locations.add(location);
+      return location;
+   }
+
+   /**
+    * Adds day program to the location, the location doesn't have to be added by the builder.
+    */
+   public DayProgram addDay(Location aLocation, DateTime aDayStart) {
+      checkNotBuilt();
+      List<DayProgram> days = daysByLocation.get(aLocation);
+      if (days == null) {
+         DayProgram[] existing = aLocation.getDayPrograms();
+         days = new ArrayList<DayProgram>(Math.max(daysPerLocation, existing == null ? 0 : existing.length + 1));
+         if (existing != null) {
+            Collections.addAll(days, existing);
+         }
+         daysByLocation.put(aLocation, days);
+      }
+      DayProgram day = new DayProgram(aDayStart);
+      day.setLocation(aLocation);
+      days.add(day);
+      return day;
+   }
+
+   /**
+    * Adds session to the day program, the day program doesn't have to be added by the builder.
+    */
+   public Session addSession(DayProgram aDay, String aTitle, DateTime aStart, Duration aDuration) {
+      checkNotBuilt();
+      SessionBuffer buffer = buffer(aDay);
+      Session session = new Session(aTitle, aStart, buffer.columns, buffer.columns.add(aStart, aDuration));
+      session.setDayProgram(aDay);
+      buffer.sessions.add(session);
+      return session;
+   }
+
+   private SessionBuffer buffer(DayProgram aDay) {
+      if (lastBuffer != null && lastBuffer.day == aDay) {
+         return lastBuffer;
+      }
+      SessionBuffer buffer = sessionsByDay.get(aDay);
+      if (buffer == null) {
+         Session[] existing = aDay.getSessions();
+         buffer = new SessionBuffer(aDay, Math.max(sessionsPerDay, existing == null ? 0 : existing.length + 1));
+         if (existing != null) {
+            for (Session eachSession : existing) {
+               eachSession.bind(buffer.columns, buffer.columns.add(eachSession.getColumns(), eachSession.getRow()));
+               buffer.sessions.add(eachSession);
+            }
+         }
+         sessionsByDay.put(aDay, buffer);
+      }
+      lastBuffer = buffer;
+      return buffer;
+   }
+
+   /**
+    * Sets the collected locations, day programs and sessions to the model.
+    *
+    * @return The event.
+    */
+   public Event build() {
+      checkNotBuilt();
+      built = true;
+      for (SessionBuffer eachBuffer : sessionsByDay.values()) {
+         eachBuffer.columns.trim();
+         eachBuffer.day.assign(eachBuffer.sessions.toArray(new Session[eachBuffer.sessions.size()]),
+               eachBuffer.columns);
+      }
+      for (Map.Entry<Location, List<DayProgram>> eachEntry : daysByLocation.entrySet()) {
+         List<DayProgram> days = eachEntry.getValue();
+         eachEntry.getKey().setDayPrograms(days.toArray(new DayProgram[days.size()]));
+      }
+      if (!locations.isEmpty()) {
+         event.setLocations(locations.toArray(new Location[locations.size()]));
+      }
+      sessionsByDay = null;
+      daysByLocation = null;
+      lastBuffer = null;
+      return event;
+   }
+
+   private void checkNotBuilt() {
+      if (built) {
+         throw new IllegalStateException("The event is built already");
+      }
+   }
+}
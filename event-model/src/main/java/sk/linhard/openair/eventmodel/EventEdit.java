@@ -0,0 +1,254 @@
+/*
+ * OpenAir Event Program Model
+ * Copyright (C) 2012 Michal Linhard <michal@linhard.sk>
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package sk.linhard.openair.eventmodel;
+
+import java.util.IdentityHashMap;
+
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+
+import sk.linhard.openair.eventmodel.exceptions.EventModelException;
+
+/**
+ * Batch of changes of the published snapshot of an event, begun by
+ * {@link EventPublisher#beginEdit()}. The edit copies the parts of the snapshot it changes: the
+ * event, the locations it changes and the day programs it changes with their sessions. A day
+ * program is copied with the day programs of the old and new versions of its sessions, or with
+ * the versions themselves if they aren't part of the snapshot, so that the versions link to each
+ * other in one version of the event. The other locations and day
+ * programs are shared by the snapshot and the new version, so keeping many versions costs the
+ * size of the changes. The snapshot objects are frozen, the edit gives the
+ * changeable copies for them, the objects added by the edit are changed directly.
+ *
+ * The commit freezes the new version and publishes it if the snapshot the edit began with is still
+ * the published one, so two edits can't overwrite each other's changes.
+ *
+ * A shared location or day program links to the event or location of the version it was made in,
+ * the readers of a version go from its event down or up by {@link Event#getLocation(DayProgram)}.
+ *
+ * @author Michal Linhard <michal@linhard.sk>
+ */
+public class EventEdit {
+   private final EventPublisher publisher;
+   private final Event base;
+   private final Event version;
+   private final IdentityHashMap<Location, Location> locations = new IdentityHashMap<Location, Location>();
+   private final IdentityHashMap<DayProgram, DayProgram> days = new IdentityHashMap<DayProgram, DayProgram>();
+   private final IdentityHashMap<Session, Session> sessions = new IdentityHashMap<Session, Session>();
+   // the location of each day program of the snapshot, made when first needed
+   private IdentityHashMap<DayProgram, Location> dayLocations;
+   private boolean committed;
+
+   EventEdit(EventPublisher aPublisher, Event aBase) {
+      publisher = aPublisher;
+      base = aBase;
+      version = aBase.shallowCopy();
+   }
+
+   /**
+    * @return The snapshot the edit began with.
+    */
+   public Event getBase() {
+      return base;
+   }
+
+   /**
+    * @return The new version, its locations are the ones of the snapshot until they're changed.
+    */
+   public Event getEvent() {
+      checkNotCommitted();
+      return version;
+   }
+
+   /**
+    * Returns the changeable location of the new version for the location of the snapshot.
+    */
+   public Location getLocation(Location aLocation) {
+      checkNotCommitted();
+      if (!aLocation.isFrozen()) {
+         return aLocation;
+      }
+      Location copy = locations.get(aLocation);
+      if (copy == null) {
+         Location[] replaced = version.getLocations().clone();
+         int i = indexOf(replaced, aLocation);
+         copy = aLocation.shallowCopy(version);
+         replaced[i] = copy;
+         version.setLocations(replaced);
+         locations.put(aLocation, copy);
+      }
+      return copy;
+   }
+
+   /**
+    * Returns the changeable day program of the new version for the day program of the snapshot.
+    */
+   public DayProgram getDayProgram(DayProgram aDay) {
+      checkNotCommitted();
+      if (!aDay.isFrozen()) {
+         return aDay;
+      }
+      DayProgram copy = days.get(aDay);
+      if (copy == null) {
+         Location location = getLocation(getDayLocation(aDay));
+         DayProgram[] replaced = location.getDayPrograms().clone();
+         int i = indexOf(replaced, aDay);
+         copy = aDay.copy(location, sessions);
+         replaced[i] = copy;
+         location.setDayPrograms(replaced);
+         days.put(aDay, copy);
+         // the copies link to each other
+         for (Session eachCopy : copy) {
+            eachCopy.relink(sessions);
+            if (eachCopy.getOldVersion() != null && !eachCopy.getOldVersion().isFrozen()) {
+               eachCopy.getOldVersion().relink(sessions);
+            }
+            if (eachCopy.getNewVersion() != null && !eachCopy.getNewVersion().isFrozen()) {
+               eachCopy.getNewVersion().relink(sessions);
+            }
+         }
+         // the versions in other days have to link back to the copies
+         for (Session eachCopy : copy) {
+            copyVersion(eachCopy.getOldVersion());
+            copyVersion(eachCopy.getNewVersion());
+            eachCopy.relink(sessions);
+         }
+      }
+      return copy;
+   }
+
+   /**
+    * Returns the changeable session of the new version for the session of the snapshot.
+    */
+   public Session getSession(Session aSession) {
+      checkNotCommitted();
+      if (!aSession.isFrozen()) {
+         return aSession;
+      }
+      if (aSession.getDayProgram() == null) {
+         throw new IllegalArgumentException("The session is not part of a day program");
+      }
+      getDayProgram(aSession.getDayProgram());
+      return sessions.get(aSession);
+   }
+
+   /**
+    * Cancels the session in the new version.
+    * 
+    * @return The cancelled session of the new version.
+    */
+   public Session cancel(Session aSession) {
+      Session session = getSession(aSession);
+      session.cancel();
+      return session;
+   }
+
+   /**
+    * Changes the session in the new version like {@link Session#change(DayProgram, DateTime, Duration)}.
+    * 
+    * @return The new version of the session.
+    */
+   public Session change(Session aSession, DayProgram aDay, DateTime aStart, Duration aDuration) {
+      Session session = getSession(aSession);
+      return session.change(aDay == null ? null : getDayProgram(aDay), aStart, aDuration);
+   }
+
+   /**
+    * Adds the session to the day program in the new version.
+    * 
+    * @return The added session.
+    */
+   public Session addSession(DayProgram aDay, String aTitle, DateTime aStart, Duration aDuration) {
+      return getDayProgram(aDay).addSession(aTitle, aStart, aDuration);
+   }
+
+   /**
+    * Freezes the new version and publishes it if the snapshot the edit began with is still the
+    * published one.
+    * 
+    * @return The published version.
+    * @throws EventModelException
+    *            with code {@link EventModelException#EDIT_CONFLICT} if another version was
+    *            published meanwhile, the edit can be made again on the new snapshot.
+    */
+   public Event commit() {
+      checkNotCommitted();
+      committed = true;
+      version.freezeParts();
+      if (!publisher.compareAndSet(base, version)) {
+         throw new EventModelException(EventModelException.EDIT_CONFLICT);
+      }
+      return version;
+   }
+
+   /**
+    * Copies the old or new version of a copied session, with its day program if it's part of the
+    * snapshot, without day program otherwise.
+    */
+   private void copyVersion(Session aSession) {
+      if (aSession == null || !aSession.isFrozen() || sessions.containsKey(aSession)) {
+         return;
+      }
+      if (aSession.getDayProgram() != null && getDayLocations().containsKey(aSession.getDayProgram())) {
+         getDayProgram(aSession.getDayProgram());
+      } else {
+         Session copy = aSession.detachedCopy();
+         sessions.put(aSession, copy);
+         copy.relink(sessions);
+      }
+   }
+
+   private Location getDayLocation(DayProgram aDay) {
+      Location location = getDayLocations().get(aDay);
+      if (location == null) {
+         throw new IllegalArgumentException("The day program is not part of the edited snapshot");
+      }
+      return location;
+   }
+
+   private IdentityHashMap<DayProgram, Location> getDayLocations() {
+      if (dayLocations == null) {
+         dayLocations = new IdentityHashMap<DayProgram, Location>();
+         for (Location eachLocation : base) {
+            for (DayProgram eachDay : eachLocation) {
+               dayLocations.put(eachDay, eachLocation);
+            }
+         }
+      }
+      return dayLocations;
+   }
+
+   private static int indexOf(Object[] anArray, Object anObject) {
+      if (anArray != null) {
+         for (int i = 0; i < anArray.length; i++) {
+            if (anArray[i] == anObject) {
+               return i;
+            }
+         }
+      }
+      throw new IllegalArgumentException("The object is not part of the edited snapshot");
+   }
+
+   private void checkNotCommitted() {
+      if (committed) {
+         throw new IllegalStateException("The edit was committed");
+      }
+   }
+}
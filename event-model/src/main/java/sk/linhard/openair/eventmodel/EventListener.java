@@ -0,0 +1,61 @@
+/*
+ * OpenAir Event Program Model
+ * Copyright (C) 2012 Michal Linhard <michal@linhard.sk>
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package sk.linhard.openair.eventmodel;
+
+/**
+ * Receives the changes of the program of an event, registered by
+ * {@link Event#addListener(EventListener)}. The listeners are called after the change is made,
+ * on the thread making it. The changes of sessions and day programs that aren't part of the event
+ * yet are not reported.
+ *
+ * @author Michal Linhard <michal@linhard.sk>
+ */
+public interface EventListener {
+
+   /**
+    * The session was added to its day program.
+    */
+   void sessionAdded(Session session);
+
+   /**
+    * The start or duration of the session changed, or it got an old or new version.
+    */
+   void sessionMoved(Session session);
+
+   /**
+    * The session was cancelled or the cancellation was taken back.
+    */
+   void sessionCancelled(Session session);
+
+   /**
+    * The name, short name or metadata of the session changed.
+    */
+   void sessionUpdated(Session session);
+
+   /**
+    * The day program was added to its location or its sessions were replaced.
+    */
+   void dayProgramChanged(DayProgram dayProgram);
+
+   /**
+    * Locations were added or replaced, or day programs of a location were replaced.
+    */
+   void programChanged(Event event);
+}
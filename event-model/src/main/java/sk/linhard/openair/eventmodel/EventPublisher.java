@@ -0,0 +1,80 @@
+/*
+ * OpenAir Event Program Model
+ * Copyright (C) 2012 Michal Linhard <michal@linhard.sk>
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package sk.linhard.openair.eventmodel;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Publishes the frozen snapshots of an event to the reading threads. The editing thread changes
+ * its own mutable event and publishes it after each batch of changes, the readers take the
+ * current snapshot and read it without locks. A snapshot stays the same for the reader holding
+ * it, the next one is seen by the readers that ask after it was published. The snapshot can also
+ * be changed by an {@link EventEdit} that shares the unchanged parts with the next version.
+ *
+ * @author Michal Linhard <michal@linhard.sk>
+ */
+public class EventPublisher {
+   private final AtomicReference<Event> snapshot = new AtomicReference<Event>();
+
+   public EventPublisher() {
+   }
+
+   public EventPublisher(Event anEvent) {
+      publish(anEvent);
+   }
+
+   /**
+    * @return the last published snapshot, null if none was published.
+    */
+   public Event getSnapshot() {
+      return snapshot.get();
+   }
+
+   /**
+    * Begins an edit of the current snapshot.
+    * 
+    * @throws IllegalStateException
+    *            if no snapshot was published.
+    */
+   public EventEdit beginEdit() {
+      Event current = snapshot.get();
+      if (current == null) {
+         throw new IllegalStateException("No snapshot was published");
+      }
+      return new EventEdit(this, current);
+   }
+
+   boolean compareAndSet(Event anExpected, Event aVersion) {
+      return snapshot.compareAndSet(anExpected, aVersion);
+   }
+
+   /**
+    * Freezes the event and makes the frozen copy the current snapshot.
+    * 
+    * @param anEvent
+    *           Event as changed by the editor, it stays mutable.
+    * @return The published snapshot.
+    */
+   public Event publish(Event anEvent) {
+      Event frozen = anEvent.freeze();
+      snapshot.set(frozen);
+      return frozen;
+   }
+}
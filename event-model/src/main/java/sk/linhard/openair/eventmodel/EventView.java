@@ -0,0 +1,160 @@
+/*
+ * OpenAir Event Program Model
+ * Copyright (C) 2012 Michal Linhard <michal@linhard.sk>
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package sk.linhard.openair.eventmodel;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.joda.time.DateTime;
+
+/**
+ * The planned or the actual program of an event, without copying it. The planned program contains
+ * the sessions that have not changed and the old versions of those that changed, the actual
+ * program the sessions that have not changed and the new versions, like
+ * {@link Event#getReducedVersion(boolean)}.
+ * 
+ * The view filters the sessions of the event when asked, so it always shows the event as it is
+ * now. The sessions it returns are the sessions of the event with their change flags and links,
+ * the day programs without any session in the version are left out.
+ * 
+ * @author Michal Linhard <michal@linhard.sk>
+ */
+public class EventView implements Iterable<LocationView> {
+   private final Event event;
+   private final boolean planned;
+
+   EventView(Event anEvent, boolean aPlanned) {
+      event = anEvent;
+      planned = aPlanned;
+   }
+
+   public Event getEvent() {
+      return event;
+   }
+
+   /**
+    * @return true for the planned program, false for the actual.
+    */
+   public boolean isPlanned() {
+      return planned;
+   }
+
+   public LocationView findLocation(String aName) {
+      Location location = event.findLocation(aName);
+      return location == null ? null : new LocationView(this, location);
+   }
+
+   public LocationView[] getLocations() {
+      Location[] locations = event.getLocations();
+      if (locations == null) {
+         return null;
+      }
+      LocationView[] result = new LocationView[locations.length];
+      for (int i = 0; i < locations.length; i++) {
+         result[i] = new LocationView(this, locations[i]);
+      }
+      return result;
+   }
+
+   @Override
+   public Iterator<LocationView> iterator() {
+      final Iterator<Location> locations = event.iterator();
+      return new Iterator<LocationView>() {
+         @Override
+         public boolean hasNext() {
+            return locations.hasNext();
+         }
+
+         @Override
+         public LocationView next() {
+            return new LocationView(EventView.this, locations.next());
+         }
+
+         @Override
+         public void remove() {
+            throw new UnsupportedOperationException();
+         }
+      };
+   }
+
+   /**
+    * Returns the sorted dates with a day program that has sessions in the version.
+    */
+   public List<DateTime> getDates() {
+      List<DateTime> result = new ArrayList<DateTime>();
+      for (DateTime date : event.getDates()) {
+         for (DayProgram day : event.getDayProgramsByDate(date)) {
+            if (contains(day)) {
+               result.add(date);
+               break;
+            }
+         }
+      }
+      return Collections.unmodifiableList(result);
+   }
+
+   /**
+    * Get programs for different locations on the same day.
+    */
+   public List<DayProgramView> getDayProgramsByDate(DateTime startDate) {
+      List<DayProgramView> result = new ArrayList<DayProgramView>();
+      for (DayProgram day : event.getDayProgramsByDate(startDate)) {
+         if (contains(day)) {
+            result.add(new DayProgramView(new LocationView(this, event.getLocation(day)), day));
+         }
+      }
+      return Collections.unmodifiableList(result);
+   }
+
+   boolean contains(Session session) {
+      return session.getColumns().inVersion(session.getRow(), planned);
+   }
+
+   /**
+    * Whether the day has any session in the version.
+    */
+   boolean contains(DayProgram day) {
+      Session[] sessions = day.getSessions();
+      if (sessions != null) {
+         for (Session session : sessions) {
+            if (contains(session)) {
+               return true;
+            }
+         }
+      }
+      return false;
+   }
+
+   @Override
+   public int hashCode() {
+      return event.hashCode() * 2 + (planned ? 1 : 0);
+   }
+
+   @Override
+   public boolean equals(Object obj) {
+      if (!(obj instanceof EventView)) {
+         return false;
+      }
+      EventView other = (EventView) obj;
+      return event == other.event && planned == other.planned;
+   }
+}
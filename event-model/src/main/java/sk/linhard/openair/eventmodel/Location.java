@@ -19,24 +19,41 @@
  */
 package sk.linhard.openair.eventmodel;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 
 import org.joda.time.DateTime;
 
+import sk.linhard.openair.eventmodel.exceptions.EventModelException;
+
 /**
  * Represents a location the session takes place at.
  * 
  * @author Michal Linhard <michal@linhard.sk>
  */
 public class Location implements Iterable<DayProgram>, Serializable {
+   private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
    private Event event;
 
    private String name;
    private String shortName;
    private DayProgram[] dayPrograms;
    private LocationMetadata metadata;
+   private transient ContentLoader contentLoader;
+   // index of the day programs by the local date of the day start, valid for the indexed array
+   private transient HashMap<Integer, DayProgram> daysByDate;
+   private transient DayProgram[] indexedDays;
+   // two of the indexed days have the same date
+   private transient boolean daysCollide;
+   private transient boolean frozen;
 
    private class DayProgramIterator implements Iterator<DayProgram> {
       private int currentPos = 0;
@@ -69,15 +86,24 @@ public class Location implements Iterable<DayProgram>, Serializable {
    }
 
    public DayProgram addDay(DateTime aDayStart) {
+      checkNotFrozen();
+      ensureLoaded();
       DayProgram dayProgram = new DayProgram(aDayStart);
       dayProgram.setLocation(this);
       if (dayPrograms == null) {
          dayPrograms = new DayProgram[] { dayProgram };
-         return dayProgram;
+      } else {
+         DayProgram[] newdayPrograms = Arrays.copyOf(dayPrograms, dayPrograms.length + 1);
+         newdayPrograms[dayPrograms.length] = dayProgram;
+         if (indexedDays == dayPrograms) {
+            daysCollide |= !index(daysByDate, dayProgram);
+            indexedDays = newdayPrograms;
+         }
+         dayPrograms = newdayPrograms;
+      }
+      if (event != null) {
+         event.dayAdded(dayProgram);
       }
-      DayProgram[] newdayPrograms = Arrays.copyOf(dayPrograms, dayPrograms.length + 1);
-      newdayPrograms[dayPrograms.length] = dayProgram;
-      dayPrograms = newdayPrograms;
       return dayProgram;
    }
 
@@ -86,8 +112,12 @@ public class Location implements Iterable<DayProgram>, Serializable {
    }
 
    public void setUrl(String anUrl) {
+      checkNotFrozen();
       if (metadata == null) {
          metadata = new LocationMetadata();
+      } else if (metadata.isFrozen()) {
+         // shared with a frozen copy
+         metadata = metadata.copy();
       }
       metadata.setUrl(anUrl);
    }
@@ -97,8 +127,12 @@ public class Location implements Iterable<DayProgram>, Serializable {
    }
 
    public void setDescription(String aDescription) {
+      checkNotFrozen();
       if (metadata == null) {
          metadata = new LocationMetadata();
+      } else if (metadata.isFrozen()) {
+         // shared with a frozen copy
+         metadata = metadata.copy();
       }
       metadata.setDescription(aDescription);
    }
@@ -112,15 +146,21 @@ public class Location implements Iterable<DayProgram>, Serializable {
    }
 
    public void setShortName(String shortName) {
+      checkNotFrozen();
       this.shortName = shortName;
    }
 
    public void setName(String name) {
+      checkNotFrozen();
       this.name = name;
+      if (event != null) {
+         event.invalidateLocationIndex();
+      }
    }
 
    @Override
    public Iterator<DayProgram> iterator() {
+      ensureLoaded();
       return new DayProgramIterator();
    }
 
@@ -129,23 +169,82 @@ public class Location implements Iterable<DayProgram>, Serializable {
    }
 
    public void setMetadata(LocationMetadata metadata) {
+      checkNotFrozen();
       this.metadata = metadata;
    }
 
    public DayProgram findDayProgram(DateTime startDate) {
-      for (DayProgram d : this) {
-         if (d.getDayStart().equals(startDate)) {
-            return d;
+      ensureLoaded();
+      if (dayPrograms == null || startDate == null) {
+         return null;
+      }
+      if (indexedDays != dayPrograms) {
+         indexDays();
+      }
+      DayProgram d = daysByDate.get(epochDay(startDate));
+      if (d != null && d.getDayStart().equals(startDate)) {
+         return d;
+      }
+      if (daysCollide) {
+         // the day of the same date in other time zone or a repeated day is not in the index
+         for (DayProgram each : dayPrograms) {
+            if (startDate.equals(each.getDayStart())) {
+               return each;
+            }
          }
       }
       return null;
    }
 
+   /**
+    * Builds the index of the days by date.
+    */
+   private void indexDays() {
+      HashMap<Integer, DayProgram> index = new HashMap<Integer, DayProgram>(dayPrograms.length * 2);
+      boolean collide = false;
+      for (DayProgram d : dayPrograms) {
+         collide |= !index(index, d);
+      }
+      daysByDate = index;
+      daysCollide = collide;
+      indexedDays = dayPrograms;
+   }
+
+   /**
+    * Adds the day to the index unless it has a day of the same date.
+    *
+    * @return False if the index has a day of the same date.
+    */
+   private static boolean index(HashMap<Integer, DayProgram> index, DayProgram d) {
+      if (d.getDayStart() == null) {
+         return true;
+      }
+      Integer key = epochDay(d.getDayStart());
+      if (index.containsKey(key)) {
+         return false;
+      }
+      index.put(key, d);
+      return true;
+   }
+
+   /**
+    * Number of the local date of the time in its time zone counted from 1.1.1970.
+    */
+   private static int epochDay(DateTime aTime) {
+      long local = aTime.getMillis() + aTime.getZone().getOffset(aTime.getMillis());
+      return (int) (local >= 0 ? local / MILLIS_PER_DAY : (local + 1) / MILLIS_PER_DAY - 1);
+   }
+
+   /**
+    * The event the location was made for. The locations a version made by {@link EventEdit} didn't
+    * change are shared with the snapshot and return its event.
+    */
    public Event getEvent() {
       return event;
    }
 
    public void setEvent(Event event) {
+      checkNotFrozen();
       this.event = event;
    }
 
@@ -159,6 +258,7 @@ public class Location implements Iterable<DayProgram>, Serializable {
     * @return first relevant day program. may be null.
     */
    public DayProgram getFirstRelevantDayProgram(DateTime aTime) {
+      ensureLoaded();
       for (DayProgram eachProg : dayPrograms) {
          if (eachProg.hasRelevantSessions(aTime)) {
             return eachProg;
@@ -168,11 +268,143 @@ public class Location implements Iterable<DayProgram>, Serializable {
    }
 
    public DayProgram[] getDayPrograms() {
+      ensureLoaded();
       return dayPrograms;
    }
 
+   /**
+    * Day program preceding the day in this location, null if there is none.
+    */
+   DayProgram getPreviousProgram(DayProgram aDay) {
+      DayProgram[] days = getDayPrograms();
+      for (int i = 1; i < days.length; i++) {
+         if (days[i] == aDay) {
+            return days[i - 1];
+         }
+      }
+      return null;
+   }
+
    public void setDayPrograms(DayProgram[] dayPrograms) {
+      checkNotFrozen();
+      if (event != null) {
+         event.invalidateSessionIndex();
+         event.invalidateDateIndex();
+      }
+      this.contentLoader = null;
       this.dayPrograms = dayPrograms;
+      if (event != null) {
+         event.programChanged();
+      }
+   }
+
+   /**
+    * Sets the loader that adds the day programs the first time they're needed.
+    */
+   public void setContentLoader(ContentLoader aContentLoader) {
+      checkNotFrozen();
+      contentLoader = aContentLoader;
+   }
+
+   /**
+    * Makes the location of a frozen event unchangeable with its day programs that aren't frozen
+    * yet, builds the index of the days.
+    */
+   void freeze() {
+      if (metadata != null) {
+         metadata = metadata.freeze();
+      }
+      if (dayPrograms != null) {
+         indexDays();
+         for (DayProgram eachDay : dayPrograms) {
+            if (!eachDay.isFrozen()) {
+               eachDay.freeze();
+            }
+         }
+      }
+      frozen = true;
+   }
+
+   /**
+    * Copies the location to the event sharing the day programs, for {@link EventEdit}.
+    */
+   Location shallowCopy(Event anEvent) {
+      ensureLoaded();
+      Location copy = new Location(name);
+      copy.event = anEvent;
+      copy.shortName = shortName;
+      copy.metadata = metadata == null ? null : metadata.copyUnlessFrozen();
+      copy.dayPrograms = dayPrograms == null ? null : dayPrograms.clone();
+      return copy;
+   }
+
+   /**
+    * @return true if the location is part of a frozen event and can't be changed.
+    */
+   public boolean isFrozen() {
+      return frozen;
+   }
+
+   private void checkNotFrozen() {
+      if (frozen) {
+         throw new EventModelException(EventModelException.FROZEN);
+      }
+   }
+
+   /**
+    * Copies the location for {@link Event#copy()}, noting the copies of the sessions.
+    */
+   Location copy(Event anEvent, Map<Session, Session> copies) {
+      ensureLoaded();
+      Location copy = new Location(name);
+      copy.event = anEvent;
+      copy.shortName = shortName;
+      copy.metadata = metadata == null ? null : metadata.copyUnlessFrozen();
+      if (dayPrograms != null) {
+         copy.dayPrograms = new DayProgram[dayPrograms.length];
+         for (int i = 0; i < dayPrograms.length; i++) {
+            copy.dayPrograms[i] = dayPrograms[i].copy(copy, copies);
+         }
+      }
+      return copy;
+   }
+
+   /**
+    * Copies the location with the day programs that have sessions in the version, the sessions are
+    * copied without the change flags like in {@link Event#getReducedVersion(boolean)}.
+    */
+   Location reducedCopy(Event anEvent, boolean anOldVersion) {
+      ensureLoaded();
+      Location copy = new Location(name);
+      copy.event = anEvent;
+      copy.shortName = shortName;
+      copy.metadata = metadata == null ? null : metadata.copyUnlessFrozen();
+      if (dayPrograms != null) {
+         List<DayProgram> days = new ArrayList<DayProgram>(dayPrograms.length);
+         for (DayProgram eachDay : dayPrograms) {
+            DayProgram dayCopy = new DayProgram(eachDay.getDayStart());
+            dayCopy.setLocation(copy);
+            dayCopy.reduceFrom(eachDay, anOldVersion);
+            if (dayCopy.getSessions() != null) {
+               days.add(dayCopy);
+            }
+         }
+         copy.dayPrograms = days.toArray(new DayProgram[days.size()]);
+      }
+      return copy;
+   }
+
+   private void ensureLoaded() {
+      if (contentLoader != null) {
+         ContentLoader loader = contentLoader;
+         contentLoader = null;
+         loader.loadDayPrograms(this);
+      }
+   }
+
+   private void writeObject(ObjectOutputStream out) throws IOException {
+      ensureLoaded();
+      out.defaultWriteObject();
    }
 
 }
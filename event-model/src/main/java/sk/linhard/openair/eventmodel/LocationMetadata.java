@@ -21,6 +21,8 @@ package sk.linhard.openair.eventmodel;
 
 import java.io.Serializable;
 
+import sk.linhard.openair.eventmodel.exceptions.EventModelException;
+
 /**
  * Location metadata.
  * 
@@ -29,12 +31,15 @@ import java.io.Serializable;
 public class LocationMetadata implements Serializable {
    private String url;
    private String description;
+   // a deserialized copy can be changed again
+   private transient boolean frozen;
 
    public String getUrl() {
       return url;
    }
 
    public void setUrl(String url) {
+      checkNotFrozen();
       this.url = url;
    }
 
@@ -43,6 +48,44 @@ public class LocationMetadata implements Serializable {
    }
 
    public void setDescription(String description) {
+      checkNotFrozen();
       this.description = description;
    }
+
+   boolean isFrozen() {
+      return frozen;
+   }
+
+   /**
+    * Returns the metadata that can't be changed, itself if it's frozen already.
+    */
+   LocationMetadata freeze() {
+      if (frozen) {
+         return this;
+      }
+      LocationMetadata result = copy();
+      result.frozen = true;
+      return result;
+   }
+
+   /**
+    * Returns the metadata for a copy of the owner, itself if it's frozen, otherwise a copy that changes
+    * separately.
+    */
+   LocationMetadata copyUnlessFrozen() {
+      return frozen ? this : copy();
+   }
+
+   LocationMetadata copy() {
+      LocationMetadata result = new LocationMetadata();
+      result.url = url;
+      result.description = description;
+      return result;
+   }
+
+   private void checkNotFrozen() {
+      if (frozen) {
+         throw new EventModelException(EventModelException.FROZEN);
+      }
+   }
 }
@@ -0,0 +1,173 @@
+/*
+ * OpenAir Event Program Model
+ * Copyright (C) 2012 Michal Linhard <michal@linhard.sk>
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package sk.linhard.openair.eventmodel;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.joda.time.DateTime;
+
+/**
+ * Location in the planned or the actual program of an event, see {@link EventView}.
+ * 
+ * @author Michal Linhard <michal@linhard.sk>
+ */
+public class LocationView implements Iterable<DayProgramView> {
+   private final EventView eventView;
+   private final Location location;
+
+   LocationView(EventView anEventView, Location aLocation) {
+      eventView = anEventView;
+      location = aLocation;
+   }
+
+   public Location getLocation() {
+      return location;
+   }
+
+   /**
+    * @return copy of the location that isn't part of any event, with only the day programs and
+    *         sessions of the version, like a location of {@link Event#getReducedVersion(boolean)}.
+    */
+   public Location getReducedLocation() {
+      return location.reducedCopy(null, eventView.isPlanned());
+   }
+
+   public EventView getEventView() {
+      return eventView;
+   }
+
+   public String getName() {
+      return location.getName();
+   }
+
+   public String getShortName() {
+      return location.getShortName();
+   }
+
+   /**
+    * @return the day program of the date, null if there is none or it has no sessions in the
+    *         version.
+    */
+   public DayProgramView findDayProgram(DateTime startDate) {
+      DayProgram day = location.findDayProgram(startDate);
+      return day == null || !eventView.contains(day) ? null : new DayProgramView(this, day);
+   }
+
+   /**
+    * Returns first day program that has relevant sessions in the version.
+    * 
+    * @param aTime
+    *           current time.
+    * 
+    * @return first relevant day program. may be null.
+    */
+   public DayProgramView getFirstRelevantDayProgram(DateTime aTime) {
+      DayProgram[] days = location.getDayPrograms();
+      if (days != null) {
+         for (DayProgram day : days) {
+            DayProgramView view = new DayProgramView(this, day);
+            if (view.hasRelevantSessions(aTime)) {
+               return view;
+            }
+         }
+      }
+      return null;
+   }
+
+   public DayProgramView[] getDayPrograms() {
+      List<DayProgramView> result = new ArrayList<DayProgramView>();
+      DayProgram[] days = location.getDayPrograms();
+      if (days != null) {
+         for (DayProgram day : days) {
+            if (eventView.contains(day)) {
+               result.add(new DayProgramView(this, day));
+            }
+         }
+      }
+      return result.toArray(new DayProgramView[result.size()]);
+   }
+
+   @Override
+   public Iterator<DayProgramView> iterator() {
+      final DayProgram[] days = location.getDayPrograms();
+      return new Iterator<DayProgramView>() {
+         private int next = advance(0);
+
+         private int advance(int from) {
+            int i = from;
+            while (days != null && i < days.length && !eventView.contains(days[i])) {
+               i++;
+            }
+            return i;
+         }
+
+         @Override
+         public boolean hasNext() {
+            return days != null && next < days.length;
+         }
+
+         @Override
+         public DayProgramView next() {
+            DayProgramView result = new DayProgramView(LocationView.this, days[next]);
+            next = advance(next + 1);
+            return result;
+         }
+
+         @Override
+         public void remove() {
+            throw new UnsupportedOperationException();
+         }
+      };
+   }
+
+   /**
+    * Day program preceding the day in the version, null if there is none.
+    */
+   DayProgramView getPreviousProgram(DayProgram aDay) {
+      DayProgram[] days = location.getDayPrograms();
+      for (int i = 1; i < days.length; i++) {
+         if (days[i] == aDay) {
+            for (int j = i - 1; j >= 0; j--) {
+               if (eventView.contains(days[j])) {
+                  return new DayProgramView(this, days[j]);
+               }
+            }
+            return null;
+         }
+      }
+      return null;
+   }
+
+   @Override
+   public int hashCode() {
+      return location.hashCode() * 2 + (eventView.isPlanned() ? 1 : 0);
+   }
+
+   @Override
+   public boolean equals(Object obj) {
+      if (!(obj instanceof LocationView)) {
+         return false;
+      }
+      LocationView other = (LocationView) obj;
+      return location == other.location && eventView.isPlanned() == other.eventView.isPlanned();
+   }
+}
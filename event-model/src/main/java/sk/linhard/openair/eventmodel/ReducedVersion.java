@@ -0,0 +1,172 @@
+/*
+ * OpenAir Event Program Model
+ * Copyright (C) 2012 Michal Linhard <michal@linhard.sk>
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package sk.linhard.openair.eventmodel;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * The old or the new version of an event like {@link Event#getReducedVersion(boolean)}, kept up
+ * to date with the event. The reduced version listens to the changes of the event and builds
+ * again only the day programs they touch, so moving or cancelling a session costs a copy of the
+ * sessions of its day. It's built again whole only when locations or day programs are replaced.
+ *
+ * The reduced event must not be changed by its users, the changes would be overwritten. Call
+ * {@link #detach()} when the reduced version is no longer needed.
+ *
+ * @author Michal Linhard <michal@linhard.sk>
+ */
+public class ReducedVersion implements EventListener {
+   private final Event event;
+   private final boolean oldVersion;
+   private Event reduced;
+   // the reduced location and day of each location and day of the event, also of the days left out
+   private IdentityHashMap<Location, Location> locations;
+   private IdentityHashMap<DayProgram, DayProgram> days;
+
+   public ReducedVersion(Event anEvent, boolean anOldVersion) {
+      event = anEvent;
+      oldVersion = anOldVersion;
+      rebuild();
+      event.addListener(this);
+   }
+
+   /**
+    * @return the reduced event, the same object until it's built again whole.
+    */
+   public Event getEvent() {
+      return reduced;
+   }
+
+   public boolean isOldVersion() {
+      return oldVersion;
+   }
+
+   /**
+    * Stops following the changes of the event.
+    */
+   public void detach() {
+      event.removeListener(this);
+   }
+
+   /**
+    * Builds the reduced event from the event, copying only the sessions of the version.
+    */
+   private void rebuild() {
+      Event copy = event.shallowCopy();
+      IdentityHashMap<Location, Location> locationCopies = new IdentityHashMap<Location, Location>();
+      IdentityHashMap<DayProgram, DayProgram> dayCopies = new IdentityHashMap<DayProgram, DayProgram>();
+      Location[] originals = event.getLocations();
+      if (originals != null) {
+         Location[] copies = new Location[originals.length];
+         for (int i = 0; i < originals.length; i++) {
+            // the days of the copy are set by link
+            copies[i] = originals[i].shallowCopy(copy);
+            locationCopies.put(originals[i], copies[i]);
+            for (DayProgram eachDay : originals[i]) {
+               DayProgram reducedDay = new DayProgram(eachDay.getDayStart());
+               reducedDay.setLocation(copies[i]);
+               reducedDay.reduceFrom(eachDay, oldVersion);
+               dayCopies.put(eachDay, reducedDay);
+            }
+         }
+         copy.setLocations(copies);
+      }
+      reduced = copy;
+      locations = locationCopies;
+      days = dayCopies;
+      if (originals != null) {
+         for (Location eachLocation : originals) {
+            link(eachLocation);
+         }
+      }
+   }
+
+   /**
+    * Builds the reduced day again from the sessions of the day of the event.
+    */
+   private void refresh(DayProgram aDay) {
+      Location reducedLocation = locations.get(aDay.getLocation());
+      if (reducedLocation == null) {
+         rebuild();
+         return;
+      }
+      DayProgram reducedDay = days.get(aDay);
+      if (reducedDay == null) {
+         reducedDay = new DayProgram(aDay.getDayStart());
+         reducedDay.setLocation(reducedLocation);
+         days.put(aDay, reducedDay);
+      }
+      boolean present = reducedDay.getSessions() != null;
+      reducedDay.reduceFrom(aDay, oldVersion);
+      if (present != (reducedDay.getSessions() != null)) {
+         link(aDay.getLocation());
+      }
+   }
+
+   /**
+    * Sets the reduced days that have sessions to the reduced location, in the order of the days of
+    * the location of the event.
+    */
+   private void link(Location aLocation) {
+      List<DayProgram> present = new ArrayList<DayProgram>();
+      DayProgram[] originalDays = aLocation.getDayPrograms();
+      if (originalDays != null) {
+         for (DayProgram eachDay : originalDays) {
+            DayProgram reducedDay = days.get(eachDay);
+            if (reducedDay != null && reducedDay.getSessions() != null) {
+               present.add(reducedDay);
+            }
+         }
+      }
+      locations.get(aLocation).setDayPrograms(present.toArray(new DayProgram[present.size()]));
+   }
+
+   @Override
+   public void sessionAdded(Session session) {
+      refresh(session.getDayProgram());
+   }
+
+   @Override
+   public void sessionMoved(Session session) {
+      refresh(session.getDayProgram());
+   }
+
+   @Override
+   public void sessionCancelled(Session session) {
+      refresh(session.getDayProgram());
+   }
+
+   @Override
+   public void sessionUpdated(Session session) {
+      refresh(session.getDayProgram());
+   }
+
+   @Override
+   public void dayProgramChanged(DayProgram dayProgram) {
+      refresh(dayProgram);
+   }
+
+   @Override
+   public void programChanged(Event anEvent) {
+      rebuild();
+   }
+}
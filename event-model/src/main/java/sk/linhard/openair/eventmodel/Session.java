@@ -20,12 +20,16 @@
 package sk.linhard.openair.eventmodel;
 
 import java.io.Serializable;
+import java.util.Map;
 
+import org.joda.time.Chronology;
 import org.joda.time.DateTime;
 import org.joda.time.Duration;
 import org.joda.time.format.DateTimeFormat;
 import org.joda.time.format.DateTimeFormatter;
 
+import sk.linhard.openair.eventmodel.exceptions.EventModelException;
+
 /**
  * Represents one item in the program for one day on one location.
  * 
@@ -37,22 +41,199 @@ public class Session implements Serializable {
    private DayProgram dayProgram;
    private String name;
    private String shortName;
+   // times and flags are kept in the row of the columns of the day program
+   private SessionColumns columns;
+   private int row;
+   // the start as it was set, keeps its chronology, the columns have the day's
    private DateTime start;
-   private Duration duration;
    private Session oldVersion;
    private Session newVersion;
    private SessionMetadata metadata;
-   private boolean cancelled;
 
    public Session(String aTitle, DateTime aStart, Duration aDuration) {
       this.name = aTitle;
       this.shortName = null;
+      this.columns = new SessionColumns(1, aStart == null ? null : aStart.getChronology());
+      this.row = columns.add(aStart, aDuration);
       this.start = aStart;
-      this.duration = aDuration;
       this.oldVersion = null;
       this.newVersion = null;
       this.metadata = null;
-      this.cancelled = false;
+   }
+
+   /**
+    * Creates session whose times are already in the row of the columns.
+    */
+   Session(String aTitle, DateTime aStart, SessionColumns aColumns, int aRow) {
+      this.name = aTitle;
+      this.start = aStart;
+      this.columns = aColumns;
+      this.row = aRow;
+   }
+
+   /**
+    * Moves the times and flags of the session to the row of the columns.
+    */
+   void bind(SessionColumns aColumns, int aRow) {
+      this.columns = aColumns;
+      this.row = aRow;
+   }
+
+   SessionColumns getColumns() {
+      return columns;
+   }
+
+   int getRow() {
+      return row;
+   }
+
+   /**
+    * Copies the session in the row of the columns, the copy links to the versions of the session
+    * until {@link #copyLinks(Map)}.
+    */
+   Session copy(DayProgram aDayProgram, SessionColumns someColumns, int aRow) {
+      Session copy = new Session(name, start, someColumns, aRow);
+      copy.shortName = shortName;
+      copy.metadata = metadata == null ? null : metadata.copyUnlessFrozen();
+      copy.dayProgram = aDayProgram;
+      copy.oldVersion = oldVersion;
+      copy.newVersion = newVersion;
+      return copy;
+   }
+
+   /**
+    * Links the copy to the copies of the old and new version of the session it was copied from,
+    * copying the versions that weren't copied with the event.
+    */
+   void copyLinks(Map<Session, Session> copies) {
+      if (oldVersion != null) {
+         oldVersion = linkedCopy(oldVersion, copies);
+      }
+      if (newVersion != null) {
+         newVersion = linkedCopy(newVersion, copies);
+      }
+   }
+
+   /**
+    * Copies the session to the columns without the change flags and the links to the versions, as
+    * it is in a reduced version of the event.
+    */
+   Session reducedCopy(DayProgram aDayProgram, SessionColumns someColumns) {
+      int copyRow = someColumns.add(columns, row);
+      someColumns.set(copyRow, (byte) (SessionColumns.CANCELLED | SessionColumns.OLD_VERSION
+            | SessionColumns.NEW_VERSION), false);
+      Session copy = copy(aDayProgram, someColumns, copyRow);
+      copy.oldVersion = null;
+      copy.newVersion = null;
+      return copy;
+   }
+
+   /**
+    * Links the copy to the copies of its versions that are in the map, keeps the other links.
+    */
+   void relink(Map<Session, Session> copies) {
+      if (oldVersion != null && copies.containsKey(oldVersion)) {
+         oldVersion = copies.get(oldVersion);
+      }
+      if (newVersion != null && copies.containsKey(newVersion)) {
+         newVersion = copies.get(newVersion);
+      }
+   }
+
+   /**
+    * Copies the session without day program, with columns of its own.
+    */
+   Session detachedCopy() {
+      SessionColumns detached = new SessionColumns(1, columns.chronology);
+      return copy(null, detached, detached.add(columns, row));
+   }
+
+   private static Session linkedCopy(Session original, Map<Session, Session> copies) {
+      Session copy = copies.get(original);
+      if (copy == null) {
+         copy = original.detachedCopy();
+         copies.put(original, copy);
+         copy.copyLinks(copies);
+      }
+      return copy;
+   }
+
+   boolean hasTimes() {
+      return !columns.is(row, SessionColumns.NO_START) && !columns.is(row, SessionColumns.NO_DURATION);
+   }
+
+   /**
+    * Makes the session of a frozen copy of the event unchangeable, with its old or new version if
+    * that isn't part of any day program.
+    */
+   void freeze() {
+      if (dayProgram == null && columns.frozen) {
+         // the version reached from the other side
+         return;
+      }
+      columns.frozen = true;
+      if (metadata != null) {
+         metadata = metadata.freeze();
+      }
+      if (oldVersion != null && oldVersion.dayProgram == null) {
+         oldVersion.freeze();
+      }
+      if (newVersion != null && newVersion.dayProgram == null) {
+         newVersion.freeze();
+      }
+   }
+
+   /**
+    * @return true if the session is part of a frozen event and can't be changed.
+    */
+   public boolean isFrozen() {
+      return columns.frozen;
+   }
+
+   private void checkNotFrozen() {
+      if (columns.frozen) {
+         throw new EventModelException(EventModelException.FROZEN);
+      }
+   }
+
+   /**
+    * The event the session is part of, null if it's not part of any. The back links are safe here: a
+    * session that can change is never shared by versions, {@link EventEdit} copies the day program
+    * of every session it changes together with its location.
+    */
+   private Event getEvent() {
+      if (dayProgram == null || dayProgram.getLocation() == null) {
+         return null;
+      }
+      return dayProgram.getLocation().getEvent();
+   }
+
+   private void moved() {
+      Event event = getEvent();
+      if (event != null) {
+         event.sessionMoved(this);
+      }
+   }
+
+   private void updated() {
+      Event event = getEvent();
+      if (event != null) {
+         event.sessionUpdated(this);
+      }
+   }
+
+   private void setTimes(DateTime aStart, Duration aDuration) {
+      long startMillis = aStart == null ? 0L : aStart.getMillis();
+      long durationMillis = aDuration == null ? 0L : aDuration.getMillis();
+      columns.startMillis[row] = startMillis;
+      columns.endMillis[row] = startMillis + durationMillis;
+      columns.set(row, SessionColumns.NO_START, aStart == null);
+      columns.set(row, SessionColumns.NO_DURATION, aDuration == null);
+      start = aStart;
+      if (dayProgram != null) {
+         dayProgram.sessionTimesChanged(this);
+      }
+      moved();
    }
 
    public String getUrl() {
@@ -60,10 +241,15 @@ public class Session implements Serializable {
    }
 
    public void setUrl(String anUrl) {
+      checkNotFrozen();
       if (metadata == null) {
          metadata = new SessionMetadata();
+      } else if (metadata.isFrozen()) {
+         // shared with a frozen copy
+         metadata = metadata.copy();
       }
       metadata.setUrl(anUrl);
+      updated();
    }
 
    public String getDescription() {
@@ -71,10 +257,15 @@ public class Session implements Serializable {
    }
 
    public void setDescription(String aDescription) {
+      checkNotFrozen();
       if (metadata == null) {
          metadata = new SessionMetadata();
+      } else if (metadata.isFrozen()) {
+         // shared with a frozen copy
+         metadata = metadata.copy();
       }
       metadata.setDescription(aDescription);
+      updated();
    }
 
    public String getName() {
@@ -82,12 +273,23 @@ public class Session implements Serializable {
    }
 
    public void setName(String name) {
+      checkNotFrozen();
+      // the versions share the name
+      if (oldVersion != null) {
+         oldVersion.checkNotFrozen();
+      }
+      if (newVersion != null) {
+         newVersion.checkNotFrozen();
+      }
       this.name = name;
+      updated();
       if (oldVersion != null) {
          oldVersion.name = name;
+         oldVersion.updated();
       }
       if (newVersion != null) {
          newVersion.name = name;
+         newVersion.updated();
       }
    }
 
@@ -100,33 +302,82 @@ public class Session implements Serializable {
    }
 
    public void setMetadata(SessionMetadata metadata) {
+      checkNotFrozen();
       this.metadata = metadata;
+      updated();
    }
 
    public void setShortName(String shortName) {
+      checkNotFrozen();
+      // the versions share the short name
+      if (oldVersion != null) {
+         oldVersion.checkNotFrozen();
+      }
+      if (newVersion != null) {
+         newVersion.checkNotFrozen();
+      }
       this.shortName = shortName;
+      updated();
       if (oldVersion != null) {
          oldVersion.shortName = shortName;
+         oldVersion.updated();
       }
       if (newVersion != null) {
          newVersion.shortName = shortName;
+         newVersion.updated();
       }
    }
 
+   /**
+    * @return Start of the session in the chronology it was set with.
+    */
    public DateTime getStart() {
+      if (columns.is(row, SessionColumns.NO_START)) {
+         return null;
+      }
+      long millis = columns.startMillis[row];
+      if (start == null || start.getMillis() != millis) {
+         start = new DateTime(millis, getChronology());
+      }
       return start;
    }
 
+   /**
+    * Chronology of the times of the session, the one of its start.
+    */
+   private Chronology getChronology() {
+      return start == null ? columns.chronology : start.getChronology();
+   }
+
    public void setStart(DateTime start) {
-      this.start = start;
+      checkNotFrozen();
+      setTimes(start, getDuration());
    }
 
    public Duration getDuration() {
-      return duration;
+      if (columns.is(row, SessionColumns.NO_DURATION)) {
+         return null;
+      }
+      return new Duration(columns.endMillis[row] - columns.startMillis[row]);
    }
 
    public void setDuration(Duration duration) {
-      this.duration = duration;
+      checkNotFrozen();
+      setTimes(getStart(), duration);
+   }
+
+   /**
+    * Start of the session without creating {@link DateTime}.
+    */
+   public long getStartMillis() {
+      return columns.startMillis[row];
+   }
+
+   /**
+    * End of the session without creating {@link DateTime}.
+    */
+   public long getEndMillis() {
+      return columns.endMillis[row];
    }
 
    public Session getOldVersion() {
@@ -134,7 +385,10 @@ public class Session implements Serializable {
    }
 
    public void setOldVersion(Session oldVersion) {
+      checkNotFrozen();
       this.oldVersion = oldVersion;
+      columns.set(row, SessionColumns.NEW_VERSION, oldVersion != null);
+      moved();
    }
 
    public Session getNewVersion() {
@@ -142,15 +396,23 @@ public class Session implements Serializable {
    }
 
    public void setNewVersion(Session newVersion) {
+      checkNotFrozen();
       this.newVersion = newVersion;
+      columns.set(row, SessionColumns.OLD_VERSION, newVersion != null);
+      moved();
    }
 
    public boolean isCancelled() {
-      return cancelled;
+      return columns.is(row, SessionColumns.CANCELLED);
    }
 
    public void setCancelled(boolean cancelled) {
-      this.cancelled = cancelled;
+      checkNotFrozen();
+      columns.set(row, SessionColumns.CANCELLED, cancelled);
+      Event event = getEvent();
+      if (event != null) {
+         event.sessionCancelled(this);
+      }
    }
 
    public void cancel() {
@@ -166,10 +428,11 @@ public class Session implements Serializable {
    }
 
    public Session change(DayProgram aDay, DateTime aStart, Duration aDuration) {
+      checkNotFrozen();
       // TODO: what if changing already changed ?
       // we don't have to support this at the moment
-      DateTime newStart = aStart == null ? start : aStart;
-      Duration newDuration = aDuration == null ? duration : aDuration;
+      DateTime newStart = aStart == null ? getStart() : aStart;
+      Duration newDuration = aDuration == null ? getDuration() : aDuration;
       Session session = new Session(name, newStart, newDuration);
       session.setShortName(shortName);
       session.setMetadata(metadata);
@@ -213,8 +476,12 @@ public class Session implements Serializable {
       }
    }
 
+   /**
+    * @return End of the session in the chronology of its start, a new {@link DateTime}, compare the
+    *         times by {@link #getEndMillis()}.
+    */
    public DateTime getEnd() {
-      return start.plus(duration);
+      return new DateTime(columns.endMillis[row], getChronology());
    }
 
    /**
@@ -226,18 +493,24 @@ public class Session implements Serializable {
     * @return True iff relevant.
     */
    public boolean isRelevant(DateTime aTime) {
-      return aTime.isBefore(getEnd());
+      return columns.isRelevant(row, aTime.getMillis());
    }
 
    public boolean isRunning(DateTime aNow) {
-      return !start.isAfter(aNow) && !getEnd().isBefore(aNow);
+      return columns.isRunning(row, aNow.getMillis());
    }
 
+   /**
+    * @return The location of the day program the session was made for.
+    * @deprecated The sessions a version made by {@link EventEdit} didn't change are shared with the
+    *             snapshot and return its location, use {@link Event#getLocation(Session)}.
+    */
+   @Deprecated
    public Location getLocation() {
       return getDayProgram().getLocation();
    }
 
    public String getFormattedStartTime() {
-      return START_TIME_FORMAT.print(start);
+      return START_TIME_FORMAT.print(getStart());
    }
 }
@@ -0,0 +1,151 @@
+/*
+ * OpenAir Event Program Model
+ * Copyright (C) 2012 Michal Linhard <michal@linhard.sk>
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package sk.linhard.openair.eventmodel;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+import org.joda.time.Chronology;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+import org.joda.time.chrono.ISOChronology;
+
+/**
+ * Times and flags of the sessions of a day program in parallel primitive arrays, a session is a
+ * row. The time queries of the display run over the arrays without creating any objects, the
+ * Joda objects are created only when a session is asked for them.
+ *
+ * Rows are only appended, a day program that replaces its sessions builds new columns, so the
+ * sessions it drops keep their values. The times are kept as millis, a session that doesn't know
+ * the chronology of its start shows them in the one of the day start.
+ *
+ * @author Michal Linhard <michal@linhard.sk>
+ */
+class SessionColumns implements Serializable {
+   static final byte CANCELLED = 1;
+   // has a new version
+   static final byte OLD_VERSION = 2;
+   // has an old version
+   static final byte NEW_VERSION = 4;
+   static final byte NO_START = 8;
+   static final byte NO_DURATION = 16;
+
+   private static final int INITIAL_CAPACITY = 4;
+
+   final Chronology chronology;
+   long[] startMillis;
+   long[] endMillis;
+   byte[] flags;
+   int size;
+   // the sessions of a frozen event, a deserialized copy can be changed again
+   transient boolean frozen;
+
+   SessionColumns(int capacity, Chronology aChronology) {
+      chronology = aChronology == null ? ISOChronology.getInstance() : aChronology;
+      startMillis = new long[capacity];
+      endMillis = new long[capacity];
+      flags = new byte[capacity];
+   }
+
+   /**
+    * Appends row of session with the times, null time is noted by flag.
+    */
+   int add(DateTime start, Duration duration) {
+      long startMillis = start == null ? 0L : start.getMillis();
+      long durationMillis = duration == null ? 0L : duration.getMillis();
+      byte rowFlags = (byte) ((start == null ? NO_START : 0) | (duration == null ? NO_DURATION : 0));
+      return add(startMillis, startMillis + durationMillis, rowFlags);
+   }
+
+   /**
+    * Appends row copied from the row of other columns.
+    */
+   int add(SessionColumns from, int row) {
+      return add(from.startMillis[row], from.endMillis[row], from.flags[row]);
+   }
+
+   int add(long start, long end, byte rowFlags) {
+      if (size == startMillis.length) {
+         int capacity = Math.max(INITIAL_CAPACITY, size * 2);
+         startMillis = Arrays.copyOf(startMillis, capacity);
+         endMillis = Arrays.copyOf(endMillis, capacity);
+         flags = Arrays.copyOf(flags, capacity);
+      }
+      startMillis[size] = start;
+      endMillis[size] = end;
+      flags[size] = rowFlags;
+      return size++;
+   }
+
+   SessionColumns copy() {
+      SessionColumns copy = new SessionColumns(0, chronology);
+      copy.startMillis = Arrays.copyOf(startMillis, size);
+      copy.endMillis = Arrays.copyOf(endMillis, size);
+      copy.flags = Arrays.copyOf(flags, size);
+      copy.size = size;
+      return copy;
+   }
+
+   /**
+    * Shrinks the arrays to the number of rows.
+    */
+   void trim() {
+      if (size < startMillis.length) {
+         startMillis = Arrays.copyOf(startMillis, size);
+         endMillis = Arrays.copyOf(endMillis, size);
+         flags = Arrays.copyOf(flags, size);
+      }
+   }
+
+   boolean is(int row, byte flag) {
+      return (flags[row] & flag) != 0;
+   }
+
+   void set(int row, byte flag, boolean value) {
+      if (value) {
+         flags[row] |= flag;
+      } else {
+         flags[row] &= ~flag;
+      }
+   }
+
+   /**
+    * Whether the session belongs to the old or the new version of the program, the unchanged
+    * sessions belong to both.
+    */
+   boolean inVersion(int row, boolean old) {
+      byte rowFlags = flags[row];
+      if ((rowFlags & (CANCELLED | OLD_VERSION | NEW_VERSION)) == 0) {
+         return true;
+      }
+      return old ? (rowFlags & (CANCELLED | OLD_VERSION)) != 0 : (rowFlags & NEW_VERSION) != 0;
+   }
+
+   /**
+    * Whether the session is running or in the future.
+    */
+   boolean isRelevant(int row, long time) {
+      return time < endMillis[row];
+   }
+
+   boolean isRunning(int row, long time) {
+      return startMillis[row] <= time && time <= endMillis[row];
+   }
+}
@@ -0,0 +1,266 @@
+/*
+ * OpenAir Event Program Model
+ * Copyright (C) 2012 Michal Linhard <michal@linhard.sk>
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package sk.linhard.openair.eventmodel;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+
+import org.joda.time.DateTime;
+
+/**
+ * Index of the sessions of the whole event by time, answers what is running, what overlaps a
+ * time span and what starts next without walking the locations and days.
+ *
+ * Only the sessions that take place are indexed, the cancelled ones and the old versions of the
+ * changed ones are left out. The index is a treap ordered by the start of the session, each node
+ * knows the maximal end in its subtree so the subtrees that ended before the time asked for are
+ * skipped. The priorities of the nodes are random, so the expected depth of the tree is
+ * logarithmic in whatever order the sessions come, and the tree is changed without recursion.
+ * The sessions update it when they're changed, replacing whole arrays of the model drops it and
+ * it's built again by {@link Event#getSessionIndex()}.
+ *
+ * Results are ordered by the start of the session.
+ *
+ * @author Michal Linhard <michal@linhard.sk>
+ */
+public class SessionIndex {
+   private static final Session[] NO_SESSIONS = new Session[0];
+
+   private Node root;
+   private final IdentityHashMap<Session, Node> nodes = new IdentityHashMap<Session, Node>();
+   private long nextSeq;
+   private final Random random = new Random();
+
+   private static final class Node {
+      final Session session;
+      final long start;
+      final long end;
+      // breaks the ties of the same start
+      final long seq;
+      final int priority;
+      long maxEnd;
+      Node left;
+      Node right;
+
+      Node(Session aSession, long aSeq, int aPriority) {
+         session = aSession;
+         start = aSession.getStartMillis();
+         end = aSession.getEndMillis();
+         seq = aSeq;
+         priority = aPriority;
+         maxEnd = end;
+      }
+
+      boolean before(Node other) {
+         return start < other.start || (start == other.start && seq < other.seq);
+      }
+
+      void update() {
+         long max = end;
+         if (left != null && left.maxEnd > max) {
+            max = left.maxEnd;
+         }
+         if (right != null && right.maxEnd > max) {
+            max = right.maxEnd;
+         }
+         maxEnd = max;
+      }
+   }
+
+   SessionIndex(Event anEvent) {
+      for (Location eachLocation : anEvent) {
+         for (DayProgram eachDay : eachLocation) {
+            for (Session eachSession : eachDay) {
+               update(eachSession);
+            }
+         }
+      }
+   }
+
+   static boolean isIndexed(Session aSession) {
+      return !aSession.isCancelled() && !aSession.isOldVersion() && aSession.hasTimes();
+   }
+
+   /**
+    * Puts the session to the place given by its current times or removes it if it doesn't take
+    * place anymore.
+    */
+   void update(Session aSession) {
+      remove(aSession);
+      if (isIndexed(aSession)) {
+         Node node = new Node(aSession, nextSeq++, random.nextInt());
+         nodes.put(aSession, node);
+         insert(node);
+      }
+   }
+
+   void remove(Session aSession) {
+      Node node = nodes.remove(aSession);
+      if (node != null) {
+         remove(node);
+      }
+   }
+
+   public int size() {
+      return nodes.size();
+   }
+
+   /**
+    * Sessions running at the time, including the ones starting or ending at the time.
+    */
+   public Session[] getRunning(DateTime aTime) {
+      return getOverlapping(aTime, aTime);
+   }
+
+   /**
+    * Sessions that overlap the span between the times, including the bounds.
+    */
+   public Session[] getOverlapping(DateTime aFrom, DateTime aTo) {
+      List<Session> result = new ArrayList<Session>();
+      collect(root, aFrom.getMillis(), aTo.getMillis(), result);
+      return toArray(result);
+   }
+
+   /**
+    * At most the count of sessions starting after the time.
+    */
+   public Session[] getNextStarts(DateTime aTime, int aCount) {
+      List<Session> result = new ArrayList<Session>(Math.min(aCount, nodes.size()));
+      collectNext(root, aTime.getMillis(), aCount, result);
+      return toArray(result);
+   }
+
+   private static Session[] toArray(List<Session> result) {
+      return result.isEmpty() ? NO_SESSIONS : result.toArray(new Session[result.size()]);
+   }
+
+   private static void collect(Node n, long from, long to, List<Session> result) {
+      if (n == null || n.maxEnd < from) {
+         return;
+      }
+      collect(n.left, from, to, result);
+      if (n.start > to) {
+         return;
+      }
+      if (n.end >= from) {
+         result.add(n.session);
+      }
+      collect(n.right, from, to, result);
+   }
+
+   private static void collectNext(Node n, long time, int count, List<Session> result) {
+      if (n == null || result.size() >= count) {
+         return;
+      }
+      if (n.start > time) {
+         collectNext(n.left, time, count, result);
+         if (result.size() >= count) {
+            return;
+         }
+         result.add(n.session);
+      }
+      collectNext(n.right, time, count, result);
+   }
+
+   /**
+    * Adds the node as a leaf and rotates it up above the nodes of lower priority.
+    */
+   private void insert(Node n) {
+      List<Node> path = new ArrayList<Node>();
+      Node t = root;
+      while (t != null) {
+         path.add(t);
+         t = n.before(t) ? t.left : t.right;
+      }
+      if (path.isEmpty()) {
+         root = n;
+         return;
+      }
+      Node leafParent = path.get(path.size() - 1);
+      if (n.before(leafParent)) {
+         leafParent.left = n;
+      } else {
+         leafParent.right = n;
+      }
+      boolean rising = true;
+      for (int i = path.size() - 1; i >= 0; i--) {
+         Node parent = path.get(i);
+         if (rising && n.priority > parent.priority) {
+            replace(i == 0 ? null : path.get(i - 1), parent, parent.left == n ? rotateRight(parent)
+                  : rotateLeft(parent));
+         } else {
+            parent.update();
+            rising = false;
+         }
+      }
+   }
+
+   /**
+    * Rotates the node down below the child of higher priority until it has at most one child and
+    * puts the child in its place.
+    */
+   private void remove(Node n) {
+      List<Node> path = new ArrayList<Node>();
+      Node t = root;
+      while (t != n) {
+         path.add(t);
+         t = n.before(t) ? t.left : t.right;
+      }
+      while (n.left != null && n.right != null) {
+         Node up = n.left.priority > n.right.priority ? rotateRight(n) : rotateLeft(n);
+         replace(path.isEmpty() ? null : path.get(path.size() - 1), n, up);
+         path.add(up);
+      }
+      replace(path.isEmpty() ? null : path.get(path.size() - 1), n, n.left != null ? n.left : n.right);
+      for (int i = path.size() - 1; i >= 0; i--) {
+         path.get(i).update();
+      }
+   }
+
+   private void replace(Node parent, Node old, Node replacement) {
+      if (parent == null) {
+         root = replacement;
+      } else if (parent.left == old) {
+         parent.left = replacement;
+      } else {
+         parent.right = replacement;
+      }
+   }
+
+   private static Node rotateRight(Node t) {
+      Node l = t.left;
+      t.left = l.right;
+      t.update();
+      l.right = t;
+      l.update();
+      return l;
+   }
+
+   private static Node rotateLeft(Node t) {
+      Node r = t.right;
+      t.right = r.left;
+      t.update();
+      r.left = t;
+      r.update();
+      return r;
+   }
+}
@@ -26,6 +26,11 @@ package sk.linhard.openair.eventmodel.exceptions;
  */
 public class EventModelException extends RuntimeException {
    public static final int DUPLICATE_LOCATION_NAME = 10;
+   public static final int PATCH_VERSION_MISMATCH = 11;
+   public static final int PATCH_CONFLICT = 12;
+   public static final int INVALID_DOCUMENT = 13;
+   public static final int FROZEN = 14;
+   public static final int EDIT_CONFLICT = 15;
 
    private int errorCode;
 
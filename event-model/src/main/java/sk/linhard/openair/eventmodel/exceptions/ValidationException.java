@@ -0,0 +1,96 @@
+/*
+ * OpenAir Event Program Model
+ * Copyright (C) 2012 Michal Linhard <michal@linhard.sk>
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package sk.linhard.openair.eventmodel.exceptions;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The event document read doesn't conform to event.xsd. Carries all the violations found in the
+ * document, in document order.
+ * 
+ * @author Michal Linhard <michal@linhard.sk>
+ */
+public class ValidationException extends EventModelException {
+   private static final int MESSAGE_VIOLATIONS = 10;
+
+   private final List<Violation> violations;
+
+   /**
+    * Single violation of the schema.
+    */
+   public static class Violation {
+      private final String message;
+      private final int lineNumber;
+      private final int columnNumber;
+
+      public Violation(String aMessage, int aLineNumber, int aColumnNumber) {
+         message = aMessage;
+         lineNumber = aLineNumber;
+         columnNumber = aColumnNumber;
+      }
+
+      public String getMessage() {
+         return message;
+      }
+
+      /**
+       * Line of the element the violation was found at, -1 if not known.
+       */
+      public int getLineNumber() {
+         return lineNumber;
+      }
+
+      /**
+       * Column of the end of the start tag the violation was found at, -1 if not known.
+       */
+      public int getColumnNumber() {
+         return columnNumber;
+      }
+
+      @Override
+      public String toString() {
+         return lineNumber == -1 ? message : lineNumber + ":" + columnNumber + ": " + message;
+      }
+   }
+
+   public ValidationException(List<Violation> aViolations) {
+      super(INVALID_DOCUMENT);
+      violations = Collections.unmodifiableList(new ArrayList<Violation>(aViolations));
+   }
+
+   public List<Violation> getViolations() {
+      return violations;
+   }
+
+   @Override
+   public String getMessage() {
+      StringBuilder sb = new StringBuilder();
+      sb.append(violations.size()).append(violations.size() == 1 ? " violation" : " violations");
+      for (int i = 0; i < violations.size() && i < MESSAGE_VIOLATIONS; i++) {
+         sb.append(i == 0 ? ": " : "; ").append(violations.get(i));
+      }
+      if (violations.size() > MESSAGE_VIOLATIONS) {
+         sb.append("; ...");
+      }
+      return sb.toString();
+   }
+}
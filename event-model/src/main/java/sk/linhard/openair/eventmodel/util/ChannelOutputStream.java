@@ -0,0 +1,88 @@
+/*
+ * OpenAir Event Program Model
+ * Copyright (C) 2012 Michal Linhard <michal@linhard.sk>
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package sk.linhard.openair.eventmodel.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Output stream collecting the bytes in a direct buffer that is written to the channel only when
+ * it's full, so that a document costs a few large writes. Flush doesn't write, the XML output
+ * flushes at the end of each ZIP entry. The buffer is taken from the cache of the thread, see
+ * {@link XmlPool#acquireBuffer()}, and given back by {@link #close()}, which writes the rest but
+ * doesn't close the channel.
+ *
+ * @author Michal Linhard <michal@linhard.sk>
+ */
+class ChannelOutputStream extends OutputStream {
+   private final WritableByteChannel channel;
+   private ByteBuffer buffer;
+
+   ChannelOutputStream(WritableByteChannel aChannel) {
+      channel = aChannel;
+      buffer = XmlPool.acquireBuffer();
+   }
+
+   @Override
+   public void write(int b) throws IOException {
+      if (!buffer.hasRemaining()) {
+         drain();
+      }
+      buffer.put((byte) b);
+   }
+
+   @Override
+   public void write(byte[] b, int off, int len) throws IOException {
+      while (len > 0) {
+         if (!buffer.hasRemaining()) {
+            drain();
+         }
+         int n = Math.min(len, buffer.remaining());
+         buffer.put(b, off, n);
+         off += n;
+         len -= n;
+      }
+   }
+
+   @Override
+   public void close() throws IOException {
+      if (buffer == null) {
+         return;
+      }
+      try {
+         if (buffer.position() > 0) {
+            drain();
+         }
+      } finally {
+         XmlPool.releaseBuffer(buffer);
+         buffer = null;
+      }
+   }
+
+   private void drain() throws IOException {
+      buffer.flip();
+      while (buffer.hasRemaining()) {
+         channel.write(buffer);
+      }
+      buffer.clear();
+   }
+}
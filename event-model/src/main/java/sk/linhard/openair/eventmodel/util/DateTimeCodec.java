@@ -0,0 +1,304 @@
+/*
+ * OpenAir Event Program Model
+ * Copyright (C) 2012 Michal Linhard <michal@linhard.sk>
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package sk.linhard.openair.eventmodel.util;
+
+import java.text.ParseException;
+
+import org.joda.time.DateTimeZone;
+
+/**
+ * Parses and formats the fixed formats of the XML, {@link Util#XML_DATETIME_FORMAT},
+ * {@link Util#XML_DATE_FORMAT} and the H:mm duration, without creating any objects. Times are
+ * epoch milliseconds, the local time is converted using the offset rules of the time zone.
+ *
+ * Immutable and thread safe. Parses the same strings to the same instants as SimpleDateFormat in
+ * the same zone, including the local times in DST gaps and overlaps. Day and month may have one
+ * digit. Strings the strict parser doesn't accept, e.g. out of range fields or years before the
+ * Gregorian calendar, are refused, callers like {@link Util} fall back to the lenient
+ * SimpleDateFormat for them.
+ *
+ * @author Michal Linhard <michal@linhard.sk>
+ */
+public class DateTimeCodec {
+   private static final long MILIS_IN_MIN = Util.MILIS_IN_MIN;
+   private static final long MILIS_IN_HOUR = Util.MILIS_IN_HOUR;
+   private static final long MILIS_IN_DAY = 24 * MILIS_IN_HOUR;
+
+   // 1583-01-01 and 9999-12-30, outside the range SimpleDateFormat uses the Julian calendar or
+   // other year formats
+   private static final long MIN_FORMATTABLE = daysFromCivil(1583, 1, 1) * MILIS_IN_DAY;
+   private static final long MAX_FORMATTABLE = daysFromCivil(9999, 12, 30) * MILIS_IN_DAY;
+
+   private static volatile DateTimeCodec defaultCodec;
+
+   private final DateTimeZone zone;
+
+   public DateTimeCodec(DateTimeZone aZone) {
+      zone = aZone;
+   }
+
+   /**
+    * Returns the codec for the default time zone.
+    */
+   public static DateTimeCodec getDefault() {
+      DateTimeCodec codec = defaultCodec;
+      DateTimeZone zone = DateTimeZone.getDefault();
+      if (codec == null || codec.zone != zone) {
+         codec = new DateTimeCodec(zone);
+         defaultCodec = codec;
+      }
+      return codec;
+   }
+
+   public DateTimeZone getZone() {
+      return zone;
+   }
+
+   /**
+    * Returns true if the time is in the range of years the codec formats the same way as
+    * SimpleDateFormat, 1583 to 9999.
+    */
+   public boolean isFormattable(long millis) {
+      return millis >= MIN_FORMATTABLE && millis < MAX_FORMATTABLE;
+   }
+
+   /**
+    * Parses dd-MM-yyyy HH:mm.
+    *
+    * @return Epoch milliseconds.
+    * @throws ParseException
+    *            If the string isn't in the strict format.
+    */
+   public long parseDateTime(CharSequence s) throws ParseException {
+      int end = s.length();
+      int pos = skipDate(s, 0);
+      if (pos >= end || s.charAt(pos) != ' ') {
+         throw new ParseException("Unparseable date: \"" + s + "\"", pos);
+      }
+      int hourEnd = digits(s, pos + 1, 2);
+      int hour = number(s, pos + 1, hourEnd);
+      if (hourEnd >= end || s.charAt(hourEnd) != ':') {
+         throw new ParseException("Unparseable date: \"" + s + "\"", hourEnd);
+      }
+      int minuteEnd = digits(s, hourEnd + 1, 2);
+      int minute = number(s, hourEnd + 1, minuteEnd);
+      if (minuteEnd != end || hour > 23 || minute > 59) {
+         throw new ParseException("Unparseable date: \"" + s + "\"", minuteEnd);
+      }
+      return toUtc(localDate(s) + hour * MILIS_IN_HOUR + minute * MILIS_IN_MIN);
+   }
+
+   /**
+    * Parses dd-MM-yyyy.
+    *
+    * @return Epoch milliseconds of the start of the day.
+    * @throws ParseException
+    *            If the string isn't in the strict format.
+    */
+   public long parseDate(CharSequence s) throws ParseException {
+      int pos = skipDate(s, 0);
+      if (pos != s.length()) {
+         throw new ParseException("Unparseable date: \"" + s + "\"", pos);
+      }
+      return toUtc(localDate(s));
+   }
+
+   /**
+    * Parses H:mm.
+    *
+    * @return Milliseconds.
+    * @throws ParseException
+    *            If the string isn't a duration.
+    */
+   public long parseDuration(CharSequence s) throws ParseException {
+      int hourEnd = digits(s, 0, 9);
+      int hours = number(s, 0, hourEnd);
+      if (hourEnd >= s.length() || s.charAt(hourEnd) != ':') {
+         throw new ParseException("Unparseable duration: \"" + s + "\"", hourEnd);
+      }
+      int minuteEnd = digits(s, hourEnd + 1, 9);
+      int minutes = number(s, hourEnd + 1, minuteEnd);
+      if (minuteEnd != s.length()) {
+         throw new ParseException("Unparseable duration: \"" + s + "\"", minuteEnd);
+      }
+      return hours * MILIS_IN_HOUR + minutes * MILIS_IN_MIN;
+   }
+
+   /**
+    * Appends the time as dd-MM-yyyy HH:mm.
+    *
+    * @return The builder.
+    */
+   public StringBuilder formatDateTime(long millis, StringBuilder sb) {
+      long local = millis + zone.getOffset(millis);
+      appendDate(floorDiv(local, MILIS_IN_DAY), sb);
+      int minuteOfDay = (int) ((local - floorDiv(local, MILIS_IN_DAY) * MILIS_IN_DAY) / MILIS_IN_MIN);
+      sb.append(' ');
+      twoDigits(minuteOfDay / 60, sb);
+      sb.append(':');
+      twoDigits(minuteOfDay % 60, sb);
+      return sb;
+   }
+
+   /**
+    * Appends the date of the time as dd-MM-yyyy.
+    *
+    * @return The builder.
+    */
+   public StringBuilder formatDate(long millis, StringBuilder sb) {
+      long local = millis + zone.getOffset(millis);
+      appendDate(floorDiv(local, MILIS_IN_DAY), sb);
+      return sb;
+   }
+
+   /**
+    * Appends the non-negative duration as H:mm.
+    *
+    * @return The builder.
+    */
+   public static StringBuilder formatDuration(long millis, StringBuilder sb) {
+      sb.append(millis / MILIS_IN_HOUR);
+      sb.append(':');
+      twoDigits((int) ((millis % MILIS_IN_HOUR) / MILIS_IN_MIN), sb);
+      return sb;
+   }
+
+   private long toUtc(long localMillis) {
+      return zone.convertLocalToUTC(localMillis, false);
+   }
+
+   /**
+    * Returns the position after d-M-yyyy, checks the fields.
+    */
+   private static int skipDate(CharSequence s, int pos) throws ParseException {
+      int dayEnd = digits(s, pos, 2);
+      if (dayEnd >= s.length() || s.charAt(dayEnd) != '-') {
+         throw new ParseException("Unparseable date: \"" + s + "\"", dayEnd);
+      }
+      int monthEnd = digits(s, dayEnd + 1, 2);
+      if (monthEnd >= s.length() || s.charAt(monthEnd) != '-') {
+         throw new ParseException("Unparseable date: \"" + s + "\"", monthEnd);
+      }
+      int yearEnd = digits(s, monthEnd + 1, 4);
+      if (yearEnd - monthEnd - 1 != 4) {
+         throw new ParseException("Unparseable date: \"" + s + "\"", yearEnd);
+      }
+      int day = number(s, pos, dayEnd);
+      int month = number(s, dayEnd + 1, monthEnd);
+      int year = number(s, monthEnd + 1, yearEnd);
+      if (month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month) || year < 1583) {
+         throw new ParseException("Unparseable date: \"" + s + "\"", pos);
+      }
+      return yearEnd;
+   }
+
+   /**
+    * Returns the local milliseconds of the start of the day of the checked date at the start of
+    * the string.
+    */
+   private static long localDate(CharSequence s) throws ParseException {
+      int dayEnd = digits(s, 0, 2);
+      int monthEnd = digits(s, dayEnd + 1, 2);
+      int yearEnd = digits(s, monthEnd + 1, 4);
+      return daysFromCivil(number(s, monthEnd + 1, yearEnd), number(s, dayEnd + 1, monthEnd), number(s, 0, dayEnd))
+            * MILIS_IN_DAY;
+   }
+
+   /**
+    * Returns the end of the digits starting at pos, at least one and at most max digits.
+    */
+   private static int digits(CharSequence s, int pos, int max) throws ParseException {
+      int end = pos;
+      while (end < s.length() && end - pos < max && s.charAt(end) >= '0' && s.charAt(end) <= '9') {
+         end++;
+      }
+      if (end == pos) {
+         throw new ParseException("Unparseable: \"" + s + "\"", pos);
+      }
+      return end;
+   }
+
+   private static int number(CharSequence s, int start, int end) {
+      int n = 0;
+      for (int i = start; i < end; i++) {
+         n = n * 10 + s.charAt(i) - '0';
+      }
+      return n;
+   }
+
+   private static int daysInMonth(int year, int month) {
+      switch (month) {
+      case 2:
+         return year % 4 == 0 && (year % 100 != 0 || year % 400 == 0) ? 29 : 28;
+      case 4:
+      case 6:
+      case 9:
+      case 11:
+         return 30;
+      default:
+         return 31;
+      }
+   }
+
+   /**
+    * Days since 1970-01-01 of the proleptic Gregorian date.
+    */
+   static long daysFromCivil(int year, int month, int day) {
+      long y = month <= 2 ? year - 1 : year;
+      long era = floorDiv(y, 400);
+      long yearOfEra = y - era * 400;
+      long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+      long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+      return era * 146097 + dayOfEra - 719468;
+   }
+
+   /**
+    * Appends dd-MM-yyyy of the days since 1970-01-01.
+    */
+   private static void appendDate(long days, StringBuilder sb) {
+      long z = days + 719468;
+      long era = floorDiv(z, 146097);
+      long dayOfEra = z - era * 146097;
+      long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+      long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+      long mp = (5 * dayOfYear + 2) / 153;
+      int day = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+      int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+      long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+      twoDigits(day, sb);
+      sb.append('-');
+      twoDigits(month, sb);
+      sb.append('-');
+      if (year < 1000) {
+         sb.append(year < 10 ? "000" : year < 100 ? "00" : "0");
+      }
+      sb.append(year);
+   }
+
+   private static long floorDiv(long x, long y) {
+      long q = x / y;
+      return (x % y != 0 && (x < 0) != (y < 0)) ? q - 1 : q;
+   }
+
+   private static void twoDigits(int n, StringBuilder sb) {
+      sb.append((char) ('0' + n / 10));
+      sb.append((char) ('0' + n % 10));
+   }
+}
@@ -0,0 +1,69 @@
+/*
+ * OpenAir Event Program Model
+ * Copyright (C) 2012 Michal Linhard <michal@linhard.sk>
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package sk.linhard.openair.eventmodel.util;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.joda.time.DateTime;
+
+/**
+ * Selects the part of the event to unmarshall, see
+ * {@link ModelMarshaller#unmarshall(java.io.InputStream, EventFilter)}. By default everything is
+ * selected.
+ *
+ * @author Michal Linhard <michal@linhard.sk>
+ */
+public class EventFilter {
+   private static final long MILIS_IN_DAY = 24 * Util.MILIS_IN_HOUR;
+
+   private HashSet<String> locationNames;
+   private DateTime from;
+   private DateTime to;
+
+   /**
+    * Selects only the locations with given names.
+    */
+   public void setLocationNames(String... aLocationNames) {
+      locationNames = aLocationNames == null ? null : new HashSet<String>(Arrays.asList(aLocationNames));
+   }
+
+   /**
+    * Selects only the day programs whose day overlaps the interval.
+    *
+    * @param aFrom
+    *           Start of the interval, null for unbounded.
+    * @param aTo
+    *           End of the interval, exclusive, null for unbounded.
+    */
+   public void setInterval(DateTime aFrom, DateTime aTo) {
+      from = aFrom;
+      to = aTo;
+   }
+
+   public boolean acceptsLocation(String aName) {
+      return locationNames == null || locationNames.contains(aName);
+   }
+
+   public boolean acceptsDay(DateTime aDayStart) {
+      long start = aDayStart.getMillis();
+      return (to == null || start < to.getMillis()) && (from == null || start + MILIS_IN_DAY > from.getMillis());
+   }
+}
@@ -0,0 +1,926 @@
+/*
+ * OpenAir Event Program Model
+ * Copyright (C) 2012 Michal Linhard <michal@linhard.sk>
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package sk.linhard.openair.eventmodel.util;
+
+import static sk.linhard.openair.eventmodel.util.ModelBinaryFormat.MILIS_IN_MIN;
+import static sk.linhard.openair.eventmodel.util.ModelBinaryFormat.dateTime;
+import static sk.linhard.openair.eventmodel.util.ModelBinaryFormat.minutes;
+import static sk.linhard.openair.eventmodel.util.ModelBinaryFormat.readVarint;
+import static sk.linhard.openair.eventmodel.util.ModelBinaryFormat.writeInt;
+import static sk.linhard.openair.eventmodel.util.ModelBinaryFormat.writeLong;
+import static sk.linhard.openair.eventmodel.util.ModelBinaryFormat.writeVarint;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+
+import sk.linhard.openair.eventmodel.DayProgram;
+import sk.linhard.openair.eventmodel.Event;
+import sk.linhard.openair.eventmodel.Location;
+import sk.linhard.openair.eventmodel.LocationMetadata;
+import sk.linhard.openair.eventmodel.Session;
+import sk.linhard.openair.eventmodel.SessionMetadata;
+import sk.linhard.openair.eventmodel.exceptions.EventModelException;
+
+/**
+ * Difference between two versions of an event. Created by {@link #diff(Event, Event)} on the
+ * server, shipped in the compact form written by {@link #write(OutputStream)} and applied in place
+ * to the base version on the client by {@link #apply(Event)}.
+ *
+ * Locations are identified by name, day programs by their day start and sessions by their position
+ * in the day program. Sessions of the two versions are paired in order by name, a paired session
+ * whose attributes changed is updated, unpaired sessions are removed or added. Old and new version
+ * links are set for the sessions whose links changed, so a moved session is an added new version
+ * plus two links and a cancelled session is an update.
+ *
+ * The patch has the minute precision of the XML format. It consists of int magic
+ * {@link #MAGIC}, short format version, base version, target version, target version time and the
+ * operations, see {@link Operation}.
+ *
+ * @author Michal Linhard <michal@linhard.sk>
+ */
+public class EventPatch {
+   public static final int MAGIC = 0x4F414550;
+   public static final short FORMAT_VERSION = 1;
+
+   static final int EVENT_UPDATE = 1;
+   static final int LOCATION_REMOVE = 2;
+   static final int LOCATION_ADD = 3;
+   static final int LOCATION_UPDATE = 4;
+   static final int DAY_REMOVE = 5;
+   static final int DAY_ADD = 6;
+   static final int SESSION_REMOVE = 7;
+   static final int SESSION_ADD = 8;
+   static final int SESSION_UPDATE = 9;
+   static final int SESSION_LINK = 10;
+
+   private static final Location[] NO_LOCATIONS = new Location[0];
+   private static final DayProgram[] NO_DAYS = new DayProgram[0];
+   private static final Session[] NO_SESSIONS = new Session[0];
+
+   private static final int SESSION_CANCELLED = 1;
+   private static final int SESSION_HAS_METADATA = 2;
+
+   private final Long baseVersion;
+   private final Long targetVersion;
+   private final DateTime targetVersionTime;
+   private final List<Operation> operations = new ArrayList<Operation>();
+
+   /**
+    * One change. Location operations carry the location name, day operations the day start in
+    * minutes, session operations the index of the session. Removes and updates of sessions refer to
+    * the index in the base version, adds and links to the index in the target version, so removes,
+    * updates and adds of one day program are applied together, adds in ascending order. Location
+    * and day adds carry the index in the target version too and follow all removes.
+    */
+   static class Operation {
+      int type;
+      String location;
+      int day;
+      int index;
+      // attributes of the event, location or session
+      String uri;
+      String name;
+      String shortName;
+      String url;
+      String description;
+      boolean hasMetadata;
+      int start;
+      int duration;
+      boolean cancelled;
+      // link targets in the target version
+      Operation newVersion;
+      Operation oldVersion;
+
+      Operation(int aType) {
+         type = aType;
+      }
+   }
+
+   private EventPatch(Long aBaseVersion, Long aTargetVersion, DateTime aTargetVersionTime) {
+      baseVersion = aBaseVersion;
+      targetVersion = aTargetVersion;
+      targetVersionTime = aTargetVersionTime;
+   }
+
+   public Long getBaseVersion() {
+      return baseVersion;
+   }
+
+   public Long getTargetVersion() {
+      return targetVersion;
+   }
+
+   public DateTime getTargetVersionTime() {
+      return targetVersionTime;
+   }
+
+   /**
+    * Returns true iff the patch changes nothing but the version.
+    */
+   public boolean isEmpty() {
+      return operations.isEmpty();
+   }
+
+   public int getOperationCount() {
+      return operations.size();
+   }
+
+   /**
+    * Computes the patch that turns the base version of the event into the target version.
+    */
+   public static EventPatch diff(Event base, Event target) {
+      EventPatch patch = new EventPatch(base.getVersion(), target.getVersion(), target.getVersionTime());
+      new Differ(patch).diff(base, target);
+      return patch;
+   }
+
+   private static class Differ {
+      private final EventPatch patch;
+      private final IdentityHashMap<Session, Session> baseToTarget = new IdentityHashMap<Session, Session>();
+      private final IdentityHashMap<Session, Session> targetToBase = new IdentityHashMap<Session, Session>();
+      private final IdentityHashMap<Session, Integer> targetIndex = new IdentityHashMap<Session, Integer>();
+      // the name of the location of each target session, the day programs of a version made by
+      // EventEdit may link to the location of the snapshot
+      private final IdentityHashMap<Session, String> targetLocationNames = new IdentityHashMap<Session, String>();
+      private final List<Session> targetSessions = new ArrayList<Session>();
+
+      Differ(EventPatch aPatch) {
+         patch = aPatch;
+      }
+
+      void diff(Event base, Event target) {
+         if (!eq(base.getUri(), target.getUri()) || !eq(base.getName(), target.getName())
+               || !eq(base.getShortName(), target.getShortName()) || !eq(base.getUrl(), target.getUrl())
+               || !eq(base.getDescription(), target.getDescription())) {
+            Operation op = add(EVENT_UPDATE);
+            op.uri = target.getUri();
+            op.name = target.getName();
+            op.shortName = target.getShortName();
+            op.url = target.getUrl();
+            op.description = target.getDescription();
+            op.hasMetadata = target.getMetadata() != null;
+         }
+         Location[] baseLocations = nonNull(base.getLocations());
+         Location[] targetLocations = nonNull(target.getLocations());
+         int[] match = new int[targetLocations.length];
+         boolean[] kept = new boolean[baseLocations.length];
+         int next = 0;
+         for (int t = 0; t < targetLocations.length; t++) {
+            match[t] = -1;
+            for (int b = next; b < baseLocations.length; b++) {
+               if (baseLocations[b].getName().equals(targetLocations[t].getName())) {
+                  match[t] = b;
+                  kept[b] = true;
+                  next = b + 1;
+                  break;
+               }
+            }
+         }
+         for (int b = 0; b < baseLocations.length; b++) {
+            if (!kept[b]) {
+               add(LOCATION_REMOVE).location = baseLocations[b].getName();
+            }
+         }
+         for (int t = 0; t < targetLocations.length; t++) {
+            if (match[t] == -1) {
+               Operation op = add(LOCATION_ADD);
+               op.location = targetLocations[t].getName();
+               op.index = t;
+               locationAttributes(op, targetLocations[t]);
+            }
+         }
+         for (int t = 0; t < targetLocations.length; t++) {
+            Location targetLocation = targetLocations[t];
+            Location baseLocation = match[t] == -1 ? null : baseLocations[match[t]];
+            if (baseLocation != null
+                  && (!eq(baseLocation.getShortName(), targetLocation.getShortName())
+                        || !eq(baseLocation.getUrl(), targetLocation.getUrl()) || !eq(
+                        baseLocation.getDescription(), targetLocation.getDescription()))) {
+               Operation op = add(LOCATION_UPDATE);
+               op.location = targetLocation.getName();
+               locationAttributes(op, targetLocation);
+            }
+            diff(baseLocation, targetLocation);
+         }
+         for (Session session : targetSessions) {
+            Session baseSession = targetToBase.get(session);
+            boolean changed;
+            if (baseSession == null) {
+               changed = session.getNewVersion() != null || session.getOldVersion() != null;
+            } else {
+               changed = linkChanged(baseSession.getNewVersion(), session.getNewVersion())
+                     || linkChanged(baseSession.getOldVersion(), session.getOldVersion());
+            }
+            if (changed) {
+               Operation op = ref(SESSION_LINK, session);
+               op.newVersion = session.getNewVersion() == null ? null : ref(0, session.getNewVersion());
+               op.oldVersion = session.getOldVersion() == null ? null : ref(0, session.getOldVersion());
+               patch.operations.add(op);
+            }
+         }
+      }
+
+      private void diff(Location base, Location target) {
+         DayProgram[] baseDays = base == null ? NO_DAYS : nonNull(base.getDayPrograms());
+         DayProgram[] targetDays = nonNull(target.getDayPrograms());
+         int[] match = new int[targetDays.length];
+         boolean[] kept = new boolean[baseDays.length];
+         int next = 0;
+         for (int t = 0; t < targetDays.length; t++) {
+            match[t] = -1;
+            for (int b = next; b < baseDays.length; b++) {
+               if (baseDays[b].getDayStart().getMillis() == targetDays[t].getDayStart().getMillis()) {
+                  match[t] = b;
+                  kept[b] = true;
+                  next = b + 1;
+                  break;
+               }
+            }
+         }
+         for (int b = 0; b < baseDays.length; b++) {
+            if (!kept[b]) {
+               Operation op = add(DAY_REMOVE);
+               op.location = base.getName();
+               op.day = minutes(baseDays[b].getDayStart().getMillis());
+            }
+         }
+         for (int t = 0; t < targetDays.length; t++) {
+            if (match[t] == -1) {
+               Operation op = add(DAY_ADD);
+               op.location = target.getName();
+               op.day = minutes(targetDays[t].getDayStart().getMillis());
+               op.index = t;
+            }
+         }
+         for (int t = 0; t < targetDays.length; t++) {
+            diff(match[t] == -1 ? null : baseDays[match[t]], targetDays[t], target.getName());
+         }
+      }
+
+      private void diff(DayProgram base, DayProgram target, String location) {
+         Session[] baseSessions = base == null ? NO_SESSIONS : nonNull(base.getSessions());
+         Session[] targetSessions = nonNull(target.getSessions());
+         int day = minutes(target.getDayStart().getMillis());
+         int[] match = new int[targetSessions.length];
+         boolean[] kept = new boolean[baseSessions.length];
+         int next = 0;
+         for (int t = 0; t < targetSessions.length; t++) {
+            match[t] = -1;
+            for (int b = next; b < baseSessions.length; b++) {
+               if (b > next && t + 1 < targetSessions.length
+                     && eq(baseSessions[next].getName(), targetSessions[t + 1].getName())) {
+                  // inserted before the next base session, like a changed session kept in the
+                  // order of start, rather than matching a later session of the same name
+                  break;
+               }
+               if (eq(baseSessions[b].getName(), targetSessions[t].getName())) {
+                  match[t] = b;
+                  kept[b] = true;
+                  next = b + 1;
+                  baseToTarget.put(baseSessions[b], targetSessions[t]);
+                  targetToBase.put(targetSessions[t], baseSessions[b]);
+                  break;
+               }
+            }
+            this.targetSessions.add(targetSessions[t]);
+            targetIndex.put(targetSessions[t], t);
+            targetLocationNames.put(targetSessions[t], location);
+         }
+         for (int b = 0; b < baseSessions.length; b++) {
+            if (!kept[b]) {
+               Operation op = add(SESSION_REMOVE);
+               op.location = location;
+               op.day = day;
+               op.index = b;
+            }
+         }
+         for (int t = 0; t < targetSessions.length; t++) {
+            if (match[t] != -1 && !sameAttributes(baseSessions[match[t]], targetSessions[t])) {
+               Operation op = add(SESSION_UPDATE);
+               op.location = location;
+               op.day = day;
+               op.index = match[t];
+               sessionAttributes(op, targetSessions[t]);
+            }
+         }
+         for (int t = 0; t < targetSessions.length; t++) {
+            if (match[t] == -1) {
+               Operation op = add(SESSION_ADD);
+               op.location = location;
+               op.day = day;
+               op.index = t;
+               sessionAttributes(op, targetSessions[t]);
+            }
+         }
+      }
+
+      /**
+       * Returns true iff the base link doesn't lead to the session paired with the target link.
+       */
+      private boolean linkChanged(Session baseLink, Session targetLink) {
+         if (baseLink == null) {
+            return targetLink != null;
+         }
+         return baseToTarget.get(baseLink) != targetLink;
+      }
+
+      private Operation ref(int type, Session session) {
+         Integer index = targetIndex.get(session);
+         if (index == null) {
+            throw new IllegalArgumentException("Session " + session.getName()
+                  + " is linked to a session that is not part of the event");
+         }
+         Operation op = new Operation(type);
+         op.location = targetLocationNames.get(session);
+         op.day = minutes(session.getDayProgram().getDayStart().getMillis());
+         op.index = index;
+         return op;
+      }
+
+      private Operation add(int type) {
+         Operation op = new Operation(type);
+         patch.operations.add(op);
+         return op;
+      }
+   }
+
+   /**
+    * Applies the patch to the base version of the event in place.
+    *
+    * @throws EventModelException
+    *            {@link EventModelException#PATCH_VERSION_MISMATCH} if the event isn't the base
+    *            version of the patch, {@link EventModelException#PATCH_CONFLICT} if the event
+    *            doesn't have the structure the patch was computed for. The event may be partially
+    *            patched in the latter case.
+    */
+   public void apply(Event e) {
+      if (!eq(e.getVersion(), baseVersion)) {
+         throw new EventModelException(EventModelException.PATCH_VERSION_MISMATCH);
+      }
+      new Applier(e).apply(operations);
+      e.setVersion(targetVersion);
+      e.setVersionTime(targetVersionTime);
+   }
+
+   /**
+    * Session operations of one day program, applied together once all of them are known.
+    */
+   private static class DayEdit {
+      final DayProgram day;
+      final Session[] base;
+      final boolean[] removed;
+      final List<Operation> adds = new ArrayList<Operation>();
+
+      DayEdit(DayProgram aDay) {
+         day = aDay;
+         base = nonNull(aDay.getSessions());
+         removed = new boolean[base.length];
+      }
+   }
+
+   private static class Applier {
+      private final Event event;
+      private final IdentityHashMap<DayProgram, DayEdit> edits = new IdentityHashMap<DayProgram, DayEdit>();
+      private final List<DayEdit> editList = new ArrayList<DayEdit>();
+      private final List<Session> touched = new ArrayList<Session>();
+
+      Applier(Event anEvent) {
+         event = anEvent;
+      }
+
+      void apply(List<Operation> operations) {
+         boolean sessionsCommitted = false;
+         for (Operation op : operations) {
+            if (op.type == SESSION_LINK && !sessionsCommitted) {
+               commitSessions();
+               sessionsCommitted = true;
+            }
+            switch (op.type) {
+            case EVENT_UPDATE:
+               event.setUri(op.uri);
+               event.setName(op.name);
+               event.setShortName(op.shortName);
+               event.setUrl(op.url);
+               event.setDescription(op.description);
+               break;
+            case LOCATION_REMOVE:
+               event.setLocations(remove(event.getLocations(), location(op.location)));
+               break;
+            case LOCATION_ADD:
+               Location newLocation = new Location(op.location);
+               newLocation.setEvent(event);
+               locationAttributes(newLocation, op);
+               event.setLocations(insert(nonNull(event.getLocations()), op.index, newLocation));
+               break;
+            case LOCATION_UPDATE:
+               locationAttributes(location(op.location), op);
+               break;
+            case DAY_REMOVE:
+               Location location = location(op.location);
+               location.setDayPrograms(remove(location.getDayPrograms(), day(op.location, op.day)));
+               break;
+            case DAY_ADD:
+               location = location(op.location);
+               DayProgram newDay = location.addDay(dateTime(op.day));
+               DayProgram[] days = location.getDayPrograms();
+               location.setDayPrograms(insert(Arrays.copyOf(days, days.length - 1), op.index, newDay));
+               break;
+            case SESSION_REMOVE:
+               DayEdit edit = edit(op);
+               edit.removed[baseIndex(edit, op)] = true;
+               break;
+            case SESSION_UPDATE:
+               edit = edit(op);
+               Session session = edit.base[baseIndex(edit, op)];
+               sessionAttributes(session, op);
+               touched.add(session);
+               break;
+            case SESSION_ADD:
+               edit(op).adds.add(op);
+               break;
+            case SESSION_LINK:
+               session = session(op);
+               session.setNewVersion(op.newVersion == null ? null : session(op.newVersion));
+               session.setOldVersion(op.oldVersion == null ? null : session(op.oldVersion));
+               touched.add(session);
+               break;
+            default:
+               throw new EventModelException(EventModelException.PATCH_CONFLICT);
+            }
+         }
+         if (!sessionsCommitted) {
+            commitSessions();
+         }
+         // sessions of a pair share the metadata, like when they're unmarshalled
+         for (Session session : touched) {
+            Session newVersion = session.getNewVersion();
+            if (newVersion != null && sameMetadata(session, newVersion)) {
+               newVersion.setMetadata(session.getMetadata());
+            }
+            Session oldVersion = session.getOldVersion();
+            if (oldVersion != null && sameMetadata(session, oldVersion)) {
+               session.setMetadata(oldVersion.getMetadata());
+            }
+         }
+      }
+
+      private void commitSessions() {
+         for (DayEdit edit : editList) {
+            List<Session> sessions = new ArrayList<Session>(edit.base.length + edit.adds.size());
+            for (int i = 0; i < edit.base.length; i++) {
+               if (!edit.removed[i]) {
+                  sessions.add(edit.base[i]);
+               }
+            }
+            for (Operation op : edit.adds) {
+               if (op.index > sessions.size()) {
+                  throw new EventModelException(EventModelException.PATCH_CONFLICT);
+               }
+               Session session = new Session(op.name, dateTime(op.start), new Duration(op.duration * MILIS_IN_MIN));
+               sessionAttributes(session, op);
+               // sets the day program of the session
+               edit.day.addSession(session);
+               sessions.add(op.index, session);
+               touched.add(session);
+            }
+            edit.day.setSessions(sessions.isEmpty() ? null : sessions.toArray(new Session[sessions.size()]));
+         }
+         editList.clear();
+         edits.clear();
+      }
+
+      private DayEdit edit(Operation op) {
+         DayProgram day = day(op.location, op.day);
+         DayEdit edit = edits.get(day);
+         if (edit == null) {
+            edit = new DayEdit(day);
+            edits.put(day, edit);
+            editList.add(edit);
+         }
+         return edit;
+      }
+
+      private int baseIndex(DayEdit edit, Operation op) {
+         if (op.index >= edit.base.length) {
+            throw new EventModelException(EventModelException.PATCH_CONFLICT);
+         }
+         return op.index;
+      }
+
+      private Location location(String name) {
+         Location location = event.findLocation(name);
+         if (location == null) {
+            throw new EventModelException(EventModelException.PATCH_CONFLICT);
+         }
+         return location;
+      }
+
+      private DayProgram day(String locationName, int dayStart) {
+         DayProgram day = location(locationName).findDayProgram(dateTime(dayStart));
+         if (day == null) {
+            throw new EventModelException(EventModelException.PATCH_CONFLICT);
+         }
+         return day;
+      }
+
+      private Session session(Operation ref) {
+         Session[] sessions = nonNull(day(ref.location, ref.day).getSessions());
+         if (ref.index >= sessions.length) {
+            throw new EventModelException(EventModelException.PATCH_CONFLICT);
+         }
+         return sessions[ref.index];
+      }
+
+      private static void locationAttributes(Location location, Operation op) {
+         location.setShortName(op.shortName);
+         if (op.hasMetadata) {
+            LocationMetadata metadata = new LocationMetadata();
+            metadata.setUrl(op.url);
+            metadata.setDescription(op.description);
+            location.setMetadata(metadata);
+         } else {
+            location.setMetadata(null);
+         }
+      }
+
+      /**
+       * Sets attributes of the session alone, not of its old or new version.
+       */
+      private static void sessionAttributes(Session session, Operation op) {
+         Session newVersion = session.getNewVersion();
+         Session oldVersion = session.getOldVersion();
+         session.setNewVersion(null);
+         session.setOldVersion(null);
+         session.setName(op.name);
+         session.setShortName(op.shortName);
+         session.setNewVersion(newVersion);
+         session.setOldVersion(oldVersion);
+         session.setStart(dateTime(op.start));
+         session.setDuration(new Duration(op.duration * MILIS_IN_MIN));
+         session.setCancelled(op.cancelled);
+         if (op.hasMetadata) {
+            SessionMetadata metadata = new SessionMetadata();
+            metadata.setUrl(op.url);
+            metadata.setDescription(op.description);
+            session.setMetadata(metadata);
+         } else {
+            session.setMetadata(null);
+         }
+      }
+
+      private static boolean sameMetadata(Session a, Session b) {
+         if (a.getMetadata() == null || b.getMetadata() == null) {
+            return false;
+         }
+         return eq(a.getUrl(), b.getUrl()) && eq(a.getDescription(), b.getDescription());
+      }
+
+      private static Location[] remove(Location[] locations, Location location) {
+         List<Location> list = new ArrayList<Location>(Arrays.asList(locations));
+         list.remove(location);
+         return list.isEmpty() ? null : list.toArray(new Location[list.size()]);
+      }
+
+      private static DayProgram[] remove(DayProgram[] days, DayProgram day) {
+         List<DayProgram> list = new ArrayList<DayProgram>(Arrays.asList(days));
+         list.remove(day);
+         return list.isEmpty() ? null : list.toArray(new DayProgram[list.size()]);
+      }
+
+      private static Location[] insert(Location[] locations, int index, Location location) {
+         if (index > locations.length) {
+            throw new EventModelException(EventModelException.PATCH_CONFLICT);
+         }
+         List<Location> list = new ArrayList<Location>(Arrays.asList(locations));
+         list.add(index, location);
+         return list.toArray(new Location[list.size()]);
+      }
+
+      private static DayProgram[] insert(DayProgram[] days, int index, DayProgram day) {
+         if (index > days.length) {
+            throw new EventModelException(EventModelException.PATCH_CONFLICT);
+         }
+         List<DayProgram> list = new ArrayList<DayProgram>(Arrays.asList(days));
+         list.add(index, day);
+         return list.toArray(new DayProgram[list.size()]);
+      }
+   }
+
+   /**
+    * Writes the patch.
+    *
+    * @param os
+    *           Output stream, flushed but not closed.
+    */
+   public void write(OutputStream os) throws IOException {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      writeInt(out, MAGIC);
+      out.write(FORMAT_VERSION >>> 8);
+      out.write(FORMAT_VERSION);
+      writeOptionalLong(out, baseVersion);
+      writeOptionalLong(out, targetVersion);
+      writeOptionalLong(out, targetVersionTime == null ? null : targetVersionTime.getMillis());
+      writeVarint(out, operations.size());
+      for (Operation op : operations) {
+         out.write(op.type);
+         switch (op.type) {
+         case EVENT_UPDATE:
+            writeString(out, op.uri);
+            writeString(out, op.name);
+            writeString(out, op.shortName);
+            writeMetadata(out, op);
+            break;
+         case LOCATION_REMOVE:
+            writeString(out, op.location);
+            break;
+         case LOCATION_ADD:
+            writeString(out, op.location);
+            writeVarint(out, op.index);
+            writeString(out, op.shortName);
+            writeMetadata(out, op);
+            break;
+         case LOCATION_UPDATE:
+            writeString(out, op.location);
+            writeString(out, op.shortName);
+            writeMetadata(out, op);
+            break;
+         case DAY_REMOVE:
+            writeString(out, op.location);
+            writeInt(out, op.day);
+            break;
+         case DAY_ADD:
+            writeString(out, op.location);
+            writeInt(out, op.day);
+            writeVarint(out, op.index);
+            break;
+         case SESSION_REMOVE:
+            writeRef(out, op);
+            break;
+         case SESSION_ADD:
+         case SESSION_UPDATE:
+            writeRef(out, op);
+            writeString(out, op.name);
+            writeString(out, op.shortName);
+            writeVarint(out, ModelBinaryFormat.zigzag(op.start - op.day));
+            writeVarint(out, op.duration);
+            out.write((op.cancelled ? SESSION_CANCELLED : 0) | (op.hasMetadata ? SESSION_HAS_METADATA : 0));
+            if (op.hasMetadata) {
+               writeString(out, op.url);
+               writeString(out, op.description);
+            }
+            break;
+         case SESSION_LINK:
+            writeRef(out, op);
+            writeOptionalRef(out, op.newVersion);
+            writeOptionalRef(out, op.oldVersion);
+            break;
+         default:
+            throw new IllegalStateException("Unknown operation " + op.type);
+         }
+      }
+      out.writeTo(os);
+      os.flush();
+   }
+
+   /**
+    * Reads the patch.
+    *
+    * @param is
+    *           Input stream, read to the end but not closed.
+    */
+   public static EventPatch read(InputStream is) throws IOException {
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      byte[] chunk = new byte[4096];
+      int len;
+      while ((len = is.read(chunk)) != -1) {
+         bos.write(chunk, 0, len);
+      }
+      ByteBuffer buf = ByteBuffer.wrap(bos.toByteArray());
+      try {
+         if (buf.getInt() != MAGIC) {
+            throw new IOException("Not an OpenAir event patch");
+         }
+         short version = buf.getShort();
+         if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported event patch format version " + version);
+         }
+         Long baseVersion = readOptionalLong(buf);
+         Long targetVersion = readOptionalLong(buf);
+         Long targetVersionTime = readOptionalLong(buf);
+         EventPatch patch = new EventPatch(baseVersion, targetVersion, targetVersionTime == null ? null
+               : new DateTime(targetVersionTime.longValue()));
+         int count = readVarint(buf);
+         for (int i = 0; i < count; i++) {
+            Operation op = new Operation(buf.get());
+            switch (op.type) {
+            case EVENT_UPDATE:
+               op.uri = readString(buf);
+               op.name = readString(buf);
+               op.shortName = readString(buf);
+               readMetadata(buf, op);
+               break;
+            case LOCATION_REMOVE:
+               op.location = readString(buf);
+               break;
+            case LOCATION_ADD:
+               op.location = readString(buf);
+               op.index = readVarint(buf);
+               op.shortName = readString(buf);
+               readMetadata(buf, op);
+               break;
+            case LOCATION_UPDATE:
+               op.location = readString(buf);
+               op.shortName = readString(buf);
+               readMetadata(buf, op);
+               break;
+            case DAY_REMOVE:
+               op.location = readString(buf);
+               op.day = buf.getInt();
+               break;
+            case DAY_ADD:
+               op.location = readString(buf);
+               op.day = buf.getInt();
+               op.index = readVarint(buf);
+               break;
+            case SESSION_REMOVE:
+               readRef(buf, op);
+               break;
+            case SESSION_ADD:
+            case SESSION_UPDATE:
+               readRef(buf, op);
+               op.name = readString(buf);
+               op.shortName = readString(buf);
+               op.start = op.day + ModelBinaryFormat.unzigzag(readVarint(buf));
+               op.duration = readVarint(buf);
+               int flags = buf.get();
+               op.cancelled = (flags & SESSION_CANCELLED) != 0;
+               op.hasMetadata = (flags & SESSION_HAS_METADATA) != 0;
+               if (op.hasMetadata) {
+                  op.url = readString(buf);
+                  op.description = readString(buf);
+               }
+               break;
+            case SESSION_LINK:
+               readRef(buf, op);
+               op.newVersion = readOptionalRef(buf);
+               op.oldVersion = readOptionalRef(buf);
+               break;
+            default:
+               throw new IOException("Unknown event patch operation " + op.type);
+            }
+            patch.operations.add(op);
+         }
+         return patch;
+      } catch (BufferUnderflowException e) {
+         throw new IOException("Truncated event patch");
+      }
+   }
+
+   private static void writeMetadata(ByteArrayOutputStream out, Operation op) throws IOException {
+      out.write(op.hasMetadata ? 1 : 0);
+      if (op.hasMetadata) {
+         writeString(out, op.url);
+         writeString(out, op.description);
+      }
+   }
+
+   private static void readMetadata(ByteBuffer buf, Operation op) throws IOException {
+      op.hasMetadata = buf.get() != 0;
+      if (op.hasMetadata) {
+         op.url = readString(buf);
+         op.description = readString(buf);
+      }
+   }
+
+   private static void writeRef(ByteArrayOutputStream out, Operation ref) throws IOException {
+      writeString(out, ref.location);
+      writeInt(out, ref.day);
+      writeVarint(out, ref.index);
+   }
+
+   private static void readRef(ByteBuffer buf, Operation ref) throws IOException {
+      ref.location = readString(buf);
+      ref.day = buf.getInt();
+      ref.index = readVarint(buf);
+   }
+
+   private static void writeOptionalRef(ByteArrayOutputStream out, Operation ref) throws IOException {
+      out.write(ref == null ? 0 : 1);
+      if (ref != null) {
+         writeRef(out, ref);
+      }
+   }
+
+   private static Operation readOptionalRef(ByteBuffer buf) throws IOException {
+      if (buf.get() == 0) {
+         return null;
+      }
+      Operation ref = new Operation(0);
+      readRef(buf, ref);
+      return ref;
+   }
+
+   private static void writeOptionalLong(ByteArrayOutputStream out, Long value) {
+      out.write(value == null ? 0 : 1);
+      if (value != null) {
+         writeLong(out, value);
+      }
+   }
+
+   private static Long readOptionalLong(ByteBuffer buf) {
+      return buf.get() == 0 ? null : Long.valueOf(buf.getLong());
+   }
+
+   /**
+    * Writes varint byte length plus one, zero for null, followed by UTF-8 bytes.
+    */
+   private static void writeString(ByteArrayOutputStream out, String s) throws IOException {
+      if (s == null) {
+         writeVarint(out, 0);
+         return;
+      }
+      byte[] bytes = s.getBytes("UTF-8");
+      writeVarint(out, bytes.length + 1);
+      out.write(bytes);
+   }
+
+   private static String readString(ByteBuffer buf) throws IOException {
+      int length = readVarint(buf) - 1;
+      if (length == -1) {
+         return null;
+      }
+      byte[] bytes = new byte[length];
+      buf.get(bytes);
+      return new String(bytes, "UTF-8");
+   }
+
+   private static void locationAttributes(Operation op, Location location) {
+      op.shortName = location.getShortName();
+      op.url = location.getUrl();
+      op.description = location.getDescription();
+      op.hasMetadata = location.getMetadata() != null;
+   }
+
+   private static void sessionAttributes(Operation op, Session session) {
+      op.name = session.getName();
+      op.shortName = session.getShortName();
+      op.start = minutes(session.getStart().getMillis());
+      op.duration = (int) (session.getDuration().getMillis() / MILIS_IN_MIN);
+      op.cancelled = session.isCancelled();
+      op.hasMetadata = session.getMetadata() != null;
+      op.url = session.getUrl();
+      op.description = session.getDescription();
+   }
+
+   private static boolean sameAttributes(Session a, Session b) {
+      return eq(a.getName(), b.getName()) && eq(a.getShortName(), b.getShortName())
+            && minutes(a.getStart().getMillis()) == minutes(b.getStart().getMillis())
+            && a.getDuration().getMillis() / MILIS_IN_MIN == b.getDuration().getMillis() / MILIS_IN_MIN
+            && a.isCancelled() == b.isCancelled() && (a.getMetadata() == null) == (b.getMetadata() == null)
+            && eq(a.getUrl(), b.getUrl()) && eq(a.getDescription(), b.getDescription());
+   }
+
+   private static Location[] nonNull(Location[] locations) {
+      return locations == null ? NO_LOCATIONS : locations;
+   }
+
+   private static DayProgram[] nonNull(DayProgram[] days) {
+      return days == null ? NO_DAYS : days;
+   }
+
+   private static Session[] nonNull(Session[] sessions) {
+      return sessions == null ? NO_SESSIONS : sessions;
+   }
+
+   private static boolean eq(Object a, Object b) {
+      return a == null ? b == null : a.equals(b);
+   }
+}
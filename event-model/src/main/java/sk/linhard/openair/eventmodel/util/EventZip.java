@@ -0,0 +1,415 @@
+/*
+ * OpenAir Event Program Model
+ * Copyright (C) 2012 Michal Linhard <michal@linhard.sk>
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package sk.linhard.openair.eventmodel.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.text.ParseException;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import sk.linhard.openair.eventmodel.ContentLoader;
+import sk.linhard.openair.eventmodel.DayProgram;
+import sk.linhard.openair.eventmodel.Event;
+import sk.linhard.openair.eventmodel.Location;
+import sk.linhard.openair.eventmodel.Session;
+
+/**
+ * ZIP layout of the event XML with one entry per location.
+ *
+ * The first entry, index.xml, is an event document whose program lists the locations without
+ * their days, its metadata section holds the event and location metadata. Entry locations/N.xml
+ * holds the N-th location element with its days and a metadata section with the metadata of its
+ * sessions. The ids are numbered across all entries. A location whose sessions are linked to
+ * sessions in other locations lists their numbers in the linked attribute, so a reader knows
+ * which entries it needs to inflate to link them. A session linked across locations has its
+ * metadata in both entries.
+ *
+ * Opened from a file, only the index is read, the entries of the locations are inflated the first
+ * time the days of a location are needed, together with the entries of the locations it's linked
+ * to. The single entry layout, event.xml, is still read.
+ *
+ * The violations found in an entry are reported with the entry name. Metadata without owner and
+ * old versions without new version are found only when the whole archive is read.
+ *
+ * @author Michal Linhard <michal@linhard.sk>
+ */
+class EventZip implements ContentLoader {
+   static final String SINGLE_ENTRY = "event.xml";
+   static final String INDEX_ENTRY = "index.xml";
+   private static final String LOCATION_ENTRY_PREFIX = "locations/";
+
+   private final File file;
+   // resolves the ids across the entries
+   private final StreamingUnmarshaller unmarshaller;
+   private Location[] locations;
+   private boolean[] loaded;
+   private final IdentityHashMap<Location, Integer> locationIndex = new IdentityHashMap<Location, Integer>();
+
+   private EventZip(File aFile) throws XmlPullParserException {
+      file = aFile;
+      unmarshaller = new StreamingUnmarshaller(StreamingUnmarshaller.newParser());
+   }
+
+   static String locationEntry(int index) {
+      return LOCATION_ENTRY_PREFIX + index + ".xml";
+   }
+
+   /**
+    * Writes the ZIP archive and closes the stream.
+    *
+    * @param level
+    *           Deflater level or {@link ModelMarshaller#ZIP_STORED}.
+    */
+   static void write(Event e, OutputStream os, boolean entryPerLocation, int level) throws IOException {
+      EntryWriter zip = new EntryWriter(os, level);
+      XmlOutput ser = null;
+      try {
+         if (entryPerLocation) {
+            ser = XmlPool.acquireOutput(zip.startEntry(INDEX_ENTRY));
+            writeEntries(e, zip, ser);
+         } else {
+            ser = XmlPool.acquireOutput(zip.startEntry(SINGLE_ENTRY));
+            ModelMarshaller.marshall(e, ser);
+            zip.closeEntry();
+         }
+      } finally {
+         if (ser != null) {
+            XmlPool.releaseOutput(ser);
+         }
+      }
+      zip.close();
+   }
+
+   /**
+    * Writes the ZIP entries, compressed or stored. The size and CRC of a stored entry precede its
+    * data, so the data of the entry is collected in memory first.
+    */
+   private static class EntryWriter {
+      private final ZipOutputStream zos;
+      private final ByteArrayOutputStream storedData;
+      private String storedName;
+
+      EntryWriter(OutputStream os, int level) {
+         zos = new ZipOutputStream(os);
+         if (level == ModelMarshaller.ZIP_STORED) {
+            zos.setMethod(ZipOutputStream.STORED);
+            storedData = new ByteArrayOutputStream(XmlPool.CHANNEL_BUFFER_SIZE);
+         } else {
+            zos.setLevel(level);
+            storedData = null;
+         }
+      }
+
+      /**
+       * Returns the stream to write the entry data to.
+       */
+      OutputStream startEntry(String name) throws IOException {
+         if (storedData == null) {
+            zos.putNextEntry(new ZipEntry(name));
+            return zos;
+         }
+         storedName = name;
+         storedData.reset();
+         return storedData;
+      }
+
+      void closeEntry() throws IOException {
+         if (storedData != null) {
+            ZipEntry entry = new ZipEntry(storedName);
+            CRC32 crc = new CRC32();
+            byte[] data = storedData.toByteArray();
+            crc.update(data);
+            entry.setSize(data.length);
+            entry.setCompressedSize(data.length);
+            entry.setCrc(crc.getValue());
+            zos.putNextEntry(entry);
+            zos.write(data);
+         }
+         zos.closeEntry();
+      }
+
+      void close() throws IOException {
+         zos.close();
+      }
+   }
+
+   private static void writeEntries(Event e, EntryWriter zip, XmlOutput ser) throws IOException {
+      ModelMarshaller.ProgramWriter writer = new ModelMarshaller.ProgramWriter();
+      writer.startEvent(e, ser);
+      ser.startTag("program");
+      IdentityHashMap<Location, Integer> index = new IdentityHashMap<Location, Integer>();
+      for (Location eachLocation : e) {
+         index.put(eachLocation, index.size());
+         writer.startLocation(eachLocation, ser, true, null);
+         ser.endTag("location");
+      }
+      ser.endTag("program");
+      writer.writeMetadata(e, ser);
+      ser.endTag("event");
+      ser.endDocument();
+      zip.closeEntry();
+
+      for (Location eachLocation : e) {
+         ser.reset(zip.startEntry(locationEntry(index.get(eachLocation))));
+         ser.startDocument();
+         writer.startLocation(eachLocation, ser, false, linked(e, eachLocation, index));
+         writer.writeDays(eachLocation, ser);
+         writer.writeMetadata(null, ser);
+         ser.endTag("location");
+         ser.endDocument();
+         zip.closeEntry();
+      }
+   }
+
+   /**
+    * Returns the numbers of the other locations containing old or new versions of the sessions in
+    * the location.
+    */
+   private static String linked(Event e, Location location, IdentityHashMap<Location, Integer> index) {
+      TreeSet<Integer> linked = new TreeSet<Integer>();
+      for (DayProgram eachDay : location) {
+         for (Session eachSession : eachDay) {
+            if (eachSession.isMoved()) {
+               Session other = eachSession.isOldVersion() ? eachSession.getNewVersion() : eachSession.getOldVersion();
+               Location otherLocation = e.getLocation(other);
+               Integer otherIndex = index.get(otherLocation);
+               if (otherIndex != null && otherLocation != location) {
+                  linked.add(otherIndex);
+               }
+            }
+         }
+      }
+      if (linked.isEmpty()) {
+         return null;
+      }
+      StringBuilder sb = new StringBuilder();
+      for (Integer each : linked) {
+         if (sb.length() > 0) {
+            sb.append(' ');
+         }
+         sb.append(each);
+      }
+      return sb.toString();
+   }
+
+   /**
+    * Reads either layout from the stream, the index must be the first entry.
+    */
+   static Event read(InputStream is) throws IOException, XmlPullParserException, ParseException {
+      ZipInputStream zis = new ZipInputStream(is);
+      EventZip zip = null;
+      Event event = null;
+      ZipEntry zentry;
+      while ((zentry = zis.getNextEntry()) != null) {
+         String name = zentry.getName();
+         if (event == null && SINGLE_ENTRY.equals(name)) {
+            XmlPullParser parser = XmlPool.acquireParser();
+            try {
+               event = new StreamingUnmarshaller(parser).unmarshall(zis);
+            } finally {
+               XmlPool.releaseParser(parser);
+            }
+            break;
+         } else if (event == null && INDEX_ENTRY.equals(name)) {
+            zip = new EventZip(null);
+            event = zip.readIndex(zis);
+         } else if (zip != null && name.startsWith(LOCATION_ENTRY_PREFIX)) {
+            zip.readLocation(locationNumber(name), zis);
+         }
+         zis.closeEntry();
+      }
+      zis.close();
+      if (event == null) {
+         throw new IOException("No " + SINGLE_ENTRY + " or " + INDEX_ENTRY + " in the event ZIP");
+      }
+      if (zip != null) {
+         zip.checkAllLoaded();
+         zip.unmarshaller.validate(true);
+      }
+      return event;
+   }
+
+   /**
+    * Opens the ZIP file reading only the index, the locations are read when first needed. The file
+    * is opened again for each read and must not change while the event is used. The single entry
+    * layout is read whole.
+    */
+   static Event open(File aFile) throws IOException, XmlPullParserException, ParseException {
+      ZipFile zipFile = new ZipFile(aFile);
+      try {
+         ZipEntry index = zipFile.getEntry(INDEX_ENTRY);
+         if (index == null) {
+            ZipEntry single = zipFile.getEntry(SINGLE_ENTRY);
+            if (single == null) {
+               throw new IOException("No " + SINGLE_ENTRY + " or " + INDEX_ENTRY + " in " + aFile);
+            }
+            XmlPullParser parser = XmlPool.acquireParser();
+            try {
+               return new StreamingUnmarshaller(parser).unmarshall(zipFile.getInputStream(single));
+            } finally {
+               XmlPool.releaseParser(parser);
+            }
+         }
+         EventZip zip = new EventZip(aFile);
+         Event event = zip.readIndex(zipFile.getInputStream(index));
+         zip.unmarshaller.validate(false);
+         for (Location eachLocation : zip.locations) {
+            eachLocation.setContentLoader(zip);
+         }
+         return event;
+      } finally {
+         zipFile.close();
+      }
+   }
+
+   private Event readIndex(InputStream is) throws XmlPullParserException, IOException, ParseException {
+      Event event = unmarshaller.read(is);
+      locations = event.getLocations() == null ? new Location[0] : event.getLocations();
+      loaded = new boolean[locations.length];
+      for (int i = 0; i < locations.length; i++) {
+         locationIndex.put(locations[i], i);
+      }
+      return event;
+   }
+
+   /**
+    * Reads the entry of the location and fills the location from the index with its days.
+    *
+    * @return Value of the linked attribute.
+    */
+   private String readLocation(int index, InputStream is) throws XmlPullParserException, IOException,
+         ParseException {
+      if (index < 0 || index >= locations.length || loaded[index]) {
+         throw new IOException("Unexpected location entry " + locationEntry(index));
+      }
+      loaded[index] = true;
+      StreamingUnmarshaller entryUnmarshaller;
+      Location read;
+      XmlPullParser parser = XmlPool.acquireParser();
+      try {
+         entryUnmarshaller = new StreamingUnmarshaller(parser);
+         read = entryUnmarshaller.unmarshallLocation(is, null);
+      } finally {
+         XmlPool.releaseParser(parser);
+      }
+      unmarshaller.addViolations(locationEntry(index), entryUnmarshaller.getViolations());
+      if (read == null) {
+         // the location element is invalid
+         return null;
+      }
+      Location location = locations[index];
+      if (!read.getName().equals(location.getName())) {
+         throw new IOException("Location " + read.getName() + " in " + locationEntry(index) + ", expected "
+               + location.getName());
+      }
+      DayProgram[] days = read.getDayPrograms();
+      if (days != null) {
+         for (DayProgram eachDay : days) {
+            eachDay.setLocation(location);
+         }
+      }
+      location.setDayPrograms(days);
+      unmarshaller.resolve(locationEntry(index), entryUnmarshaller.getIdOccurrences(), entryUnmarshaller
+            .getMetadataOccurrences());
+      return entryUnmarshaller.getLinked();
+   }
+
+   private void checkAllLoaded() throws IOException {
+      for (int i = 0; i < loaded.length; i++) {
+         if (!loaded[i]) {
+            throw new IOException("Missing location entry " + locationEntry(i));
+         }
+      }
+   }
+
+   private static int locationNumber(String entryName) throws IOException {
+      try {
+         return Integer.parseInt(entryName.substring(LOCATION_ENTRY_PREFIX.length(), entryName.length()
+               - ".xml".length()));
+      } catch (RuntimeException e) {
+         throw new IOException("Unexpected entry " + entryName);
+      }
+   }
+
+   /**
+    * Nothing to load, the zip is the loader of the locations only. The locations of the event are
+    * read from the index when the zip is opened.
+    */
+   @Override
+   public void loadLocations(Event event) {
+   }
+
+   @Override
+   public void loadDayPrograms(Location location) {
+      try {
+         ZipFile zipFile = new ZipFile(file);
+         try {
+            LinkedList<Integer> pending = new LinkedList<Integer>();
+            pending.add(locationIndex.get(location));
+            while (!pending.isEmpty()) {
+               int index = pending.removeFirst();
+               if (index >= 0 && index < loaded.length && loaded[index]) {
+                  continue;
+               }
+               ZipEntry entry = zipFile.getEntry(locationEntry(index));
+               if (entry == null) {
+                  throw new IOException("Missing location entry " + locationEntry(index));
+               }
+               String linked = readLocation(index, zipFile.getInputStream(entry));
+               if (linked != null) {
+                  for (String each : Util.tokenize(linked, " ")) {
+                     pending.add(Integer.valueOf(each));
+                  }
+               }
+            }
+            unmarshaller.validate(false);
+         } finally {
+            zipFile.close();
+         }
+      } catch (IOException e) {
+         throw new RuntimeException(e);
+      } catch (XmlPullParserException e) {
+         throw new RuntimeException(e);
+      } catch (ParseException e) {
+         throw new RuntimeException(e);
+      }
+   }
+
+   /**
+    * Nothing to load, the zip is the loader of the locations only. The sessions are read with the
+    * day programs of their location by {@link #loadDayPrograms(Location)}.
+    */
+   @Override
+   public void loadSessions(DayProgram dayProgram) {
+   }
+}
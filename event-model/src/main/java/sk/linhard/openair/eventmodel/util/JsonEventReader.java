@@ -0,0 +1,860 @@
+/*
+ * OpenAir Event Program Model
+ * Copyright (C) 2012 Michal Linhard <michal@linhard.sk>
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package sk.linhard.openair.eventmodel.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+
+import sk.linhard.openair.eventmodel.DayProgram;
+import sk.linhard.openair.eventmodel.Event;
+import sk.linhard.openair.eventmodel.Location;
+import sk.linhard.openair.eventmodel.LocationMetadata;
+import sk.linhard.openair.eventmodel.Session;
+import sk.linhard.openair.eventmodel.SessionMetadata;
+import sk.linhard.openair.eventmodel.exceptions.ValidationException;
+import sk.linhard.openair.eventmodel.exceptions.ValidationException.Violation;
+import sk.linhard.openair.eventmodel.util.StreamingUnmarshaller.IdOccurrence;
+
+/**
+ * Single pass reader of the JSON written by {@link JsonEventWriter}. Builds the model while
+ * reading the UTF-8 text, the members of the objects may come in any order and unknown members
+ * are skipped.
+ *
+ * The same constraints as in the XML are checked: required members, name lengths, id, date and
+ * duration formats, metadata without owner and pairing of the old and new versions of changed
+ * sessions. Invalid objects are skipped and all the violations are reported at the end by
+ * {@link ValidationException}. Text that isn't JSON ends the reading with IOException.
+ *
+ * @author Michal Linhard <michal@linhard.sk>
+ */
+class JsonEventReader {
+   private static final int BUFFER_SIZE = 8192;
+
+   private final Reader reader;
+   private final char[] buf = new char[BUFFER_SIZE];
+   private int pos;
+   private int limit;
+   // position of the buffer start in the text and of the current line start
+   private int bufferOffset;
+   private int lineStart;
+   private int line = 1;
+   // whether the object or array at the depth has a member already
+   private boolean[] nonEmpty = new boolean[8];
+   private int depth;
+   // position of the start of the last value
+   private int valueLine;
+   private int valueColumn;
+
+   private final DateTimeCodec codec = DateTimeCodec.getDefault();
+   private final StringBuilder text = new StringBuilder(32);
+   private final Event event = new Event();
+   private final List<Location> locations = new ArrayList<Location>();
+   private final HashSet<String> locationNames = new HashSet<String>();
+   private final HashMap<String, Location> locationById = new HashMap<String, Location>();
+   private final HashMap<String, Session> sessionById = new HashMap<String, Session>();
+   private final List<IdOccurrence> metadataOccurrences = new ArrayList<IdOccurrence>();
+   private LinkedHashMap<String, Violation> unpairedOldVersions;
+   private List<Violation> violations;
+
+   JsonEventReader(InputStream is) throws IOException {
+      reader = new InputStreamReader(is, "UTF-8");
+   }
+
+   /**
+    * Reads the event.
+    *
+    * @throws ValidationException
+    *            If the event doesn't conform to the schema.
+    * @throws IOException
+    *            If the text isn't JSON.
+    */
+   Event read() throws IOException {
+      peek();
+      int eventLine = line;
+      int eventColumn = column();
+      beginObject();
+      String member;
+      while ((member = nextName()) != null) {
+         if ("uri".equals(member)) {
+            event.setUri(nextString());
+         } else if ("name".equals(member)) {
+            event.setName(nextLabel("name", "event"));
+         } else if ("shortName".equals(member)) {
+            event.setShortName(nextLabel("shortName", "event"));
+         } else if ("version".equals(member)) {
+            String version = nextScalar();
+            try {
+               event.setVersion(version == null ? null : Long.valueOf(version));
+            } catch (NumberFormatException e) {
+               violation("Invalid version " + version);
+            }
+         } else if ("versionTime".equals(member)) {
+            event.setVersionTime(nextDateTime("versionTime", "event"));
+         } else if ("program".equals(member)) {
+            readProgram();
+         } else if ("metadata".equals(member)) {
+            readMetadata();
+         } else {
+            skipValue();
+         }
+      }
+      if (peek() != -1) {
+         throw syntaxError("Unexpected text after the event");
+      }
+      if (event.getName() == null) {
+         violation("Missing required member name of event", eventLine, eventColumn);
+      }
+      if (!locations.isEmpty()) {
+         event.setLocations(locations.toArray(new Location[locations.size()]));
+         for (Location eachLocation : locations) {
+            eachLocation.setEvent(event);
+         }
+      }
+      assignMetadata();
+      if (unpairedOldVersions != null) {
+         for (Violation each : unpairedOldVersions.values()) {
+            violation(each);
+         }
+      }
+      if (violations != null) {
+         throw new ValidationException(violations);
+      }
+      return event;
+   }
+
+   private void readProgram() throws IOException {
+      beginArray();
+      while (hasNextElement()) {
+         readLocation();
+      }
+   }
+
+   private void readLocation() throws IOException {
+      int objectLine = line;
+      int objectColumn = column();
+      Location location = new Location(null);
+      String id = null;
+      List<IdOccurrence> occurrences = new ArrayList<IdOccurrence>();
+      beginObject();
+      String member;
+      while ((member = nextName()) != null) {
+         if ("name".equals(member)) {
+            location.setName(nextLabel("name", "location"));
+         } else if ("shortName".equals(member)) {
+            location.setShortName(nextLabel("shortName", "location"));
+         } else if ("id".equals(member)) {
+            id = nextId("location");
+         } else if ("days".equals(member)) {
+            beginArray();
+            while (hasNextElement()) {
+               readDay(location, occurrences);
+            }
+         } else {
+            skipValue();
+         }
+      }
+      if (location.getName() == null) {
+         violation("Missing required member name of location", objectLine, objectColumn);
+         return;
+      }
+      if (!locationNames.add(location.getName())) {
+         violation("Duplicate location name " + location.getName(), objectLine, objectColumn);
+         return;
+      }
+      locations.add(location);
+      if (id != null) {
+         locationById.put(id, location);
+      }
+      for (IdOccurrence each : occurrences) {
+         registerSession(each.id, (Session) each.owner, each.oldVersion, each.line, each.column);
+      }
+   }
+
+   /**
+    * Reads the day, its sessions are added once the date is known.
+    */
+   private void readDay(Location location, List<IdOccurrence> occurrences) throws IOException {
+      int objectLine = line;
+      int objectColumn = column();
+      DateTime dayStart = null;
+      boolean dateValid = true;
+      List<Session> sessions = null;
+      List<IdOccurrence> dayOccurrences = null;
+      beginObject();
+      String member;
+      while ((member = nextName()) != null) {
+         if ("date".equals(member)) {
+            dayStart = nextDate("date", "day");
+            dateValid = dayStart != null;
+         } else if ("sessions".equals(member)) {
+            sessions = new ArrayList<Session>();
+            dayOccurrences = new ArrayList<IdOccurrence>();
+            beginArray();
+            while (hasNextElement()) {
+               readSession(sessions, dayOccurrences);
+            }
+         } else {
+            skipValue();
+         }
+      }
+      if (dayStart == null) {
+         if (dateValid) {
+            violation("Missing required member date of day", objectLine, objectColumn);
+         }
+         return;
+      }
+      DayProgram dayProgram = location.addDay(dayStart);
+      if (sessions != null) {
+         for (Session eachSession : sessions) {
+            dayProgram.addSession(eachSession);
+         }
+         occurrences.addAll(dayOccurrences);
+      }
+   }
+
+   private void readSession(List<Session> sessions, List<IdOccurrence> occurrences) throws IOException {
+      int objectLine = line;
+      int objectColumn = column();
+      String name = null;
+      String shortName = null;
+      DateTime start = null;
+      Duration duration = null;
+      String id = null;
+      boolean cancelled = false;
+      boolean oldVersion = false;
+      // the member was present with invalid value, reported already
+      boolean startInvalid = false;
+      boolean durationInvalid = false;
+      beginObject();
+      String member;
+      while ((member = nextName()) != null) {
+         if ("name".equals(member)) {
+            name = nextLabel("name", "session");
+         } else if ("shortName".equals(member)) {
+            shortName = nextLabel("shortName", "session");
+         } else if ("start".equals(member)) {
+            start = nextDateTime("start", "session");
+            startInvalid = start == null;
+         } else if ("duration".equals(member)) {
+            duration = nextDuration("duration", "session");
+            durationInvalid = duration == null;
+         } else if ("id".equals(member)) {
+            id = nextId("session");
+         } else if ("cancelled".equals(member)) {
+            cancelled = nextBoolean();
+         } else if ("oldVersion".equals(member)) {
+            oldVersion = nextBoolean();
+         } else {
+            skipValue();
+         }
+      }
+      boolean valid = checkRequired(name, "name", "session", objectLine, objectColumn);
+      if (!startInvalid) {
+         valid &= checkRequired(start, "start", "session", objectLine, objectColumn);
+      }
+      if (!durationInvalid) {
+         valid &= checkRequired(duration, "duration", "session", objectLine, objectColumn);
+      }
+      if (!valid || start == null || duration == null) {
+         return;
+      }
+      Session session = new Session(name, start, duration);
+      if (shortName != null) {
+         session.setShortName(shortName);
+      }
+      if (cancelled) {
+         session.setCancelled(true);
+      }
+      sessions.add(session);
+      if (id != null) {
+         occurrences.add(new IdOccurrence(id, session, oldVersion, objectLine, objectColumn));
+      }
+   }
+
+   private void readMetadata() throws IOException {
+      beginObject();
+      String member;
+      while ((member = nextName()) != null) {
+         if ("event".equals(member)) {
+            beginObject();
+            String field;
+            while ((field = nextName()) != null) {
+               if ("url".equals(field)) {
+                  event.setUrl(nextString());
+               } else if ("description".equals(field)) {
+                  event.setDescription(nextString());
+               } else {
+                  skipValue();
+               }
+            }
+         } else if ("locations".equals(member) || "sessions".equals(member)) {
+            boolean ofLocations = "locations".equals(member);
+            beginArray();
+            while (hasNextElement()) {
+               readMetadataItem(ofLocations);
+            }
+         } else {
+            skipValue();
+         }
+      }
+   }
+
+   private void readMetadataItem(boolean ofLocation) throws IOException {
+      int objectLine = line;
+      int objectColumn = column();
+      String id = null;
+      String url = null;
+      String description = null;
+      beginObject();
+      String member;
+      while ((member = nextName()) != null) {
+         if ("id".equals(member)) {
+            id = nextId("metadata");
+         } else if ("url".equals(member)) {
+            url = nextString();
+         } else if ("description".equals(member)) {
+            description = nextString();
+         } else {
+            skipValue();
+         }
+      }
+      if (id == null) {
+         return;
+      }
+      Object metadata;
+      if (ofLocation) {
+         LocationMetadata locationMetadata = new LocationMetadata();
+         locationMetadata.setUrl(url);
+         locationMetadata.setDescription(description);
+         metadata = locationMetadata;
+      } else {
+         SessionMetadata sessionMetadata = new SessionMetadata();
+         sessionMetadata.setUrl(url);
+         sessionMetadata.setDescription(description);
+         metadata = sessionMetadata;
+      }
+      metadataOccurrences.add(new IdOccurrence(id, metadata, false, objectLine, objectColumn));
+   }
+
+   /**
+    * Assigns the metadata once all the owners are read.
+    */
+   private void assignMetadata() {
+      for (IdOccurrence each : metadataOccurrences) {
+         if (each.owner instanceof LocationMetadata) {
+            Location location = locationById.get(each.id);
+            if (location == null) {
+               violation("Location metadata " + each.id + " has no location", each.line, each.column);
+            } else {
+               location.setMetadata((LocationMetadata) each.owner);
+            }
+         } else {
+            Session session = sessionById.get(each.id);
+            if (session == null) {
+               violation("Session metadata " + each.id + " has no session", each.line, each.column);
+            } else {
+               session.setMetadata((SessionMetadata) each.owner);
+               if (session.getNewVersion() != null) {
+                  session.getNewVersion().setMetadata((SessionMetadata) each.owner);
+               }
+               if (session.getOldVersion() != null) {
+                  session.getOldVersion().setMetadata((SessionMetadata) each.owner);
+               }
+            }
+         }
+      }
+   }
+
+   /**
+    * Links the session to the session with the same id read before. Exactly one of the two
+    * sessions sharing the id must be the old version.
+    */
+   private void registerSession(String id, Session session, boolean oldVersion, int aLine, int aColumn) {
+      Session theOtherSession = sessionById.get(id);
+      if (theOtherSession == null) {
+         sessionById.put(id, session);
+         if (oldVersion) {
+            if (unpairedOldVersions == null) {
+               unpairedOldVersions = new LinkedHashMap<String, Violation>();
+            }
+            unpairedOldVersions.put(id, new Violation("Old version session " + id + " has no new version", aLine,
+                  aColumn));
+         }
+         return;
+      }
+      boolean otherOldVersion = unpairedOldVersions != null && unpairedOldVersions.remove(id) != null;
+      if (theOtherSession.getOldVersion() != null || theOtherSession.getNewVersion() != null) {
+         violation("Session id " + id + " is used by more than two sessions", aLine, aColumn);
+      } else if (otherOldVersion == oldVersion) {
+         violation(oldVersion ? "Both sessions with id " + id + " are old versions" : "Neither of the sessions with id "
+               + id + " is the old version", aLine, aColumn);
+      } else if (oldVersion) {
+         session.setNewVersion(theOtherSession);
+         theOtherSession.setOldVersion(session);
+      } else {
+         session.setOldVersion(theOtherSession);
+         theOtherSession.setNewVersion(session);
+      }
+   }
+
+   private boolean checkRequired(Object value, String member, String object, int objectLine, int objectColumn) {
+      if (value == null) {
+         violation("Missing required member " + member + " of " + object, objectLine, objectColumn);
+         return false;
+      }
+      return true;
+   }
+
+   /**
+    * Reads name or short name, checks its length.
+    */
+   private String nextLabel(String member, String object) throws IOException {
+      String value = nextString();
+      if (value != null
+            && (value.length() < StreamingUnmarshaller.MIN_NAME_LENGTH || value.length() > StreamingUnmarshaller.MAX_NAME_LENGTH)) {
+         violation("Member " + member + " of " + object + " must have " + StreamingUnmarshaller.MIN_NAME_LENGTH
+               + " to " + StreamingUnmarshaller.MAX_NAME_LENGTH + " characters", valueLine, valueColumn);
+      }
+      return value;
+   }
+
+   /**
+    * Reads id, a letter followed by letters and digits.
+    *
+    * @return The id or null if it's invalid.
+    */
+   private String nextId(String object) throws IOException {
+      String id = nextString();
+      if (id == null) {
+         return null;
+      }
+      boolean valid = id.length() > 0 && isLetter(id.charAt(0));
+      for (int i = 1; valid && i < id.length(); i++) {
+         char c = id.charAt(i);
+         valid = isLetter(c) || (c >= '0' && c <= '9');
+      }
+      if (!valid) {
+         violation("Invalid id " + id + " of " + object, valueLine, valueColumn);
+         return null;
+      }
+      return id;
+   }
+
+   private static boolean isLetter(char c) {
+      return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z');
+   }
+
+   private DateTime nextDateTime(String member, String object) throws IOException {
+      if (!nextText()) {
+         return null;
+      }
+      try {
+         return new DateTime(codec.parseDateTime(text));
+      } catch (ParseException e) {
+         violation("Invalid " + member + " " + text + " of " + object + ", expected dd-MM-yyyy HH:mm", valueLine,
+               valueColumn);
+         return null;
+      }
+   }
+
+   private DateTime nextDate(String member, String object) throws IOException {
+      if (!nextText()) {
+         return null;
+      }
+      try {
+         return new DateTime(codec.parseDate(text));
+      } catch (ParseException e) {
+         violation("Invalid " + member + " " + text + " of " + object + ", expected dd-MM-yyyy", valueLine,
+               valueColumn);
+         return null;
+      }
+   }
+
+   private Duration nextDuration(String member, String object) throws IOException {
+      if (!nextText()) {
+         return null;
+      }
+      try {
+         return new Duration(codec.parseDuration(text));
+      } catch (ParseException e) {
+         violation("Invalid " + member + " " + text + " of " + object + ", expected H:mm", valueLine, valueColumn);
+         return null;
+      }
+   }
+
+   private void violation(String message) {
+      violation(message, valueLine, valueColumn);
+   }
+
+   private void violation(String message, int aLine, int aColumn) {
+      violation(new Violation(message, aLine, aColumn));
+   }
+
+   private void violation(Violation violation) {
+      if (violations == null) {
+         violations = new ArrayList<Violation>();
+      }
+      violations.add(violation);
+   }
+
+   // tokenizer
+
+   private void beginObject() throws IOException {
+      expect('{');
+      push();
+   }
+
+   private void beginArray() throws IOException {
+      expect('[');
+      push();
+   }
+
+   private void push() {
+      if (depth == nonEmpty.length) {
+         boolean[] grown = new boolean[depth * 2];
+         System.arraycopy(nonEmpty, 0, grown, 0, depth);
+         nonEmpty = grown;
+      }
+      nonEmpty[depth++] = false;
+   }
+
+   /**
+    * Reads the name of the next member of the current object and the colon after it.
+    *
+    * @return The name or null at the end of the object.
+    */
+   private String nextName() throws IOException {
+      int c = peek();
+      if (c == '}') {
+         pos++;
+         depth--;
+         return null;
+      }
+      if (nonEmpty[depth - 1]) {
+         expect(',');
+         c = peek();
+      }
+      nonEmpty[depth - 1] = true;
+      if (c != '"') {
+         throw syntaxError("Expected member name");
+      }
+      pos++;
+      String name = readString();
+      expect(':');
+      return name;
+   }
+
+   /**
+    * Reads the comma before the next element of the current array.
+    *
+    * @return False at the end of the array.
+    */
+   private boolean hasNextElement() throws IOException {
+      int c = peek();
+      if (c == ']') {
+         pos++;
+         depth--;
+         return false;
+      }
+      if (nonEmpty[depth - 1]) {
+         expect(',');
+         peek();
+      }
+      nonEmpty[depth - 1] = true;
+      return true;
+   }
+
+   /**
+    * Reads string or null.
+    */
+   private String nextString() throws IOException {
+      int c = peek();
+      markValue();
+      if (c == '"') {
+         pos++;
+         return readString();
+      }
+      if (c == 'n') {
+         literal("null");
+         return null;
+      }
+      throw syntaxError("Expected string");
+   }
+
+   /**
+    * Reads string into the text buffer.
+    *
+    * @return False if the value is null.
+    */
+   private boolean nextText() throws IOException {
+      int c = peek();
+      markValue();
+      if (c == '"') {
+         pos++;
+         text.setLength(0);
+         readString(text);
+         return true;
+      }
+      if (c == 'n') {
+         literal("null");
+         return false;
+      }
+      throw syntaxError("Expected string");
+   }
+
+   private boolean nextBoolean() throws IOException {
+      int c = peek();
+      markValue();
+      if (c == 't') {
+         literal("true");
+         return true;
+      }
+      if (c == 'f') {
+         literal("false");
+         return false;
+      }
+      if (c == 'n') {
+         literal("null");
+         return false;
+      }
+      throw syntaxError("Expected boolean");
+   }
+
+   /**
+    * Reads number or string as string, null if the value is null.
+    */
+   private String nextScalar() throws IOException {
+      int c = peek();
+      if (c == '-' || (c >= '0' && c <= '9')) {
+         markValue();
+         return readNumber();
+      }
+      return nextString();
+   }
+
+   private void skipValue() throws IOException {
+      int c = peek();
+      markValue();
+      switch (c) {
+      case '{':
+         beginObject();
+         while (nextName() != null) {
+            skipValue();
+         }
+         break;
+      case '[':
+         beginArray();
+         while (hasNextElement()) {
+            skipValue();
+         }
+         break;
+      case '"':
+         pos++;
+         text.setLength(0);
+         readString(text);
+         break;
+      case 't':
+         literal("true");
+         break;
+      case 'f':
+         literal("false");
+         break;
+      case 'n':
+         literal("null");
+         break;
+      default:
+         if (c == '-' || (c >= '0' && c <= '9')) {
+            readNumber();
+         } else {
+            throw syntaxError("Unexpected character");
+         }
+      }
+   }
+
+   private String readNumber() throws IOException {
+      text.setLength(0);
+      int c;
+      while ((c = peekChar()) != -1 && (c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E' || (c >= '0' && c <= '9'))) {
+         text.append((char) c);
+         pos++;
+      }
+      return text.toString();
+   }
+
+   private void literal(String literal) throws IOException {
+      for (int i = 0; i < literal.length(); i++) {
+         if (peekChar() != literal.charAt(i)) {
+            throw syntaxError("Expected " + literal);
+         }
+         pos++;
+      }
+   }
+
+   /**
+    * Reads the rest of the string after the opening quote. Strings without escapes that fit into
+    * the buffer are created straight from it.
+    */
+   private String readString() throws IOException {
+      for (int i = pos; i < limit; i++) {
+         char c = buf[i];
+         if (c == '"') {
+            String s = new String(buf, pos, i - pos);
+            pos = i + 1;
+            return s;
+         }
+         if (c == '\\' || c < ' ') {
+            break;
+         }
+      }
+      text.setLength(0);
+      readString(text);
+      return text.toString();
+   }
+
+   private void readString(StringBuilder sb) throws IOException {
+      while (true) {
+         if (pos == limit && !fill()) {
+            throw syntaxError("Unterminated string");
+         }
+         char c = buf[pos++];
+         if (c == '"') {
+            return;
+         } else if (c == '\\') {
+            if (pos == limit && !fill()) {
+               throw syntaxError("Unterminated string");
+            }
+            c = buf[pos++];
+            switch (c) {
+            case '"':
+            case '\\':
+            case '/':
+               sb.append(c);
+               break;
+            case 'b':
+               sb.append('\b');
+               break;
+            case 'f':
+               sb.append('\f');
+               break;
+            case 'n':
+               sb.append('\n');
+               break;
+            case 'r':
+               sb.append('\r');
+               break;
+            case 't':
+               sb.append('\t');
+               break;
+            case 'u':
+               int code = 0;
+               for (int i = 0; i < 4; i++) {
+                  if (pos == limit && !fill()) {
+                     throw syntaxError("Unterminated string");
+                  }
+                  int digit = Character.digit(buf[pos++], 16);
+                  if (digit < 0) {
+                     throw syntaxError("Invalid unicode escape");
+                  }
+                  code = code * 16 + digit;
+               }
+               sb.append((char) code);
+               break;
+            default:
+               throw syntaxError("Invalid escape");
+            }
+         } else if (c < ' ') {
+            throw syntaxError("Control character in string");
+         } else {
+            sb.append(c);
+         }
+      }
+   }
+
+   private void expect(char expected) throws IOException {
+      if (peek() != expected) {
+         throw syntaxError("Expected '" + expected + "'");
+      }
+      pos++;
+   }
+
+   /**
+    * Skips the whitespace, counting the lines.
+    *
+    * @return The next character, not consumed, or -1 at the end of the text.
+    */
+   private int peek() throws IOException {
+      while (true) {
+         if (pos == limit && !fill()) {
+            return -1;
+         }
+         char c = buf[pos];
+         if (c == '\n') {
+            line++;
+            lineStart = bufferOffset + pos + 1;
+         } else if (c != ' ' && c != '\t' && c != '\r') {
+            return c;
+         }
+         pos++;
+      }
+   }
+
+   private int peekChar() throws IOException {
+      if (pos == limit && !fill()) {
+         return -1;
+      }
+      return buf[pos];
+   }
+
+   private boolean fill() throws IOException {
+      bufferOffset += limit;
+      pos = 0;
+      limit = 0;
+      int read = reader.read(buf, 0, buf.length);
+      if (read <= 0) {
+         return false;
+      }
+      limit = read;
+      return true;
+   }
+
+   private int column() {
+      return bufferOffset + pos - lineStart + 1;
+   }
+
+   private void markValue() {
+      valueLine = line;
+      valueColumn = column();
+   }
+
+   private IOException syntaxError(String message) {
+      return new IOException("Malformed JSON at " + line + ":" + column() + ": " + message);
+   }
+}
@@ -0,0 +1,418 @@
+/*
+ * OpenAir Event Program Model
+ * Copyright (C) 2012 Michal Linhard <michal@linhard.sk>
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package sk.linhard.openair.eventmodel.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+
+import org.joda.time.DateTime;
+
+import sk.linhard.openair.eventmodel.DayProgram;
+import sk.linhard.openair.eventmodel.Event;
+import sk.linhard.openair.eventmodel.Location;
+import sk.linhard.openair.eventmodel.Session;
+
+/**
+ * Writes the event as JSON with the structure of the XML written by {@link ModelMarshaller}:
+ *
+ * <pre>
+ * {"uri": .., "name": .., "shortName": .., "version": 1, "versionTime": "dd-MM-yyyy HH:mm",
+ *  "program": [{"name": .., "shortName": .., "id": "st1", "days": [{"date": "dd-MM-yyyy",
+ *     "sessions": [{"start": .., "duration": "H:mm", "name": .., "shortName": .., "cancelled": true,
+ *        "id": "sh2", "oldVersion": true}]}]}],
+ *  "metadata": {"event": {"url": .., "description": ..},
+ *     "locations": [{"id": "st1", "url": .., "description": ..}],
+ *     "sessions": [{"id": "sh2", "url": .., "description": ..}]}}
+ * </pre>
+ *
+ * Absent values are left out. UTF-8 is encoded straight into the output buffer. The metadata
+ * section is written by a second walk over the model assigning the same ids, so only the links
+ * to sessions not written yet are remembered.
+ *
+ * @author Michal Linhard <michal@linhard.sk>
+ */
+class JsonEventWriter {
+   private static final int BUFFER_SIZE = 8192;
+
+   private final OutputStream os;
+   private final byte[] buf = new byte[BUFFER_SIZE];
+   private int pos;
+   // whether the object or array at the depth has a member already
+   private boolean[] nonEmpty = new boolean[8];
+   private int depth;
+   // a member name was written, its value follows
+   private boolean afterName;
+   private final DateTimeCodec codec = DateTimeCodec.getDefault();
+   private final StringBuilder text = new StringBuilder(16);
+
+   JsonEventWriter(OutputStream anOutputStream) {
+      os = anOutputStream;
+   }
+
+   /**
+    * Assigns the ids the same way in both walks.
+    */
+   private static class IdSequence {
+      private int next = 1;
+      private final HashMap<Session, Integer> changeMapping = new HashMap<Session, Integer>();
+
+      int location(Location location) {
+         return location.getMetadata() != null ? next++ : 0;
+      }
+
+      /**
+       * Returns the id of the session, 0 if it has none, negated if its other version took the
+       * id already.
+       */
+      int session(Session session) {
+         Integer mapped = changeMapping.remove(session);
+         if (mapped != null) {
+            return -mapped;
+         }
+         if (session.getMetadata() == null && !session.isMoved()) {
+            return 0;
+         }
+         int id = next++;
+         if (session.isMoved()) {
+            changeMapping.put(session.isOldVersion() ? session.getNewVersion() : session.getOldVersion(), id);
+         }
+         return id;
+      }
+   }
+
+   void write(Event e) throws IOException {
+      beginObject();
+      field("uri", e.getUri());
+      field("name", e.getName());
+      field("shortName", e.getShortName());
+      if (e.getVersion() != null) {
+         name("version");
+         writeAscii(e.getVersion().toString());
+      }
+      dateTimeField("versionTime", e.getVersionTime());
+
+      name("program");
+      beginArray();
+      IdSequence ids = new IdSequence();
+      for (Location eachLocation : e) {
+         beginObject();
+         field("name", eachLocation.getName());
+         field("shortName", eachLocation.getShortName());
+         idField("st", ids.location(eachLocation));
+         name("days");
+         beginArray();
+         for (DayProgram eachDay : eachLocation) {
+            beginObject();
+            dateField("date", eachDay.getDayStart());
+            name("sessions");
+            beginArray();
+            for (Session eachSession : eachDay) {
+               writeSession(eachSession, ids.session(eachSession));
+            }
+            endArray();
+            endObject();
+         }
+         endArray();
+         endObject();
+      }
+      endArray();
+
+      name("metadata");
+      beginObject();
+      if (e.getMetadata() != null) {
+         name("event");
+         beginObject();
+         field("url", e.getUrl());
+         field("description", e.getDescription());
+         endObject();
+      }
+      name("locations");
+      writeMetadata(e, true);
+      name("sessions");
+      writeMetadata(e, false);
+      endObject();
+      endObject();
+      flush();
+   }
+
+   /**
+    * Writes the metadata of the locations or of the sessions, walking the whole program to get
+    * the same ids as the program.
+    */
+   private void writeMetadata(Event e, boolean ofLocations) throws IOException {
+      IdSequence ids = new IdSequence();
+      beginArray();
+      for (Location eachLocation : e) {
+         int locationId = ids.location(eachLocation);
+         if (ofLocations && locationId != 0) {
+            beginObject();
+            idField("st", locationId);
+            field("url", eachLocation.getUrl());
+            field("description", eachLocation.getDescription());
+            endObject();
+         }
+         for (DayProgram eachDay : eachLocation) {
+            for (Session eachSession : eachDay) {
+               int id = ids.session(eachSession);
+               if (!ofLocations && id > 0 && eachSession.getMetadata() != null) {
+                  beginObject();
+                  idField("sh", id);
+                  field("url", eachSession.getUrl());
+                  field("description", eachSession.getDescription());
+                  endObject();
+               }
+            }
+         }
+      }
+      endArray();
+   }
+
+   private void writeSession(Session session, int id) throws IOException {
+      beginObject();
+      dateTimeField("start", session.getStart());
+      if (session.getDuration() != null) {
+         name("duration");
+         text.setLength(0);
+         if (session.getDuration().getMillis() < 0) {
+            text.append(Util.formatDuration(session.getDuration()));
+         } else {
+            DateTimeCodec.formatDuration(session.getDuration().getMillis(), text);
+         }
+         writeString(text);
+      }
+      field("name", session.getName());
+      field("shortName", session.getShortName());
+      if (session.isCancelled()) {
+         name("cancelled");
+         writeAscii("true");
+      }
+      idField("sh", Math.abs(id));
+      if (session.isMoved() && session.isOldVersion()) {
+         name("oldVersion");
+         writeAscii("true");
+      }
+      endObject();
+   }
+
+   private void idField(String prefix, int id) throws IOException {
+      if (id == 0) {
+         return;
+      }
+      name("id");
+      text.setLength(0);
+      text.append(prefix).append(id);
+      writeString(text);
+   }
+
+   private void field(String name, String value) throws IOException {
+      if (value != null) {
+         name(name);
+         writeString(value);
+      }
+   }
+
+   private void dateTimeField(String name, DateTime value) throws IOException {
+      if (value == null) {
+         return;
+      }
+      name(name);
+      text.setLength(0);
+      if (codec.isFormattable(value.getMillis())) {
+         codec.formatDateTime(value.getMillis(), text);
+      } else {
+         text.append(Util.formatDateTime(value));
+      }
+      writeString(text);
+   }
+
+   private void dateField(String name, DateTime value) throws IOException {
+      if (value == null) {
+         return;
+      }
+      name(name);
+      text.setLength(0);
+      if (codec.isFormattable(value.getMillis())) {
+         codec.formatDate(value.getMillis(), text);
+      } else {
+         text.append(Util.formatDate(value));
+      }
+      writeString(text);
+   }
+
+   private void beginObject() throws IOException {
+      if (!afterName) {
+         separate();
+      }
+      afterName = false;
+      write('{');
+      push();
+   }
+
+   private void endObject() throws IOException {
+      depth--;
+      afterName = false;
+      write('}');
+   }
+
+   private void beginArray() throws IOException {
+      if (!afterName) {
+         separate();
+      }
+      afterName = false;
+      write('[');
+      push();
+   }
+
+   private void endArray() throws IOException {
+      depth--;
+      afterName = false;
+      write(']');
+   }
+
+   /**
+    * Writes the member name, the value follows.
+    */
+   private void name(String name) throws IOException {
+      separate();
+      write('"');
+      writeAscii(name);
+      write('"');
+      write(':');
+      afterName = true;
+   }
+
+   /**
+    * Writes the comma before the second and next members of the enclosing object or array.
+    */
+   private void separate() throws IOException {
+      if (depth == 0) {
+         return;
+      }
+      if (nonEmpty[depth - 1]) {
+         write(',');
+      }
+      nonEmpty[depth - 1] = true;
+   }
+
+   private void push() {
+      if (depth == nonEmpty.length) {
+         boolean[] grown = new boolean[depth * 2];
+         System.arraycopy(nonEmpty, 0, grown, 0, depth);
+         nonEmpty = grown;
+      }
+      nonEmpty[depth++] = false;
+   }
+
+   private void writeString(CharSequence s) throws IOException {
+      write('"');
+      int len = s.length();
+      for (int i = 0; i < len; i++) {
+         char c = s.charAt(i);
+         if (c == '"' || c == '\\') {
+            write('\\');
+            write(c);
+         } else if (c < ' ') {
+            switch (c) {
+            case '\n':
+               writeAscii("\\n");
+               break;
+            case '\r':
+               writeAscii("\\r");
+               break;
+            case '\t':
+               writeAscii("\\t");
+               break;
+            default:
+               writeUnicodeEscape(c);
+            }
+         } else if (c < 0x80) {
+            write(c);
+         } else if (c < 0x800) {
+            ensure(2);
+            buf[pos++] = (byte) (0xc0 | (c >> 6));
+            buf[pos++] = (byte) (0x80 | (c & 0x3f));
+         } else if (c == '\u2028' || c == '\u2029') {
+            // valid JSON but not valid JavaScript
+            writeUnicodeEscape(c);
+         } else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(s.charAt(i + 1))) {
+            int cp = Character.toCodePoint(c, s.charAt(++i));
+            ensure(4);
+            buf[pos++] = (byte) (0xf0 | (cp >> 18));
+            buf[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+            buf[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+            buf[pos++] = (byte) (0x80 | (cp & 0x3f));
+         } else if (Character.isHighSurrogate(c) || Character.isLowSurrogate(c)) {
+            write('?');
+         } else {
+            ensure(3);
+            buf[pos++] = (byte) (0xe0 | (c >> 12));
+            buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+            buf[pos++] = (byte) (0x80 | (c & 0x3f));
+         }
+      }
+      write('"');
+   }
+
+   private void writeUnicodeEscape(char c) throws IOException {
+      ensure(6);
+      buf[pos++] = '\\';
+      buf[pos++] = 'u';
+      for (int shift = 12; shift >= 0; shift -= 4) {
+         buf[pos++] = (byte) Character.forDigit((c >> shift) & 0xf, 16);
+      }
+   }
+
+   /**
+    * Writes string known to contain only ASCII characters, like member names and numbers.
+    */
+   private void writeAscii(String s) throws IOException {
+      int len = s.length();
+      ensure(len);
+      for (int i = 0; i < len; i++) {
+         buf[pos++] = (byte) s.charAt(i);
+      }
+   }
+
+   private void write(char c) throws IOException {
+      if (pos == buf.length) {
+         drain();
+      }
+      buf[pos++] = (byte) c;
+   }
+
+   private void ensure(int len) throws IOException {
+      if (pos + len > buf.length) {
+         drain();
+      }
+   }
+
+   private void drain() throws IOException {
+      os.write(buf, 0, pos);
+      pos = 0;
+   }
+
+   private void flush() throws IOException {
+      if (pos > 0) {
+         drain();
+      }
+      os.flush();
+   }
+}
@@ -0,0 +1,48 @@
+/*
+ * OpenAir Event Program Model
+ * Copyright (C) 2012 Michal Linhard <michal@linhard.sk>
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package sk.linhard.openair.eventmodel.util;
+
+import sk.linhard.openair.eventmodel.Event;
+
+/**
+ * Event read by the unmarshaller together with the string dictionary counts of the load.
+ *
+ * @author Michal Linhard <michal@linhard.sk>
+ */
+public class LoadResult {
+   private final Event event;
+   private final StringDictionary.Stats stringStats;
+
+   LoadResult(Event anEvent, StringDictionary.Stats aStringStats) {
+      event = anEvent;
+      stringStats = aStringStats;
+   }
+
+   public Event getEvent() {
+      return event;
+   }
+
+   /**
+    * Counts of the string dictionary for this load only.
+    */
+   public StringDictionary.Stats getStringStats() {
+      return stringStats;
+   }
+}
@@ -0,0 +1,276 @@
+/*
+ * OpenAir Event Program Model
+ * Copyright (C) 2012 Michal Linhard <michal@linhard.sk>
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package sk.linhard.openair.eventmodel.util;
+
+import static sk.linhard.openair.eventmodel.util.ModelBinaryFormat.DAY_SIZE;
+import static sk.linhard.openair.eventmodel.util.ModelBinaryFormat.EVENT_HAS_METADATA;
+import static sk.linhard.openair.eventmodel.util.ModelBinaryFormat.EVENT_HAS_VERSION;
+import static sk.linhard.openair.eventmodel.util.ModelBinaryFormat.EVENT_HAS_VERSION_TIME;
+import static sk.linhard.openair.eventmodel.util.ModelBinaryFormat.EVENT_SIZE;
+import static sk.linhard.openair.eventmodel.util.ModelBinaryFormat.HEADER_SIZE;
+import static sk.linhard.openair.eventmodel.util.ModelBinaryFormat.LOCATION_HAS_METADATA;
+import static sk.linhard.openair.eventmodel.util.ModelBinaryFormat.LOCATION_SIZE;
+import static sk.linhard.openair.eventmodel.util.ModelBinaryFormat.METADATA_SIZE;
+import static sk.linhard.openair.eventmodel.util.ModelBinaryFormat.MILIS_IN_MIN;
+import static sk.linhard.openair.eventmodel.util.ModelBinaryFormat.SESSION_CANCELLED;
+import static sk.linhard.openair.eventmodel.util.ModelBinaryFormat.SESSION_HAS_METADATA;
+import static sk.linhard.openair.eventmodel.util.ModelBinaryFormat.SESSION_HAS_NEW_VERSION;
+import static sk.linhard.openair.eventmodel.util.ModelBinaryFormat.SESSION_HAS_OLD_VERSION;
+import static sk.linhard.openair.eventmodel.util.ModelBinaryFormat.SESSION_HAS_SHORT_NAME;
+import static sk.linhard.openair.eventmodel.util.ModelBinaryFormat.dateTime;
+import static sk.linhard.openair.eventmodel.util.ModelBinaryFormat.decodeString;
+import static sk.linhard.openair.eventmodel.util.ModelBinaryFormat.readVarint;
+import static sk.linhard.openair.eventmodel.util.ModelBinaryFormat.unzigzag;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+import org.joda.time.Duration;
+
+import sk.linhard.openair.eventmodel.ContentLoader;
+import sk.linhard.openair.eventmodel.DayProgram;
+import sk.linhard.openair.eventmodel.Event;
+import sk.linhard.openair.eventmodel.Location;
+import sk.linhard.openair.eventmodel.LocationMetadata;
+import sk.linhard.openair.eventmodel.Session;
+import sk.linhard.openair.eventmodel.SessionMetadata;
+
+/**
+ * Lazily decoded view of an uncompressed binary snapshot, usually a memory mapped file.
+ *
+ * Opening decodes only the header and the event record. Locations are decoded when the event's
+ * locations are first needed, day programs of a location when its days are first needed and
+ * sessions of a day program when its sessions are first needed. Linking a session to its old or
+ * new version decodes the day program of the linked session. So memory held by the model grows
+ * with the parts of the programme that have been touched, not with the size of the snapshot.
+ *
+ * Like the rest of the model the view isn't thread safe.
+ *
+ * @author Michal Linhard <michal@linhard.sk>
+ */
+class MappedSnapshot implements ContentLoader {
+   private final ByteBuffer buf;
+   private final int locationCount;
+   private final int stringDataOffset;
+   private final int locationTableOffset;
+   private final int dayTableOffset;
+   private final int metadataTableOffset;
+   private final int sessionDataOffset;
+
+   private final HashMap<Integer, String> strings = new HashMap<Integer, String>();
+   private final HashMap<Integer, SessionMetadata> metadata = new HashMap<Integer, SessionMetadata>();
+   // decoded sessions that have old or new version, by session index
+   private final HashMap<Integer, Session> linkedSessions = new HashMap<Integer, Session>();
+   // shells whose children were not decoded yet
+   private final IdentityHashMap<Location, Integer> locationIndex = new IdentityHashMap<Location, Integer>();
+   private final IdentityHashMap<DayProgram, Integer> dayIndex = new IdentityHashMap<DayProgram, Integer>();
+
+   private Event event;
+
+   MappedSnapshot(ByteBuffer aBuffer) throws IOException {
+      buf = aBuffer.duplicate();
+      ModelBinaryFormat.checkHeader(buf);
+      locationCount = buf.getInt(12);
+      stringDataOffset = buf.getInt(28);
+      locationTableOffset = buf.getInt(32);
+      dayTableOffset = buf.getInt(36);
+      metadataTableOffset = buf.getInt(40);
+      sessionDataOffset = buf.getInt(44);
+   }
+
+   Event open() throws IOException {
+      event = new Event();
+      int pos = HEADER_SIZE;
+      int flags = buf.get(pos);
+      event.setUri(string(buf.getInt(pos + 1)));
+      event.setName(string(buf.getInt(pos + 5)));
+      event.setShortName(string(buf.getInt(pos + 9)));
+      if ((flags & EVENT_HAS_METADATA) != 0) {
+         event.setUrl(string(buf.getInt(pos + 13)));
+         event.setDescription(string(buf.getInt(pos + 17)));
+      }
+      if ((flags & EVENT_HAS_VERSION) != 0) {
+         event.setVersion(buf.getLong(pos + 21));
+      }
+      if ((flags & EVENT_HAS_VERSION_TIME) != 0) {
+         event.setVersionTime(dateTime(buf.getInt(pos + 29)));
+      }
+      if (locationCount > 0) {
+         event.setContentLoader(this);
+      }
+      return event;
+   }
+
+   @Override
+   public void loadLocations(Event anEvent) {
+      for (int l = 0; l < locationCount; l++) {
+         int lpos = locationTableOffset + l * LOCATION_SIZE;
+         Location location = anEvent.addLocation(string(buf.getInt(lpos)));
+         location.setShortName(string(buf.getInt(lpos + 4)));
+         if ((buf.get(lpos + 24) & LOCATION_HAS_METADATA) != 0) {
+            LocationMetadata locationMetadata = new LocationMetadata();
+            locationMetadata.setUrl(string(buf.getInt(lpos + 8)));
+            locationMetadata.setDescription(string(buf.getInt(lpos + 12)));
+            location.setMetadata(locationMetadata);
+         }
+         if (buf.getInt(lpos + 20) > 0) {
+            locationIndex.put(location, l);
+            location.setContentLoader(this);
+         }
+      }
+   }
+
+   @Override
+   public void loadDayPrograms(Location location) {
+      int lpos = locationTableOffset + locationIndex.remove(location) * LOCATION_SIZE;
+      int firstDay = buf.getInt(lpos + 16);
+      int days = buf.getInt(lpos + 20);
+      for (int d = firstDay; d < firstDay + days; d++) {
+         int dpos = dayTableOffset + d * DAY_SIZE;
+         DayProgram day = location.addDay(dateTime(buf.getInt(dpos)));
+         if (buf.getInt(dpos + 8) > 0) {
+            dayIndex.put(day, d);
+            day.setContentLoader(this);
+         }
+      }
+   }
+
+   @Override
+   public void loadSessions(DayProgram day) {
+      int dpos = dayTableOffset + dayIndex.remove(day) * DAY_SIZE;
+      int start = buf.getInt(dpos);
+      int firstSession = buf.getInt(dpos + 4);
+      int count = buf.getInt(dpos + 8);
+      ByteBuffer block = buf.duplicate();
+      block.position(sessionDataOffset + buf.getInt(dpos + 12));
+      int[] newVersions = null;
+      int[] oldVersions = null;
+      // in the order of the snapshot, the day keeps them in its own order
+      Session[] sessions = new Session[count];
+      for (int s = 0; s < count; s++) {
+         int sflags = block.get();
+         String name = string(readVarint(block) - 1);
+         String shortName = (sflags & SESSION_HAS_SHORT_NAME) != 0 ? string(readVarint(block)) : null;
+         start += unzigzag(readVarint(block));
+         long duration = readVarint(block) * MILIS_IN_MIN;
+         Session session = day.addSession(name, dateTime(start), new Duration(duration));
+         if (shortName != null) {
+            session.setShortName(shortName);
+         }
+         if ((sflags & SESSION_CANCELLED) != 0) {
+            session.setCancelled(true);
+         }
+         if ((sflags & SESSION_HAS_METADATA) != 0) {
+            session.setMetadata(metadata(readVarint(block)));
+         }
+         if ((sflags & (SESSION_HAS_NEW_VERSION | SESSION_HAS_OLD_VERSION)) != 0) {
+            if (newVersions == null) {
+               newVersions = new int[count];
+               oldVersions = new int[count];
+            }
+            int index = firstSession + s;
+            newVersions[s] = (sflags & SESSION_HAS_NEW_VERSION) != 0 ? index + unzigzag(readVarint(block)) : -1;
+            oldVersions[s] = (sflags & SESSION_HAS_OLD_VERSION) != 0 ? index + unzigzag(readVarint(block)) : -1;
+            linkedSessions.put(index, session);
+         }
+         sessions[s] = session;
+      }
+      if (newVersions == null) {
+         return;
+      }
+      // all sessions of the day are registered before any other day is decoded, so a day decoded
+      // for a link back to this one finds its partners here
+      for (int s = 0; s < count; s++) {
+         if (newVersions[s] != -1) {
+            sessions[s].setNewVersion(linkedSession(newVersions[s]));
+         }
+         if (oldVersions[s] != -1) {
+            sessions[s].setOldVersion(linkedSession(oldVersions[s]));
+         }
+      }
+   }
+
+   private Session linkedSession(int index) {
+      Session session = linkedSessions.get(index);
+      if (session == null) {
+         // decoding the day registers the session
+         findDay(index).getSessions();
+         session = linkedSessions.get(index);
+      }
+      return session;
+   }
+
+   /**
+    * Finds day program containing the session with given index, by binary search over the day
+    * and location tables. Both tables are ordered, so the day is the last one starting at or before
+    * the session and the location is the last one starting at or before the day.
+    */
+   private DayProgram findDay(int sessionIndex) {
+      int day = lastAtOrBefore(dayTableOffset + 4, DAY_SIZE, buf.getInt(16), sessionIndex);
+      int location = lastAtOrBefore(locationTableOffset + 16, LOCATION_SIZE, locationCount, day);
+      int firstDay = buf.getInt(locationTableOffset + location * LOCATION_SIZE + 16);
+      return event.getLocations()[location].getDayPrograms()[day - firstDay];
+   }
+
+   private int lastAtOrBefore(int offset, int recordSize, int count, int value) {
+      int low = 0;
+      int high = count - 1;
+      while (low < high) {
+         int mid = (low + high + 1) >>> 1;
+         if (buf.getInt(offset + mid * recordSize) > value) {
+            high = mid - 1;
+         } else {
+            low = mid;
+         }
+      }
+      return low;
+   }
+
+   private SessionMetadata metadata(int index) {
+      SessionMetadata result = metadata.get(index);
+      if (result == null) {
+         int mpos = metadataTableOffset + index * METADATA_SIZE;
+         result = new SessionMetadata();
+         result.setUrl(string(buf.getInt(mpos)));
+         result.setDescription(string(buf.getInt(mpos + 4)));
+         metadata.put(index, result);
+      }
+      return result;
+   }
+
+   private String string(int index) {
+      if (index == -1) {
+         return null;
+      }
+      String s = strings.get(index);
+      if (s == null) {
+         try {
+            s = decodeString(buf, stringDataOffset, HEADER_SIZE + EVENT_SIZE, index);
+         } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+         }
+         strings.put(index, s);
+      }
+      return s;
+   }
+}
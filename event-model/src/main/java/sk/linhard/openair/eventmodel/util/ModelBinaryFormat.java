@@ -0,0 +1,567 @@
+/*
+ * OpenAir Event Program Model
+ * Copyright (C) 2012 Michal Linhard <michal@linhard.sk>
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package sk.linhard.openair.eventmodel.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+
+import sk.linhard.openair.eventmodel.DayProgram;
+import sk.linhard.openair.eventmodel.Event;
+import sk.linhard.openair.eventmodel.Location;
+import sk.linhard.openair.eventmodel.LocationMetadata;
+import sk.linhard.openair.eventmodel.Session;
+import sk.linhard.openair.eventmodel.SessionMetadata;
+
+/**
+ * Binary snapshot format of the Event Program Model.
+ *
+ * All numbers are big endian. The file consists of these sections:
+ *
+ * <pre>
+ * header          int magic, short format version, short reserved,
+ *                 int counts of strings, locations, days, sessions and session metadata,
+ *                 int absolute offsets of string data, location table, day table,
+ *                 metadata table and session data
+ * event           byte flags, int uri, name, shortName, url, description, long version,
+ *                 int versionTime
+ * string offsets  int offset of each string relative to the string data
+ * string data     varint byte length followed by UTF-8 bytes, every distinct string once
+ * location table  int name, shortName, url, description, firstDay, dayCount, byte flags
+ * day table       int dayStart, firstSession, sessionCount, offset of the day's session block
+ * metadata table  int url, description of each distinct session metadata
+ * session data    one block of varint encoded sessions per day
+ * </pre>
+ *
+ * Strings are referenced by their index in the string table, -1 stands for null. Times are minutes
+ * since epoch, durations are minutes, so the format has the minute precision of the XML format.
+ * Session is encoded as byte flags, varint name, [varint shortName], zigzag varint start minus the
+ * start of the previous session in the day (day start for the first one), varint duration,
+ * [varint metadata index], [zigzag varint index difference to the new version], [zigzag varint
+ * index difference to the old version]. Session index is the position of the session when all
+ * sessions are listed day by day, location by location.
+ *
+ * The fixed size tables allow to open a day's session block without decoding anything else, which
+ * is what {@link #map(File)} does.
+ *
+ * For distribution the snapshot can be compressed, the compressed form is int magic
+ * {@link #COMPRESSED_MAGIC}, int length of the snapshot and the zlib deflated snapshot.
+ *
+ * @author Michal Linhard <michal@linhard.sk>
+ */
+public class ModelBinaryFormat {
+   public static final int MAGIC = 0x4F414542;
+   public static final int COMPRESSED_MAGIC = 0x4F41455A;
+   public static final short FORMAT_VERSION = 1;
+
+   static final int HEADER_SIZE = 48;
+   static final int EVENT_SIZE = 33;
+   static final int LOCATION_SIZE = 25;
+   static final int DAY_SIZE = 16;
+   static final int METADATA_SIZE = 8;
+
+   static final int EVENT_HAS_VERSION = 1;
+   static final int EVENT_HAS_VERSION_TIME = 2;
+   static final int EVENT_HAS_METADATA = 4;
+
+   static final int LOCATION_HAS_METADATA = 1;
+
+   static final int SESSION_CANCELLED = 1;
+   static final int SESSION_HAS_NEW_VERSION = 2;
+   static final int SESSION_HAS_OLD_VERSION = 4;
+   static final int SESSION_HAS_SHORT_NAME = 8;
+   static final int SESSION_HAS_METADATA = 16;
+
+   static final long MILIS_IN_MIN = Util.MILIS_IN_MIN;
+
+   /**
+    * Writes the event in the binary snapshot format.
+    *
+    * @param e
+    *           Event to write.
+    * @param os
+    *           Output stream, flushed but not closed.
+    * @param compressed
+    *           Whether to deflate the snapshot. Only uncompressed snapshots can be memory mapped.
+    */
+   public static void write(Event e, OutputStream os, boolean compressed) throws IOException {
+      if (!compressed) {
+         new Writer().write(e, os);
+         return;
+      }
+      ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+      new Writer().write(e, snapshot);
+      DataOutputStream dos = new DataOutputStream(os);
+      dos.writeInt(COMPRESSED_MAGIC);
+      dos.writeInt(snapshot.size());
+      Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+      DeflaterOutputStream zos = new DeflaterOutputStream(dos, deflater);
+      snapshot.writeTo(zos);
+      zos.finish();
+      deflater.end();
+      dos.flush();
+   }
+
+   /**
+    * Reads the whole event from the binary snapshot format, compressed or not.
+    *
+    * @param is
+    *           Input stream, read to the end but not closed.
+    */
+   public static Event read(InputStream is) throws IOException {
+      DataInputStream dis = new DataInputStream(is);
+      int magic = dis.readInt();
+      if (magic == COMPRESSED_MAGIC) {
+         byte[] snapshot = new byte[dis.readInt()];
+         Inflater inflater = new Inflater();
+         new DataInputStream(new InflaterInputStream(dis, inflater)).readFully(snapshot);
+         inflater.end();
+         return read(ByteBuffer.wrap(snapshot));
+      }
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      writeInt(bos, magic);
+      byte[] buf = new byte[8192];
+      int len;
+      while ((len = dis.read(buf)) != -1) {
+         bos.write(buf, 0, len);
+      }
+      return read(ByteBuffer.wrap(bos.toByteArray()));
+   }
+
+   /**
+    * Reads the whole event from a buffer containing the binary snapshot.
+    */
+   public static Event read(ByteBuffer buffer) throws IOException {
+      return new Reader(buffer).read();
+   }
+
+   /**
+    * Opens the uncompressed snapshot file by mapping it to memory. Only the header and the event
+    * record are decoded, locations, day programs and sessions are decoded the first time they're
+    * accessed. The file must not be modified while the event is in use.
+    */
+   public static Event map(File file) throws IOException {
+      RandomAccessFile raf = new RandomAccessFile(file, "r");
+      try {
+         FileChannel channel = raf.getChannel();
+         MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+         if (buffer.limit() >= 4 && buffer.getInt(0) == COMPRESSED_MAGIC) {
+            throw new IOException("Compressed event snapshot can't be memory mapped");
+         }
+         return new MappedSnapshot(buffer).open();
+      } finally {
+         raf.close();
+      }
+   }
+
+   private static class Writer {
+      private final HashMap<String, Integer> stringIndex = new HashMap<String, Integer>();
+      private final ByteArrayOutputStream stringData = new ByteArrayOutputStream();
+      private final List<Integer> stringOffsets = new ArrayList<Integer>();
+      private final IdentityHashMap<SessionMetadata, Integer> metadataIndex = new IdentityHashMap<SessionMetadata, Integer>();
+      private final IdentityHashMap<Session, Integer> sessionIndex = new IdentityHashMap<Session, Integer>();
+      private final ByteArrayOutputStream metadataTable = new ByteArrayOutputStream();
+
+      void write(Event e, OutputStream os) throws IOException {
+         int sessionCount = 0;
+         for (Location location : e) {
+            for (DayProgram day : location) {
+               for (Session session : day) {
+                  sessionIndex.put(session, sessionCount++);
+               }
+            }
+         }
+         ByteArrayOutputStream eventRecord = new ByteArrayOutputStream(EVENT_SIZE);
+         int flags = (e.getVersion() != null ? EVENT_HAS_VERSION : 0)
+               | (e.getVersionTime() != null ? EVENT_HAS_VERSION_TIME : 0)
+               | (e.getMetadata() != null ? EVENT_HAS_METADATA : 0);
+         eventRecord.write(flags);
+         writeInt(eventRecord, string(e.getUri()));
+         writeInt(eventRecord, string(e.getName()));
+         writeInt(eventRecord, string(e.getShortName()));
+         writeInt(eventRecord, string(e.getUrl()));
+         writeInt(eventRecord, string(e.getDescription()));
+         writeLong(eventRecord, e.getVersion() == null ? 0 : e.getVersion());
+         writeInt(eventRecord, e.getVersionTime() == null ? 0 : minutes(e.getVersionTime().getMillis()));
+
+         ByteArrayOutputStream locationTable = new ByteArrayOutputStream();
+         ByteArrayOutputStream dayTable = new ByteArrayOutputStream();
+         ByteArrayOutputStream sessionData = new ByteArrayOutputStream();
+         int locationCount = 0;
+         int dayCount = 0;
+         int currentSession = 0;
+         for (Location location : e) {
+            int firstDay = dayCount;
+            for (DayProgram day : location) {
+               int dayStart = minutes(day.getDayStart().getMillis());
+               int daySessions = 0;
+               writeInt(dayTable, dayStart);
+               writeInt(dayTable, currentSession);
+               int blockOffset = sessionData.size();
+               int previousStart = dayStart;
+               for (Session session : day) {
+                  previousStart = writeSession(sessionData, session, currentSession, previousStart);
+                  currentSession++;
+                  daySessions++;
+               }
+               writeInt(dayTable, daySessions);
+               writeInt(dayTable, blockOffset);
+               dayCount++;
+            }
+            writeInt(locationTable, string(location.getName()));
+            writeInt(locationTable, string(location.getShortName()));
+            writeInt(locationTable, string(location.getUrl()));
+            writeInt(locationTable, string(location.getDescription()));
+            writeInt(locationTable, firstDay);
+            writeInt(locationTable, dayCount - firstDay);
+            locationTable.write(location.getMetadata() != null ? LOCATION_HAS_METADATA : 0);
+            locationCount++;
+         }
+
+         ByteArrayOutputStream stringOffsetTable = new ByteArrayOutputStream(stringOffsets.size() * 4);
+         for (Integer offset : stringOffsets) {
+            writeInt(stringOffsetTable, offset);
+         }
+         int stringDataOffset = HEADER_SIZE + EVENT_SIZE + stringOffsetTable.size();
+         int locationTableOffset = stringDataOffset + stringData.size();
+         int dayTableOffset = locationTableOffset + locationTable.size();
+         int metadataTableOffset = dayTableOffset + dayTable.size();
+         int sessionDataOffset = metadataTableOffset + metadataTable.size();
+
+         ByteArrayOutputStream header = new ByteArrayOutputStream(HEADER_SIZE);
+         writeInt(header, MAGIC);
+         header.write(FORMAT_VERSION >>> 8);
+         header.write(FORMAT_VERSION);
+         header.write(0);
+         header.write(0);
+         writeInt(header, stringOffsets.size());
+         writeInt(header, locationCount);
+         writeInt(header, dayCount);
+         writeInt(header, sessionCount);
+         writeInt(header, metadataIndex.size());
+         writeInt(header, stringDataOffset);
+         writeInt(header, locationTableOffset);
+         writeInt(header, dayTableOffset);
+         writeInt(header, metadataTableOffset);
+         writeInt(header, sessionDataOffset);
+
+         header.writeTo(os);
+         eventRecord.writeTo(os);
+         stringOffsetTable.writeTo(os);
+         stringData.writeTo(os);
+         locationTable.writeTo(os);
+         dayTable.writeTo(os);
+         metadataTable.writeTo(os);
+         sessionData.writeTo(os);
+         os.flush();
+      }
+
+      private int writeSession(ByteArrayOutputStream out, Session session, int index, int previousStart)
+            throws IOException {
+         Session newVersion = session.getNewVersion();
+         Session oldVersion = session.getOldVersion();
+         int flags = (session.isCancelled() ? SESSION_CANCELLED : 0)
+               | (newVersion != null ? SESSION_HAS_NEW_VERSION : 0)
+               | (oldVersion != null ? SESSION_HAS_OLD_VERSION : 0)
+               | (session.getShortName() != null ? SESSION_HAS_SHORT_NAME : 0)
+               | (session.getMetadata() != null ? SESSION_HAS_METADATA : 0);
+         out.write(flags);
+         writeVarint(out, string(session.getName()) + 1);
+         if (session.getShortName() != null) {
+            writeVarint(out, string(session.getShortName()));
+         }
+         int start = minutes(session.getStart().getMillis());
+         writeVarint(out, zigzag(start - previousStart));
+         writeVarint(out, (int) (session.getDuration().getMillis() / MILIS_IN_MIN));
+         if (session.getMetadata() != null) {
+            writeVarint(out, metadata(session.getMetadata()));
+         }
+         if (newVersion != null) {
+            writeVarint(out, zigzag(link(newVersion) - index));
+         }
+         if (oldVersion != null) {
+            writeVarint(out, zigzag(link(oldVersion) - index));
+         }
+         return start;
+      }
+
+      private int link(Session aSession) {
+         Integer index = sessionIndex.get(aSession);
+         if (index == null) {
+            throw new IllegalArgumentException("Session " + aSession.getName()
+                  + " is linked to a session that is not part of the event");
+         }
+         return index;
+      }
+
+      private int metadata(SessionMetadata aMetadata) throws IOException {
+         Integer index = metadataIndex.get(aMetadata);
+         if (index == null) {
+            index = metadataIndex.size();
+            metadataIndex.put(aMetadata, index);
+            writeInt(metadataTable, string(aMetadata.getUrl()));
+            writeInt(metadataTable, string(aMetadata.getDescription()));
+         }
+         return index;
+      }
+
+      private int string(String s) throws IOException {
+         if (s == null) {
+            return -1;
+         }
+         Integer index = stringIndex.get(s);
+         if (index == null) {
+            index = stringOffsets.size();
+            stringIndex.put(s, index);
+            stringOffsets.add(stringData.size());
+            byte[] bytes = s.getBytes("UTF-8");
+            writeVarint(stringData, bytes.length);
+            stringData.write(bytes);
+         }
+         return index;
+      }
+   }
+
+   private static class Reader {
+      private final ByteBuffer buf;
+      private final String[] strings;
+      private final int stringDataOffset;
+      private final int locationCount;
+      private final int dayCount;
+      private final int sessionCount;
+      private final int metadataCount;
+      private final int locationTableOffset;
+      private final int dayTableOffset;
+      private final int metadataTableOffset;
+      private final int sessionDataOffset;
+
+      Reader(ByteBuffer aBuffer) throws IOException {
+         buf = aBuffer.duplicate();
+         checkHeader(buf);
+         strings = new String[buf.getInt(8)];
+         locationCount = buf.getInt(12);
+         dayCount = buf.getInt(16);
+         sessionCount = buf.getInt(20);
+         metadataCount = buf.getInt(24);
+         stringDataOffset = buf.getInt(28);
+         locationTableOffset = buf.getInt(32);
+         dayTableOffset = buf.getInt(36);
+         metadataTableOffset = buf.getInt(40);
+         sessionDataOffset = buf.getInt(44);
+      }
+
+      Event read() throws IOException {
+         Event e = new Event();
+         int pos = HEADER_SIZE;
+         int flags = buf.get(pos);
+         e.setUri(string(buf.getInt(pos + 1)));
+         e.setName(string(buf.getInt(pos + 5)));
+         e.setShortName(string(buf.getInt(pos + 9)));
+         if ((flags & EVENT_HAS_METADATA) != 0) {
+            e.setUrl(string(buf.getInt(pos + 13)));
+            e.setDescription(string(buf.getInt(pos + 17)));
+         }
+         if ((flags & EVENT_HAS_VERSION) != 0) {
+            e.setVersion(buf.getLong(pos + 21));
+         }
+         if ((flags & EVENT_HAS_VERSION_TIME) != 0) {
+            e.setVersionTime(dateTime(buf.getInt(pos + 29)));
+         }
+
+         SessionMetadata[] metadata = new SessionMetadata[metadataCount];
+         for (int i = 0; i < metadataCount; i++) {
+            int mpos = metadataTableOffset + i * METADATA_SIZE;
+            metadata[i] = new SessionMetadata();
+            metadata[i].setUrl(string(buf.getInt(mpos)));
+            metadata[i].setDescription(string(buf.getInt(mpos + 4)));
+         }
+
+         Session[] sessions = new Session[sessionCount];
+         int[] newVersions = new int[sessionCount];
+         int[] oldVersions = new int[sessionCount];
+         for (int l = 0; l < locationCount; l++) {
+            int lpos = locationTableOffset + l * LOCATION_SIZE;
+            Location location = e.addLocation(string(buf.getInt(lpos)));
+            location.setShortName(string(buf.getInt(lpos + 4)));
+            if ((buf.get(lpos + 24) & LOCATION_HAS_METADATA) != 0) {
+               LocationMetadata locationMetadata = new LocationMetadata();
+               locationMetadata.setUrl(string(buf.getInt(lpos + 8)));
+               locationMetadata.setDescription(string(buf.getInt(lpos + 12)));
+               location.setMetadata(locationMetadata);
+            }
+            int firstDay = buf.getInt(lpos + 16);
+            int days = buf.getInt(lpos + 20);
+            for (int d = firstDay; d < firstDay + days; d++) {
+               int dpos = dayTableOffset + d * DAY_SIZE;
+               int dayStart = buf.getInt(dpos);
+               int firstSession = buf.getInt(dpos + 4);
+               int count = buf.getInt(dpos + 8);
+               DayProgram day = location.addDay(dateTime(dayStart));
+               buf.position(sessionDataOffset + buf.getInt(dpos + 12));
+               int start = dayStart;
+               for (int s = firstSession; s < firstSession + count; s++) {
+                  int sflags = buf.get();
+                  String name = string(readVarint(buf) - 1);
+                  String shortName = (sflags & SESSION_HAS_SHORT_NAME) != 0 ? string(readVarint(buf)) : null;
+                  start += unzigzag(readVarint(buf));
+                  long duration = readVarint(buf) * MILIS_IN_MIN;
+                  Session session = day.addSession(name, dateTime(start), new Duration(duration));
+                  if (shortName != null) {
+                     session.setShortName(shortName);
+                  }
+                  if ((sflags & SESSION_CANCELLED) != 0) {
+                     session.setCancelled(true);
+                  }
+                  if ((sflags & SESSION_HAS_METADATA) != 0) {
+                     session.setMetadata(metadata[readVarint(buf)]);
+                  }
+                  newVersions[s] = (sflags & SESSION_HAS_NEW_VERSION) != 0 ? s + unzigzag(readVarint(buf)) : -1;
+                  oldVersions[s] = (sflags & SESSION_HAS_OLD_VERSION) != 0 ? s + unzigzag(readVarint(buf)) : -1;
+                  sessions[s] = session;
+               }
+            }
+         }
+         for (int s = 0; s < sessionCount; s++) {
+            if (newVersions[s] != -1) {
+               sessions[s].setNewVersion(sessions[newVersions[s]]);
+            }
+            if (oldVersions[s] != -1) {
+               sessions[s].setOldVersion(sessions[oldVersions[s]]);
+            }
+         }
+         return e;
+      }
+
+      private String string(int index) throws IOException {
+         if (index == -1) {
+            return null;
+         }
+         String s = strings[index];
+         if (s == null) {
+            s = decodeString(buf, stringDataOffset, HEADER_SIZE + EVENT_SIZE, index);
+            strings[index] = s;
+         }
+         return s;
+      }
+   }
+
+   static void checkHeader(ByteBuffer buf) throws IOException {
+      if (buf.limit() < HEADER_SIZE || buf.getInt(0) != MAGIC) {
+         throw new IOException("Not an OpenAir event snapshot");
+      }
+      if (buf.getShort(4) != FORMAT_VERSION) {
+         throw new IOException("Unsupported event snapshot format version " + buf.getShort(4));
+      }
+   }
+
+   /**
+    * Decodes string with given index, reads only the string offset table and the string itself.
+    */
+   static String decodeString(ByteBuffer buf, int stringDataOffset, int stringOffsetTable, int index)
+         throws UnsupportedEncodingException {
+      int pos = stringDataOffset + buf.getInt(stringOffsetTable + index * 4);
+      int length = 0;
+      int shift = 0;
+      byte b;
+      do {
+         b = buf.get(pos++);
+         length |= (b & 0x7f) << shift;
+         shift += 7;
+      } while (b < 0);
+      byte[] bytes = new byte[length];
+      for (int i = 0; i < length; i++) {
+         bytes[i] = buf.get(pos + i);
+      }
+      return new String(bytes, "UTF-8");
+   }
+
+   static DateTime dateTime(int minutes) {
+      return new DateTime(minutes * MILIS_IN_MIN);
+   }
+
+   static int minutes(long millis) {
+      long minutes = millis / MILIS_IN_MIN;
+      if (millis % MILIS_IN_MIN < 0) {
+         minutes--;
+      }
+      return (int) minutes;
+   }
+
+   static int zigzag(int n) {
+      return (n << 1) ^ (n >> 31);
+   }
+
+   static int unzigzag(int n) {
+      return (n >>> 1) ^ -(n & 1);
+   }
+
+   static int readVarint(ByteBuffer buf) {
+      int result = 0;
+      int shift = 0;
+      byte b;
+      do {
+         b = buf.get();
+         result |= (b & 0x7f) << shift;
+         shift += 7;
+      } while (b < 0);
+      return result;
+   }
+
+   static void writeVarint(ByteArrayOutputStream out, int n) {
+      while ((n & ~0x7f) != 0) {
+         out.write((n & 0x7f) | 0x80);
+         n >>>= 7;
+      }
+      out.write(n);
+   }
+
+   static void writeInt(ByteArrayOutputStream out, int n) {
+      out.write(n >>> 24);
+      out.write(n >>> 16);
+      out.write(n >>> 8);
+      out.write(n);
+   }
+
+   static void writeLong(ByteArrayOutputStream out, long n) {
+      writeInt(out, (int) (n >>> 32));
+      writeInt(out, (int) n);
+   }
+}
@@ -95,6 +95,10 @@ public class ModelHtmlOutput {
 
       List<DateTime> dates = e.getDates();
       String[] locationNames = e.getLocationNames();
+      Location[] locations = new Location[locationNames.length];
+      for (int i = 0; i < locationNames.length; i++) {
+         locations[i] = e.findLocation(locationNames[i]);
+      }
 
       SimpleDateFormat dayFormat = new SimpleDateFormat("EEE, MMM dd. yyyy");
       SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm");
@@ -114,8 +118,7 @@ public class ModelHtmlOutput {
          sb.append("</thead>");
          sb.append("<tbody>");
          sb.append("<tr>");
-         for (String locationName : locationNames) {
-            Location location = e.findLocation(locationName);
+         for (Location location : locations) {
             DayProgram day = location.findDayProgram(eachDate);
             sb.append("<td>");
             if (day != null) {
@@ -19,167 +19,481 @@
  */
 package sk.linhard.openair.eventmodel.util;
 
+import java.io.BufferedOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.WritableByteChannel;
 import java.text.ParseException;
 import java.util.HashMap;
+import java.util.concurrent.Executor;
 import java.util.Map.Entry;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
-import java.util.zip.ZipOutputStream;
+import java.util.zip.Deflater;
 
 import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
 import org.w3c.dom.DOMException;
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
 import org.xmlpull.v1.XmlSerializer;
 
 import sk.linhard.openair.eventmodel.DayProgram;
 import sk.linhard.openair.eventmodel.Event;
+import sk.linhard.openair.eventmodel.EventBuilder;
 import sk.linhard.openair.eventmodel.Session;
 import sk.linhard.openair.eventmodel.SessionMetadata;
 import sk.linhard.openair.eventmodel.Location;
 import sk.linhard.openair.eventmodel.LocationMetadata;
-import android.util.Xml;
+import sk.linhard.openair.eventmodel.exceptions.ValidationException;
 
 /**
  * Lightweight XML Serializer/Deserializer for Event Program Model. Using only XML tools available
- * in Android API 7.
+ * in Android API 7, on a plain JVM the XML is written without any Android classes.
  * 
  * @author Michal Linhard <michal@linhard.sk>
  */
 public class ModelMarshaller {
-   private static final String NS = "";
+   /**
+    * ZIP compression level storing the entries without compression, for fast networks where the
+    * CPU time matters more than the size.
+    */
+   public static final int ZIP_STORED = -2;
 
+   private static final int ZIP_BUFFER_SIZE = 8192;
+   private static volatile Boolean platformSerializerAvailable;
+
+   /**
+    * Writes the event as XML. On Android the platform XmlSerializer is used, elsewhere the output
+    * is encoded by a plain JDK writer producing the same bytes.
+    * 
+    * @param e
+    *           Event to write.
+    * @param os
+    *           Output stream, flushed but not closed.
+    */
    public static void marshall(Event e, OutputStream os) {
       try {
-         int currentMetadataId = 1;
-         HashMap<Integer, Location> locationMetadata = new HashMap<Integer, Location>();
-         HashMap<Integer, Session> sessionMetadata = new HashMap<Integer, Session>();
-         HashMap<Session, Integer> changeMapping = new HashMap<Session, Integer>();
-
-         XmlSerializer ser = Xml.newSerializer();
-         ser.setOutput(os, "UTF-8");
-         //ser.setProperty("http://xmlpull.org/v1/doc/properties.html#serializer-indentation", "\t");
-         ser.startDocument("UTF-8", true);
-         ser.startTag(NS, "event");
+         XmlOutput output = XmlPool.acquireOutput(os);
+         try {
+            marshall(e, output);
+         } finally {
+            XmlPool.releaseOutput(output);
+         }
+      } catch (IllegalArgumentException e1) {
+         throw new RuntimeException(e1);
+      } catch (IllegalStateException e1) {
+         throw new RuntimeException(e1);
+      } catch (IOException e1) {
+         throw new RuntimeException(e1);
+      }
+   }
+
+   /**
+    * Writes the event as XML to the channel. The output is collected in a direct buffer reused by
+    * the thread and written in chunks of 64 kB.
+    * 
+    * @param e
+    *           Event to write.
+    * @param channel
+    *           Channel, not closed.
+    */
+   public static void marshall(Event e, WritableByteChannel channel) {
+      ChannelOutputStream os = new ChannelOutputStream(channel);
+      try {
+         try {
+            marshall(e, os);
+         } finally {
+            os.close();
+         }
+      } catch (IOException ex) {
+         throw new RuntimeException(ex);
+      }
+   }
+
+   /**
+    * Writes the event as XML through the given serializer.
+    * 
+    * @param e
+    *           Event to write.
+    * @param ser
+    *           Serializer with the output already set.
+    */
+   public static void marshall(Event e, XmlSerializer ser) {
+      try {
+         marshall(e, new SerializerXmlOutput(ser));
+      } catch (IOException e1) {
+         throw new RuntimeException(e1);
+      }
+   }
+
+   /**
+    * Number of reads and writes that reused the parser, XML output, DOM builder or channel buffer
+    * cached by their thread.
+    */
+   public static long getPoolHits() {
+      return XmlPool.getHits();
+   }
+
+   /**
+    * Number of reads and writes that had to create a new parser, XML output, DOM builder or
+    * channel buffer, because their thread had none cached yet or it was in use.
+    */
+   public static long getPoolMisses() {
+      return XmlPool.getMisses();
+   }
+
+   static XmlOutput newXmlOutput(OutputStream os) throws IOException {
+      if (isPlatformSerializerAvailable()) {
+         return new SerializerXmlOutput(os);
+      }
+      return new Utf8XmlOutput(os);
+   }
+
+   /**
+    * Checks once whether android.util.Xml can create a serializer, which it can only on Android.
+    * The android jar used for compilation contains only stubs throwing RuntimeException and on a
+    * plain JVM the class isn't there at all.
+    */
+   private static boolean isPlatformSerializerAvailable() {
+      if (platformSerializerAvailable == null) {
+         boolean available;
+         try {
+            available = SerializerXmlOutput.newSerializer() != null;
+         } catch (RuntimeException e) {
+            available = false;
+         } catch (LinkageError e) {
+            available = false;
+         }
+         platformSerializerAvailable = available;
+      }
+      return platformSerializerAvailable;
+   }
+
+   static void marshall(Event e, XmlOutput ser) throws IOException {
+      ProgramWriter writer = new ProgramWriter();
+      writer.startEvent(e, ser);
+      ser.startTag("program");
+      for (Location eachLocation : e) {
+         writer.startLocation(eachLocation, ser, true, null);
+         writer.writeDays(eachLocation, ser);
+         ser.endTag("location");
+      }
+      ser.endTag("program");
+      writer.writeMetadata(e, ser);
+      ser.endTag("event");
+      ser.endDocument();
+   }
+
+   /**
+    * Writes the parts of the event XML. The ids linking the metadata and the changed sessions are
+    * numbered across all the parts written by one writer, so the parts can be written to several
+    * documents that are read as one, see {@link EventZip}.
+    */
+   static class ProgramWriter {
+      private int currentMetadataId = 1;
+      private final HashMap<Integer, Location> locationMetadata = new HashMap<Integer, Location>();
+      private final HashMap<Integer, Session> sessionMetadata = new HashMap<Integer, Session>();
+      private final HashMap<Session, Integer> changeMapping = new HashMap<Session, Integer>();
+      private final DateTimeCodec codec = DateTimeCodec.getDefault();
+      private final StringBuilder text = new StringBuilder(16);
+
+      /**
+       * Writes the document start and the event start tag with its attributes.
+       */
+      void startEvent(Event e, XmlOutput ser) throws IOException {
+         ser.startDocument();
+         ser.startTag("event");
          attribute(ser, "xmlns", "http://michal.linhard.sk/openair/event");
          attribute(ser, "uri", e.getUri());
          attribute(ser, "name", e.getName());
          attribute(ser, "shortName", e.getShortName());
          attribute(ser, "version", e.getVersion());
-         attribute(ser, "versionTime", Util.formatDateTime(e.getVersionTime()));
-
-         ser.startTag(NS, "program");
-         for (Location eachLocation : e) {
-            ser.startTag(NS, "location");
-            attribute(ser, "name", eachLocation.getName());
-            attribute(ser, "shortName", eachLocation.getShortName());
-            if (eachLocation.getMetadata() != null) {
-               attribute(ser, "id", "st" + currentMetadataId);
-               locationMetadata.put(currentMetadataId, eachLocation);
-               currentMetadataId++;
-            }
-            for (DayProgram eachDay : eachLocation) {
-               ser.startTag(NS, "day");
-               attribute(ser, "date", Util.formatDate(eachDay.getDayStart()));
-               for (Session eachSession : eachDay) {
-                  ser.startTag(NS, "session");
-                  attribute(ser, "start", Util.formatDateTime(eachSession.getStart()));
-                  attribute(ser, "duration", Util.formatDuration(eachSession.getDuration()));
-                  attribute(ser, "name", eachSession.getName());
-                  attribute(ser, "shortName", eachSession.getShortName());
-                  if (eachSession.isCancelled()) {
-                     attribute(ser, "cancelled", Boolean.TRUE);
-                  }
-                  Integer sessionID = changeMapping.get(eachSession);
+         dateTimeAttribute(ser, "versionTime", e.getVersionTime(), codec, text);
+      }
+
+      /**
+       * Writes the location start tag with its attributes.
+       * 
+       * @param withId
+       *           Whether to write the id of the location metadata.
+       * @param linked
+       *           Value of the linked attribute, or null.
+       */
+      void startLocation(Location location, XmlOutput ser, boolean withId, String linked) throws IOException {
+         ser.startTag("location");
+         attribute(ser, "name", location.getName());
+         attribute(ser, "shortName", location.getShortName());
+         if (withId && location.getMetadata() != null) {
+            ser.attribute("id", "st", currentMetadataId);
+            locationMetadata.put(currentMetadataId, location);
+            currentMetadataId++;
+         }
+         attribute(ser, "linked", linked);
+      }
+
+      void writeDays(Location location, XmlOutput ser) throws IOException {
+         for (DayProgram eachDay : location) {
+            ser.startTag("day");
+            dateAttribute(ser, "date", eachDay.getDayStart(), codec, text);
+            for (Session eachSession : eachDay) {
+               ser.startTag("session");
+               dateTimeAttribute(ser, "start", eachSession.getStart(), codec, text);
+               durationAttribute(ser, "duration", eachSession.getDuration(), text);
+               attribute(ser, "name", eachSession.getName());
+               attribute(ser, "shortName", eachSession.getShortName());
+               if (eachSession.isCancelled()) {
+                  attribute(ser, "cancelled", Boolean.TRUE);
+               }
+               Integer sessionID = changeMapping.get(eachSession);
 
-                  if (sessionID == null && (eachSession.getMetadata() != null || eachSession.isMoved())) {
-                     sessionID = currentMetadataId;
-                     currentMetadataId++;
+               if (sessionID == null && (eachSession.getMetadata() != null || eachSession.isMoved())) {
+                  sessionID = currentMetadataId;
+                  currentMetadataId++;
+               }
+               if (sessionID != null) {
+                  ser.attribute("id", "sh", sessionID);
+                  if (eachSession.getMetadata() != null) {
+                     sessionMetadata.put(sessionID, eachSession);
                   }
-                  if (sessionID != null) {
-                     attribute(ser, "id", "sh" + sessionID);
-                     if (eachSession.getMetadata() != null) {
-                        sessionMetadata.put(sessionID, eachSession);
-                     }
-                     if (eachSession.isMoved()) {
-                        if (eachSession.isOldVersion()) {
-                           changeMapping.put(eachSession.getNewVersion(), sessionID);
-                           attribute(ser, "oldVersion", true);
-                        } else {
-                           changeMapping.put(eachSession.getOldVersion(), sessionID);
-                        }
+                  if (eachSession.isMoved()) {
+                     if (eachSession.isOldVersion()) {
+                        changeMapping.put(eachSession.getNewVersion(), sessionID);
+                        attribute(ser, "oldVersion", true);
+                     } else {
+                        changeMapping.put(eachSession.getOldVersion(), sessionID);
                      }
                   }
-                  ser.endTag(NS, "session");
                }
-               ser.endTag(NS, "day");
+               ser.endTag("session");
             }
-
-            ser.endTag(NS, "location");
+            ser.endTag("day");
          }
-         ser.endTag(NS, "program");
+      }
 
-         ser.startTag(NS, "metadata");
-         if (e.getMetadata() != null) {
-            ser.startTag(NS, "event");
+      /**
+       * Writes the metadata section with the metadata collected since the last call.
+       * 
+       * @param e
+       *           Event whose metadata to write, or null.
+       */
+      void writeMetadata(Event e, XmlOutput ser) throws IOException {
+         ser.startTag("metadata");
+         if (e != null && e.getMetadata() != null) {
+            ser.startTag("event");
             attribute(ser, "url", e.getUrl());
             attribute(ser, "description", e.getDescription());
-            ser.endTag(NS, "event");
+            ser.endTag("event");
          }
          for (Entry<Integer, Location> locationEntry : locationMetadata.entrySet()) {
-            ser.startTag(NS, "location");
-            attribute(ser, "id", "st" + locationEntry.getKey());
+            ser.startTag("location");
+            ser.attribute("id", "st", locationEntry.getKey());
             attribute(ser, "url", locationEntry.getValue().getUrl());
             attribute(ser, "description", locationEntry.getValue().getDescription());
-            ser.endTag(NS, "location");
+            ser.endTag("location");
          }
          for (Entry<Integer, Session> sessionEntry : sessionMetadata.entrySet()) {
-            ser.startTag(NS, "session");
-            attribute(ser, "id", "sh" + sessionEntry.getKey());
+            ser.startTag("session");
+            ser.attribute("id", "sh", sessionEntry.getKey());
             attribute(ser, "url", sessionEntry.getValue().getUrl());
             attribute(ser, "description", sessionEntry.getValue().getDescription());
-            ser.endTag(NS, "session");
+            ser.endTag("session");
          }
+         ser.endTag("metadata");
+         locationMetadata.clear();
+         sessionMetadata.clear();
+      }
+   }
 
-         ser.endTag(NS, "metadata");
+   private static void attribute(XmlOutput s, String attr, Object value) throws IOException {
+      if (value == null)
+         return;
+      s.attribute(attr, value.toString());
+   }
 
-         ser.endTag(NS, "event");
-         ser.endDocument();
-         ser.flush();
-      } catch (IllegalArgumentException e1) {
-         throw new RuntimeException(e1);
-      } catch (IllegalStateException e1) {
-         throw new RuntimeException(e1);
-      } catch (IOException e1) {
-         throw new RuntimeException(e1);
+   // the time attributes are formatted into the reused builder, the output copies the value
+
+   private static void dateTimeAttribute(XmlOutput s, String attr, DateTime value, DateTimeCodec codec,
+         StringBuilder text) throws IOException {
+      if (value == null)
+         return;
+      if (!codec.isFormattable(value.getMillis())) {
+         s.attribute(attr, Util.formatDateTime(value));
+         return;
       }
+      text.setLength(0);
+      s.attribute(attr, codec.formatDateTime(value.getMillis(), text));
    }
 
-   private static void attribute(XmlSerializer s, String attr, Object value) throws IllegalArgumentException,
-         IllegalStateException, IOException {
+   private static void dateAttribute(XmlOutput s, String attr, DateTime value, DateTimeCodec codec,
+         StringBuilder text) throws IOException {
       if (value == null)
          return;
-      s.attribute(NS, attr, value.toString());
+      if (!codec.isFormattable(value.getMillis())) {
+         s.attribute(attr, Util.formatDate(value));
+         return;
+      }
+      text.setLength(0);
+      s.attribute(attr, codec.formatDate(value.getMillis(), text));
+   }
+
+   private static void durationAttribute(XmlOutput s, String attr, Duration value, StringBuilder text)
+         throws IOException {
+      if (value == null)
+         return;
+      if (value.getMillis() < 0) {
+         s.attribute(attr, Util.formatDuration(value));
+         return;
+      }
+      text.setLength(0);
+      s.attribute(attr, DateTimeCodec.formatDuration(value.getMillis(), text));
    }
 
+   /**
+    * Reads the event from XML in a single streaming pass. The document is checked against the
+    * constraints of event.xsd while it's read.
+    * 
+    * @param is
+    *           Input stream with the event XML.
+    * @return The event.
+    * @throws ValidationException
+    *            With all the violations found, if the document isn't valid.
+    */
    public static Event unmarshall(InputStream is) {
       try {
-         // TODO: add schema checking or add simple validation
-         // do not throw NPE when some required thing is missing
-         DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-         DocumentBuilder builder = factory.newDocumentBuilder();
-         Document dom = builder.parse(is);
+         XmlPullParser parser = XmlPool.acquireParser();
+         try {
+            return new StreamingUnmarshaller(parser).unmarshall(is);
+         } finally {
+            XmlPool.releaseParser(parser);
+         }
+      } catch (IOException e) {
+         throw new RuntimeException(e);
+      } catch (XmlPullParserException e) {
+         throw new RuntimeException(e);
+      } catch (ParseException e) {
+         throw new RuntimeException(e);
+      }
+   }
+
+   /**
+    * Reads the event from XML, equal names, short names, urls and descriptions share one instance
+    * from the dictionary.
+    * 
+    * @param is
+    *           Input stream with the event XML.
+    * @param dictionary
+    *           New dictionary or one shared by the loads of several events.
+    * @return The event and the dictionary counts of this load.
+    */
+   public static LoadResult unmarshall(InputStream is, StringDictionary dictionary) {
+      try {
+         StringDictionary.Stats before = dictionary.getStats();
+         XmlPullParser parser = XmlPool.acquireParser();
+         try {
+            StreamingUnmarshaller unmarshaller = new StreamingUnmarshaller(parser);
+            unmarshaller.setStringDictionary(dictionary);
+            Event event = unmarshaller.unmarshall(is);
+            return new LoadResult(event, dictionary.getStats().since(before));
+         } finally {
+            XmlPool.releaseParser(parser);
+         }
+      } catch (IOException e) {
+         throw new RuntimeException(e);
+      } catch (XmlPullParserException e) {
+         throw new RuntimeException(e);
+      } catch (ParseException e) {
+         throw new RuntimeException(e);
+      }
+   }
+
+   /**
+    * Reads only the part of the event selected by the filter. Rejected locations and day programs
+    * are skipped by the parser. Selected sessions that were changed keep their links, the linked
+    * sessions from rejected parts are in locations and day programs that are not part of the
+    * returned event.
+    * 
+    * @param is
+    *           Input stream with the event XML.
+    * @param filter
+    *           Selected locations and dates.
+    * @return The event with the selected part of the program.
+    */
+   public static Event unmarshall(InputStream is, EventFilter filter) {
+      try {
+         XmlPullParser parser = XmlPool.acquireParser();
+         try {
+            return new StreamingUnmarshaller(parser, filter).unmarshall(is);
+         } finally {
+            XmlPool.releaseParser(parser);
+         }
+      } catch (IOException e) {
+         throw new RuntimeException(e);
+      } catch (XmlPullParserException e) {
+         throw new RuntimeException(e);
+      } catch (ParseException e) {
+         throw new RuntimeException(e);
+      }
+   }
+
+   /**
+    * Reads the event from XML parsing the locations in parallel on a shared pool with a thread per
+    * core, see {@link #unmarshallParallel(InputStream, Executor)}.
+    */
+   public static Event unmarshallParallel(InputStream is) {
+      return unmarshallParallel(is, ParallelUnmarshaller.DefaultPool.POOL);
+   }
+
+   /**
+    * Reads the event from XML parsing the locations in parallel. The result is the same as the one
+    * of {@link #unmarshall(InputStream)}.
+    * 
+    * @param is
+    *           Input stream with the event XML, read whole into memory.
+    * @param executor
+    *           Executor to parse the locations on, the locations it doesn't start in time are
+    *           parsed by the calling thread.
+    * @return The event.
+    */
+   public static Event unmarshallParallel(InputStream is, Executor executor) {
+      try {
+         return new ParallelUnmarshaller(executor).unmarshall(is);
+      } catch (IOException e) {
+         throw new RuntimeException(e);
+      } catch (XmlPullParserException e) {
+         throw new RuntimeException(e);
+      } catch (ParseException e) {
+         throw new RuntimeException(e);
+      }
+   }
+
+   /**
+    * Reads the event from XML by building the whole DOM tree first.
+    * 
+    * @deprecated The DOM tree costs several times the size of the model, use
+    *             {@link #unmarshall(InputStream)}.
+    */
+   @Deprecated
+   public static Event unmarshallDom(InputStream is) {
+      try {
+         DocumentBuilder builder = XmlPool.acquireDocumentBuilder();
+         Document dom;
+         try {
+            dom = builder.parse(is);
+         } finally {
+            XmlPool.releaseDocumentBuilder(builder);
+         }
          HashMap<String, Object> metadata = null;
          HashMap<String, Session> sessionById = new HashMap<String, Session>();
-         Event event = new Event();
+         EventBuilder eventBuilder = new EventBuilder();
+         Event event = eventBuilder.getEvent();
          NodeList metadataNodes = dom.getElementsByTagName("metadata");
          if (metadataNodes.getLength() != 0) {
             metadata = new HashMap<String, Object>();
@@ -230,7 +544,8 @@ public class ModelMarshaller {
             if (locationNode.getNodeType() != Node.ELEMENT_NODE && !locationNode.getNodeName().equals("location")) {
                continue;
             }
-            Location location = event.addLocation(locationNode.getAttributes().getNamedItem("name").getTextContent());
+            Location location = eventBuilder.addLocation(locationNode.getAttributes().getNamedItem("name")
+                  .getTextContent());
             if (locationNode.getAttributes().getNamedItem("id") != null) {
                LocationMetadata locationMetadata = (LocationMetadata) metadata.get(locationNode.getAttributes()
                      .getNamedItem("id").getTextContent());
@@ -245,16 +560,16 @@ public class ModelMarshaller {
                if (dayNode.getNodeType() != Node.ELEMENT_NODE && !dayNode.getNodeName().equals("day")) {
                   continue;
                }
-               DayProgram dayProgram = location.addDay(Util.date(dayNode.getAttributes().getNamedItem("date")
-                     .getTextContent()));
+               DayProgram dayProgram = eventBuilder.addDay(location, Util.date(dayNode.getAttributes()
+                     .getNamedItem("date").getTextContent()));
                NodeList dayKids = dayNode.getChildNodes();
                for (int k = 0; k < dayKids.getLength(); k++) {
                   Node sessionNode = dayKids.item(k);
                   if (sessionNode.getNodeType() != Node.ELEMENT_NODE && !sessionNode.getNodeName().equals("session")) {
                      continue;
                   }
-                  Session session = dayProgram.addSession(sessionNode.getAttributes().getNamedItem("name")
-                        .getTextContent(),
+                  Session session = eventBuilder.addSession(dayProgram, sessionNode.getAttributes()
+                        .getNamedItem("name").getTextContent(),
                         Util.dateTime(sessionNode.getAttributes().getNamedItem("start").getTextContent()),
                         Util.duration(sessionNode.getAttributes().getNamedItem("duration").getTextContent()));
                   if (sessionNode.getAttributes().getNamedItem("shortName") != null) {
@@ -272,8 +587,8 @@ public class ModelMarshaller {
                      }
                      Session theOtherSession = sessionById.get(sessionId);
                      if (theOtherSession != null) {
-                        if (sessionNode.getAttributes().getNamedItem("oldVersion") == null
-                              || new Boolean(sessionNode.getAttributes().getNamedItem("oldVersion").getTextContent())) {
+                        if (sessionNode.getAttributes().getNamedItem("oldVersion") != null
+                              && new Boolean(sessionNode.getAttributes().getNamedItem("oldVersion").getTextContent())) {
                            session.setNewVersion(theOtherSession);
                            theOtherSession.setOldVersion(session);
                         } else {
@@ -289,7 +604,7 @@ public class ModelMarshaller {
             }
          }
 
-         return event;
+         return eventBuilder.build();
       } catch (IOException e) {
          throw new RuntimeException(e);
       } catch (ParserConfigurationException e) {
@@ -303,30 +618,168 @@ public class ModelMarshaller {
       }
    }
 
+   /**
+    * Writes the event XML as the single entry event.xml of a ZIP archive.
+    */
    public static void marshallZip(Event e, OutputStream os) {
+      marshallZip(e, os, false);
+   }
+
+   /**
+    * Writes the event XML as a ZIP archive.
+    * 
+    * @param entryPerLocation
+    *           Whether to write a small index entry and one entry per location, see
+    *           {@link #openZip(File)}, or the whole XML as the single entry event.xml.
+    */
+   public static void marshallZip(Event e, OutputStream os, boolean entryPerLocation) {
+      marshallZip(e, os, entryPerLocation, Deflater.DEFAULT_COMPRESSION);
+   }
+
+   /**
+    * Writes the event XML as a ZIP archive and closes the stream.
+    * 
+    * @param entryPerLocation
+    *           Whether to write a small index entry and one entry per location, see
+    *           {@link #openZip(File)}, or the whole XML as the single entry event.xml.
+    * @param level
+    *           Deflater level, 0 to 9 or {@link Deflater#DEFAULT_COMPRESSION}, or
+    *           {@link #ZIP_STORED}. Stored entries are collected in memory before they're written.
+    */
+   public static void marshallZip(Event e, OutputStream os, boolean entryPerLocation, int level) {
       try {
-         ZipOutputStream zos = new ZipOutputStream(os);
-         ZipEntry zentry = new ZipEntry("event.xml");
-         zos.putNextEntry(zentry);
-         marshall(e, zos);
-         zos.closeEntry();
-         zos.close();
+         EventZip.write(e, new BufferedOutputStream(os, ZIP_BUFFER_SIZE), entryPerLocation, level);
       } catch (IOException ex) {
          throw new RuntimeException(ex);
       }
    }
 
-   public static Event unmarshallZip(InputStream is) {
+   /**
+    * Writes the event XML as the single entry event.xml of a ZIP archive to the channel.
+    */
+   public static void marshallZip(Event e, WritableByteChannel channel) {
+      marshallZip(e, channel, false, Deflater.DEFAULT_COMPRESSION);
+   }
+
+   /**
+    * Writes the event XML as a ZIP archive to the channel, see
+    * {@link #marshallZip(Event, OutputStream, boolean, int)}. The output is collected in a direct
+    * buffer reused by the thread and written in chunks of 64 kB. The channel isn't closed.
+    */
+   public static void marshallZip(Event e, WritableByteChannel channel, boolean entryPerLocation, int level) {
+      ChannelOutputStream os = new ChannelOutputStream(channel);
       try {
-         ZipInputStream zis = new ZipInputStream(is);
-         ZipEntry zentry = zis.getNextEntry();
-         while (!zentry.getName().equals("event.xml")) {
-            zentry = zis.getNextEntry();
-            zis.closeEntry();
+         try {
+            EventZip.write(e, os, entryPerLocation, level);
+         } finally {
+            os.close();
          }
-         Event e = unmarshall(zis);
-         zis.close();
-         return e;
+      } catch (IOException ex) {
+         throw new RuntimeException(ex);
+      }
+   }
+
+   /**
+    * Reads the event from a ZIP archive written by {@link #marshallZip(Event, OutputStream, boolean)}
+    * in either layout.
+    */
+   public static Event unmarshallZip(InputStream is) {
+      try {
+         return EventZip.read(is);
+      } catch (IOException ex) {
+         throw new RuntimeException(ex);
+      } catch (XmlPullParserException ex) {
+         throw new RuntimeException(ex);
+      } catch (ParseException ex) {
+         throw new RuntimeException(ex);
+      }
+   }
+
+   /**
+    * Opens the ZIP archive file. With an entry per location only the index is read, the entry of a
+    * location is inflated the first time its days are needed, together with the entries of the
+    * locations its sessions are linked to. The file must not change while the event is used. A
+    * single entry archive is read whole.
+    */
+   public static Event openZip(File file) {
+      try {
+         return EventZip.open(file);
+      } catch (IOException ex) {
+         throw new RuntimeException(ex);
+      } catch (XmlPullParserException ex) {
+         throw new RuntimeException(ex);
+      } catch (ParseException ex) {
+         throw new RuntimeException(ex);
+      }
+   }
+
+   /**
+    * Writes the event as UTF-8 JSON with the structure of the XML, see {@link JsonEventWriter}.
+    */
+   public static void marshallJson(Event e, OutputStream os) {
+      try {
+         new JsonEventWriter(os).write(e);
+      } catch (IOException ex) {
+         throw new RuntimeException(ex);
+      }
+   }
+
+   /**
+    * Reads the event from JSON written by {@link #marshallJson(Event, OutputStream)} in a single
+    * streaming pass, checking the same constraints as {@link #unmarshall(InputStream)}.
+    *
+    * @throws ValidationException
+    *            With all the violations found, if the event isn't valid.
+    */
+   public static Event unmarshallJson(InputStream is) {
+      try {
+         return new JsonEventReader(is).read();
+      } catch (IOException ex) {
+         throw new RuntimeException(ex);
+      }
+   }
+
+   /**
+    * Writes the event in the compressed binary snapshot format, see {@link ModelBinaryFormat}.
+    */
+   public static void writeBinary(Event e, OutputStream os) {
+      writeBinary(e, os, true);
+   }
+
+   /**
+    * Writes the event in the binary snapshot format, see {@link ModelBinaryFormat}.
+    * 
+    * @param compressed
+    *           Whether to deflate the snapshot. Uncompressed snapshots are larger but can be memory
+    *           mapped.
+    */
+   public static void writeBinary(Event e, OutputStream os, boolean compressed) {
+      try {
+         ModelBinaryFormat.write(e, os, compressed);
+      } catch (IOException ex) {
+         throw new RuntimeException(ex);
+      }
+   }
+
+   /**
+    * Reads the event from the binary snapshot format, compressed or not, see
+    * {@link ModelBinaryFormat}.
+    */
+   public static Event readBinary(InputStream is) {
+      try {
+         return ModelBinaryFormat.read(is);
+      } catch (IOException ex) {
+         throw new RuntimeException(ex);
+      }
+   }
+
+   /**
+    * Opens the uncompressed binary snapshot file by mapping it to memory, the programme is decoded
+    * lazily as it's accessed, see {@link ModelBinaryFormat#map(File)}.
+    */
+   public static Event mapBinary(File file) {
+      try {
+         return ModelBinaryFormat.map(file);
       } catch (IOException ex) {
          throw new RuntimeException(ex);
       }
@@ -0,0 +1,371 @@
+/*
+ * OpenAir Event Program Model
+ * Copyright (C) 2012 Michal Linhard <michal@linhard.sk>
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package sk.linhard.openair.eventmodel.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import sk.linhard.openair.eventmodel.Event;
+import sk.linhard.openair.eventmodel.Location;
+import sk.linhard.openair.eventmodel.exceptions.ValidationException;
+import sk.linhard.openair.eventmodel.exceptions.ValidationException.Violation;
+import sk.linhard.openair.eventmodel.util.StreamingUnmarshaller.IdOccurrence;
+
+/**
+ * Reads the event XML using several cores. The locations in the program are independent except
+ * for the session ids, so the document is cut at the location elements, the locations are parsed
+ * on an executor and the rest of the document, with the metadata, is parsed meanwhile. The
+ * locations are then added to the event in document order and their ids are resolved just like
+ * in {@link StreamingUnmarshaller}, so the result is the same as the one of the sequential read.
+ * The locations the executor hasn't started by then are parsed by the reading thread, so a busy
+ * executor only makes the read sequential.
+ *
+ * Meant for servers, the phones have a core or two. Documents that can't be cut
+ * safely (UTF-16, DOCTYPE) and documents with a single location are read sequentially. An invalid
+ * document is read again sequentially to report the violations at their positions in the
+ * document.
+ *
+ * @author Michal Linhard <michal@linhard.sk>
+ */
+class ParallelUnmarshaller {
+   private final Executor executor;
+
+   /**
+    * Pool of daemon threads, one per core, shared by the reads that don't bring their own executor.
+    */
+   static class DefaultPool {
+      static final ExecutorService POOL = Executors.newFixedThreadPool(Runtime.getRuntime()
+            .availableProcessors(), new ThreadFactory() {
+         @Override
+         public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "openair-unmarshaller");
+            thread.setDaemon(true);
+            return thread;
+         }
+      });
+   }
+
+   ParallelUnmarshaller(Executor anExecutor) {
+      executor = anExecutor;
+   }
+
+   private static class LocationTask implements Callable<LocationTask> {
+      private final byte[] doc;
+      private final int start;
+      private final int end;
+      private final String encoding;
+      private Location location;
+      private List<IdOccurrence> occurrences;
+      private List<Violation> violations;
+
+      LocationTask(byte[] aDoc, int aStart, int anEnd, String anEncoding) {
+         doc = aDoc;
+         start = aStart;
+         end = anEnd;
+         encoding = anEncoding;
+      }
+
+      @Override
+      public LocationTask call() throws XmlPullParserException, IOException, ParseException {
+         XmlPullParser parser = XmlPool.acquireParser();
+         try {
+            StreamingUnmarshaller unmarshaller = new StreamingUnmarshaller(parser);
+            location = unmarshaller.unmarshallLocation(new ByteArrayInputStream(doc, start, end - start), encoding);
+            occurrences = unmarshaller.getIdOccurrences();
+            violations = unmarshaller.getViolations();
+         } finally {
+            XmlPool.releaseParser(parser);
+         }
+         return this;
+      }
+   }
+
+   Event unmarshall(InputStream is) throws XmlPullParserException, IOException, ParseException {
+      byte[] doc = readFully(is);
+      String encoding = encoding(doc);
+      int[] slices = encoding == null ? null : locationSlices(doc);
+      if (slices == null || slices.length < 4) {
+         return unmarshallSequentially(doc);
+      }
+      List<FutureTask<LocationTask>> tasks = new ArrayList<FutureTask<LocationTask>>(slices.length / 2);
+      ByteArrayOutputStream rest = new ByteArrayOutputStream();
+      int pos = 0;
+      for (int i = 0; i < slices.length; i += 2) {
+         FutureTask<LocationTask> task = new FutureTask<LocationTask>(new LocationTask(doc, slices[i],
+               slices[i + 1], encoding));
+         executor.execute(task);
+         tasks.add(task);
+         rest.write(doc, pos, slices[i] - pos);
+         pos = slices[i + 1];
+      }
+      rest.write(doc, pos, doc.length - pos);
+      StreamingUnmarshaller unmarshaller;
+      Event event;
+      XmlPullParser parser = XmlPool.acquireParser();
+      try {
+         unmarshaller = new StreamingUnmarshaller(parser);
+         event = unmarshaller.read(new ByteArrayInputStream(rest.toByteArray()));
+      } finally {
+         XmlPool.releaseParser(parser);
+      }
+      boolean valid = true;
+      for (FutureTask<LocationTask> eachTask : tasks) {
+         LocationTask task = join(eachTask);
+         valid = valid && task.violations.isEmpty();
+         if (valid) {
+            unmarshaller.addLocation(task.location, task.occurrences);
+         }
+      }
+      if (valid) {
+         try {
+            unmarshaller.validate(true);
+            return event;
+         } catch (ValidationException e) {
+            // positions in the parts are not the positions in the document
+         }
+      }
+      // reads the invalid document again to report the violations at their positions
+      return unmarshallSequentially(doc);
+   }
+
+   private static Event unmarshallSequentially(byte[] doc) throws XmlPullParserException, IOException,
+         ParseException {
+      XmlPullParser parser = XmlPool.acquireParser();
+      try {
+         return new StreamingUnmarshaller(parser).unmarshall(new ByteArrayInputStream(doc));
+      } finally {
+         XmlPool.releaseParser(parser);
+      }
+   }
+
+   /**
+    * Waits for the task, runs it in this thread if the executor hasn't started it yet.
+    */
+   private static LocationTask join(FutureTask<LocationTask> task) throws XmlPullParserException, IOException,
+         ParseException {
+      task.run();
+      try {
+         return task.get();
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new IOException("Interrupted while reading the event");
+      } catch (ExecutionException e) {
+         Throwable cause = e.getCause();
+         if (cause instanceof XmlPullParserException) {
+            throw (XmlPullParserException) cause;
+         } else if (cause instanceof IOException) {
+            throw (IOException) cause;
+         } else if (cause instanceof ParseException) {
+            throw (ParseException) cause;
+         } else if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+         }
+         throw new RuntimeException(cause);
+      }
+   }
+
+   /**
+    * Returns the declared encoding, UTF-8 if none is declared or null if the document isn't in
+    * an ASCII compatible encoding and can't be cut at byte level.
+    */
+   static String encoding(byte[] doc) {
+      if (doc.length < 2 || doc[0] == 0 || doc[1] == 0 || (doc[0] & 0xfe) == 0xfe) {
+         return null;
+      }
+      int pos = doc.length >= 3 && (doc[0] & 0xff) == 0xef && (doc[1] & 0xff) == 0xbb && (doc[2] & 0xff) == 0xbf ? 3
+            : 0;
+      if (!startsWith(doc, pos, "<?xml")) {
+         return "UTF-8";
+      }
+      int end = indexOf(doc, pos, "?>");
+      if (end == -1) {
+         return null;
+      }
+      String declaration = new String(doc, pos, end - pos);
+      int attr = declaration.indexOf("encoding");
+      if (attr == -1) {
+         return "UTF-8";
+      }
+      int quote = attr + 8;
+      while (quote < declaration.length() && declaration.charAt(quote) != '"' && declaration.charAt(quote) != '\'') {
+         quote++;
+      }
+      int close = quote < declaration.length() ? declaration.indexOf(declaration.charAt(quote), quote + 1) : -1;
+      if (close == -1) {
+         return null;
+      }
+      String encoding = declaration.substring(quote + 1, close);
+      return encoding.toUpperCase().startsWith("UTF-16") ? null : encoding;
+   }
+
+   /**
+    * Finds the location elements of the program. Returns start and end offsets of each location
+    * element, or null if the document can't be cut.
+    */
+   static int[] locationSlices(byte[] doc) {
+      int[] slices = new int[16];
+      int count = 0;
+      int depth = 0;
+      boolean inProgram = false;
+      int sliceStart = -1;
+      int pos = 0;
+      while (true) {
+         pos = indexOf(doc, pos, '<');
+         if (pos == -1) {
+            return count == 0 ? null : Arrays.copyOf(slices, count);
+         }
+         int tagStart = pos;
+         if (startsWith(doc, pos, "<?")) {
+            pos = skipTo(doc, pos, "?>");
+         } else if (startsWith(doc, pos, "<!--")) {
+            pos = skipTo(doc, pos, "-->");
+         } else if (startsWith(doc, pos, "<![CDATA[")) {
+            pos = skipTo(doc, pos, "]]>");
+         } else if (startsWith(doc, pos, "<!")) {
+            // DOCTYPE may declare entities, the parts wouldn't be parseable on their own
+            return null;
+         } else if (startsWith(doc, pos, "</")) {
+            pos = skipTo(doc, pos, ">");
+            depth--;
+            if (sliceStart != -1 && depth == 2) {
+               if (count == slices.length) {
+                  slices = Arrays.copyOf(slices, count * 2);
+               }
+               slices[count++] = sliceStart;
+               slices[count++] = pos;
+               sliceStart = -1;
+            } else if (depth == 1) {
+               inProgram = false;
+            }
+         } else {
+            int nameEnd = pos + 1;
+            while (nameEnd < doc.length && doc[nameEnd] > ' ' && doc[nameEnd] != '>' && doc[nameEnd] != '/') {
+               nameEnd++;
+            }
+            String name = new String(doc, pos + 1, nameEnd - pos - 1);
+            pos = skipTag(doc, nameEnd);
+            if (pos == -1) {
+               return null;
+            }
+            boolean empty = doc[pos - 2] == '/';
+            if (depth == 1 && "program".equals(name)) {
+               inProgram = !empty;
+            } else if (depth == 2 && inProgram && "location".equals(name)) {
+               sliceStart = tagStart;
+               if (empty) {
+                  if (count == slices.length) {
+                     slices = Arrays.copyOf(slices, count * 2);
+                  }
+                  slices[count++] = sliceStart;
+                  slices[count++] = pos;
+                  sliceStart = -1;
+               }
+            }
+            if (!empty) {
+               depth++;
+            }
+         }
+         if (pos == -1) {
+            return null;
+         }
+      }
+   }
+
+   /**
+    * Returns the position after the end of the start tag, honouring quoted attribute values.
+    */
+   private static int skipTag(byte[] doc, int pos) {
+      byte quote = 0;
+      for (; pos < doc.length; pos++) {
+         byte b = doc[pos];
+         if (quote != 0) {
+            if (b == quote) {
+               quote = 0;
+            }
+         } else if (b == '"' || b == '\'') {
+            quote = b;
+         } else if (b == '>') {
+            return pos + 1;
+         }
+      }
+      return -1;
+   }
+
+   private static int skipTo(byte[] doc, int pos, String end) {
+      int found = indexOf(doc, pos, end);
+      return found == -1 ? -1 : found + end.length();
+   }
+
+   private static int indexOf(byte[] doc, int pos, char c) {
+      for (; pos < doc.length; pos++) {
+         if (doc[pos] == c) {
+            return pos;
+         }
+      }
+      return -1;
+   }
+
+   private static int indexOf(byte[] doc, int pos, String s) {
+      for (; pos <= doc.length - s.length(); pos++) {
+         if (startsWith(doc, pos, s)) {
+            return pos;
+         }
+      }
+      return -1;
+   }
+
+   private static boolean startsWith(byte[] doc, int pos, String s) {
+      if (pos + s.length() > doc.length) {
+         return false;
+      }
+      for (int i = 0; i < s.length(); i++) {
+         if (doc[pos + i] != s.charAt(i)) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   private static byte[] readFully(InputStream is) throws IOException {
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      byte[] buf = new byte[8192];
+      int len;
+      while ((len = is.read(buf)) != -1) {
+         bos.write(buf, 0, len);
+      }
+      return bos.toByteArray();
+   }
+}
@@ -0,0 +1,96 @@
+/*
+ * OpenAir Event Program Model
+ * Copyright (C) 2012 Michal Linhard <michal@linhard.sk>
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package sk.linhard.openair.eventmodel.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+import org.xmlpull.v1.XmlSerializer;
+
+import android.util.Xml;
+
+/**
+ * XML output through an XmlSerializer, by default the one of the Android platform.
+ *
+ * @author Michal Linhard <michal@linhard.sk>
+ */
+class SerializerXmlOutput implements XmlOutput {
+   private static final String NS = "";
+
+   private final XmlSerializer ser;
+
+   SerializerXmlOutput(OutputStream os) throws IOException {
+      ser = newSerializer();
+      ser.setOutput(os, "UTF-8");
+   }
+
+   SerializerXmlOutput(XmlSerializer aSerializer) {
+      ser = aSerializer;
+   }
+
+   /**
+    * Creates the platform serializer. Fails with a RuntimeException or a LinkageError outside of
+    * Android.
+    */
+   static XmlSerializer newSerializer() {
+      return Xml.newSerializer();
+   }
+
+   @Override
+   public void reset(OutputStream os) throws IOException {
+      if (os == null) {
+         ser.setOutput((Writer) null);
+      } else {
+         ser.setOutput(os, "UTF-8");
+      }
+   }
+
+   @Override
+   public void startDocument() throws IOException {
+      ser.startDocument("UTF-8", true);
+   }
+
+   @Override
+   public void startTag(String name) throws IOException {
+      ser.startTag(NS, name);
+   }
+
+   @Override
+   public void attribute(String name, CharSequence value) throws IOException {
+      ser.attribute(NS, name, value.toString());
+   }
+
+   @Override
+   public void attribute(String name, String prefix, int number) throws IOException {
+      ser.attribute(NS, name, prefix + number);
+   }
+
+   @Override
+   public void endTag(String name) throws IOException {
+      ser.endTag(NS, name);
+   }
+
+   @Override
+   public void endDocument() throws IOException {
+      ser.endDocument();
+      ser.flush();
+   }
+}
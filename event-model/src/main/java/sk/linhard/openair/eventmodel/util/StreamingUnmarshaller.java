@@ -0,0 +1,867 @@
+/*
+ * OpenAir Event Program Model
+ * Copyright (C) 2012 Michal Linhard <michal@linhard.sk>
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package sk.linhard.openair.eventmodel.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import sk.linhard.openair.eventmodel.DayProgram;
+import sk.linhard.openair.eventmodel.Event;
+import sk.linhard.openair.eventmodel.EventBuilder;
+import sk.linhard.openair.eventmodel.Location;
+import sk.linhard.openair.eventmodel.LocationMetadata;
+import sk.linhard.openair.eventmodel.Session;
+import sk.linhard.openair.eventmodel.SessionMetadata;
+import sk.linhard.openair.eventmodel.exceptions.EventModelException;
+import sk.linhard.openair.eventmodel.exceptions.ValidationException;
+import sk.linhard.openair.eventmodel.exceptions.ValidationException.Violation;
+
+/**
+ * Single pass XML pull parser based deserializer for the Event Program Model. Builds the model
+ * directly while reading the document, no intermediate tree is created.
+ *
+ * The metadata section comes after the program, so locations and sessions carrying an id are
+ * remembered and get their metadata when the metadata section is reached. Metadata that appears
+ * before its owner is kept until the owner is read.
+ *
+ * The document is checked against the constraints of event.xsd while it's read: the program
+ * element, required attributes, name, url and description lengths, id, date and duration
+ * formats, metadata without owner and pairing of the old and new versions of changed sessions.
+ * Invalid elements are skipped, all the violations are reported at the end of the document by
+ * {@link ValidationException}.
+ *
+ * @author Michal Linhard <michal@linhard.sk>
+ */
+class StreamingUnmarshaller {
+   static final int MIN_NAME_LENGTH = 2;
+   static final int MAX_NAME_LENGTH = 255;
+   static final int MAX_URL_LENGTH = 1000;
+   static final int MAX_DESCRIPTION_LENGTH = 2000;
+
+   private final XmlPullParser parser;
+   private final EventBuilder builder = new EventBuilder();
+   private final Event event = builder.getEvent();
+   private final HashMap<String, Location> locationById = new HashMap<String, Location>();
+   private final HashMap<String, Session> sessionById = new HashMap<String, Session>();
+   private HashMap<String, Object> pendingMetadata;
+   private final EventFilter filter;
+   private boolean programRead;
+   // sessions with id rejected by the filter, materialized when a selected session links to them
+   private HashMap<String, SkippedSession> skippedById;
+   private HashMap<String, Location> detachedLocations;
+   private StringDictionary dictionary;
+   // set when reading a single location cut out of the document
+   private List<IdOccurrence> occurrences;
+   private List<IdOccurrence> metadataOccurrences;
+   private Location detachedLocation;
+   private String linked;
+   private ArrayList<Violation> violations;
+   // reported at the end unless resolved: metadata waiting for its owner and old versions waiting
+   // for their new version, by id
+   private LinkedHashMap<String, Violation> unownedMetadata;
+   private LinkedHashMap<String, Violation> unpairedOldVersions;
+   // prefix of the violations found while resolving a location read separately
+   private String source;
+
+   /**
+    * Location or session carrying an id, in document order. Locations read out of the document
+    * context can't resolve ids, the occurrences are replayed when they're added to the event. The
+    * metadata found in such location is noted the same way, with the metadata as the owner.
+    */
+   static class IdOccurrence {
+      final String id;
+      final Object owner;
+      final boolean oldVersion;
+      final int line;
+      final int column;
+
+      IdOccurrence(String anId, Object anOwner, boolean anOldVersion, int aLine, int aColumn) {
+         id = anId;
+         owner = anOwner;
+         oldVersion = anOldVersion;
+         line = aLine;
+         column = aColumn;
+      }
+   }
+
+   /**
+    * Attributes of a session with id that was rejected by the filter.
+    */
+   private static class SkippedSession {
+      String location;
+      String date;
+      String name;
+      String shortName;
+      String start;
+      String duration;
+      boolean cancelled;
+      boolean oldVersion;
+   }
+
+   StreamingUnmarshaller(XmlPullParser aParser) {
+      this(aParser, null);
+   }
+
+   /**
+    * Creates unmarshaller that reads only the locations and days accepted by the filter. Rejected
+    * parts are skipped, only the sessions with id are noted, and the partners of selected sessions
+    * are created in locations and day programs that are not part of the event.
+    */
+   StreamingUnmarshaller(XmlPullParser aParser, EventFilter aFilter) {
+      parser = aParser;
+      filter = aFilter;
+   }
+
+   /**
+    * Sets the dictionary that names, short names, urls and descriptions are looked up in.
+    */
+   void setStringDictionary(StringDictionary aDictionary) {
+      dictionary = aDictionary;
+   }
+
+   static XmlPullParser newParser() throws XmlPullParserException {
+      return XmlPool.newParser();
+   }
+
+   /**
+    * Reads the event.
+    *
+    * @throws ValidationException
+    *            If the document doesn't conform to the schema.
+    */
+   Event unmarshall(InputStream is) throws XmlPullParserException, IOException, ParseException {
+      read(is);
+      validate(true);
+      return event;
+   }
+
+   /**
+    * Reads the event without throwing the violations, more locations may be added to it before
+    * {@link #validate(boolean)}.
+    */
+   Event read(InputStream is) throws XmlPullParserException, IOException, ParseException {
+      parser.setInput(is, null);
+      parser.nextTag();
+      parser.require(XmlPullParser.START_TAG, null, "event");
+      readEventAttributes();
+      while (parser.nextTag() == XmlPullParser.START_TAG) {
+         String name = parser.getName();
+         if ("program".equals(name)) {
+            readProgram();
+         } else if ("metadata".equals(name)) {
+            readMetadata();
+         } else {
+            skip();
+         }
+      }
+      if (!programRead) {
+         violation("Missing required element program of element event");
+      }
+      builder.build();
+      return event;
+   }
+
+   /**
+    * Reads a single location element cut out of the document. The location isn't added to any
+    * event, the ids it contains are available through {@link #getIdOccurrences()}.
+    */
+   Location unmarshallLocation(InputStream is, String encoding) throws XmlPullParserException, IOException,
+         ParseException {
+      occurrences = new ArrayList<IdOccurrence>();
+      metadataOccurrences = new ArrayList<IdOccurrence>();
+      parser.setInput(is, encoding);
+      parser.nextTag();
+      parser.require(XmlPullParser.START_TAG, null, "location");
+      readLocation();
+      builder.build();
+      return detachedLocation;
+   }
+
+   List<IdOccurrence> getIdOccurrences() {
+      return occurrences;
+   }
+
+   /**
+    * Violations found so far.
+    */
+   List<Violation> getViolations() {
+      return violations == null ? Collections.<Violation> emptyList() : violations;
+   }
+
+   /**
+    * Adds violations found by the unmarshaller of a part of the event, prefixed by the name of
+    * the part.
+    */
+   void addViolations(String aSource, List<Violation> partViolations) {
+      for (Violation each : partViolations) {
+         violation(aSource + ": " + each.getMessage(), each.getLineNumber(), each.getColumnNumber());
+      }
+   }
+
+   /**
+    * Throws the violations found so far, if any.
+    *
+    * @param complete
+    *           Whether the whole event was read, the metadata without owner and the old versions
+    *           without new version are reported then.
+    */
+   void validate(boolean complete) {
+      if (complete && unownedMetadata != null) {
+         for (Violation each : unownedMetadata.values()) {
+            violation(each);
+         }
+         unownedMetadata = null;
+      }
+      if (complete && unpairedOldVersions != null) {
+         for (Violation each : unpairedOldVersions.values()) {
+            violation(each);
+         }
+         unpairedOldVersions = null;
+      }
+      if (violations != null) {
+         List<Violation> found = violations;
+         violations = null;
+         throw new ValidationException(found);
+      }
+   }
+
+   /**
+    * Metadata of the location element read by {@link #unmarshallLocation(InputStream, String)},
+    * the metadata section nested in the location element.
+    */
+   List<IdOccurrence> getMetadataOccurrences() {
+      return metadataOccurrences;
+   }
+
+   /**
+    * Value of the linked attribute of the location element read by
+    * {@link #unmarshallLocation(InputStream, String)}.
+    */
+   String getLinked() {
+      return linked;
+   }
+
+   /**
+    * Appends location read by {@link #unmarshallLocation(InputStream, String)} to the event
+    * being read and resolves its ids as if it was read in place.
+    */
+   void addLocation(Location location, List<IdOccurrence> locationOccurrences) {
+      if (event.findLocation(location.getName()) != null) {
+         violation("Duplicate location name " + location.getName(), -1, -1);
+         return;
+      }
+      Location[] locations = event.getLocations();
+      if (locations == null) {
+         locations = new Location[] { location };
+      } else {
+         locations = Arrays.copyOf(locations, locations.length + 1);
+         locations[locations.length - 1] = location;
+      }
+      event.setLocations(locations);
+      location.setEvent(event);
+      resolve(null, locationOccurrences, Collections.<IdOccurrence> emptyList());
+   }
+
+   /**
+    * Resolves the ids of location read by {@link #unmarshallLocation(InputStream, String)} that
+    * is already part of the event being read, then assigns its metadata.
+    *
+    * @param aSource
+    *           Name of the part the location was read from, prefix of the violations, or null.
+    */
+   void resolve(String aSource, List<IdOccurrence> locationOccurrences, List<IdOccurrence> locationMetadata) {
+      source = aSource;
+      try {
+         for (IdOccurrence occurrence : locationOccurrences) {
+            if (occurrence.owner instanceof Location) {
+               registerLocation(occurrence.id, (Location) occurrence.owner);
+            } else {
+               registerSession(occurrence.id, (Session) occurrence.owner, occurrence.oldVersion, occurrence.line,
+                     occurrence.column);
+            }
+         }
+         for (IdOccurrence occurrence : locationMetadata) {
+            putMetadata(occurrence.id, occurrence.owner, occurrence.line, occurrence.column);
+         }
+      } finally {
+         source = null;
+      }
+   }
+
+   private void readEventAttributes() {
+      for (int i = 0; i < parser.getAttributeCount(); i++) {
+         String name = parser.getAttributeName(i);
+         String value = parser.getAttributeValue(i);
+         if ("name".equals(name)) {
+            checkName(value, name);
+            event.setName(value);
+         } else if ("shortName".equals(name)) {
+            checkName(value, name);
+            event.setShortName(value);
+         } else if ("uri".equals(name)) {
+            event.setUri(value);
+         } else if ("version".equals(name)) {
+            try {
+               event.setVersion(Long.valueOf(value));
+            } catch (NumberFormatException e) {
+               violation("Invalid version " + value);
+            }
+         } else if ("versionTime".equals(name)) {
+            event.setVersionTime(dateTime(value, name));
+         }
+      }
+      checkRequired(event.getName(), "name");
+   }
+
+   private void readProgram() throws XmlPullParserException, IOException, ParseException {
+      while (parser.nextTag() == XmlPullParser.START_TAG) {
+         if ("location".equals(parser.getName())) {
+            readLocation();
+         } else {
+            skip();
+         }
+      }
+      programRead = true;
+   }
+
+   private void readLocation() throws XmlPullParserException, IOException, ParseException {
+      String name = null;
+      String shortName = null;
+      String id = null;
+      for (int i = 0; i < parser.getAttributeCount(); i++) {
+         String attr = parser.getAttributeName(i);
+         if ("name".equals(attr)) {
+            name = text(parser.getAttributeValue(i));
+         } else if ("shortName".equals(attr)) {
+            shortName = text(parser.getAttributeValue(i));
+         } else if ("id".equals(attr)) {
+            id = parser.getAttributeValue(i);
+         } else if ("linked".equals(attr)) {
+            linked = parser.getAttributeValue(i);
+         }
+      }
+      boolean valid = checkRequired(name, "name");
+      checkName(name, "name");
+      checkName(shortName, "shortName");
+      if (!checkId(id)) {
+         id = null;
+      }
+      if (!valid) {
+         skip();
+         return;
+      }
+      if (filter != null && !filter.acceptsLocation(name)) {
+         while (parser.nextTag() == XmlPullParser.START_TAG) {
+            if ("day".equals(parser.getName())) {
+               skipDay(name, parser.getAttributeValue(null, "date"));
+            } else {
+               skip();
+            }
+         }
+         return;
+      }
+      Location location;
+      if (occurrences == null) {
+         try {
+            location = builder.addLocation(name);
+         } catch (EventModelException e) {
+            violation("Duplicate location name " + name);
+            skip();
+            return;
+         }
+      } else {
+         location = new Location(name);
+         detachedLocation = location;
+      }
+      location.setShortName(shortName);
+      if (id != null) {
+         if (occurrences == null) {
+            registerLocation(id, location);
+         } else {
+            occurrences.add(new IdOccurrence(id, location, false, parser.getLineNumber(), parser.getColumnNumber()));
+         }
+      }
+      while (parser.nextTag() == XmlPullParser.START_TAG) {
+         if ("day".equals(parser.getName())) {
+            readDay(location);
+         } else if (occurrences != null && "metadata".equals(parser.getName())) {
+            readMetadata();
+         } else {
+            skip();
+         }
+      }
+   }
+
+   private void readDay(Location location) throws XmlPullParserException, IOException, ParseException {
+      String date = parser.getAttributeValue(null, "date");
+      DateTime dayStart = checkRequired(date, "date") ? date(date, "date") : null;
+      if (dayStart == null) {
+         skip();
+         return;
+      }
+      if (filter != null && !filter.acceptsDay(dayStart)) {
+         skipDay(location.getName(), date);
+         return;
+      }
+      DayProgram dayProgram = builder.addDay(location, dayStart);
+      while (parser.nextTag() == XmlPullParser.START_TAG) {
+         if ("session".equals(parser.getName())) {
+            readSession(dayProgram);
+         } else {
+            skip();
+         }
+      }
+   }
+
+   private void readSession(DayProgram dayProgram) throws XmlPullParserException, IOException, ParseException {
+      String name = null;
+      String shortName = null;
+      String start = null;
+      String duration = null;
+      String id = null;
+      boolean cancelled = false;
+      boolean oldVersion = false;
+      for (int i = 0; i < parser.getAttributeCount(); i++) {
+         String attr = parser.getAttributeName(i);
+         String value = parser.getAttributeValue(i);
+         if ("name".equals(attr)) {
+            name = text(value);
+         } else if ("start".equals(attr)) {
+            start = value;
+         } else if ("duration".equals(attr)) {
+            duration = value;
+         } else if ("shortName".equals(attr)) {
+            shortName = text(value);
+         } else if ("id".equals(attr)) {
+            id = value;
+         } else if ("cancelled".equals(attr)) {
+            cancelled = Boolean.parseBoolean(value);
+         } else if ("oldVersion".equals(attr)) {
+            oldVersion = Boolean.parseBoolean(value);
+         }
+      }
+      boolean valid = checkRequired(name, "name") & checkRequired(start, "start")
+            & checkRequired(duration, "duration");
+      checkName(name, "name");
+      checkName(shortName, "shortName");
+      if (!checkId(id)) {
+         id = null;
+      }
+      DateTime startTime = start == null ? null : dateTime(start, "start");
+      Duration sessionDuration = duration == null ? null : duration(duration, "duration");
+      if (!valid || startTime == null || sessionDuration == null) {
+         skip();
+         return;
+      }
+      Session session = builder.addSession(dayProgram, name, startTime, sessionDuration);
+      if (shortName != null) {
+         session.setShortName(shortName);
+      }
+      if (cancelled) {
+         session.setCancelled(true);
+      }
+      if (id != null) {
+         if (occurrences == null) {
+            SkippedSession skipped = skippedById == null ? null : skippedById.remove(id);
+            if (skipped != null) {
+               registerSession(id, materialize(skipped), skipped.oldVersion, -1, -1);
+            }
+            registerSession(id, session, oldVersion, parser.getLineNumber(), parser.getColumnNumber());
+         } else {
+            occurrences.add(new IdOccurrence(id, session, oldVersion, parser.getLineNumber(), parser
+                  .getColumnNumber()));
+         }
+      }
+      skip();
+   }
+
+   /**
+    * Skips the day program rejected by the filter, notes the sessions with id.
+    */
+   private void skipDay(String location, String date) throws XmlPullParserException, IOException,
+         ParseException {
+      if (!checkRequired(date, "date")) {
+         skip();
+         return;
+      }
+      while (parser.nextTag() == XmlPullParser.START_TAG) {
+         String id = "session".equals(parser.getName()) ? parser.getAttributeValue(null, "id") : null;
+         if (id != null) {
+            SkippedSession skipped = new SkippedSession();
+            skipped.location = location;
+            skipped.date = date;
+            for (int i = 0; i < parser.getAttributeCount(); i++) {
+               String attr = parser.getAttributeName(i);
+               String value = parser.getAttributeValue(i);
+               if ("name".equals(attr)) {
+                  skipped.name = text(value);
+               } else if ("start".equals(attr)) {
+                  skipped.start = value;
+               } else if ("duration".equals(attr)) {
+                  skipped.duration = value;
+               } else if ("shortName".equals(attr)) {
+                  skipped.shortName = text(value);
+               } else if ("cancelled".equals(attr)) {
+                  skipped.cancelled = Boolean.parseBoolean(value);
+               } else if ("oldVersion".equals(attr)) {
+                  skipped.oldVersion = Boolean.parseBoolean(value);
+               }
+            }
+            if (!(checkRequired(skipped.name, "name") & checkRequired(skipped.start, "start")
+                  & checkRequired(skipped.duration, "duration"))) {
+               skip();
+               continue;
+            }
+            if (sessionById.containsKey(id)) {
+               registerSession(id, materialize(skipped), skipped.oldVersion, -1, -1);
+            } else {
+               if (skippedById == null) {
+                  skippedById = new HashMap<String, SkippedSession>();
+               }
+               if (!skippedById.containsKey(id)) {
+                  skippedById.put(id, skipped);
+               }
+            }
+         }
+         skip();
+      }
+   }
+
+   /**
+    * Creates the skipped session in a location and day program that are not part of the event, the
+    * location doesn't link to the event so the event and its listeners don't see the day programs
+    * and sessions added to it.
+    */
+   private Session materialize(SkippedSession skipped) throws ParseException {
+      if (detachedLocations == null) {
+         detachedLocations = new HashMap<String, Location>();
+      }
+      Location location = detachedLocations.get(skipped.location);
+      if (location == null) {
+         location = new Location(skipped.location);
+         detachedLocations.put(skipped.location, location);
+      }
+      DateTime dayStart = Util.date(skipped.date);
+      DayProgram day = location.findDayProgram(dayStart);
+      if (day == null) {
+         day = location.addDay(dayStart);
+      }
+      Session session = day.addSession(skipped.name, Util.dateTime(skipped.start), Util.duration(skipped.duration));
+      if (skipped.shortName != null) {
+         session.setShortName(skipped.shortName);
+      }
+      if (skipped.cancelled) {
+         session.setCancelled(true);
+      }
+      return session;
+   }
+
+   private void registerLocation(String id, Location location) {
+      locationById.put(id, location);
+      Object metadata = takePendingMetadata(id);
+      if (metadata instanceof LocationMetadata) {
+         location.setMetadata((LocationMetadata) metadata);
+         unownedMetadata.remove(id);
+      }
+   }
+
+   /**
+    * Links the session to the session with the same id read before, the first of them takes the
+    * metadata. Exactly one of the two sessions sharing the id must be the old version.
+    */
+   private void registerSession(String id, Session session, boolean oldVersion, int line, int column) {
+      Session theOtherSession = sessionById.get(id);
+      if (theOtherSession == null) {
+         sessionById.put(id, session);
+         Object metadata = takePendingMetadata(id);
+         if (metadata instanceof SessionMetadata) {
+            session.setMetadata((SessionMetadata) metadata);
+            unownedMetadata.remove(id);
+         }
+         if (oldVersion && filter == null) {
+            if (unpairedOldVersions == null) {
+               unpairedOldVersions = new LinkedHashMap<String, Violation>();
+            }
+            unpairedOldVersions.put(id, new Violation(prefixed("Old version session " + id + " has no new version"),
+                  line, column));
+         }
+      } else {
+         if (filter == null) {
+            boolean otherOldVersion = unpairedOldVersions != null && unpairedOldVersions.remove(id) != null;
+            if (theOtherSession.getOldVersion() != null || theOtherSession.getNewVersion() != null) {
+               violation("Session id " + id + " is used by more than two sessions", line, column);
+               return;
+            } else if (otherOldVersion == oldVersion) {
+               violation(oldVersion ? "Both sessions with id " + id + " are old versions" : "Neither of the sessions with id "
+                     + id + " is the old version", line, column);
+               return;
+            }
+         }
+         if (oldVersion) {
+            session.setNewVersion(theOtherSession);
+            theOtherSession.setOldVersion(session);
+         } else {
+            session.setOldVersion(theOtherSession);
+            theOtherSession.setNewVersion(session);
+         }
+         session.setMetadata(theOtherSession.getMetadata());
+      }
+   }
+
+   private void readMetadata() throws XmlPullParserException, IOException {
+      while (parser.nextTag() == XmlPullParser.START_TAG) {
+         String name = parser.getName();
+         String id = parser.getAttributeValue(null, "id");
+         String url = text(parser.getAttributeValue(null, "url"));
+         String description = text(parser.getAttributeValue(null, "description"));
+         checkLength(url, "url", MAX_URL_LENGTH);
+         checkLength(description, "description", MAX_DESCRIPTION_LENGTH);
+         if ("event".equals(name)) {
+            event.setUrl(url);
+            event.setDescription(description);
+         } else if ("location".equals(name) && id != null && checkId(id)) {
+            LocationMetadata metadata = new LocationMetadata();
+            metadata.setUrl(url);
+            metadata.setDescription(description);
+            putMetadata(id, metadata, parser.getLineNumber(), parser.getColumnNumber());
+         } else if ("session".equals(name) && id != null && checkId(id)) {
+            SessionMetadata metadata = new SessionMetadata();
+            metadata.setUrl(url);
+            metadata.setDescription(description);
+            putMetadata(id, metadata, parser.getLineNumber(), parser.getColumnNumber());
+         }
+         skip();
+      }
+   }
+
+   /**
+    * Assigns the metadata to its owner read before, or keeps it until the owner is read.
+    */
+   private void putMetadata(String id, Object metadata, int line, int column) {
+      if (metadataOccurrences != null) {
+         metadataOccurrences.add(new IdOccurrence(id, metadata, false, line, column));
+      } else if (metadata instanceof LocationMetadata) {
+         Location location = locationById.get(id);
+         if (location != null) {
+            location.setMetadata((LocationMetadata) metadata);
+         } else if (!rejected()) {
+            putPendingMetadata(id, metadata, "Location metadata " + id + " has no location", line, column);
+         }
+      } else {
+         Session session = sessionById.get(id);
+         if (session != null) {
+            setSessionMetadata(session, (SessionMetadata) metadata);
+         } else if (!rejected()) {
+            putPendingMetadata(id, metadata, "Session metadata " + id + " has no session", line, column);
+         }
+      }
+   }
+
+   private void setSessionMetadata(Session session, SessionMetadata metadata) {
+      session.setMetadata(metadata);
+      if (session.getNewVersion() != null) {
+         session.getNewVersion().setMetadata(metadata);
+      }
+      if (session.getOldVersion() != null) {
+         session.getOldVersion().setMetadata(metadata);
+      }
+   }
+
+   /**
+    * Returns true iff the owner of metadata not found now is never going to be read.
+    */
+   private boolean rejected() {
+      return filter != null && programRead;
+   }
+
+   private void putPendingMetadata(String id, Object metadata, String unownedMessage, int line, int column) {
+      if (pendingMetadata == null) {
+         pendingMetadata = new HashMap<String, Object>();
+         unownedMetadata = new LinkedHashMap<String, Violation>();
+      }
+      pendingMetadata.put(id, metadata);
+      if (filter == null) {
+         unownedMetadata.put(id, new Violation(prefixed(unownedMessage), line, column));
+      }
+   }
+
+   private Object takePendingMetadata(String id) {
+      return pendingMetadata == null ? null : pendingMetadata.remove(id);
+   }
+
+   private String text(String value) {
+      return dictionary == null ? value : dictionary.intern(value);
+   }
+
+   private boolean checkRequired(String value, String attr) {
+      if (value == null) {
+         violation("Missing required attribute " + attr + " of element " + parser.getName());
+         return false;
+      }
+      return true;
+   }
+
+   private void checkName(String value, String attr) {
+      if (value != null && (value.length() < MIN_NAME_LENGTH || value.length() > MAX_NAME_LENGTH)) {
+         violation("Attribute " + attr + " of element " + parser.getName() + " must have " + MIN_NAME_LENGTH + " to "
+               + MAX_NAME_LENGTH + " characters");
+      }
+   }
+
+   private void checkLength(String value, String attr, int maxLength) {
+      if (value != null && value.length() > maxLength) {
+         violation("Attribute " + attr + " of element " + parser.getName() + " must have at most " + maxLength
+               + " characters");
+      }
+   }
+
+   /**
+    * Checks the id is a letter followed by letters and digits.
+    */
+   private boolean checkId(String id) {
+      if (id == null) {
+         return true;
+      }
+      boolean valid = id.length() > 0 && isLetter(id.charAt(0));
+      for (int i = 1; valid && i < id.length(); i++) {
+         char c = id.charAt(i);
+         valid = isLetter(c) || (c >= '0' && c <= '9');
+      }
+      if (!valid) {
+         violation("Invalid id " + id + " of element " + parser.getName());
+      }
+      return valid;
+   }
+
+   private static boolean isLetter(char c) {
+      return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z');
+   }
+
+   /**
+    * Parses dd-MM-yyyy HH:mm, the hour may have one digit.
+    */
+   private DateTime dateTime(String value, String attr) {
+      int len = value.length();
+      if ((len == 16 || len == 15) && isDate(value) && value.charAt(10) == ' ' && digits(value, 11, len - 3)
+            && value.charAt(len - 3) == ':' && digits(value, len - 2, len)) {
+         try {
+            return Util.dateTime(value);
+         } catch (ParseException e) {
+            // reported below
+         }
+      }
+      violation("Invalid " + attr + " " + value + " of element " + parser.getName() + ", expected dd-MM-yyyy HH:mm");
+      return null;
+   }
+
+   /**
+    * Parses dd-MM-yyyy.
+    */
+   private DateTime date(String value, String attr) {
+      if (value.length() == 10 && isDate(value)) {
+         try {
+            return Util.date(value);
+         } catch (ParseException e) {
+            // reported below
+         }
+      }
+      violation("Invalid " + attr + " " + value + " of element " + parser.getName() + ", expected dd-MM-yyyy");
+      return null;
+   }
+
+   /**
+    * Parses H:mm, up to four digits of hours and two of minutes.
+    */
+   private Duration duration(String value, String attr) {
+      int colon = value.indexOf(':');
+      if (colon >= 1 && colon <= 4 && value.length() - colon - 1 >= 1 && value.length() - colon - 1 <= 2
+            && digits(value, 0, colon) && digits(value, colon + 1, value.length())) {
+         return Util.duration(value);
+      }
+      violation("Invalid " + attr + " " + value + " of element " + parser.getName() + ", expected H:mm");
+      return null;
+   }
+
+   private static boolean isDate(String value) {
+      return digits(value, 0, 2) && value.charAt(2) == '-' && digits(value, 3, 5) && value.charAt(5) == '-'
+            && digits(value, 6, 10);
+   }
+
+   private static boolean digits(String value, int start, int end) {
+      for (int i = start; i < end; i++) {
+         char c = value.charAt(i);
+         if (c < '0' || c > '9') {
+            return false;
+         }
+      }
+      return start < end;
+   }
+
+   private String prefixed(String message) {
+      return source == null ? message : source + ": " + message;
+   }
+
+   private void violation(String message) {
+      violation(message, parser.getLineNumber(), parser.getColumnNumber());
+   }
+
+   private void violation(String message, int line, int column) {
+      violation(new Violation(prefixed(message), line, column));
+   }
+
+   private void violation(Violation violation) {
+      if (violations == null) {
+         violations = new ArrayList<Violation>();
+      }
+      violations.add(violation);
+   }
+
+   /**
+    * Skips the rest of the current element including all of its children. Parser has to be
+    * positioned on a start tag, after the call it's positioned on the matching end tag.
+    */
+   private void skip() throws XmlPullParserException, IOException {
+      int depth = 1;
+      while (depth != 0) {
+         switch (parser.next()) {
+         case XmlPullParser.START_TAG:
+            depth++;
+            break;
+         case XmlPullParser.END_TAG:
+            depth--;
+            break;
+         case XmlPullParser.END_DOCUMENT:
+            throw new XmlPullParserException("Unexpected end of document", parser, null);
+         }
+      }
+   }
+}
@@ -0,0 +1,133 @@
+/*
+ * OpenAir Event Program Model
+ * Copyright (C) 2012 Michal Linhard <michal@linhard.sk>
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package sk.linhard.openair.eventmodel.util;
+
+import java.util.HashMap;
+
+/**
+ * Dictionary of strings read by the unmarshaller, equal names, short names, urls and descriptions
+ * share one instance. Use a new dictionary for each load or keep one for loads of many events,
+ * the dictionary then holds all the distinct strings of those events. Not thread safe.
+ *
+ * @author Michal Linhard <michal@linhard.sk>
+ */
+public class StringDictionary {
+   private final HashMap<String, String> strings = new HashMap<String, String>();
+   private long lookups;
+   private long hits;
+   private long bytesSaved;
+
+   /**
+    * Counts of the dictionary. Bytes saved are estimated for a 64-bit JVM with compressed
+    * references, 24 bytes of the String object plus the char array.
+    */
+   public static class Stats {
+      private final long lookups;
+      private final long hits;
+      private final int uniqueStrings;
+      private final long bytesSaved;
+
+      Stats(long aLookups, long aHits, int anUniqueStrings, long aBytesSaved) {
+         lookups = aLookups;
+         hits = aHits;
+         uniqueStrings = anUniqueStrings;
+         bytesSaved = aBytesSaved;
+      }
+
+      /**
+       * Number of strings looked up.
+       */
+      public long getLookups() {
+         return lookups;
+      }
+
+      /**
+       * Number of strings replaced by the instance already in the dictionary.
+       */
+      public long getHits() {
+         return hits;
+      }
+
+      /**
+       * Number of distinct strings in the dictionary.
+       */
+      public int getUniqueStrings() {
+         return uniqueStrings;
+      }
+
+      public long getBytesSaved() {
+         return bytesSaved;
+      }
+
+      /**
+       * Ratio of the strings replaced by an instance already in the dictionary.
+       */
+      public double getDedupRatio() {
+         return lookups == 0 ? 0 : (double) hits / lookups;
+      }
+
+      /**
+       * Returns the counts since the earlier stats of the same dictionary, the number of distinct
+       * strings is the current one.
+       */
+      public Stats since(Stats earlier) {
+         return new Stats(lookups - earlier.lookups, hits - earlier.hits, uniqueStrings, bytesSaved
+               - earlier.bytesSaved);
+      }
+
+      @Override
+      public String toString() {
+         return "lookups: " + lookups + ", hits: " + hits + ", unique: " + uniqueStrings + ", saved: "
+               + bytesSaved + " B";
+      }
+   }
+
+   /**
+    * Returns the instance equal to the string that is already in the dictionary, or adds the
+    * string.
+    */
+   public String intern(String s) {
+      if (s == null) {
+         return null;
+      }
+      lookups++;
+      String result = strings.get(s);
+      if (result == null) {
+         strings.put(s, s);
+         return s;
+      }
+      hits++;
+      bytesSaved += size(s);
+      return result;
+   }
+
+   public Stats getStats() {
+      return new Stats(lookups, hits, strings.size(), bytesSaved);
+   }
+
+   public void clear() {
+      strings.clear();
+   }
+
+   private static long size(String s) {
+      // String object and char array header, array content aligned to 8 bytes
+      return 24 + ((16 + 2L * s.length() + 7) & ~7L);
+   }
+}
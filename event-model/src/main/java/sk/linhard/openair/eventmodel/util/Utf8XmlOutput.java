@@ -0,0 +1,283 @@
+/*
+ * OpenAir Event Program Model
+ * Copyright (C) 2012 Michal Linhard <michal@linhard.sk>
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package sk.linhard.openair.eventmodel.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * XML output that encodes UTF-8 directly into a byte buffer and writes it to an output stream in
+ * large chunks. Uses only the JDK.
+ *
+ * The output is byte for byte the same as the one of the KXmlSerializer behind
+ * android.util.Xml.newSerializer(): single quoted XML declaration, empty elements closed with
+ * " />", attribute values quoted with ' when they contain ", '@' and control characters written as
+ * character references and unpaired surrogates replaced by '?'.
+ *
+ * @author Michal Linhard <michal@linhard.sk>
+ */
+class Utf8XmlOutput implements XmlOutput {
+   private static final int BUFFER_SIZE = 8192;
+   private static final byte[] XML_DECLARATION = ascii("<?xml version='1.0' encoding='UTF-8' standalone='yes' ?>");
+
+   private OutputStream os;
+   private final byte[] buf;
+   private int pos;
+   private String[] openTags = new String[8];
+   private int depth;
+   private boolean pending;
+
+   Utf8XmlOutput(OutputStream anOutputStream) {
+      os = anOutputStream;
+      buf = new byte[BUFFER_SIZE];
+   }
+
+   @Override
+   public void reset(OutputStream anOutputStream) {
+      os = anOutputStream;
+      pos = 0;
+      Arrays.fill(openTags, 0, depth, null);
+      depth = 0;
+      pending = false;
+   }
+
+   @Override
+   public void startDocument() throws IOException {
+      write(XML_DECLARATION);
+   }
+
+   @Override
+   public void startTag(String name) throws IOException {
+      closePending();
+      if (depth == openTags.length) {
+         openTags = Arrays.copyOf(openTags, depth * 2);
+      }
+      openTags[depth++] = name;
+      write('<');
+      writeAscii(name);
+      pending = true;
+   }
+
+   @Override
+   public void attribute(String name, CharSequence value) throws IOException {
+      if (!pending) {
+         throw new IllegalStateException("illegal position for attribute");
+      }
+      char quote = contains(value, '"') ? '\'' : '"';
+      write(' ');
+      writeAscii(name);
+      write('=');
+      write(quote);
+      writeEscaped(value, quote);
+      write(quote);
+   }
+
+   @Override
+   public void attribute(String name, String prefix, int number) throws IOException {
+      if (!pending) {
+         throw new IllegalStateException("illegal position for attribute");
+      }
+      write(' ');
+      writeAscii(name);
+      write('=');
+      write('"');
+      writeEscaped(prefix, '"');
+      writeNumber(number);
+      write('"');
+   }
+
+   @Override
+   public void endTag(String name) throws IOException {
+      if (depth == 0 || !openTags[depth - 1].equals(name)) {
+         throw new IllegalArgumentException("</" + name + "> does not close <"
+               + (depth == 0 ? "" : openTags[depth - 1]) + ">");
+      }
+      depth--;
+      openTags[depth] = null;
+      if (pending) {
+         write(' ');
+         write('/');
+         write('>');
+         pending = false;
+      } else {
+         write('<');
+         write('/');
+         writeAscii(name);
+         write('>');
+      }
+   }
+
+   @Override
+   public void endDocument() throws IOException {
+      while (depth > 0) {
+         endTag(openTags[depth - 1]);
+      }
+      flush();
+   }
+
+   void flush() throws IOException {
+      if (pos > 0) {
+         os.write(buf, 0, pos);
+         pos = 0;
+      }
+      os.flush();
+   }
+
+   private void closePending() throws IOException {
+      if (pending) {
+         write('>');
+         pending = false;
+      }
+   }
+
+   private static boolean contains(CharSequence s, char c) {
+      int len = s.length();
+      for (int i = 0; i < len; i++) {
+         if (s.charAt(i) == c) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   private void writeEscaped(CharSequence s, char quote) throws IOException {
+      int len = s.length();
+      for (int i = 0; i < len; i++) {
+         char c = s.charAt(i);
+         switch (c) {
+         case '&':
+            writeAscii("&amp;");
+            break;
+         case '<':
+            writeAscii("&lt;");
+            break;
+         case '>':
+            writeAscii("&gt;");
+            break;
+         case '"':
+         case '\'':
+            if (c == quote) {
+               writeAscii(c == '"' ? "&quot;" : "&apos;");
+            } else {
+               write(c);
+            }
+            break;
+         default:
+            if (c < ' ' || c == '@') {
+               write('&');
+               write('#');
+               writeNumber(c);
+               write(';');
+            } else if (c < 0x80) {
+               write(c);
+            } else if (c < 0x800) {
+               ensure(2);
+               buf[pos++] = (byte) (0xc0 | (c >> 6));
+               buf[pos++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(s.charAt(i + 1))) {
+               int cp = Character.toCodePoint(c, s.charAt(++i));
+               ensure(4);
+               buf[pos++] = (byte) (0xf0 | (cp >> 18));
+               buf[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+               buf[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+               buf[pos++] = (byte) (0x80 | (cp & 0x3f));
+            } else if (Character.isHighSurrogate(c) || Character.isLowSurrogate(c)) {
+               write('?');
+            } else {
+               ensure(3);
+               buf[pos++] = (byte) (0xe0 | (c >> 12));
+               buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+               buf[pos++] = (byte) (0x80 | (c & 0x3f));
+            }
+         }
+      }
+   }
+
+   private void writeNumber(int number) throws IOException {
+      if (number < 0) {
+         writeAscii(Integer.toString(number));
+         return;
+      }
+      ensure(10);
+      int end = pos + digits(number);
+      int p = end;
+      do {
+         buf[--p] = (byte) ('0' + number % 10);
+         number /= 10;
+      } while (number != 0);
+      pos = end;
+   }
+
+   private static int digits(int number) {
+      int digits = 1;
+      while (number >= 10) {
+         number /= 10;
+         digits++;
+      }
+      return digits;
+   }
+
+   /**
+    * Writes string known to contain only ASCII characters, like element and attribute names.
+    */
+   private void writeAscii(String s) throws IOException {
+      int len = s.length();
+      ensure(len);
+      for (int i = 0; i < len; i++) {
+         buf[pos++] = (byte) s.charAt(i);
+      }
+   }
+
+   private void write(char c) throws IOException {
+      if (pos == buf.length) {
+         drain();
+      }
+      buf[pos++] = (byte) c;
+   }
+
+   private void write(byte[] bytes) throws IOException {
+      ensure(bytes.length);
+      System.arraycopy(bytes, 0, buf, pos, bytes.length);
+      pos += bytes.length;
+   }
+
+   private void ensure(int n) throws IOException {
+      if (pos + n > buf.length) {
+         drain();
+         if (n > buf.length) {
+            throw new IllegalArgumentException("Name too long");
+         }
+      }
+   }
+
+   private void drain() throws IOException {
+      os.write(buf, 0, pos);
+      pos = 0;
+   }
+
+   private static byte[] ascii(String s) {
+      byte[] bytes = new byte[s.length()];
+      for (int i = 0; i < bytes.length; i++) {
+         bytes[i] = (byte) s.charAt(i);
+      }
+      return bytes;
+   }
+}
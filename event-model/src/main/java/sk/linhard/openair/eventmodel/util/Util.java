@@ -45,15 +45,24 @@ public class Util {
    public static final long MILIS_IN_HOUR = 60 * MILIS_IN_MIN;
 
    public static DateTime dateTime(String aString) throws ParseException {
-      SimpleDateFormat theFormat = new SimpleDateFormat(XML_DATETIME_FORMAT);
-      theFormat.setTimeZone(Calendar.getInstance().getTimeZone());
-      return new DateTime(theFormat.parse(aString));
+      try {
+         return new DateTime(DateTimeCodec.getDefault().parseDateTime(aString));
+      } catch (ParseException e) {
+         // not strictly in the format, leave it to the lenient parser
+         SimpleDateFormat theFormat = new SimpleDateFormat(XML_DATETIME_FORMAT);
+         theFormat.setTimeZone(Calendar.getInstance().getTimeZone());
+         return new DateTime(theFormat.parse(aString));
+      }
    }
 
    public static DateTime date(String aString) throws ParseException {
-      SimpleDateFormat theFormat = new SimpleDateFormat(XML_DATE_FORMAT);
-      theFormat.setTimeZone(Calendar.getInstance().getTimeZone());
-      return new DateTime(theFormat.parse(aString));
+      try {
+         return new DateTime(DateTimeCodec.getDefault().parseDate(aString));
+      } catch (ParseException e) {
+         SimpleDateFormat theFormat = new SimpleDateFormat(XML_DATE_FORMAT);
+         theFormat.setTimeZone(Calendar.getInstance().getTimeZone());
+         return new DateTime(theFormat.parse(aString));
+      }
    }
 
    public static String[] tokenize(String aString, String aDelimiter) {
@@ -67,6 +76,11 @@ public class Util {
    }
 
    public static Duration duration(String aDuration) {
+      try {
+         return new Duration(DateTimeCodec.getDefault().parseDuration(aDuration));
+      } catch (ParseException e) {
+         // signed or otherwise unusual, parsed the old way below
+      }
       String[] theTokens = tokenize(aDuration, ":");
       if (theTokens.length != 2) {
          return null;
@@ -84,6 +98,10 @@ public class Util {
       if (aDateTime == null) {
          return null;
       }
+      DateTimeCodec theCodec = DateTimeCodec.getDefault();
+      if (theCodec.isFormattable(aDateTime.getMillis())) {
+         return theCodec.formatDateTime(aDateTime.getMillis(), new StringBuilder(16)).toString();
+      }
       SimpleDateFormat theFormat = new SimpleDateFormat(XML_DATETIME_FORMAT);
       theFormat.setTimeZone(Calendar.getInstance().getTimeZone());
       return theFormat.format(aDateTime.toDate());
@@ -93,6 +111,10 @@ public class Util {
       if (aDateTime == null) {
          return null;
       }
+      DateTimeCodec theCodec = DateTimeCodec.getDefault();
+      if (theCodec.isFormattable(aDateTime.getMillis())) {
+         return theCodec.formatDate(aDateTime.getMillis(), new StringBuilder(10)).toString();
+      }
       SimpleDateFormat theFormat = new SimpleDateFormat(XML_DATE_FORMAT);
       theFormat.setTimeZone(Calendar.getInstance().getTimeZone());
       return theFormat.format(aDateTime.toDate());
@@ -103,6 +125,9 @@ public class Util {
          return null;
       }
       long miliseconds = duration.getMillis();
+      if (miliseconds >= 0) {
+         return DateTimeCodec.formatDuration(miliseconds, new StringBuilder(8)).toString();
+      }
       long hours = miliseconds / MILIS_IN_HOUR;
       long mins = (miliseconds % MILIS_IN_HOUR) / MILIS_IN_MIN;
       StringBuffer theSB = new StringBuffer();
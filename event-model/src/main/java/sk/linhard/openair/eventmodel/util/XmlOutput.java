@@ -0,0 +1,63 @@
+/*
+ * OpenAir Event Program Model
+ * Copyright (C) 2012 Michal Linhard <michal@linhard.sk>
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package sk.linhard.openair.eventmodel.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * The subset of XML output operations the marshaller needs. Implemented on top of the Android
+ * XmlSerializer and by a plain JDK writer.
+ *
+ * @author Michal Linhard <michal@linhard.sk>
+ */
+interface XmlOutput {
+
+   /**
+    * Writes the UTF-8 standalone XML declaration.
+    */
+   void startDocument() throws IOException;
+
+   void startTag(String name) throws IOException;
+
+   /**
+    * Writes the attribute, the value is copied before the call returns so the caller may reuse
+    * it.
+    */
+   void attribute(String name, CharSequence value) throws IOException;
+
+   /**
+    * Writes attribute whose value is the prefix followed by the decimal number.
+    */
+   void attribute(String name, String prefix, int number) throws IOException;
+
+   void endTag(String name) throws IOException;
+
+   /**
+    * Closes all open tags and flushes the output.
+    */
+   void endDocument() throws IOException;
+
+   /**
+    * Discards the state of the previous document and starts writing to the stream, null releases
+    * the previous stream.
+    */
+   void reset(OutputStream os) throws IOException;
+}
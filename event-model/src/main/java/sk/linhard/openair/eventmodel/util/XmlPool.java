@@ -0,0 +1,177 @@
+/*
+ * OpenAir Event Program Model
+ * Copyright (C) 2012 Michal Linhard <michal@linhard.sk>
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package sk.linhard.openair.eventmodel.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+
+/**
+ * Per thread cache of the XML parsers, outputs, DOM builders and channel write buffers, so that reading and writing many
+ * small documents doesn't look up the factories and create the instances every time.
+ *
+ * An instance is taken from the cache of the current thread for one read or write and given back
+ * afterwards. Instances given back are reset and keep no reference to the streams, an instance
+ * that can't be reset is dropped. Using an instance while the cached one is out, e.g. in a nested
+ * read, creates a new one. Hits and misses are counted across all the threads.
+ *
+ * @author Michal Linhard <michal@linhard.sk>
+ */
+final class XmlPool {
+   static final int CHANNEL_BUFFER_SIZE = 64 * 1024;
+
+   private static final AtomicLong hits = new AtomicLong();
+   private static final AtomicLong misses = new AtomicLong();
+   private static volatile XmlPullParserFactory parserFactory;
+   private static volatile DocumentBuilderFactory documentBuilderFactory;
+   private static final ThreadLocal<XmlPullParser> parsers = new ThreadLocal<XmlPullParser>();
+   private static final ThreadLocal<XmlOutput> outputs = new ThreadLocal<XmlOutput>();
+   private static final ThreadLocal<DocumentBuilder> documentBuilders = new ThreadLocal<DocumentBuilder>();
+   private static final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<ByteBuffer>();
+
+   private XmlPool() {
+   }
+
+   static long getHits() {
+      return hits.get();
+   }
+
+   static long getMisses() {
+      return misses.get();
+   }
+
+   /**
+    * Creates a parser that isn't cached, the factory is looked up only once.
+    */
+   static XmlPullParser newParser() throws XmlPullParserException {
+      XmlPullParserFactory factory = parserFactory;
+      if (factory == null) {
+         factory = XmlPullParserFactory.newInstance();
+         parserFactory = factory;
+      }
+      synchronized (factory) {
+         return factory.newPullParser();
+      }
+   }
+
+   static XmlPullParser acquireParser() throws XmlPullParserException {
+      XmlPullParser parser = parsers.get();
+      if (parser != null) {
+         parsers.remove();
+         hits.incrementAndGet();
+         return parser;
+      }
+      misses.incrementAndGet();
+      return newParser();
+   }
+
+   static void releaseParser(XmlPullParser parser) {
+      try {
+         parser.setInput((Reader) null);
+      } catch (XmlPullParserException e) {
+         return;
+      } catch (RuntimeException e) {
+         return;
+      }
+      parsers.set(parser);
+   }
+
+   /**
+    * Returns output writing a new document to the stream.
+    */
+   static XmlOutput acquireOutput(OutputStream os) throws IOException {
+      XmlOutput output = outputs.get();
+      if (output != null) {
+         outputs.remove();
+         hits.incrementAndGet();
+         output.reset(os);
+         return output;
+      }
+      misses.incrementAndGet();
+      return ModelMarshaller.newXmlOutput(os);
+   }
+
+   static void releaseOutput(XmlOutput output) {
+      try {
+         output.reset(null);
+      } catch (IOException e) {
+         return;
+      } catch (RuntimeException e) {
+         return;
+      }
+      outputs.set(output);
+   }
+
+   static DocumentBuilder acquireDocumentBuilder() throws ParserConfigurationException {
+      DocumentBuilder builder = documentBuilders.get();
+      if (builder != null) {
+         documentBuilders.remove();
+         hits.incrementAndGet();
+         return builder;
+      }
+      misses.incrementAndGet();
+      DocumentBuilderFactory factory = documentBuilderFactory;
+      if (factory == null) {
+         factory = DocumentBuilderFactory.newInstance();
+         documentBuilderFactory = factory;
+      }
+      synchronized (factory) {
+         return factory.newDocumentBuilder();
+      }
+   }
+
+   static void releaseDocumentBuilder(DocumentBuilder builder) {
+      try {
+         builder.reset();
+      } catch (RuntimeException e) {
+         return;
+      }
+      documentBuilders.set(builder);
+   }
+
+   /**
+    * Returns empty direct buffer of {@link #CHANNEL_BUFFER_SIZE} bytes.
+    */
+   static ByteBuffer acquireBuffer() {
+      ByteBuffer buffer = buffers.get();
+      if (buffer != null) {
+         buffers.remove();
+         hits.incrementAndGet();
+         return buffer;
+      }
+      misses.incrementAndGet();
+      return ByteBuffer.allocateDirect(CHANNEL_BUFFER_SIZE);
+   }
+
+   static void releaseBuffer(ByteBuffer buffer) {
+      buffer.clear();
+      buffers.set(buffer);
+   }
+}
@@ -0,0 +1,125 @@
+/*
+ * OpenAir Event Program Model
+ * Copyright (C) 2012 Michal Linhard <michal@linhard.sk>
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package sk.linhard.openair.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import sk.linhard.openair.eventmodel.Event;
+import sk.linhard.openair.eventmodel.Session;
+import sk.linhard.openair.eventmodel.util.ModelMarshaller;
+
+/**
+ * Compares loading of the binary snapshot with loading of the zipped XML. The sizes of both
+ * representations are printed during setup. Also measures opening of a memory mapped snapshot
+ * followed by reading a single day.
+ *
+ * @author Michal Linhard <michal@linhard.sk>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BinaryFormatBenchmark {
+	@Param({ "50" })
+	private int locations;
+
+	@Param({ "10" })
+	private int days;
+
+	@Param({ "100" })
+	private int sessionsPerDay;
+
+	private byte[] zip;
+	private byte[] binary;
+	private byte[] uncompressedBinary;
+	private File snapshotFile;
+
+	@Setup
+	public void setUp() {
+		Event e = SyntheticFestival.create(locations, days, sessionsPerDay);
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		ModelMarshaller.marshallZip(e, bos);
+		zip = bos.toByteArray();
+		bos = new ByteArrayOutputStream();
+		ModelMarshaller.writeBinary(e, bos);
+		binary = bos.toByteArray();
+		bos = new ByteArrayOutputStream();
+		ModelMarshaller.writeBinary(e, bos, false);
+		uncompressedBinary = bos.toByteArray();
+		try {
+			snapshotFile = File.createTempFile("snapshot", ".bin");
+			snapshotFile.deleteOnExit();
+			FileOutputStream fos = new FileOutputStream(snapshotFile);
+			fos.write(uncompressedBinary);
+			fos.close();
+		} catch (IOException ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
+	@Benchmark
+	public Event zip() {
+		return ModelMarshaller.unmarshallZip(new ByteArrayInputStream(zip));
+	}
+
+	@Benchmark
+	public Event binary() {
+		return ModelMarshaller.readBinary(new ByteArrayInputStream(binary));
+	}
+
+	@Benchmark
+	public Event uncompressedBinary() {
+		return ModelMarshaller.readBinary(new ByteArrayInputStream(uncompressedBinary));
+	}
+
+	/**
+	 * Opens the mapped snapshot and reads the sessions of one day in the middle of the programme.
+	 */
+	@Benchmark
+	public Session[] mappedOneDay() {
+		Event e = ModelMarshaller.mapBinary(snapshotFile);
+		return e.getLocations()[locations / 2].getDayPrograms()[days / 2].getSessions();
+	}
+
+	public static void main(String[] args) throws Exception {
+		new Runner(new OptionsBuilder().include(BinaryFormatBenchmark.class.getSimpleName()).build()).run();
+	}
+}
@@ -0,0 +1,88 @@
+/*
+ * OpenAir Event Program Model
+ * Copyright (C) 2012 Michal Linhard <michal@linhard.sk>
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package sk.linhard.openair.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import sk.linhard.openair.eventmodel.Event;
+import sk.linhard.openair.eventmodel.util.Util;
+
+/**
+ * Compares the structural copy of the event with the copy through serialization, and the reduced
+ * version built on each of them. Add <code>-prof gc</code> to the options to see the allocation.
+ *
+ * @author Michal Linhard <michal@linhard.sk>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CopyBenchmark {
+	@Param({ "20" })
+	private int locations;
+
+	@Param({ "10" })
+	private int days;
+
+	@Param({ "100" })
+	private int sessionsPerDay;
+
+	private Event event;
+
+	@Setup
+	public void setUp() {
+		event = SyntheticFestival.create(locations, days, sessionsPerDay);
+	}
+
+	@Benchmark
+	public Event serializationClone() throws Exception {
+		return (Event) Util.clone(event);
+	}
+
+	@Benchmark
+	public Event copy() {
+		return event.copy();
+	}
+
+	@Benchmark
+	public Event reducedVersion() {
+		return event.getReducedVersion(false);
+	}
+
+	public static void main(String[] args) throws Exception {
+		new Runner(new OptionsBuilder().include(CopyBenchmark.class.getSimpleName()).build()).run();
+	}
+}
@@ -0,0 +1,104 @@
+/*
+ * OpenAir Event Program Model
+ * Copyright (C) 2012 Michal Linhard <michal@linhard.sk>
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package sk.linhard.openair.benchmark;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTime;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import sk.linhard.openair.eventmodel.util.DateTimeCodec;
+import sk.linhard.openair.eventmodel.util.Util;
+
+/**
+ * Compares the date codec with the SimpleDateFormat per call the Util methods used before. Run
+ * the main method from the test classpath, add <code>-prof gc</code> to the options to see the
+ * allocation rates.
+ *
+ * @author Michal Linhard <michal@linhard.sk>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DateTimeCodecBenchmark {
+	private String dateTime;
+	private long millis;
+	private DateTimeCodec codec;
+	private StringBuilder sb;
+
+	@Setup
+	public void setUp() throws ParseException {
+		dateTime = "14-07-2012 21:45";
+		millis = Util.dateTime(dateTime).getMillis();
+		codec = DateTimeCodec.getDefault();
+		sb = new StringBuilder(16);
+	}
+
+	@Benchmark
+	public long parseSimpleDateFormat() throws ParseException {
+		SimpleDateFormat theFormat = new SimpleDateFormat(Util.XML_DATETIME_FORMAT);
+		theFormat.setTimeZone(Calendar.getInstance().getTimeZone());
+		return new DateTime(theFormat.parse(dateTime)).getMillis();
+	}
+
+	@Benchmark
+	public long parseCodec() throws ParseException {
+		return codec.parseDateTime(dateTime);
+	}
+
+	@Benchmark
+	public String formatSimpleDateFormat() {
+		SimpleDateFormat theFormat = new SimpleDateFormat(Util.XML_DATETIME_FORMAT);
+		theFormat.setTimeZone(Calendar.getInstance().getTimeZone());
+		return theFormat.format(new DateTime(millis).toDate());
+	}
+
+	@Benchmark
+	public String formatUtil() {
+		return Util.formatDateTime(new DateTime(millis));
+	}
+
+	@Benchmark
+	public StringBuilder formatCodec() {
+		sb.setLength(0);
+		return codec.formatDateTime(millis, sb);
+	}
+
+	public static void main(String[] args) throws Exception {
+		new Runner(new OptionsBuilder().include(DateTimeCodecBenchmark.class.getSimpleName()).build()).run();
+	}
+}
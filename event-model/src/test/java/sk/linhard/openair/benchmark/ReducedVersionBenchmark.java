@@ -0,0 +1,88 @@
+/*
+ * OpenAir Event Program Model
+ * Copyright (C) 2012 Michal Linhard <michal@linhard.sk>
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package sk.linhard.openair.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import sk.linhard.openair.eventmodel.Event;
+import sk.linhard.openair.eventmodel.ReducedVersion;
+import sk.linhard.openair.eventmodel.Session;
+
+/**
+ * Cost of cancelling a session and taking the cancellation back while the reduced versions follow
+ * the event, compared with reducing the whole event again after the edit.
+ *
+ * @author Michal Linhard <michal@linhard.sk>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReducedVersionBenchmark {
+	@Param({ "30" })
+	private int locations;
+
+	@Param({ "10" })
+	private int days;
+
+	@Param({ "100" })
+	private int sessionsPerDay;
+
+	private Event event;
+	private Session session;
+
+	@Setup
+	public void setUp() {
+		event = SyntheticFestival.create(locations, days, sessionsPerDay);
+		new ReducedVersion(event, false);
+		new ReducedVersion(event, true);
+		session = event.getLocations()[locations / 2].getDayPrograms()[days / 2].getSessions()[1];
+	}
+
+	@Benchmark
+	public void followedEdit() {
+		session.setCancelled(!session.isCancelled());
+	}
+
+	@Benchmark
+	public Event reducedAgain() {
+		return event.getReducedVersion(false);
+	}
+
+	public static void main(String[] args) throws Exception {
+		new Runner(new OptionsBuilder().include(ReducedVersionBenchmark.class.getSimpleName()).build()).run();
+	}
+}
@@ -0,0 +1,137 @@
+/*
+ * OpenAir Event Program Model
+ * Copyright (C) 2012 Michal Linhard <michal@linhard.sk>
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package sk.linhard.openair.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.joda.time.DateTime;
+
+import sk.linhard.openair.eventmodel.Event;
+import sk.linhard.openair.eventmodel.util.ModelMarshaller;
+import sk.linhard.openair.eventmodel.util.Util;
+
+/**
+ * Generates large festival documents for benchmarks. The generated program contains metadata,
+ * cancelled sessions, sessions moved within the same day and sessions moved to another location.
+ *
+ * @author Michal Linhard <michal@linhard.sk>
+ */
+public class SyntheticFestival {
+	private static final String[] ACTS = { "Break", "Soundcheck", "The Dead Pixels", "Orchestra Nova",
+			"Stereo Lights", "DJ Mono", "Morning Yoga", "Open Mic", "Quiet Storm", "Brass Attack" };
+
+	private static class MovedSession {
+		private final String name;
+		private final int id;
+		private final DateTime start;
+
+		MovedSession(String aName, int anId, DateTime aStart) {
+			name = aName;
+			id = anId;
+			start = aStart;
+		}
+	}
+
+	/**
+	 * Creates XML document of an event with given number of locations, days and sessions per day.
+	 */
+	public static byte[] createXml(int locations, int days, int sessionsPerDay) {
+		DateTime firstDay = new DateTime(2012, 7, 5, 0, 0, 0, 0);
+		List<List<MovedSession>> movedToNextLocation = new ArrayList<List<MovedSession>>();
+		for (int d = 0; d < days; d++) {
+			movedToNextLocation.add(new ArrayList<MovedSession>());
+		}
+		StringBuilder program = new StringBuilder();
+		StringBuilder metadata = new StringBuilder();
+		StringBuilder sessionMetadata = new StringBuilder();
+		int currentId = 1;
+		for (int l = 0; l < locations; l++) {
+			int locationId = currentId++;
+			program.append("<location name=\"Stage ").append(l).append("\" shortName=\"S").append(l)
+					.append("\" id=\"st").append(locationId).append("\">");
+			metadata.append("<location id=\"st").append(locationId).append("\" url=\"http://festival.example.com/stage/")
+					.append(l).append("\" description=\"Stage number ").append(l).append("\" />");
+			for (int d = 0; d < days; d++) {
+				DateTime dayStart = firstDay.plusDays(d);
+				List<MovedSession> movedHere = movedToNextLocation.get(d);
+				List<MovedSession> movedAway = new ArrayList<MovedSession>();
+				List<MovedSession> movedLater = new ArrayList<MovedSession>();
+				program.append("<day date=\"").append(Util.formatDate(dayStart)).append("\">");
+				for (int s = 0; s < sessionsPerDay; s++) {
+					String name = ACTS[(l + d + s) % ACTS.length];
+					if (s % 7 != 0 && s % 3 != 0) {
+						name = name + " " + s;
+					}
+					DateTime start = dayStart.plusMinutes(600 + s * 30);
+					program.append("<session start=\"").append(Util.formatDateTime(start))
+							.append("\" duration=\"0:25\" name=\"").append(name).append("\"");
+					if (s % 30 == 29) {
+						program.append(" cancelled=\"true\"");
+					}
+					if (s % 20 == 19 || s % 10 == 0) {
+						int id = currentId++;
+						program.append(" id=\"sh").append(id).append("\"");
+						if (s % 20 == 19) {
+							program.append(" oldVersion=\"true\"");
+							MovedSession moved = new MovedSession(name, id, start.plusMinutes(5));
+							if (s % 40 == 39 && l + 1 < locations) {
+								movedAway.add(moved);
+							} else {
+								movedLater.add(moved);
+							}
+						}
+						if (s % 10 == 0) {
+							sessionMetadata.append("<session id=\"sh").append(id).append("\" url=\"http://festival.example.com/act/")
+									.append(s).append("\" description=\"").append(name).append(" live\" />");
+						}
+					}
+					program.append(" />");
+				}
+				movedLater.addAll(movedHere);
+				for (MovedSession moved : movedLater) {
+					program.append("<session start=\"").append(Util.formatDateTime(moved.start))
+							.append("\" duration=\"0:25\" name=\"").append(moved.name).append("\" id=\"sh").append(moved.id)
+							.append("\" />");
+				}
+				movedToNextLocation.set(d, movedAway);
+				program.append("</day>");
+			}
+			program.append("</location>");
+		}
+		StringBuilder xml = new StringBuilder("<?xml version='1.0' encoding='UTF-8' standalone='yes' ?>");
+		xml.append("<event xmlns=\"http://michal.linhard.sk/openair/event\" uri=\"http://festival.example.com\"");
+		xml.append(" name=\"Synthetic Festival\" shortName=\"SF\" version=\"1\" versionTime=\"01-07-2012 12:00\">");
+		xml.append("<program>").append(program).append("</program>");
+		xml.append("<metadata><event url=\"http://festival.example.com\" description=\"Generated festival\" />");
+		xml.append(metadata).append(sessionMetadata).append("</metadata></event>");
+		try {
+			return xml.toString().getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public static Event create(int locations, int days, int sessionsPerDay) {
+		return ModelMarshaller.unmarshall(new ByteArrayInputStream(createXml(locations, days, sessionsPerDay)));
+	}
+}
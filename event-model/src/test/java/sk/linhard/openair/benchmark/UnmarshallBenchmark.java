@@ -0,0 +1,90 @@
+/*
+ * OpenAir Event Program Model
+ * Copyright (C) 2012 Michal Linhard <michal@linhard.sk>
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package sk.linhard.openair.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import sk.linhard.openair.eventmodel.Event;
+import sk.linhard.openair.eventmodel.util.ModelMarshaller;
+
+/**
+ * Compares the streaming unmarshaller with the parallel and the DOM based one. Run the main method from the test
+ * classpath, add <code>-prof gc</code> to the options to see the allocation rates.
+ *
+ * @author Michal Linhard <michal@linhard.sk>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UnmarshallBenchmark {
+	@Param({ "20" })
+	private int locations;
+
+	@Param({ "10" })
+	private int days;
+
+	@Param({ "100" })
+	private int sessionsPerDay;
+
+	private byte[] xml;
+
+	@Setup
+	public void setUp() {
+		xml = SyntheticFestival.createXml(locations, days, sessionsPerDay);
+	}
+
+	@Benchmark
+	public Event streaming() {
+		return ModelMarshaller.unmarshall(new ByteArrayInputStream(xml));
+	}
+
+	@Benchmark
+	public Event parallel() {
+		return ModelMarshaller.unmarshallParallel(new ByteArrayInputStream(xml));
+	}
+
+	@SuppressWarnings("deprecation")
+	@Benchmark
+	public Event dom() {
+		return ModelMarshaller.unmarshallDom(new ByteArrayInputStream(xml));
+	}
+
+	public static void main(String[] args) throws Exception {
+		new Runner(new OptionsBuilder().include(UnmarshallBenchmark.class.getSimpleName()).build()).run();
+	}
+}
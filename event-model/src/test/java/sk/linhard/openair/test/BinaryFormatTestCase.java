@@ -0,0 +1,123 @@
+/*
+ * OpenAir Event Program Model
+ * Copyright (C) 2012 Michal Linhard <michal@linhard.sk>
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package sk.linhard.openair.test;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+
+import org.junit.Test;
+
+import sk.linhard.openair.benchmark.SyntheticFestival;
+import sk.linhard.openair.eventmodel.DayProgram;
+import sk.linhard.openair.eventmodel.Event;
+import sk.linhard.openair.eventmodel.Session;
+import sk.linhard.openair.eventmodel.util.ModelMarshaller;
+
+/**
+ * Tests the binary snapshot format.
+ *
+ * @author Michal Linhard <michal@linhard.sk>
+ */
+public class BinaryFormatTestCase {
+
+	private static byte[] toBinary(Event e) {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		ModelMarshaller.writeBinary(e, bos);
+		return bos.toByteArray();
+	}
+
+	private static byte[] toUncompressedBinary(Event e) {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		ModelMarshaller.writeBinary(e, bos, false);
+		return bos.toByteArray();
+	}
+
+	private static Event fromBinary(byte[] data) {
+		return ModelMarshaller.readBinary(new ByteArrayInputStream(data));
+	}
+
+	@Test
+	public void testSampleRoundTrip() throws Exception {
+		Event e = ModelMarshaller.unmarshall(new FileInputStream("examples/sample.xml"));
+		ModelAssert.assertEventEquals(e, fromBinary(toBinary(e)));
+	}
+
+	@Test
+	public void testSyntheticRoundTrip() throws Exception {
+		Event e = SyntheticFestival.create(5, 3, 60);
+		ModelAssert.assertEventEquals(e, fromBinary(toBinary(e)));
+		Event read = fromBinary(toUncompressedBinary(e));
+		ModelAssert.assertEventEquals(e, read);
+		Session oldVersion = read.getLocations()[0].getDayPrograms()[0].getSessions()[19];
+		assertTrue(oldVersion.isOldVersion());
+		assertSame(oldVersion.getMetadata(), oldVersion.getNewVersion().getMetadata());
+		// equal strings are stored once and read as one instance
+		assertSame(read.getLocations()[0].getDayPrograms()[0].getSessions()[0].getName(), read.getLocations()[0]
+				.getDayPrograms()[1].getSessions()[9].getName());
+	}
+
+	@Test
+	public void testSmallerThanZip() throws Exception {
+		Event e = SyntheticFestival.create(20, 10, 100);
+		ByteArrayOutputStream zip = new ByteArrayOutputStream();
+		ModelMarshaller.marshallZip(e, zip);
+		int binarySize = toBinary(e).length;
+		assertTrue("binary " + binarySize + " zip " + zip.size(), binarySize * 4 < zip.size());
+	}
+
+	@Test
+	public void testMappedSnapshot() throws Exception {
+		Event e = SyntheticFestival.create(5, 3, 60);
+		File file = new File("target/mapped-snapshot.bin");
+		FileOutputStream fos = new FileOutputStream(file);
+		ModelMarshaller.writeBinary(e, fos, false);
+		fos.close();
+
+		// follow a link to another location before anything else is decoded
+		Event mapped = ModelMarshaller.mapBinary(file);
+		Session moved = null;
+		for (int l = e.getLocations().length - 1; moved == null && l >= 0; l--) {
+			DayProgram[] days = e.getLocations()[l].getDayPrograms();
+			for (int d = 0; moved == null && d < days.length; d++) {
+				Session[] sessions = days[d].getSessions();
+				for (int s = 0; moved == null && s < sessions.length; s++) {
+					Session session = sessions[s];
+					if (session.isNewVersion() && session.isMovedDifferentLocation()) {
+						moved = mapped.getLocations()[l].getDayPrograms()[d].getSessions()[s];
+						assertTrue(moved.isMovedDifferentLocation());
+						assertSame(moved, moved.getOldVersion().getNewVersion());
+						assertSame(mapped.findLocation(session.getOldVersion().getDayProgram().getLocation()
+								.getName()), moved.getOldVersion().getDayProgram().getLocation());
+					}
+				}
+			}
+		}
+		assertTrue(moved != null);
+		ModelAssert.assertEventEquals(e, mapped);
+		ModelAssert.assertEventEquals(e.getReducedVersion(false),
+				ModelMarshaller.mapBinary(file).getReducedVersion(false));
+	}
+}
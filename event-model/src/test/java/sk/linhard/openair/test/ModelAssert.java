@@ -0,0 +1,115 @@
+/*
+ * OpenAir Event Program Model
+ * Copyright (C) 2012 Michal Linhard <michal@linhard.sk>
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package sk.linhard.openair.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.joda.time.ReadableInstant;
+
+import sk.linhard.openair.eventmodel.DayProgram;
+import sk.linhard.openair.eventmodel.Event;
+import sk.linhard.openair.eventmodel.Location;
+import sk.linhard.openair.eventmodel.Session;
+
+/**
+ * Structural comparison of two events.
+ *
+ * @author Michal Linhard <michal@linhard.sk>
+ */
+public class ModelAssert {
+
+	public static void assertEventEquals(Event expected, Event actual) {
+		assertEquals(expected.getUri(), actual.getUri());
+		assertEquals(expected.getName(), actual.getName());
+		assertEquals(expected.getShortName(), actual.getShortName());
+		assertEquals(expected.getVersion(), actual.getVersion());
+		assertEquals(millis(expected.getVersionTime()), millis(actual.getVersionTime()));
+		assertEquals(expected.getUrl(), actual.getUrl());
+		assertEquals(expected.getDescription(), actual.getDescription());
+		Location[] expectedLocations = expected.getLocations();
+		Location[] actualLocations = actual.getLocations();
+		assertEquals(expectedLocations.length, actualLocations.length);
+		for (int i = 0; i < expectedLocations.length; i++) {
+			assertLocationEquals(expected, expectedLocations[i], actual, actualLocations[i]);
+		}
+	}
+
+	private static void assertLocationEquals(Event expectedEvent, Location expected, Event actualEvent,
+			Location actual) {
+		assertEquals(expected.getName(), actual.getName());
+		assertEquals(expected.getShortName(), actual.getShortName());
+		assertEquals(expected.getUrl(), actual.getUrl());
+		assertEquals(expected.getDescription(), actual.getDescription());
+		DayProgram[] expectedDays = expected.getDayPrograms();
+		DayProgram[] actualDays = actual.getDayPrograms();
+		assertEquals(expectedDays == null ? 0 : expectedDays.length, actualDays == null ? 0 : actualDays.length);
+		for (int i = 0; expectedDays != null && i < expectedDays.length; i++) {
+			assertDayProgramEquals(expectedEvent, expectedDays[i], actualEvent, actualDays[i]);
+		}
+	}
+
+	private static void assertDayProgramEquals(Event expectedEvent, DayProgram expected, Event actualEvent,
+			DayProgram actual) {
+		assertEquals(millis(expected.getDayStart()), millis(actual.getDayStart()));
+		Session[] expectedSessions = expected.getSessions();
+		Session[] actualSessions = actual.getSessions();
+		assertEquals(expectedSessions == null ? 0 : expectedSessions.length, actualSessions == null ? 0
+				: actualSessions.length);
+		for (int i = 0; expectedSessions != null && i < expectedSessions.length; i++) {
+			assertSessionEquals(expectedEvent, expectedSessions[i], actualEvent, actualSessions[i]);
+		}
+	}
+
+	private static void assertSessionEquals(Event expectedEvent, Session expected, Event actualEvent,
+			Session actual) {
+		assertEquals(expected.getName(), actual.getName());
+		assertEquals(expected.getShortName(), actual.getShortName());
+		assertEquals(millis(expected.getStart()), millis(actual.getStart()));
+		assertEquals(expected.getDuration(), actual.getDuration());
+		assertEquals(expected.isCancelled(), actual.isCancelled());
+		assertEquals(expected.getUrl(), actual.getUrl());
+		assertEquals(expected.getDescription(), actual.getDescription());
+		assertEquals(position(expectedEvent, expected.getOldVersion()), position(actualEvent, actual.getOldVersion()));
+		assertEquals(position(expectedEvent, expected.getNewVersion()), position(actualEvent, actual.getNewVersion()));
+	}
+
+	private static Long millis(ReadableInstant anInstant) {
+		return anInstant == null ? null : anInstant.getMillis();
+	}
+
+	/**
+	 * Position of the session in the event as a string, used to compare link targets.
+	 */
+	private static String position(Event anEvent, Session aSession) {
+		if (aSession == null) {
+			return null;
+		}
+		DayProgram day = aSession.getDayProgram();
+		Session[] sessions = day.getSessions();
+		for (int i = 0; i < sessions.length; i++) {
+			if (sessions[i] == aSession) {
+				return anEvent.getLocation(day).getName() + "/" + day.getDayStart().getMillis() + "/" + i;
+			}
+		}
+		assertNull("Linked session is not part of its day program", aSession);
+		return null;
+	}
+}
@@ -19,19 +19,62 @@
  */
 package sk.linhard.openair.test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.channels.Channels;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.Executor;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
 import org.joda.time.Duration;
 import org.junit.Test;
+import org.kxml2.io.KXmlSerializer;
 
+import sk.linhard.openair.benchmark.SyntheticFestival;
+import sk.linhard.openair.displaymodel.OverviewData;
+import sk.linhard.openair.displaymodel.OverviewDataSessionItem;
+import sk.linhard.openair.displaymodel.OverviewDisplay;
 import sk.linhard.openair.eventmodel.DayProgram;
+import sk.linhard.openair.eventmodel.DayProgramView;
 import sk.linhard.openair.eventmodel.Event;
+import sk.linhard.openair.eventmodel.EventBuilder;
+import sk.linhard.openair.eventmodel.EventEdit;
+import sk.linhard.openair.eventmodel.EventPublisher;
+import sk.linhard.openair.eventmodel.EventView;
 import sk.linhard.openair.eventmodel.Session;
+import sk.linhard.openair.eventmodel.SessionIndex;
 import sk.linhard.openair.eventmodel.Location;
+import sk.linhard.openair.eventmodel.LocationView;
+import sk.linhard.openair.eventmodel.ReducedVersion;
+import sk.linhard.openair.eventmodel.exceptions.EventModelException;
+import sk.linhard.openair.eventmodel.exceptions.ValidationException;
+import sk.linhard.openair.eventmodel.util.DateTimeCodec;
+import sk.linhard.openair.eventmodel.util.EventFilter;
+import sk.linhard.openair.eventmodel.util.LoadResult;
 import sk.linhard.openair.eventmodel.util.ModelMarshaller;
+import sk.linhard.openair.eventmodel.util.StringDictionary;
 import sk.linhard.openair.eventmodel.util.Util;
 
 /**
@@ -96,4 +139,1191 @@ public class ModelTestCase {
 		ModelMarshaller.marshallZip(e, new FileOutputStream("target/testdata/eventoutput.zip"));
 		ModelMarshaller.unmarshallZip(new FileInputStream("target/testdata/eventoutput.zip"));
 	}
+
+	@Test
+	public void testMarshallMatchesPlatformSerializer() throws Exception {
+		Event e = createTestEvent();
+		e.setUri("http://example.com/super?a=1&b=\"2\"");
+		e.setVersion(3L);
+		e.setVersionTime(dateTime("31-12-2009 23:59"));
+		e.setUrl("http://example.com/@super");
+		e.setDescription("R\u00f6ck & <Roll> 'live'\n\u2730 \ud83c\udfb8");
+		e.findLocation("Stage A").setUrl("http://example.com/a");
+		e.findLocation("Stage B").getDayPrograms()[1].getSessions()[0].setDescription("\"Quoted\"\t");
+
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		KXmlSerializer ser = new KXmlSerializer();
+		ser.setOutput(expected, "UTF-8");
+		ModelMarshaller.marshall(e, ser);
+		ByteArrayOutputStream actual = new ByteArrayOutputStream();
+		ModelMarshaller.marshall(e, actual);
+		assertEquals(expected.toString("UTF-8"), actual.toString("UTF-8"));
+		assertTrue(Arrays.equals(expected.toByteArray(), actual.toByteArray()));
+
+		ModelAssert.assertEventEquals(e, ModelMarshaller.unmarshall(new ByteArrayInputStream(actual.toByteArray())));
+	}
+
+	@SuppressWarnings("deprecation")
+	@Test
+	public void testStreamingUnmarshall() throws Exception {
+		Event e = ModelMarshaller.unmarshall(new FileInputStream("examples/sample.xml"));
+		ModelAssert.assertEventEquals(ModelMarshaller.unmarshallDom(new FileInputStream("examples/sample.xml")), e);
+		Session[] b2 = e.findLocation("Stage B").getDayPrograms()[1].getSessions();
+		assertEquals(4, b2.length);
+		assertSame(b2[3], b2[1].getNewVersion());
+		assertSame(b2[1], b2[3].getOldVersion());
+		assertTrue(b2[1].isOldVersion());
+		assertTrue(b2[3].isNewVersion());
+		assertTrue(b2[2].isCancelled());
+	}
+
+	@Test
+	public void testParallelUnmarshall() throws Exception {
+		Event e = ModelMarshaller.unmarshallParallel(new FileInputStream("examples/sample.xml"));
+		ModelAssert.assertEventEquals(ModelMarshaller.unmarshall(new FileInputStream("examples/sample.xml")), e);
+		byte[] xml = SyntheticFestival.createXml(30, 3, 40);
+		ModelAssert.assertEventEquals(ModelMarshaller.unmarshall(new ByteArrayInputStream(xml)),
+				ModelMarshaller.unmarshallParallel(new ByteArrayInputStream(xml)));
+		// the locations the executor doesn't run are parsed by the reading thread
+		ModelAssert.assertEventEquals(ModelMarshaller.unmarshall(new ByteArrayInputStream(xml)),
+				ModelMarshaller.unmarshallParallel(new ByteArrayInputStream(xml), new Executor() {
+					@Override
+					public void execute(Runnable command) {
+					}
+				}));
+	}
+
+	@Test
+	public void testFilteredUnmarshall() throws Exception {
+		byte[] xml = SyntheticFestival.createXml(5, 3, 40);
+		Event full = ModelMarshaller.unmarshall(new ByteArrayInputStream(xml));
+		Location expected = full.getLocations()[2];
+		EventFilter filter = new EventFilter();
+		filter.setLocationNames(expected.getName());
+		filter.setInterval(expected.getDayPrograms()[1].getDayStart(), expected.getDayPrograms()[2].getDayStart());
+		Event e = ModelMarshaller.unmarshall(new ByteArrayInputStream(xml), filter);
+		assertEquals(1, e.getLocations().length);
+		Location location = e.getLocations()[0];
+		assertEquals(expected.getName(), location.getName());
+		assertEquals(expected.getUrl(), location.getUrl());
+		assertEquals(1, location.getDayPrograms().length);
+		Session[] expectedSessions = expected.getDayPrograms()[1].getSessions();
+		Session[] sessions = location.getDayPrograms()[0].getSessions();
+		assertEquals(expectedSessions.length, sessions.length);
+		int movedAway = 0;
+		for (int i = 0; i < sessions.length; i++) {
+			assertPartnerEquals(expectedSessions[i].getNewVersion(), sessions[i].getNewVersion());
+			assertPartnerEquals(expectedSessions[i].getOldVersion(), sessions[i].getOldVersion());
+			assertEquals(expectedSessions[i].getDescription(), sessions[i].getDescription());
+			if (sessions[i].isMovedDifferentLocation()) {
+				movedAway++;
+				// the partner left out by the filter isn't part of the event
+				Session partner = sessions[i].isOldVersion() ? sessions[i].getNewVersion() : sessions[i]
+						.getOldVersion();
+				DayProgram partnerDay = partner.getDayProgram();
+				assertEquals(null, partnerDay.getLocation().getEvent());
+				assertEquals(null, e.getLocation(partnerDay));
+			}
+		}
+		assertTrue(movedAway > 0);
+		assertEquals(1, e.getDates().size());
+	}
+
+	@Test
+	public void testStringDictionary() throws Exception {
+		byte[] xml = SyntheticFestival.createXml(5, 3, 40);
+		StringDictionary dictionary = new StringDictionary();
+		LoadResult first = ModelMarshaller.unmarshall(new ByteArrayInputStream(xml), dictionary);
+		ModelAssert.assertEventEquals(ModelMarshaller.unmarshall(new ByteArrayInputStream(xml)), first.getEvent());
+		Session[] sessions = first.getEvent().getLocations()[0].getDayPrograms()[0].getSessions();
+		Session other = null;
+		for (int i = 1; other == null && i < sessions.length; i++) {
+			if (sessions[i].getName().equals(sessions[0].getName())) {
+				other = sessions[i];
+			}
+		}
+		assertSame(sessions[0].getName(), other.getName());
+		assertTrue(first.getStringStats().getDedupRatio() > 0.5);
+		assertTrue(first.getStringStats().getBytesSaved() > 0);
+
+		// the catalog's second load finds every string in the dictionary
+		LoadResult second = ModelMarshaller.unmarshall(new ByteArrayInputStream(xml), dictionary);
+		assertEquals(second.getStringStats().getLookups(), second.getStringStats().getHits());
+		assertEquals(first.getStringStats().getUniqueStrings(), second.getStringStats().getUniqueStrings());
+		assertSame(sessions[0].getName(), second.getEvent().getLocations()[0].getDayPrograms()[0].getSessions()[0]
+				.getName());
+	}
+
+	@Test
+	public void testValidation() throws Exception {
+		String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+				+ "<event xmlns=\"http://michal.linhard.sk/openair/event\" name=\"Broken Event\">\n"
+				+ "<program>\n"
+				+ "<location name=\"A\">\n"
+				+ "<day date=\"01-01-2010\">\n"
+				+ "<session start=\"01-01-2010 10:00\" duration=\"1:00\" />\n"
+				+ "<session start=\"01-01-2010 11:00\" duration=\"1:00\" name=\"Moved\" id=\"sh1\" oldVersion=\"true\" />\n"
+				+ "<session start=\"1.1.2010 12:00\" duration=\"1:00\" name=\"Bad start\" />\n"
+				+ "</day>\n"
+				+ "</location>\n"
+				+ "<location name=\"Stage B\">\n"
+				+ "<day date=\"01-01-2010\">\n"
+				+ "<session start=\"01-01-2010 10:00\" duration=\"1:00\" name=\"Bad id\" id=\"1x\" />\n"
+				+ "<session start=\"01-01-2010 11:00\" duration=\"1:00\" name=\"Unpaired\" id=\"sh2\" oldVersion=\"true\" />\n"
+				+ "</day>\n"
+				+ "</location>\n"
+				+ "</program>\n"
+				+ "<metadata>\n"
+				+ "<session id=\"sh9\" url=\"http://example.com\" description=\"Dangling\" />\n"
+				+ "</metadata>\n"
+				+ "</event>\n";
+		byte[] doc = xml.getBytes("UTF-8");
+		int[] expectedLines = { 4, 6, 8, 13, 19, 7, 14 };
+		try {
+			ModelMarshaller.unmarshall(new ByteArrayInputStream(doc));
+			fail();
+		} catch (ValidationException e) {
+			assertEquals(EventModelException.INVALID_DOCUMENT, e.getErrorCode());
+			assertViolationLines(expectedLines, e);
+			assertTrue(e.getMessage(), e.getViolations().get(4).getMessage().contains("sh9"));
+		}
+		try {
+			ModelMarshaller.unmarshallParallel(new ByteArrayInputStream(doc));
+			fail();
+		} catch (ValidationException e) {
+			assertViolationLines(expectedLines, e);
+		}
+		// fixing the old version pairing leaves the rest
+		try {
+			ModelMarshaller.unmarshall(new ByteArrayInputStream(xml.replace("Unpaired\" id=\"sh2\" oldVersion=\"true\"",
+					"Moved\" id=\"sh1\"").getBytes("UTF-8")));
+			fail();
+		} catch (ValidationException e) {
+			assertViolationLines(new int[] { 4, 6, 8, 13, 19 }, e);
+		}
+	}
+
+	@Test
+	public void testValidationLimits() throws Exception {
+		String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+				+ "<event xmlns=\"http://michal.linhard.sk/openair/event\" name=\"Limits\">\n"
+				+ "<program>\n"
+				+ "<location name=\"Stage A\" id=\"lA\" />\n"
+				+ "</program>\n"
+				+ "<metadata>\n"
+				+ "<event url=\"URL\" />\n"
+				+ "<location id=\"lA\" description=\"DESCRIPTION\" />\n"
+				+ "</metadata>\n"
+				+ "</event>\n";
+		char[] longUrl = new char[1000];
+		Arrays.fill(longUrl, 'u');
+		char[] longDescription = new char[2000];
+		Arrays.fill(longDescription, 'd');
+		Event e = ModelMarshaller.unmarshall(new ByteArrayInputStream(xml.replace("URL", new String(longUrl))
+				.replace("DESCRIPTION", new String(longDescription)).getBytes("UTF-8")));
+		assertEquals(1000, e.getUrl().length());
+		assertEquals(2000, e.getLocations()[0].getDescription().length());
+		try {
+			ModelMarshaller.unmarshall(new ByteArrayInputStream(xml.replace("URL", new String(longUrl) + "u")
+					.replace("DESCRIPTION", "Short").getBytes("UTF-8")));
+			fail("Expected too long url");
+		} catch (ValidationException ex) {
+			assertViolationLines(new int[] { 7 }, ex);
+			assertTrue(ex.getMessage(), ex.getViolations().get(0).getMessage().contains("url"));
+		}
+		try {
+			ModelMarshaller.unmarshall(new ByteArrayInputStream(xml.replace("URL", "http://example.com")
+					.replace("DESCRIPTION", new String(longDescription) + "d").getBytes("UTF-8")));
+			fail("Expected too long description");
+		} catch (ValidationException ex) {
+			assertViolationLines(new int[] { 8 }, ex);
+			assertTrue(ex.getMessage(), ex.getViolations().get(0).getMessage().contains("description"));
+		}
+		try {
+			ModelMarshaller.unmarshall(new ByteArrayInputStream(("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+					+ "<event xmlns=\"http://michal.linhard.sk/openair/event\" name=\"No program\">\n"
+					+ "<metadata />\n" + "</event>\n").getBytes("UTF-8")));
+			fail("Expected missing program");
+		} catch (ValidationException ex) {
+			assertViolationLines(new int[] { 4 }, ex);
+			assertTrue(ex.getMessage(), ex.getViolations().get(0).getMessage().contains("program"));
+		}
+	}
+
+	private static void assertViolationLines(int[] expected, ValidationException e) {
+		assertEquals(e.getMessage(), expected.length, e.getViolations().size());
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(e.getViolations().get(i).toString(), expected[i], e.getViolations().get(i).getLineNumber());
+		}
+	}
+
+	@Test
+	public void testZipEntryPerLocation() throws Exception {
+		Event e = SyntheticFestival.create(6, 3, 40);
+		new File("target/testdata").mkdirs();
+		File file = new File("target/testdata/entryperlocation.zip");
+		FileOutputStream fos = new FileOutputStream(file);
+		ModelMarshaller.marshallZip(e, fos, true);
+		ModelAssert.assertEventEquals(e, ModelMarshaller.unmarshallZip(new FileInputStream(file)));
+
+		// follow a link to another location before any other location is inflated
+		Event opened = ModelMarshaller.openZip(file);
+		Session moved = null;
+		for (int l = e.getLocations().length - 1; moved == null && l >= 0; l--) {
+			DayProgram[] days = e.getLocations()[l].getDayPrograms();
+			for (int d = 0; moved == null && d < days.length; d++) {
+				Session[] sessions = days[d].getSessions();
+				for (int s = 0; moved == null && s < sessions.length; s++) {
+					if (sessions[s].isNewVersion() && sessions[s].isMovedDifferentLocation()) {
+						moved = opened.getLocations()[l].getDayPrograms()[d].getSessions()[s];
+						assertSame(moved, moved.getOldVersion().getNewVersion());
+						assertSame(opened.findLocation(e.getLocation(sessions[s].getOldVersion()).getName()),
+								opened.getLocation(moved.getOldVersion()));
+						assertEquals(sessions[s].getDescription(), moved.getDescription());
+					}
+				}
+			}
+		}
+		assertTrue(moved != null);
+		ModelAssert.assertEventEquals(e, opened);
+
+		// the single entry layout is still read
+		fos = new FileOutputStream(file);
+		ModelMarshaller.marshallZip(e, fos);
+		ModelAssert.assertEventEquals(e, ModelMarshaller.openZip(file));
+		ModelAssert.assertEventEquals(e, ModelMarshaller.unmarshallZip(new FileInputStream(file)));
+	}
+
+	@Test
+	public void testChannelMarshalling() throws Exception {
+		Event e = SyntheticFestival.create(6, 3, 40);
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		ModelMarshaller.marshall(e, expected);
+		ByteArrayOutputStream actual = new ByteArrayOutputStream();
+		ModelMarshaller.marshall(e, Channels.newChannel(actual));
+		assertTrue(expected.size() > 64 * 1024);
+		assertTrue(Arrays.equals(expected.toByteArray(), actual.toByteArray()));
+
+		new File("target/testdata").mkdirs();
+		File file = new File("target/testdata/channel.zip");
+		int[] levels = { Deflater.DEFAULT_COMPRESSION, Deflater.BEST_SPEED, ModelMarshaller.ZIP_STORED };
+		for (int level : levels) {
+			for (boolean entryPerLocation : new boolean[] { false, true }) {
+				FileOutputStream fos = new FileOutputStream(file);
+				ModelMarshaller.marshallZip(e, fos.getChannel(), entryPerLocation, level);
+				fos.close();
+				ModelAssert.assertEventEquals(e, ModelMarshaller.unmarshallZip(new FileInputStream(file)));
+				ModelAssert.assertEventEquals(e, ModelMarshaller.openZip(file));
+				ZipFile zip = new ZipFile(file);
+				int method = zip.entries().nextElement().getMethod();
+				zip.close();
+				assertEquals(level == ModelMarshaller.ZIP_STORED ? ZipEntry.STORED : ZipEntry.DEFLATED, method);
+			}
+		}
+		assertTrue(file.length() > expected.size());
+	}
+
+	@Test
+	public void testPooling() throws Exception {
+		Event e = createTestEvent();
+		ByteArrayOutputStream first = new ByteArrayOutputStream();
+		ModelMarshaller.marshall(e, first);
+		ModelMarshaller.unmarshall(new ByteArrayInputStream(first.toByteArray()));
+
+		// the output cached by a write that failed half way is reset
+		try {
+			ModelMarshaller.marshall(SyntheticFestival.create(2, 1, 40), new OutputStream() {
+				@Override
+				public void write(int b) throws IOException {
+					throw new IOException("full");
+				}
+			});
+			fail("Expected the write to fail");
+		} catch (RuntimeException ex) {
+			assertEquals("full", ex.getCause().getMessage());
+		}
+
+		long hits = ModelMarshaller.getPoolHits();
+		long misses = ModelMarshaller.getPoolMisses();
+		for (int i = 0; i < 3; i++) {
+			ByteArrayOutputStream os = new ByteArrayOutputStream();
+			ModelMarshaller.marshall(e, os);
+			assertTrue(Arrays.equals(first.toByteArray(), os.toByteArray()));
+			ModelAssert.assertEventEquals(e, ModelMarshaller.unmarshall(new ByteArrayInputStream(os.toByteArray())));
+		}
+		assertTrue(ModelMarshaller.getPoolHits() - hits >= 6);
+		assertEquals(misses, ModelMarshaller.getPoolMisses());
+	}
+
+	@Test
+	public void testSessionColumns() throws Exception {
+		Event e = createTestEvent();
+		DayProgram day = e.getLocations()[1].getDayPrograms()[1];
+		Session[] sessions = day.getSessions();
+		assertEquals(4, sessions.length);
+		assertEquals(dateTime("02-01-2010 12:30").getMillis(), sessions[1].getEndMillis());
+		assertEquals(3, day.getRelevantSessions(dateTime("02-01-2010 12:00")).length);
+		assertTrue(sessions[1].isRunning(dateTime("02-01-2010 12:30")));
+		assertTrue(day.hasRelevantSessions(dateTime("02-01-2010 16:29")));
+		assertTrue(!day.hasRelevantSessions(dateTime("02-01-2010 16:30")));
+
+		// the versions follow the flags
+		Session[] old = e.getReducedVersion(true).getLocations()[1].getDayPrograms()[1].getSessions();
+		assertEquals(3, old.length);
+		assertEquals("Performance B6", old[2].getName());
+		Session[] current = e.getReducedVersion(false).getLocations()[1].getDayPrograms()[1].getSessions();
+		assertEquals(2, current.length);
+		assertEquals(dateTime("02-01-2010 15:30").getMillis(), current[1].getStartMillis());
+
+		// the session keeps its times when moving to another day and when left out of the day
+		Session detached = new Session("Late", dateTime("02-01-2010 20:00"), null);
+		assertEquals(null, detached.getDuration());
+		detached.setDuration(duration("0:45"));
+		day.addSession(detached);
+		assertEquals(dateTime("02-01-2010 20:45").getMillis(), detached.getEnd().getMillis());
+		day.setSessions(new Session[] { sessions[0], detached });
+		sessions[0].setStart(dateTime("02-01-2010 9:00"));
+		assertEquals(dateTime("02-01-2010 10:00").getMillis(), sessions[0].getEndMillis());
+		assertEquals(dateTime("02-01-2010 11:30").getMillis(), sessions[1].getStartMillis());
+		assertEquals(duration("1:00"), sessions[1].getDuration());
+		assertTrue(sessions[3].isNewVersion());
+	}
+
+	@Test
+	public void testEventBuilder() throws Exception {
+		Event expected = createTestEvent();
+		EventBuilder builder = new EventBuilder(new Event(), 1, 1, 1);
+		Event e = builder.getEvent();
+		e.setName("Super Event");
+		for (Location eachLocation : expected) {
+			Location location = builder.addLocation(eachLocation.getName());
+			for (DayProgram eachDay : eachLocation) {
+				DayProgram day = builder.addDay(location, eachDay.getDayStart());
+				for (Session eachSession : eachDay) {
+					if (eachSession.isNewVersion()) {
+						continue;
+					}
+					Session session = builder.addSession(day, eachSession.getName(), eachSession.getStart(),
+							eachSession.getDuration());
+					session.setCancelled(eachSession.isCancelled());
+					assertSame(day, session.getDayProgram());
+				}
+			}
+		}
+		try {
+			builder.addLocation("Stage A");
+			fail("Expected duplicate location");
+		} catch (EventModelException ex) {
+			assertEquals(EventModelException.DUPLICATE_LOCATION_NAME, ex.getErrorCode());
+		}
+		// the arrays are set by build
+		assertEquals(null, e.getLocations());
+		assertSame(e, builder.build());
+		Session[] b = e.getLocations()[1].getDayPrograms()[1].getSessions();
+		b[1].change(null, dateTime("02-01-2010 15:30"), duration("1:00"));
+		ModelAssert.assertEventEquals(expected, e);
+		assertEquals(3, e.getLocations().length);
+		assertEquals(3, e.getLocations()[0].getDayPrograms()[1].getSessions().length);
+
+		// adds to the program built before
+		builder = new EventBuilder(e, 0, 0, 0);
+		DayProgram day = e.getLocations()[2].getDayPrograms()[0];
+		builder.addSession(day, "Performance C4", dateTime("01-01-2010 14:30"), duration("1:00"));
+		builder.addDay(builder.addLocation("Stage D"), dateTime("01-01-2010 0:00"));
+		builder.build();
+		assertEquals(4, day.getSessions().length);
+		assertEquals(dateTime("01-01-2010 11:00").getMillis(), day.getSessions()[0].getEndMillis());
+		assertEquals("Performance C4", day.getSessions()[3].getName());
+		assertEquals(1, e.findLocation("Stage D").getDayPrograms().length);
+	}
+
+	@Test
+	public void testSessionTimeZones() throws Exception {
+		Event e = new Event();
+		DayProgram day = e.addLocation("Stage A").addDay(new DateTime(2010, 1, 1, 0, 0, 0, 0, DateTimeZone.UTC));
+		DateTime start = new DateTime(2010, 1, 1, 11, 0, 0, 0, DateTimeZone.forOffsetHours(2));
+		Session session = day.addSession("Performance A1", start, duration("1:00"));
+		Session utc = day.addSession("Performance A2", new DateTime(2010, 1, 1, 10, 0, 0, 0, DateTimeZone.UTC),
+				duration("1:00"));
+		// the sessions keep the zones they were set with, the day program keeps millis
+		assertEquals(start, session.getStart());
+		assertSame(session.getStart(), session.getStart());
+		assertEquals(start.plusHours(1), session.getEnd());
+		assertEquals(DateTimeZone.UTC, utc.getStart().getZone());
+		assertEquals(DateTimeZone.UTC, utc.getEnd().getZone());
+		assertSame(session, day.getSessions()[0]);
+
+		session.setDuration(duration("0:30"));
+		assertEquals(start, session.getStart());
+		assertEquals(start.plusMinutes(30), session.getEnd());
+		assertEquals(start, e.copy().getLocations()[0].getDayPrograms()[0].getSessions()[0].getStart());
+
+		EventBuilder builder = new EventBuilder(e, 0, 0, 0);
+		DateTime builtStart = new DateTime(2010, 1, 1, 17, 0, 0, 0, DateTimeZone.forOffsetHours(5));
+		Session built = builder.addSession(day, "Performance A3", builtStart, duration("1:00"));
+		builder.build();
+		assertEquals(builtStart, built.getStart());
+		assertEquals(builtStart.plusHours(1), built.getEnd());
+	}
+
+	@Test
+	public void testLookupIndexes() throws Exception {
+		Event e = createTestEvent();
+		Location stageB = e.findLocation("Stage B");
+		assertSame(e.getLocations()[1], stageB);
+		assertEquals(null, e.findLocation("Stage D"));
+		Location stageD = e.addLocation("Stage D");
+		assertSame(stageD, e.findLocation("Stage D"));
+		stageD.setName("Stage E");
+		assertEquals(null, e.findLocation("Stage D"));
+		assertSame(stageD, e.findLocation("Stage E"));
+		e.setLocations(new Location[] { stageB });
+		assertEquals(null, e.findLocation("Stage A"));
+		assertSame(stageB, e.findLocation("Stage B"));
+
+		DayProgram day2 = stageB.getDayPrograms()[1];
+		assertSame(day2, stageB.findDayProgram(dateTime("02-01-2010 0:00")));
+		assertEquals(null, stageB.findDayProgram(dateTime("03-01-2010 0:00")));
+		assertEquals(null, stageB.findDayProgram(dateTime("02-01-2010 0:00").withZoneRetainFields(
+				DateTimeZone.forOffsetHours(5))));
+		DayProgram day3 = stageB.addDay(dateTime("03-01-2010 0:00"));
+		assertSame(day3, stageB.findDayProgram(dateTime("03-01-2010 0:00")));
+		// same date in other time zone
+		DateTime otherZone = dateTime("03-01-2010 0:00").withZoneRetainFields(DateTimeZone.forOffsetHours(5));
+		DayProgram day3other = stageB.addDay(otherZone);
+		assertSame(day3other, stageB.findDayProgram(otherZone));
+		assertSame(day3, stageB.findDayProgram(dateTime("03-01-2010 0:00")));
+		stageB.setDayPrograms(new DayProgram[] { day2, day3 });
+		assertEquals(null, stageB.findDayProgram(dateTime("01-01-2010 0:00")));
+
+		Event reduced = e.getReducedVersion(false);
+		assertEquals("Stage B", reduced.findLocation("Stage B").getName());
+		assertEquals(2, reduced.findLocation("Stage B").findDayProgram(dateTime("02-01-2010 0:00")).getSessions().length);
+	}
+
+	@Test
+	public void testSessionIndex() throws Exception {
+		Event e = createTestEvent();
+		SessionIndex index = e.getSessionIndex();
+		assertEquals(14, index.size());
+		Session[] running = index.getRunning(dateTime("01-01-2010 11:00"));
+		assertEquals(3, running.length);
+		assertEquals("Performance A1", running[0].getName());
+		Session[] next = index.getNextStarts(dateTime("02-01-2010 12:00"), 5);
+		assertEquals(2, next.length);
+		assertEquals("Performance A6", next[0].getName());
+		assertTrue(next[1].isNewVersion());
+		assertEquals(3, index.getOverlapping(dateTime("02-01-2010 10:30"), dateTime("02-01-2010 11:30")).length);
+
+		e = SyntheticFestival.create(3, 3, 60);
+		index = e.getSessionIndex();
+		assertSessionIndex(e);
+		Session[] sessions = e.getLocations()[1].getDayPrograms()[1].getSessions();
+		sessions[2].cancel();
+		sessions[3].setStart(sessions[3].getStart().plusHours(7));
+		sessions[4].change(e.getLocations()[2].getDayPrograms()[0], sessions[4].getStart().minusDays(1), null);
+		sessions[5].setDuration(duration("9:00"));
+		assertSame(index, e.getSessionIndex());
+		assertSessionIndex(e);
+		e.getLocations()[0].getDayPrograms()[0].setSessions(null);
+		assertTrue(index != e.getSessionIndex());
+		assertSessionIndex(e);
+	}
+
+	@Test
+	public void testSessionIndexSortedInput() throws Exception {
+		// the sessions come in the order of their starts, the worst order for an unbalanced tree
+		EventBuilder builder = new EventBuilder();
+		DateTime dayStart = dateTime("05-07-2012 0:00");
+		DayProgram day = builder.addDay(builder.addLocation("Stage"), dayStart);
+		Session[] sessions = new Session[100000];
+		for (int i = 0; i < sessions.length; i++) {
+			sessions[i] = builder.addSession(day, "S" + i, dayStart.plusSeconds(30 * i), duration("0:01"));
+		}
+		Event e = builder.build();
+		SessionIndex index = e.getSessionIndex();
+		assertEquals(sessions.length, index.size());
+		DateTime time = dayStart.plusSeconds(30 * 5000 + 15);
+		Session[] running = index.getRunning(time);
+		assertEquals(2, running.length);
+		assertSame(sessions[4999], running[0]);
+		assertSame(sessions[5000], running[1]);
+		for (int i = 0; i < sessions.length; i += 2) {
+			sessions[i].cancel();
+		}
+		assertEquals(sessions.length / 2, index.size());
+		running = index.getRunning(time);
+		assertEquals(1, running.length);
+		assertSame(sessions[4999], running[0]);
+		Session[] next = index.getNextStarts(time, 3);
+		assertEquals(3, next.length);
+		assertSame(sessions[5001], next[0]);
+		assertSame(sessions[5005], next[2]);
+		assertEquals(0, index.getRunning(dayStart.minusMinutes(1)).length);
+	}
+
+	private static void assertSessionIndex(Event e) throws Exception {
+		List<Session> taking = new ArrayList<Session>();
+		for (Location eachLocation : e) {
+			for (DayProgram eachDay : eachLocation) {
+				for (Session eachSession : eachDay) {
+					if (!eachSession.isCancelled() && !eachSession.isOldVersion()) {
+						taking.add(eachSession);
+					}
+				}
+			}
+		}
+		SessionIndex index = e.getSessionIndex();
+		assertEquals(taking.size(), index.size());
+		for (DateTime time = dateTime("05-07-2012 9:00"); time.isBefore(dateTime("10-07-2012 0:00")); time = time
+				.plusMinutes(20)) {
+			int count = 0;
+			long previousStart = Long.MIN_VALUE;
+			for (Session each : index.getRunning(time)) {
+				assertTrue(each.isRunning(time));
+				assertTrue(each.getStartMillis() >= previousStart);
+				previousStart = each.getStartMillis();
+			}
+			for (Session each : taking) {
+				if (each.isRunning(time)) {
+					count++;
+				}
+			}
+			assertEquals(count, index.getRunning(time).length);
+			Session[] next = index.getNextStarts(time, 3);
+			for (int i = 0; i < next.length; i++) {
+				assertTrue(next[i].getStartMillis() > time.getMillis());
+			}
+			int later = 0;
+			int beforeLast = 0;
+			for (Session each : taking) {
+				if (each.getStartMillis() > time.getMillis()) {
+					later++;
+					if (next.length == 3 && each.getStartMillis() < next[2].getStartMillis()) {
+						beforeLast++;
+					}
+				}
+			}
+			assertEquals(Math.min(3, later), next.length);
+			assertTrue(beforeLast <= 2);
+		}
+	}
+
+	@Test
+	public void testSortedDayProgram() throws Exception {
+		Event e = createTestEvent();
+		DayProgram day = e.getLocations()[0].getDayPrograms()[0];
+		day.addSession("Performance A0", dateTime("01-01-2010 8:00"), duration("1:00"));
+		Session a25 = day.addSession("Performance A2.5", dateTime("01-01-2010 12:30"), duration("0:30"));
+		Session[] held = day.getSessions();
+		assertEquals("Performance A0", held[0].getName());
+		assertSame(a25, held[3]);
+
+		// moves in the order of start, the array held stays as it was
+		Session a1new = held[1].change(null, dateTime("01-01-2010 14:30"), null);
+		assertSame(a1new, day.getLastSession());
+		day.getSessions()[2].setStart(dateTime("01-01-2010 7:00"));
+		assertEquals("Performance A2", day.getSessions()[0].getName());
+		assertEquals("Performance A2", held[2].getName());
+		long previous = Long.MIN_VALUE;
+		for (Session each : day) {
+			assertTrue(each.getStartMillis() >= previous);
+			previous = each.getStartMillis();
+		}
+
+		List<Session> relevant = day.getRelevantSessionView(dateTime("01-01-2010 12:45"));
+		assertEquals(3, relevant.size());
+		assertSame(a25, relevant.get(0));
+		assertTrue(Arrays.equals(day.getRelevantSessions(dateTime("01-01-2010 12:45")), relevant.toArray()));
+		try {
+			relevant.set(0, a1new);
+			fail("Expected unmodifiable view");
+		} catch (UnsupportedOperationException ex) {
+		}
+
+		// a long session ends after the last one starts
+		day.addSession("All Day", dateTime("01-01-2010 6:00"), duration("12:00"));
+		assertTrue(day.hasRelevantSessions(dateTime("01-01-2010 17:00")));
+		relevant = day.getRelevantSessionView(dateTime("01-01-2010 12:45"));
+		assertEquals(4, relevant.size());
+		assertEquals("All Day", relevant.get(0).getName());
+		assertTrue(!day.hasRelevantSessions(dateTime("01-01-2010 18:00")));
+	}
+
+	@Test
+	public void testDateIndex() throws Exception {
+		Event e = createTestEvent();
+		List<DateTime> dates = e.getDates();
+		assertEquals(2, dates.size());
+		assertEquals(dateTime("01-01-2010 0:00"), dates.get(0));
+		assertSame(dates, e.getDates());
+		List<DayProgram> days = e.getDayProgramsByDate(dateTime("01-01-2010 0:00"));
+		assertEquals(3, days.size());
+		assertSame(e.getLocations()[2].getDayPrograms()[0], days.get(2));
+		assertSame(days, e.getDayProgramsByDate(dateTime("01-01-2010 0:00")));
+		assertEquals(0, e.getDayProgramsByDate(dateTime("05-01-2010 0:00")).size());
+
+		DayProgram added = e.getLocations()[2].addDay(dateTime("02-01-2010 0:00"));
+		assertSame(dates, e.getDates());
+		days = e.getDayProgramsByDate(dateTime("02-01-2010 0:00"));
+		assertEquals(3, days.size());
+		assertSame(added, days.get(2));
+		// only the list of the date changes, the day comes after the days of its location
+		List<DayProgram> otherDays = e.getDayProgramsByDate(dateTime("01-01-2010 0:00"));
+		DayProgram second = e.getLocations()[1].addDay(dateTime("02-01-2010 0:00"));
+		days = e.getDayProgramsByDate(dateTime("02-01-2010 0:00"));
+		assertEquals(4, days.size());
+		assertSame(e.getLocations()[1].getDayPrograms()[1], days.get(1));
+		assertSame(second, days.get(2));
+		assertSame(added, days.get(3));
+		assertSame(otherDays, e.getDayProgramsByDate(dateTime("01-01-2010 0:00")));
+		assertSame(e.getLocations()[1], e.getLocation(second));
+		e.getLocations()[1].setDayPrograms(new DayProgram[] { e.getLocations()[1].getDayPrograms()[0],
+				e.getLocations()[1].getDayPrograms()[1] });
+		e.getLocations()[0].addDay(dateTime("31-12-2009 0:00"));
+		dates = e.getDates();
+		assertEquals(3, dates.size());
+		assertEquals(dateTime("31-12-2009 0:00"), dates.get(0));
+
+		e.getLocations()[1].setDayPrograms(new DayProgram[] { e.getLocations()[1].getDayPrograms()[1] });
+		assertEquals(2, e.getDayProgramsByDate(dateTime("01-01-2010 0:00")).size());
+		e.setLocations(new Location[] { e.getLocations()[1] });
+		assertEquals(1, e.getDates().size());
+	}
+
+	@Test
+	public void testCopy() throws Exception {
+		Event e = SyntheticFestival.create(4, 3, 50);
+		Event copy = e.copy();
+		ModelAssert.assertEventEquals(e, copy);
+		ModelAssert.assertEventEquals((Event) Util.clone(e), copy);
+		assertTrue(copy.getLocations()[1] != e.getLocations()[1]);
+		assertSame(copy, copy.getLocations()[1].getEvent());
+		Session original = e.getLocations()[1].getDayPrograms()[1].getSessions()[3];
+		Session copied = copy.getLocations()[1].getDayPrograms()[1].getSessions()[3];
+		assertTrue(original != copied);
+		assertSame(original.getName(), copied.getName());
+		assertSame(copy.getLocations()[1].getDayPrograms()[1], copied.getDayProgram());
+		for (Location eachLocation : copy) {
+			for (DayProgram eachDay : eachLocation) {
+				for (Session eachSession : eachDay) {
+					if (eachSession.isMoved()) {
+						Session other = eachSession.isOldVersion() ? eachSession.getNewVersion() : eachSession.getOldVersion();
+						assertSame(copy, other.getDayProgram().getLocation().getEvent());
+					}
+				}
+			}
+		}
+
+		// the copies are independent
+		copied.setStart(copied.getStart().plusHours(1));
+		copied.cancel();
+		assertTrue(!original.isCancelled());
+		assertEquals(copied.getStartMillis() - 3600000L, original.getStartMillis());
+		copy.getLocations()[0].addDay(dateTime("01-01-2013 0:00"));
+		assertEquals(3, e.getLocations()[0].getDayPrograms().length);
+
+		// and so is their metadata
+		original.setUrl("http://example.com/original");
+		copy = e.copy();
+		copied = copy.getLocations()[1].getDayPrograms()[1].getSessions()[3];
+		copied.setUrl("http://example.com/copied");
+		copied.setDescription("Copied");
+		assertEquals("http://example.com/original", original.getUrl());
+		assertEquals(null, original.getDescription());
+		String locationUrl = e.getLocations()[1].getUrl();
+		copy.getLocations()[1].setUrl("http://example.com/stage");
+		assertEquals(locationUrl, e.getLocations()[1].getUrl());
+		String description = e.getDescription();
+		copy.setDescription("Copied festival");
+		assertEquals(description, e.getDescription());
+		Location reduced = e.getActualView().findLocation(e.getLocations()[1].getName()).getReducedLocation();
+		reduced.setUrl("http://example.com/reduced");
+		assertEquals(locationUrl, e.getLocations()[1].getUrl());
+	}
+
+	@Test
+	public void testViews() throws Exception {
+		Event e = SyntheticFestival.create(4, 3, 50);
+		assertViewEquals(e.getReducedVersion(true), e.getPlannedView(), e);
+		assertViewEquals(e.getReducedVersion(false), e.getActualView(), e);
+		e = createTestEvent();
+		assertViewEquals(e.getReducedVersion(true), e.getPlannedView(), e);
+		assertViewEquals(e.getReducedVersion(false), e.getActualView(), e);
+
+		// the views follow the event
+		EventView actual = e.getActualView();
+		DayProgramView day = actual.findLocation("Stage B").getDayPrograms()[1];
+		assertEquals(2, day.getSessions().length);
+		day.getSessions()[0].cancel();
+		assertEquals(1, day.getSessions().length);
+		assertEquals(3, e.getPlannedView().findLocation("Stage B").getDayPrograms()[1].getSessions().length);
+		assertEquals(day, e.getActualView().findLocation("Stage B").findDayProgram(day.getDayStart()));
+		assertViewEquals(e.getReducedVersion(false), actual, e);
+	}
+
+	@Test
+	public void testOverviewLocation() throws Exception {
+		Event e = createTestEvent();
+		OverviewData data = new OverviewDisplay(e).getData(dateTime("02-01-2010 9:00"), 3,
+				new String[] { "Stage B" }, 1);
+		OverviewDataSessionItem item = data.getItems()[0];
+		assertEquals("Stage B", item.getLocationName());
+		assertSame(e.findLocation("Stage B"), item.getLocationView().getLocation());
+		Location location = item.getLocation();
+		assertSame(location, item.getLocation());
+		assertEquals(null, location.getEvent());
+		// the program of the location leaves out the cancelled and the moved sessions
+		Location reduced = e.getReducedVersion(false).findLocation("Stage B");
+		assertEquals(reduced.getDayPrograms().length, location.getDayPrograms().length);
+		for (int i = 0; i < reduced.getDayPrograms().length; i++) {
+			assertSessionsEqual(reduced.getDayPrograms()[i].getSessions(), location.getDayPrograms()[i].getSessions());
+			for (Session eachSession : location.getDayPrograms()[i]) {
+				assertSame(location, eachSession.getDayProgram().getLocation());
+				assertTrue(!eachSession.isCancelled() && !eachSession.isOldVersion() && !eachSession.isNewVersion());
+			}
+		}
+		assertEquals(2, location.getDayPrograms()[1].getSessions().length);
+		assertEquals(4, e.findLocation("Stage B").getDayPrograms()[1].getSessions().length);
+	}
+
+	private void assertViewEquals(Event reduced, EventView view, Event e) {
+		assertEquals(reduced.getDates(), view.getDates());
+		for (Location reducedLocation : reduced) {
+			LocationView location = view.findLocation(reducedLocation.getName());
+			DayProgram[] reducedDays = reducedLocation.getDayPrograms();
+			DayProgramView[] days = location.getDayPrograms();
+			assertEquals(reducedDays.length, days.length);
+			for (int i = 0; i < days.length; i++) {
+				assertSame(e.findLocation(reducedLocation.getName()), days[i].getDayProgram().getLocation());
+				assertEquals(reducedDays[i].getDayStart(), days[i].getDayStart());
+				assertSessionsEqual(reducedDays[i].getSessions(), days[i].getSessions());
+				assertEquals(reducedDays[i].getLastSession().getName(), days[i].getLastSession().getName());
+				DayProgram reducedPrevious = reduced.getPreviousProgram(reducedDays[i]);
+				DayProgramView previous = days[i].getPreviousProgram();
+				assertEquals(reducedPrevious == null, previous == null);
+				if (previous != null) {
+					assertEquals(reducedPrevious.getDayStart(), previous.getDayStart());
+				}
+				int count = 0;
+				for (Session eachSession : days[i]) {
+					assertSame(days[i].getSessions()[count++], eachSession);
+				}
+				assertEquals(days[i].getSessions().length, count);
+			}
+			for (DayProgram reducedDay : reducedDays) {
+				for (Session eachSession : reducedDay) {
+					DateTime time = eachSession.getStart().plusMinutes(5);
+					DayProgram reducedRelevant = reducedLocation.getFirstRelevantDayProgram(time);
+					DayProgramView relevant = location.getFirstRelevantDayProgram(time);
+					assertEquals(reducedRelevant.getDayStart(), relevant.getDayStart());
+					assertTrue(relevant.hasRelevantSessions(time));
+					assertSessionsEqual(reducedRelevant.getRelevantSessions(time), relevant.getRelevantSessions(time));
+					List<Session> relevantView = relevant.getRelevantSessionView(time);
+					assertSessionsEqual(reducedRelevant.getRelevantSessions(time),
+							relevantView.toArray(new Session[relevantView.size()]));
+				}
+			}
+		}
+	}
+
+	private void assertSessionsEqual(Session[] expected, Session[] actual) {
+		assertEquals(expected.length, actual.length);
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(expected[i].getName(), actual[i].getName());
+			assertEquals(expected[i].getStartMillis(), actual[i].getStartMillis());
+			assertEquals(expected[i].getEndMillis(), actual[i].getEndMillis());
+		}
+	}
+
+	@Test
+	public void testReducedVersion() throws Exception {
+		Event e = SyntheticFestival.create(4, 3, 50);
+		ReducedVersion actual = new ReducedVersion(e, false);
+		ReducedVersion planned = new ReducedVersion(e, true);
+		assertReducedVersions(e, actual, planned);
+		Event reduced = actual.getEvent();
+		DayProgram untouched = reduced.getLocations()[3].getDayPrograms()[2];
+
+		Location location = e.getLocations()[1];
+		DayProgram day = location.getDayPrograms()[1];
+		day.getSessions()[5].cancel();
+		assertReducedVersions(e, actual, planned);
+		day.getSessions()[7].change(location.getDayPrograms()[2], null, null);
+		assertReducedVersions(e, actual, planned);
+		day.getSessions()[9].setStart(day.getSessions()[9].getStart().plusHours(3));
+		assertReducedVersions(e, actual, planned);
+		day.getSessions()[11].setName("Renamed");
+		assertReducedVersions(e, actual, planned);
+		day.addSession("Added", day.getSessions()[0].getStart(), duration("0:15"));
+		assertReducedVersions(e, actual, planned);
+		DayProgram added = location.addDay(dateTime("01-01-2013 0:00"));
+		assertReducedVersions(e, actual, planned);
+		added.addSession("First", dateTime("01-01-2013 14:00"), duration("1:00"));
+		assertReducedVersions(e, actual, planned);
+
+		// only the days of the changed sessions were built again
+		assertSame(reduced, actual.getEvent());
+		assertSame(untouched, reduced.getLocations()[3].getDayPrograms()[2]);
+
+		e.addLocation("Stage X").addDay(dateTime("01-01-2013 0:00")).addSession("X", dateTime("01-01-2013 14:00"),
+				duration("1:00"));
+		assertReducedVersions(e, actual, planned);
+		actual.detach();
+		Session[] detached = actual.getEvent().getLocations()[0].getDayPrograms()[0].getSessions();
+		e.getLocations()[0].getDayPrograms()[0].getSessions()[0].cancel();
+		ModelAssert.assertEventEquals(e.getReducedVersion(true), planned.getEvent());
+		assertSame(detached, actual.getEvent().getLocations()[0].getDayPrograms()[0].getSessions());
+	}
+
+	private void assertReducedVersions(Event e, ReducedVersion actual, ReducedVersion planned) {
+		ModelAssert.assertEventEquals(e.getReducedVersion(false), actual.getEvent());
+		ModelAssert.assertEventEquals(e.getReducedVersion(true), planned.getEvent());
+	}
+
+	@Test
+	public void testFreeze() throws Exception {
+		Event e = createTestEvent();
+		Session first = e.getLocations()[0].getDayPrograms()[0].getSessions()[0];
+		first.setUrl("http://a");
+		Event frozen = e.freeze();
+		ModelAssert.assertEventEquals(e, frozen);
+		assertTrue(frozen.isFrozen() && !e.isFrozen());
+		assertSame(frozen, frozen.freeze());
+		Location location = frozen.getLocations()[0];
+		DayProgram day = location.getDayPrograms()[0];
+		Session session = day.getSessions()[0];
+		assertTrue(location.isFrozen() && day.isFrozen() && session.isFrozen());
+		assertFrozen(frozen, "addLocation");
+		assertFrozen(frozen, "setName");
+		assertFrozen(location, "addDay");
+		assertFrozen(location, "setUrl");
+		assertFrozen(day, "addSession");
+		assertFrozen(session, "cancel");
+		assertFrozen(session, "setStart");
+		assertFrozen(session, "change");
+		assertFrozen(session.getMetadata(), "setUrl");
+
+		// the event and copies of the frozen one can be changed, the frozen one doesn't change
+		first.setUrl("http://b");
+		first.cancel();
+		Event thawed = frozen.copy();
+		Session thawedSession = thawed.getLocations()[0].getDayPrograms()[0].getSessions()[0];
+		thawedSession.setUrl("http://c");
+		thawedSession.setStart(thawedSession.getStart().plusHours(1));
+		assertEquals("http://a", session.getUrl());
+		assertTrue(!session.isCancelled());
+		assertEquals(first.getStartMillis(), session.getStartMillis());
+		assertTrue(!((Event) Util.clone(frozen)).isFrozen());
+		assertEquals(frozen.getDates(), e.getDates());
+		assertSame(day, frozen.findLocation(location.getName()).findDayProgram(day.getDayStart()));
+	}
+
+	@Test
+	public void testPublishedSnapshots() throws Exception {
+		final Event e = SyntheticFestival.create(5, 3, 40);
+		final EventPublisher publisher = new EventPublisher(e);
+		final List<Throwable> failures = new ArrayList<Throwable>();
+		Thread[] readers = new Thread[4];
+		for (int i = 0; i < readers.length; i++) {
+			readers[i] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int j = 0; j < 200; j++) {
+							Event snapshot = publisher.getSnapshot();
+							assertTrue(snapshot.isFrozen());
+							DateTime time = snapshot.getDates().get(1).plusHours(15);
+							Session[] running = snapshot.getSessionIndex().getRunning(time);
+							for (String eachName : snapshot.getLocationNames()) {
+								Location location = snapshot.findLocation(eachName);
+								DayProgram day = location.getFirstRelevantDayProgram(time);
+								if (day != null) {
+									day.getRelevantSessionView(time);
+								}
+							}
+							for (Session eachSession : running) {
+								assertTrue(eachSession.isRunning(time));
+							}
+						}
+					} catch (Throwable t) {
+						synchronized (failures) {
+							failures.add(t);
+						}
+					}
+				}
+			};
+			readers[i].start();
+		}
+		Session edited = e.getLocations()[2].getDayPrograms()[1].getSessions()[3];
+		for (int i = 0; i < 20; i++) {
+			edited.setStart(edited.getStart().plusMinutes(1));
+			publisher.publish(e);
+		}
+		for (Thread eachReader : readers) {
+			eachReader.join();
+		}
+		assertEquals(new ArrayList<Throwable>(), failures);
+		Session published = publisher.getSnapshot().getLocations()[2].getDayPrograms()[1].getSessions()[3];
+		assertEquals(edited.getStartMillis(), published.getStartMillis());
+	}
+
+	@Test
+	public void testEventEdit() throws Exception {
+		EventPublisher publisher = new EventPublisher(SyntheticFestival.create(4, 3, 50));
+		Event base = publisher.getSnapshot();
+		Event expected = base.copy();
+		Session cancelled = base.getLocations()[1].getDayPrograms()[1].getSessions()[2];
+		Session changed = base.getLocations()[1].getDayPrograms()[1].getSessions()[4];
+		Session renamed = null;
+		for (Session eachSession : base.getLocations()[2].getDayPrograms()[0]) {
+			if (eachSession.isOldVersion() && eachSession.isMovedDifferentLocation()) {
+				renamed = eachSession;
+			}
+		}
+		DayProgram other = base.getLocations()[3].getDayPrograms()[0];
+		EventEdit edit = publisher.beginEdit();
+		edit.cancel(cancelled);
+		edit.change(changed, other, changed.getStart().plusHours(2), null);
+		edit.addSession(other, "Added", other.getSessions()[0].getStart(), duration("0:20"));
+		edit.getSession(renamed).setName("Renamed");
+		Event version = edit.commit();
+		assertSame(version, publisher.getSnapshot());
+		assertTrue(version.isFrozen());
+
+		// the same changes on a mutable copy
+		Location[] locations = expected.getLocations();
+		locations[1].getDayPrograms()[1].getSessions()[2].cancel();
+		Session expectedChanged = locations[1].getDayPrograms()[1].getSessions()[4];
+		expectedChanged.change(locations[3].getDayPrograms()[0], expectedChanged.getStart().plusHours(2), null);
+		DayProgram expectedOther = locations[3].getDayPrograms()[0];
+		expectedOther.addSession("Added", expectedOther.getSessions()[0].getStart(), duration("0:20"));
+		Session expectedRenamed = locations[2].getDayPrograms()[0].getSessions()[indexOf(
+				base.getLocations()[2].getDayPrograms()[0].getSessions(), renamed)];
+		expectedRenamed.setName("Renamed");
+		ModelAssert.assertEventEquals(expected, version);
+		assertTrue(!cancelled.isCancelled() && !changed.isOldVersion());
+		assertEquals("Renamed", expectedRenamed.getNewVersion().getName());
+		assertTrue(!"Renamed".equals(renamed.getName()) && !"Renamed".equals(renamed.getNewVersion().getName()));
+
+		// untouched parts are shared, the versions link to each other in the new version
+		assertTrue(base.getLocations()[1] != version.getLocations()[1]);
+		assertSame(base.getLocations()[1].getDayPrograms()[2], version.getLocations()[1].getDayPrograms()[2]);
+		assertTrue(base.getLocations()[1].getDayPrograms()[1] != version.getLocations()[1].getDayPrograms()[1]);
+		for (Location eachLocation : version) {
+			for (DayProgram eachDay : eachLocation) {
+				for (Session eachSession : eachDay) {
+					if (eachSession.getNewVersion() != null) {
+						assertSame(eachSession, eachSession.getNewVersion().getOldVersion());
+					}
+					if (eachSession.getOldVersion() != null) {
+						assertSame(eachSession, eachSession.getOldVersion().getNewVersion());
+					}
+				}
+			}
+		}
+		try {
+			edit.getEvent();
+			fail("Expected committed edit");
+		} catch (IllegalStateException ex) {
+		}
+
+		// an edit of a replaced snapshot is not published
+		EventEdit first = publisher.beginEdit();
+		EventEdit second = publisher.beginEdit();
+		first.cancel(version.getLocations()[0].getDayPrograms()[0].getSessions()[0]);
+		Event firstVersion = first.commit();
+		second.cancel(version.getLocations()[0].getDayPrograms()[0].getSessions()[1]);
+		try {
+			second.commit();
+			fail("Expected edit conflict");
+		} catch (EventModelException ex) {
+			assertEquals(EventModelException.EDIT_CONFLICT, ex.getErrorCode());
+		}
+		assertSame(firstVersion, publisher.getSnapshot());
+
+		publisher = new EventPublisher(createTestEvent());
+		base = publisher.getSnapshot();
+		edit = publisher.beginEdit();
+		edit.cancel(base.getLocations()[0].getDayPrograms()[0].getSessions()[0]);
+		version = edit.commit();
+		assertTrue(base.getLocations()[0] != version.getLocations()[0]);
+		assertSame(base.getLocations()[1], version.getLocations()[1]);
+		assertSame(base.getLocations()[2], version.getLocations()[2]);
+		assertSame(base.getLocations()[0].getDayPrograms()[1], version.getLocations()[0].getDayPrograms()[1]);
+		assertSame(version.getLocations()[1], version.findLocation(base.getLocations()[1].getName()));
+		assertTrue(version.getLocations()[0].getDayPrograms()[0].getSessions()[0].isCancelled());
+
+		// a day program shared with the snapshot is found in the location of each event
+		DayProgram shared = version.getLocations()[0].getDayPrograms()[1];
+		assertSame(version.getLocations()[0], version.getLocation(shared));
+		assertSame(base.getLocations()[0], base.getLocation(shared));
+		assertSame(version.getLocations()[0], version.getLocation(shared.getSessions()[0]));
+		assertSame(base.getLocations()[0], base.getLocation(shared.getSessions()[0]));
+		assertSame(version.getLocations()[0].getDayPrograms()[0], version.getPreviousProgram(shared));
+		assertSame(base.getLocations()[0].getDayPrograms()[0], base.getPreviousProgram(shared));
+		assertEquals(null, version.getPreviousProgram(version.getLocations()[0].getDayPrograms()[0]));
+		for (Location eachLocation : version) {
+			for (DayProgram eachDay : eachLocation) {
+				assertSame(eachLocation, version.getLocation(eachDay));
+			}
+		}
+		int found = 0;
+		for (DayProgramView eachView : version.getActualView().getDayProgramsByDate(shared.getDayStart())) {
+			assertSame(version.getLocation(eachView.getDayProgram()), eachView.getLocation().getLocation());
+			if (eachView.getDayProgram() == shared) {
+				assertSame(version.getLocations()[0], eachView.getLocation().getLocation());
+				found++;
+			}
+		}
+		assertEquals(1, found);
+		assertEquals(null, version.getLocation(base.getLocations()[0].getDayPrograms()[0]));
+
+		// a version that isn't part of the snapshot is copied with the session
+		Event e = createTestEvent();
+		Session moved = e.findLocation("Stage A").getDayPrograms()[0].getSessions()[0];
+		moved.change(e.findLocation("Stage C").getDayPrograms()[0], null, null);
+		e.findLocation("Stage C").setDayPrograms(null);
+		publisher = new EventPublisher(e);
+		base = publisher.getSnapshot();
+		moved = base.findLocation("Stage A").getDayPrograms()[0].getSessions()[0];
+		assertEquals(null, moved.getNewVersion().getDayProgram());
+		edit = publisher.beginEdit();
+		Session movedCopy = edit.getSession(moved);
+		movedCopy.setName("Renamed");
+		assertSame(movedCopy, movedCopy.getNewVersion().getOldVersion());
+		assertEquals("Renamed", movedCopy.getNewVersion().getName());
+		version = edit.commit();
+		Session renamedCopy = version.findLocation("Stage A").getDayPrograms()[0].getSessions()[0];
+		assertSame(movedCopy, renamedCopy);
+		assertTrue(renamedCopy.getNewVersion().isFrozen());
+		assertEquals("Renamed", renamedCopy.getNewVersion().getName());
+		assertEquals(moved.getName(), moved.getNewVersion().getName());
+		assertTrue(!"Renamed".equals(moved.getName()));
+	}
+
+	private static int indexOf(Object[] anArray, Object anObject) {
+		for (int i = 0; i < anArray.length; i++) {
+			if (anArray[i] == anObject) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private void assertFrozen(Object anObject, String aMethod) throws Exception {
+		for (Method eachMethod : anObject.getClass().getMethods()) {
+			if (eachMethod.getName().equals(aMethod)) {
+				Class<?>[] types = eachMethod.getParameterTypes();
+				Object[] args = new Object[types.length];
+				for (int i = 0; i < types.length; i++) {
+					args[i] = types[i] == boolean.class ? Boolean.TRUE : null;
+				}
+				try {
+					eachMethod.invoke(anObject, args);
+					fail("Expected frozen " + aMethod);
+				} catch (InvocationTargetException ex) {
+					assertEquals(EventModelException.FROZEN, ((EventModelException) ex.getCause()).getErrorCode());
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testJson() throws Exception {
+		Event e = createTestEvent();
+		e.setUri("http://example.com/super?a=1&b=\"2\"");
+		e.setVersion(3L);
+		e.setVersionTime(dateTime("31-12-2009 23:59"));
+		e.setDescription("R\u00f6ck\\Roll\n\u0001\u2028 \ud83c\udfb8");
+		e.findLocation("Stage A").setUrl("http://example.com/a");
+		e.findLocation("Stage B").getDayPrograms()[1].getSessions()[0].setDescription("\"Quoted\"\t");
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		ModelMarshaller.marshallJson(e, os);
+		ModelAssert.assertEventEquals(e, ModelMarshaller.unmarshallJson(new ByteArrayInputStream(os.toByteArray())));
+
+		e = SyntheticFestival.create(6, 3, 40);
+		os = new ByteArrayOutputStream();
+		ModelMarshaller.marshallJson(e, os);
+		ModelAssert.assertEventEquals(e, ModelMarshaller.unmarshallJson(new ByteArrayInputStream(os.toByteArray())));
+
+		// members in any order, unknown members skipped
+		Event reordered = ModelMarshaller.unmarshallJson(new ByteArrayInputStream(("{\"metadata\": {\"sessions\": "
+				+ "[{\"id\": \"sh1\", \"url\": \"u\"}]}, \"program\": [{\"days\": [{\"sessions\": [{\"name\": \"Show\", "
+				+ "\"id\": \"sh1\", \"duration\": \"1:30\", \"start\": \"01-01-2010 10:00\", \"extra\": [1, {}]}], "
+				+ "\"date\": \"01-01-2010\"}], \"name\": \"Stage\"}], \"name\": \"Event\"}").getBytes("UTF-8")));
+		Session show = reordered.findLocation("Stage").getDayPrograms()[0].getSessions()[0];
+		assertEquals("u", show.getUrl());
+		assertEquals(duration("1:30"), show.getDuration());
+
+		try {
+			ModelMarshaller.unmarshallJson(new ByteArrayInputStream(("{\"name\": \"Event\", \"program\": [\n"
+					+ "{\"name\": \"Stage\", \"days\": [{\"date\": \"32-01-2010\"},\n"
+					+ "{\"date\": \"01-01-2010\", \"sessions\": [{\"name\": \"Show\"}]}]}]}").getBytes("UTF-8")));
+			fail("Expected ValidationException");
+		} catch (ValidationException ex) {
+			assertViolationLines(new int[] { 2, 3, 3 }, ex);
+		}
+		try {
+			ModelMarshaller.unmarshallJson(new ByteArrayInputStream("{\"name\": \"Event\",\n }".getBytes("UTF-8")));
+			fail("Expected malformed JSON");
+		} catch (RuntimeException ex) {
+			assertTrue(ex.getMessage().contains("2:2"));
+		}
+	}
+
+	@Test
+	public void testDateTimeCodec() throws Exception {
+		DateTimeZone zone = DateTimeZone.forID("Europe/Bratislava");
+		DateTimeCodec codec = new DateTimeCodec(zone);
+		SimpleDateFormat dateTimeFormat = new SimpleDateFormat(Util.XML_DATETIME_FORMAT);
+		dateTimeFormat.setTimeZone(TimeZone.getTimeZone("Europe/Bratislava"));
+		SimpleDateFormat dateFormat = new SimpleDateFormat(Util.XML_DATE_FORMAT);
+		dateFormat.setTimeZone(TimeZone.getTimeZone("Europe/Bratislava"));
+		StringBuilder sb = new StringBuilder();
+		// a year in steps of 7 minutes passes both DST changes at all minutes of the hour
+		long start = new DateTime(2012, 1, 1, 0, 0, 0, 0, zone).getMillis();
+		for (long t = start; t < start + 366 * 24 * Util.MILIS_IN_HOUR; t += 7 * Util.MILIS_IN_MIN) {
+			sb.setLength(0);
+			String dateTime = codec.formatDateTime(t, sb).toString();
+			assertEquals(dateTimeFormat.format(new Date(t)), dateTime);
+			assertEquals(dateTimeFormat.parse(dateTime).getTime(), codec.parseDateTime(dateTime));
+			sb.setLength(0);
+			String date = codec.formatDate(t, sb).toString();
+			assertEquals(dateFormat.format(new Date(t)), date);
+			assertEquals(dateFormat.parse(date).getTime(), codec.parseDate(date));
+		}
+		// local times in the spring gap and the autumn overlap
+		for (String s : new String[] { "25-03-2012 02:30", "28-10-2012 02:30", "1-3-2012 9:05", "29-02-2000 23:59" }) {
+			assertEquals(s, dateTimeFormat.parse(s).getTime(), codec.parseDateTime(s));
+		}
+		for (String s : new String[] { "32-01-2012 10:00", "29-02-2013", "01-01-2012 24:00", "01-01-12", "x" }) {
+			try {
+				codec.parseDateTime(s);
+				fail(s);
+			} catch (ParseException e) {
+				// the lenient fallback in Util takes it
+			}
+		}
+		assertEquals(dateTimeFormat.parse("32-01-2012 10:00").getTime(), codec.parseDateTime("01-02-2012 10:00"));
+
+		assertEquals(90 * Util.MILIS_IN_MIN, codec.parseDuration("1:30"));
+		assertEquals("125:05", DateTimeCodec.formatDuration(125 * Util.MILIS_IN_HOUR + 5 * Util.MILIS_IN_MIN,
+				new StringBuilder()).toString());
+		assertEquals(new Duration(-90 * Util.MILIS_IN_MIN), Util.duration("-1:-30"));
+		assertEquals(null, Util.duration("1:x"));
+	}
+
+	private static void assertPartnerEquals(Session expected, Session actual) {
+		if (expected == null) {
+			assertEquals(null, actual);
+			return;
+		}
+		assertEquals(expected.getName(), actual.getName());
+		assertEquals(expected.getStart(), actual.getStart());
+		assertEquals(expected.getDescription(), actual.getDescription());
+		// a partner left out by the filter is in a location detached from the event
+		assertEquals(expected.getDayProgram().getLocation().getName(), actual.getDayProgram().getLocation().getName());
+		assertEquals(expected.getDayProgram().getDayStart(), actual.getDayProgram().getDayStart());
+	}
 }
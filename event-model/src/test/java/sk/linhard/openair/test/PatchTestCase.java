@@ -0,0 +1,167 @@
+/*
+ * OpenAir Event Program Model
+ * Copyright (C) 2012 Michal Linhard <michal@linhard.sk>
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package sk.linhard.openair.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.util.Arrays;
+
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+
+import org.junit.Test;
+
+import sk.linhard.openair.benchmark.SyntheticFestival;
+import sk.linhard.openair.eventmodel.DayProgram;
+import sk.linhard.openair.eventmodel.Event;
+import sk.linhard.openair.eventmodel.EventEdit;
+import sk.linhard.openair.eventmodel.EventPublisher;
+import sk.linhard.openair.eventmodel.Location;
+import sk.linhard.openair.eventmodel.Session;
+import sk.linhard.openair.eventmodel.exceptions.EventModelException;
+import sk.linhard.openair.eventmodel.util.EventPatch;
+import sk.linhard.openair.eventmodel.util.ModelMarshaller;
+import sk.linhard.openair.eventmodel.util.Util;
+
+/**
+ * Tests the event patch.
+ *
+ * @author Michal Linhard <michal@linhard.sk>
+ */
+public class PatchTestCase {
+
+	private static Event sample() throws Exception {
+		Event e = ModelMarshaller.unmarshall(new FileInputStream("examples/sample.xml"));
+		e.setVersion(1L);
+		return e;
+	}
+
+	private static EventPatch roundTrip(EventPatch patch) throws Exception {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		patch.write(bos);
+		return EventPatch.read(new ByteArrayInputStream(bos.toByteArray()));
+	}
+
+	@Test
+	public void testSampleCorrections() throws Exception {
+		Event target = sample();
+		target.setVersion(2L);
+		target.setVersionTime(Util.dateTime("01-01-2010 09:00"));
+		Location stageA = target.getLocations()[0];
+		Location stageB = target.getLocations()[1];
+		DayProgram a1 = stageA.getDayPrograms()[0];
+		// cancel, move to another location, add, remove and edit metadata
+		a1.getSessions()[0].cancel();
+		a1.getSessions()[1].change(stageB.getDayPrograms()[0], Util.dateTime("01-01-2010 15:00"), null);
+		a1.addSession("Encore", Util.dateTime("01-01-2010 16:00"), new Duration(30 * Util.MILIS_IN_MIN));
+		Session[] a2 = stageA.getDayPrograms()[1].getSessions();
+		stageA.getDayPrograms()[1].setSessions(Arrays.copyOfRange(a2, 1, a2.length));
+		stageA.getDayPrograms()[1].getSessions()[0].setUrl("http://example.com/a5");
+		stageB.setShortName("B");
+		target.addLocation("Stage D").addDay(Util.date("03-01-2010")).addSession("Closing",
+				Util.dateTime("03-01-2010 20:00"), new Duration(Util.MILIS_IN_HOUR));
+		stageA.addDay(Util.date("03-01-2010"));
+
+		EventPatch patch = roundTrip(EventPatch.diff(sample(), target));
+		Event patched = sample();
+		patch.apply(patched);
+		ModelAssert.assertEventEquals(target, patched);
+		Session moved = patched.getLocations()[0].getDayPrograms()[0].getSessions()[1];
+		assertSame(moved, moved.getNewVersion().getOldVersion());
+		assertSame(patched.getLocations()[1], patched.getLocation(moved.getNewVersion()));
+	}
+
+	@Test
+	public void testEditedVersion() throws Exception {
+		Event e = sample();
+		Location stageA = e.getLocations()[0];
+		stageA.getDayPrograms()[0].getSessions()[1].change(e.getLocations()[1].getDayPrograms()[0],
+				Util.dateTime("01-01-2010 15:00"), null);
+		EventPublisher publisher = new EventPublisher(e);
+		Event base = publisher.getSnapshot();
+		// the days of the renamed location and of the moved session are shared with the snapshot
+		EventEdit edit = publisher.beginEdit();
+		edit.getEvent().setVersion(2L);
+		edit.getLocation(base.getLocations()[0]).setName("Stage M");
+		Event version = edit.commit();
+		assertSame(base.getLocations()[1], version.getLocations()[1]);
+
+		EventPatch patch = roundTrip(EventPatch.diff(base, version));
+		Event patched = base.copy();
+		patch.apply(patched);
+		ModelAssert.assertEventEquals(version, patched);
+		Session moved = patched.getLocations()[0].getDayPrograms()[0].getSessions()[1];
+		assertEquals("Stage M", patched.getLocation(moved).getName());
+		assertSame(patched.getLocations()[1], patched.getLocation(moved.getNewVersion()));
+	}
+
+	@Test
+	public void testNoChanges() throws Exception {
+		Event target = sample();
+		target.setVersion(2L);
+		EventPatch patch = EventPatch.diff(sample(), target);
+		assertTrue(patch.isEmpty());
+		Event patched = sample();
+		roundTrip(patch).apply(patched);
+		assertEquals(Long.valueOf(2L), patched.getVersion());
+	}
+
+	@Test
+	public void testVersionMismatch() throws Exception {
+		Event target = sample();
+		target.setVersion(2L);
+		EventPatch patch = EventPatch.diff(sample(), target);
+		try {
+			patch.apply(target);
+			fail();
+		} catch (EventModelException e) {
+			assertEquals(EventModelException.PATCH_VERSION_MISMATCH, e.getErrorCode());
+		}
+	}
+
+	@Test
+	public void testFewCorrectionsAreSmall() throws Exception {
+		Event base = SyntheticFestival.create(20, 10, 100);
+		Event target = SyntheticFestival.create(20, 10, 100);
+		target.setVersion(base.getVersion() == null ? 1L : base.getVersion() + 1);
+		for (int i = 0; i < 5; i++) {
+			DayProgram day = target.getLocations()[i * 3].getDayPrograms()[i];
+			Session session = day.getSessions()[i * 7];
+			if (i % 2 == 0) {
+				session.cancel();
+			} else {
+				DateTime start = session.getStart().plusHours(1);
+				session.change(null, start, null);
+			}
+		}
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		EventPatch.diff(base, target).write(bos);
+		assertTrue("patch " + bos.size() + " B", bos.size() < 1000);
+		Event patched = SyntheticFestival.create(20, 10, 100);
+		EventPatch.read(new ByteArrayInputStream(bos.toByteArray())).apply(patched);
+		ModelAssert.assertEventEquals(target, patched);
+	}
+}